@@ -0,0 +1,108 @@
+package jl.fsaratings.benchmark;
+
+import java.io.IOException;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+import org.json.JSONArray;
+import org.json.JSONObject;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import jl.fsaratings.dao.FsaDao;
+import jl.fsaratings.dao.FsaDaoImpl;
+import jl.fsaratings.dao.RatingHistogram;
+import jl.fsaratings.rest.RestHandler;
+
+/**
+ * Measures FsaDaoImpl turning an establishments response into a rating distribution,
+ * from the response body to the finished result, with the network replaced by an
+ * in-memory body.
+ *
+ * The tree model baseline is the original implementation, which parsed the whole response
+ * into org.json objects and counted into a boxed map, kept here so that the streaming
+ * implementation can always be compared against it.
+ *
+ * @author jonny.lyon
+ *
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(value = 1, jvmArgsAppend = { "-Xms12g", "-Xmx12g" })
+public class AggregationBenchmark {
+
+	private static final Long AUTHORITY_ID = 1L;
+
+	@Param({ "100", "10000", "1000000" })
+	private int establishments;
+
+	@Param({ "FHRS", "FHIS" })
+	private String schemeType;
+
+	private RestHandler restHandler;
+
+	private FsaDao dao;
+
+	@Setup
+	public void buildPayload() {
+		restHandler = Payloads.restHandlerFor(Payloads.establishments(establishments, schemeType));
+		dao = new FsaDaoImpl(restHandler);
+	}
+
+	@Benchmark
+	public Map<String, Double> percentages() throws IOException {
+		return dao.fetchRatingPercentagesForAuthority(AUTHORITY_ID);
+	}
+
+	@Benchmark
+	public RatingHistogram counts() throws IOException {
+		return dao.fetchRatingCountsForAuthority(AUTHORITY_ID);
+	}
+
+	@Benchmark
+	public Map<String, Double> treeModelBaseline() throws IOException {
+		JSONArray establishments = restHandler.getEndpointResponse("").getJSONArray("establishments");
+
+		Map<String, Integer> countPerRatingType = new LinkedHashMap<>();
+		if (establishments.length() > 0) {
+			String schemeType = establishments.getJSONObject(0).getString("SchemeType");
+			String[] wanted = schemeType.equals("FHIS")
+					? new String[] { "Pass", "Improvement Required", "Exempt" }
+					: new String[] { "5", "4", "3", "2", "1", "0", "Exempt" };
+			for (String rating : wanted) {
+				countPerRatingType.put(rating, 0);
+			}
+		}
+
+		Integer totalWantedRatingsCount = 0;
+		for (int i = 0; i < establishments.length(); i++) {
+			JSONObject establishment = establishments.getJSONObject(i);
+			String ratingValue = establishment.getString("RatingValue");
+			if (countPerRatingType.containsKey(ratingValue)) {
+				countPerRatingType.put(ratingValue, countPerRatingType.get(ratingValue) + 1);
+				totalWantedRatingsCount++;
+			}
+		}
+
+		Map<String, Double> result = new LinkedHashMap<>();
+		if (totalWantedRatingsCount > 0) {
+			for (Map.Entry<String, Integer> entry : countPerRatingType.entrySet()) {
+				result.put(entry.getKey(), (double) (entry.getValue() * 100) / totalWantedRatingsCount);
+			}
+		}
+		return result;
+	}
+}
@@ -0,0 +1,33 @@
+package jl.fsaratings.benchmark;
+
+import org.openjdk.jmh.profile.GCProfiler;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.RunnerException;
+import org.openjdk.jmh.runner.options.CommandLineOptionException;
+import org.openjdk.jmh.runner.options.CommandLineOptions;
+import org.openjdk.jmh.runner.options.Options;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+
+/**
+ * Entry point of the benchmarks jar.  Accepts the usual JMH command line options, and
+ * always adds the GC profiler so that every result comes with its allocation rate
+ * (gc.alloc.rate.norm, in bytes per operation) as well as its time.
+ *
+ * Usage: java -jar benchmarks.jar [JMH options] [benchmark regex]
+ *
+ * @author jonny.lyon
+ *
+ */
+public class BenchmarkRunner {
+
+	/**
+	 * @param args JMH command line options
+	 */
+	public static void main(String[] args) throws CommandLineOptionException, RunnerException {
+		Options options = new OptionsBuilder()
+				.parent(new CommandLineOptions(args))
+				.addProfiler(GCProfiler.class)
+				.build();
+		new Runner(options).run();
+	}
+}
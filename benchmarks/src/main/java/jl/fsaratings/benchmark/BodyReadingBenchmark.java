@@ -0,0 +1,105 @@
+package jl.fsaratings.benchmark;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.nio.charset.StandardCharsets;
+import java.util.concurrent.TimeUnit;
+
+import org.json.JSONObject;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import com.sun.net.httpserver.HttpServer;
+
+import jl.fsaratings.rest.PooledRestHandler;
+import jl.fsaratings.rest.ResponseBody;
+import jl.fsaratings.rest.RestHandler;
+import jl.fsaratings.rest.RestHandlerImpl;
+
+/**
+ * Measures getEndpointResponse reading and parsing a response body served over loopback
+ * HTTP by an embedded server, for both REST handlers, and ResponseBody reading the same
+ * body from memory to isolate the cost of the buffer from that of the connection.
+ *
+ * @author jonny.lyon
+ *
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(value = 1, jvmArgsAppend = { "-Xms12g", "-Xmx12g" })
+public class BodyReadingBenchmark {
+
+	@Param({ "100", "10000", "1000000" })
+	private int establishments;
+
+	private byte[] body;
+
+	private HttpServer server;
+
+	private String endpointUrl;
+
+	private RestHandler restHandlerImpl;
+
+	private RestHandler pooledRestHandler;
+
+	private ResponseBody responseBody;
+
+	@Setup
+	public void startServer() throws IOException {
+		body = Payloads.establishments(establishments, "FHRS");
+
+		server = HttpServer.create(new InetSocketAddress(InetAddress.getLoopbackAddress(), 0), 0);
+		server.createContext("/establishments", exchange -> {
+			exchange.getResponseHeaders().set("Content-Type", "application/json");
+			exchange.sendResponseHeaders(200, body.length);
+			try (OutputStream out = exchange.getResponseBody()) {
+				out.write(body);
+			}
+		});
+		server.start();
+		endpointUrl = "http://127.0.0.1:" + server.getAddress().getPort() + "/establishments";
+
+		restHandlerImpl = new RestHandlerImpl();
+		pooledRestHandler = new PooledRestHandler();
+		responseBody = new ResponseBody();
+	}
+
+	@TearDown
+	public void stopServer() {
+		server.stop(0);
+	}
+
+	@Benchmark
+	public JSONObject restHandlerImpl() throws IOException {
+		return restHandlerImpl.getEndpointResponse(endpointUrl);
+	}
+
+	@Benchmark
+	public JSONObject pooledRestHandler() throws IOException {
+		return pooledRestHandler.getEndpointResponse(endpointUrl);
+	}
+
+	@Benchmark
+	public int responseBodyFromMemory() throws IOException {
+		responseBody.readFrom(new ByteArrayInputStream(body), StandardCharsets.UTF_8, body.length);
+		int length = responseBody.length();
+		responseBody.clear();
+		return length;
+	}
+}
@@ -0,0 +1,80 @@
+package jl.fsaratings.benchmark;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import jl.fsaratings.dao.EstablishmentRatings;
+import jl.fsaratings.dao.RatingHistogram;
+import jl.fsaratings.store.ColumnarEstablishmentStore;
+
+/**
+ * Measures ColumnarEstablishmentStore counting the combined distribution of every
+ * authority in a store of national size, straight from the mapped file.
+ *
+ * @author jonny.lyon
+ *
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(value = 1, jvmArgsAppend = { "-Xms12g", "-Xmx12g" })
+public class ColumnarScanBenchmark {
+
+	@Param({ "400" })
+	private int authorities;
+
+	@Param({ "1000", "5000" })
+	private int establishmentsPerAuthority;
+
+	private Path file;
+
+	private ColumnarEstablishmentStore store;
+
+	private List<Long> authorityIds;
+
+	@Setup
+	public void buildStore() throws IOException {
+		Map<Long, EstablishmentRatings> ratings = new HashMap<>();
+		for (long authorityId = 1; authorityId <= authorities; authorityId++) {
+			EstablishmentRatings authority = new EstablishmentRatings();
+			for (int i = 0; i < establishmentsPerAuthority; i++) {
+				authority.put(authorityId * 1000000 + i, RatingHistogram.Scheme.FHRS, i % RatingHistogram.RATING_COUNT);
+			}
+			ratings.put(authorityId, authority);
+		}
+		file = Files.createTempFile("columnar-benchmark", ".col");
+		ColumnarEstablishmentStore.write(file, ratings);
+		store = ColumnarEstablishmentStore.open(file);
+		authorityIds = store.getAuthorityIds();
+	}
+
+	@TearDown
+	public void deleteStore() throws IOException {
+		Files.deleteIfExists(file);
+	}
+
+	@Benchmark
+	public RatingHistogram allAuthorities() {
+		return store.getCounts(authorityIds);
+	}
+}
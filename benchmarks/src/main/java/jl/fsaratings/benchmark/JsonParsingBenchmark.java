@@ -0,0 +1,62 @@
+package jl.fsaratings.benchmark;
+
+import java.io.IOException;
+import java.util.concurrent.TimeUnit;
+
+import org.json.JSONObject;
+import org.json.JSONTokener;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import jl.fsaratings.json.JsonStreamReader;
+
+/**
+ * Compares the cost of parsing an establishments response into an org.json tree, as
+ * the authorities lookup still does, with passing over it once with the streaming reader.
+ *
+ * @author jonny.lyon
+ *
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(value = 1, jvmArgsAppend = { "-Xms12g", "-Xmx12g" })
+public class JsonParsingBenchmark {
+
+	@Param({ "100", "10000", "1000000" })
+	private int establishments;
+
+	@Param({ "FHRS", "FHIS" })
+	private String schemeType;
+
+	private byte[] body;
+
+	@Setup
+	public void buildPayload() {
+		body = Payloads.establishments(establishments, schemeType);
+	}
+
+	@Benchmark
+	public JSONObject treeModel() {
+		return new JSONObject(new JSONTokener(Payloads.reader(body)));
+	}
+
+	@Benchmark
+	public JsonStreamReader streaming() throws IOException {
+		try (JsonStreamReader reader = new JsonStreamReader(Payloads.reader(body))) {
+			reader.skipValue();
+			return reader;
+		}
+	}
+}
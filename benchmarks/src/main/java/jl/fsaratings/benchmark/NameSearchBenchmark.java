@@ -0,0 +1,86 @@
+package jl.fsaratings.benchmark;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import jl.fsaratings.ui.NameSearchIndex;
+
+/**
+ * Measures NameSearchIndex answering the keystrokes of typing a name, one query per
+ * keystroke, against a linear scan of every name, at the size of the authority list and
+ * at the size of a list of establishments.
+ *
+ * @author jonny.lyon
+ *
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class NameSearchBenchmark {
+
+	private static final String[] WORDS = { "Royal", "Oak", "Red", "Lion", "Fish", "Chips", "Spice", "House", "Cafe",
+			"Kitchen", "Bar", "Grill", "Bakery", "Tandoori", "Garden", "Crown", "Anchor", "Dragon", "Pizza", "Deli" };
+
+	@Param({ "400", "50000" })
+	private int names;
+
+	@Param({ "tandoori garden" })
+	private String typed;
+
+	private List<String> nameList;
+
+	private NameSearchIndex index;
+
+	@Setup
+	public void buildIndex() {
+		Random random = new Random(42);
+		nameList = new ArrayList<>(names);
+		for (int i = 0; i < names; i++) {
+			nameList.add(WORDS[random.nextInt(WORDS.length)] + " " + WORDS[random.nextInt(WORDS.length)] + " " + i);
+		}
+		index = new NameSearchIndex(nameList);
+	}
+
+	/**
+	 * @return the total matches over every keystroke, so that nothing is optimised away
+	 */
+	@Benchmark
+	public int indexPerKeystroke() {
+		int matches = 0;
+		for (int length = 1; length <= typed.length(); length++) {
+			matches += index.search(typed.substring(0, length)).length;
+		}
+		return matches;
+	}
+
+	@Benchmark
+	public int scanPerKeystroke() {
+		int matches = 0;
+		for (int length = 1; length <= typed.length(); length++) {
+			String query = typed.substring(0, length);
+			for (String name : nameList) {
+				if (name.toLowerCase().contains(query)) {
+					matches++;
+				}
+			}
+		}
+		return matches;
+	}
+}
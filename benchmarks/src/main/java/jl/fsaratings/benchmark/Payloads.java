@@ -0,0 +1,97 @@
+package jl.fsaratings.benchmark;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.Reader;
+import java.nio.charset.StandardCharsets;
+
+import org.json.JSONObject;
+import org.json.JSONTokener;
+
+import jl.fsaratings.rest.RestHandler;
+
+/**
+ * Builds synthetic establishments responses in the shape returned by the FSA API, for
+ * use as benchmark inputs.
+ *
+ * Each establishment carries the properties the DAO reads (SchemeType and RatingValue)
+ * among the kind of unrelated properties and nested objects the real API returns, so that
+ * parsers have to skip over realistic content.  Ratings cycle through every value of the
+ * scheme, including ones the DAO does not count, such as "Awaiting Inspection".
+ *
+ * @author jonny.lyon
+ *
+ */
+final class Payloads {
+
+	private static final String[] FHRS_RATINGS = { "5", "4", "3", "2", "1", "0", "Exempt", "Awaiting Inspection" };
+
+	private static final String[] FHIS_RATINGS = { "Pass", "Improvement Required", "Exempt", "Awaiting Inspection" };
+
+	private Payloads() {
+	}
+
+	/**
+	 * Builds an establishments response as UTF-8 bytes
+	 *
+	 * @param establishments the number of establishments in the response
+	 * @param schemeType "FHRS" or "FHIS"
+	 * @return the response body
+	 */
+	static byte[] establishments(int establishments, String schemeType) {
+		String[] ratings = "FHIS".equals(schemeType) ? FHIS_RATINGS : FHRS_RATINGS;
+		StringBuilder json = new StringBuilder(establishments * 420 + 256);
+		json.append("{\"establishments\":[");
+		for (int i = 0; i < establishments; i++) {
+			if (i > 0) {
+				json.append(',');
+			}
+			json.append("{\"FHRSID\":").append(100000 + i)
+				.append(",\"LocalAuthorityBusinessID\":\"PI/").append(i).append('"')
+				.append(",\"BusinessName\":\"Establishment \\\"").append(i).append("\\\"\"")
+				.append(",\"BusinessType\":\"Restaurant/Cafe/Canteen\",\"BusinessTypeID\":1")
+				.append(",\"AddressLine1\":\"").append(i).append(" High Street\",\"AddressLine2\":\"York\"")
+				.append(",\"PostCode\":\"YO1 7HH\",\"Phone\":\"\"")
+				.append(",\"RatingValue\":\"").append(ratings[i % ratings.length]).append('"')
+				.append(",\"RatingKey\":\"fhrs_5_en-gb\",\"RatingDate\":\"2016-03-01T00:00:00\"")
+				.append(",\"LocalAuthorityCode\":\"").append(i % 400).append('"')
+				.append(",\"scores\":{\"Hygiene\":5,\"Structural\":").append(i % 3 == 0 ? "null" : "10")
+				.append(",\"ConfidenceInManagement\":5}")
+				.append(",\"SchemeType\":\"").append(schemeType).append('"')
+				.append(",\"geocode\":{\"longitude\":\"-1.0815\",\"latitude\":\"53.9590\"}")
+				.append(",\"RightToReply\":\"\",\"Distance\":null,\"NewRatingPending\":false")
+				.append(",\"links\":[{\"rel\":\"self\",\"href\":\"http://api.ratings.food.gov.uk/establishments/")
+				.append(100000 + i).append("\"}]}");
+		}
+		json.append("],\"meta\":{\"dataSource\":\"Lucene\",\"totalCount\":").append(establishments)
+			.append(",\"itemCount\":").append(establishments).append("},\"links\":[]}");
+		return json.toString().getBytes(StandardCharsets.UTF_8);
+	}
+
+	/**
+	 * @param body a response body
+	 * @return a Reader decoding the body, as the REST handlers do for a live response
+	 */
+	static Reader reader(byte[] body) {
+		return new InputStreamReader(new ByteArrayInputStream(body), StandardCharsets.UTF_8);
+	}
+
+	/**
+	 * A RestHandler which answers every request with the same in-memory body, so that
+	 * DAO benchmarks measure parsing and aggregation rather than the network.
+	 */
+	static RestHandler restHandlerFor(byte[] body) {
+		return new RestHandler() {
+			@Override
+			public JSONObject getEndpointResponse(String endpointUrl) throws IOException {
+				return new JSONObject(new JSONTokener(reader(body)));
+			}
+
+			@Override
+			public Reader getEndpointReader(String endpointUrl) throws IOException {
+				return reader(body);
+			}
+		};
+	}
+}
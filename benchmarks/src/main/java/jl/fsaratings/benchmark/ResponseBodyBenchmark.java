@@ -0,0 +1,130 @@
+package jl.fsaratings.benchmark;
+
+import java.io.BufferedReader;
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.nio.charset.StandardCharsets;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+
+import jl.fsaratings.rest.ResponseBody;
+
+/**
+ * Compares the original line-by-line String concatenation used to read response bodies
+ * with the reusable ResponseBody buffer.  Both read a canned, pretty-printed establishments
+ * payload held in memory, so only the body reading is measured and not the network.
+ *
+ * The original approach copies the whole body so far for every line, so its cost grows
+ * with the square of the payload size, and reading a full 50MB payload that way would take
+ * hours.  It is only measured up to 1MB; its cost at 50MB can be estimated from the 1MB
+ * result by multiplying by 50 squared.
+ *
+ * @author jonny.lyon
+ *
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 2, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class ResponseBodyBenchmark {
+
+	private static final String[] RATINGS = { "5", "4", "3", "2", "1", "0", "Exempt", "Awaiting Inspection" };
+
+	/**
+	 * Payloads read by the original approach, up to 1MB
+	 */
+	@State(Scope.Benchmark)
+	public static class LegacyPayload {
+
+		@Param({ "128", "256", "512", "1024" })
+		private int legacySizeKb;
+
+		private byte[] payload;
+
+		@Setup
+		public void buildPayload() {
+			payload = prettyPrinted(legacySizeKb * 1024);
+		}
+	}
+
+	/**
+	 * Payloads read by ResponseBody, the same sizes as the original approach up to the full 50MB
+	 */
+	@State(Scope.Benchmark)
+	public static class BufferedPayload {
+
+		@Param({ "128", "256", "512", "1024", "51200" })
+		private int sizeKb;
+
+		private byte[] payload;
+
+		private ResponseBody body;
+
+		@Setup
+		public void buildPayload() {
+			payload = prettyPrinted(sizeKb * 1024);
+			body = new ResponseBody();
+		}
+	}
+
+	/**
+	 * The original RestHandlerImpl body reading loop
+	 */
+	@Benchmark
+	public void stringConcatenation(LegacyPayload state, Blackhole blackhole) throws IOException {
+		String fullOutput = "";
+		BufferedReader br = new BufferedReader(new InputStreamReader(new ByteArrayInputStream(state.payload)));
+		String output;
+		while ((output = br.readLine()) != null) {
+			fullOutput += "\n" + output;
+		}
+		blackhole.consume(fullOutput);
+	}
+
+	@Benchmark
+	public void responseBody(BufferedPayload state, Blackhole blackhole) throws IOException {
+		state.body.readFrom(new ByteArrayInputStream(state.payload), StandardCharsets.UTF_8, state.payload.length);
+		blackhole.consume(state.body.chars());
+		state.body.clear();
+	}
+
+	/**
+	 * Builds a pretty-printed establishments response of roughly the size given, one
+	 * property per line in the way the API formats responses when viewed in a browser.
+	 */
+	private static byte[] prettyPrinted(int size) {
+		StringBuilder json = new StringBuilder(size + 1024);
+		json.append("{\n  \"establishments\": [\n");
+		for (int i = 0; json.length() < size; i++) {
+			if (i > 0) {
+				json.append(",\n");
+			}
+			json.append("    {\n")
+				.append("      \"FHRSID\": ").append(100000 + i).append(",\n")
+				.append("      \"BusinessName\": \"Establishment ").append(i).append("\",\n")
+				.append("      \"BusinessType\": \"Restaurant/Cafe/Canteen\",\n")
+				.append("      \"AddressLine1\": \"").append(i).append(" High Street\",\n")
+				.append("      \"PostCode\": \"YO1 7HH\",\n")
+				.append("      \"RatingValue\": \"").append(RATINGS[i % RATINGS.length]).append("\",\n")
+				.append("      \"RatingDate\": \"2016-03-01T00:00:00\",\n")
+				.append("      \"SchemeType\": \"FHRS\"\n")
+				.append("    }");
+		}
+		json.append("\n  ]\n}\n");
+		return json.toString().getBytes(StandardCharsets.UTF_8);
+	}
+}
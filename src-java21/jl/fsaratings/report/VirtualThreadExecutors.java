@@ -0,0 +1,26 @@
+package jl.fsaratings.report;
+
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+/**
+ * Creates executors which run each task on a new virtual thread.  Compiled only by the
+ * java21 Maven profile, and reached through ExecutionMode.VIRTUAL, so that nothing else
+ * depends on Java 21.
+ *
+ * @author jonny.lyon
+ *
+ */
+public final class VirtualThreadExecutors {
+
+	private VirtualThreadExecutors() {
+	}
+
+	/**
+	 * @param prefix the thread name prefix; threads are numbered from 1
+	 * @return an executor starting a new virtual thread for each task
+	 */
+	public static ExecutorService newThreadPerTaskExecutor(String prefix) {
+		return Executors.newThreadPerTaskExecutor(Thread.ofVirtual().name(prefix + "-", 1).factory());
+	}
+}
@@ -1,13 +1,49 @@
 package jl.fsaratings;
 
+import java.awt.event.ActionEvent;
+import java.awt.event.ActionListener;
 import java.awt.event.ItemEvent;
 import java.awt.event.ItemListener;
 import java.io.IOException;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
 import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.Executor;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReference;
 
+import javax.swing.SwingUtilities;
+
+import jl.fsaratings.dao.AsyncFsaDao;
+import jl.fsaratings.dao.AsyncFsaDaoImpl;
+import jl.fsaratings.dao.AuthorityComparison;
+import jl.fsaratings.dao.CachingFsaDao;
+import jl.fsaratings.dao.CoalescingFsaDao;
 import jl.fsaratings.dao.FsaDao;
 import jl.fsaratings.dao.FsaDaoImpl;
-import jl.fsaratings.rest.RestHandlerImpl;
+import jl.fsaratings.dao.HistoryFsaDao;
+import jl.fsaratings.dao.SnapshotFsaDao;
+import jl.fsaratings.metrics.Metrics;
+import jl.fsaratings.report.BulkRatingReport;
+import jl.fsaratings.rest.PooledRestHandler;
+import jl.fsaratings.rest.ResilientRestHandler;
+import jl.fsaratings.rest.RestHandler;
+import jl.fsaratings.rest.ThrottlingRestHandler;
+import jl.fsaratings.server.RatingsServer;
+import jl.fsaratings.store.ColumnarEstablishmentStore;
+import jl.fsaratings.store.EstablishmentRatingsStore;
+import jl.fsaratings.store.HttpResponseCache;
+import jl.fsaratings.store.RatingHistoryStore;
+import jl.fsaratings.store.SnapshotStore;
+import jl.fsaratings.stubapi.StubFsaApiServer;
 import jl.fsaratings.ui.FsaRatingsUI;
 import jl.fsaratings.ui.FsaRatingsUIImpl;
 
@@ -17,78 +53,292 @@ import jl.fsaratings.ui.FsaRatingsUIImpl;
  * @author jonny.lyon
  *
  */
-public class FsaRatings implements ItemListener {
+public class FsaRatings implements ItemListener, ActionListener {
+
+	/**
+	 * Location of the snapshot of previously fetched data, used for fast and offline startup
+	 */
+	private static final Path SNAPSHOT_FILE = Paths.get(System.getProperty("user.home"), ".fsaratings", "snapshot.bin");
+
+	/**
+	 * Location of the establishment ratings kept for incremental refresh, where configured
+	 */
+	private static final Path ESTABLISHMENTS_DIRECTORY = Paths.get(System.getProperty("user.home"), ".fsaratings", "establishments");
+
+	/**
+	 * Location of the response cache, used to make API requests conditional on what has already been fetched
+	 */
+	private static final Path RESPONSES_DIRECTORY = Paths.get(System.getProperty("user.home"), ".fsaratings", "responses");
+
+	/**
+	 * Location of the history of every authority's rating counts, recorded on each fetch
+	 */
+	private static final Path HISTORY_FILE = Paths.get(System.getProperty("user.home"), ".fsaratings", "history.bin");
+
+	/**
+	 * Establishments are fetched in pages of this size, so that partial results can be shown
+	 */
+	private static final int PAGE_SIZE = 1000;
+
+	/**
+	 * Maximum number of pages of one authority fetched at once
+	 */
+	private static final int PAGE_CONCURRENCY = 4;
 
 	/**
 	 * This map holds the authority ID for each authority.  It is indexed by
 	 * the authority name, under the assumption that these are unique.
+	 * Only accessed on the UI thread.
 	 */
-	private Map<String, Long> authorities;
+	private Map<String, Long> authorities = Collections.emptyMap();
 
 	private final FsaRatingsUI ui;
 
-	private final FsaDao fsaDao;
+	private final AsyncFsaDao fsaDao;
+
+	/**
+	 * Runs tasks on the UI thread.  All results from the DAO are passed to the UI through this.
+	 */
+	private final Executor uiExecutor;
+
+	/**
+	 * The results request for the current selection, if it has not completed yet.
+	 * Only accessed on the UI thread.
+	 */
+	private CompletableFuture<Map<String, Double>> pendingResults;
+
+	/**
+	 * The comparison request, if it has not completed yet.  Only accessed on the UI thread.
+	 */
+	private CompletableFuture<AuthorityComparison> pendingComparison;
+
+	/**
+	 * Constructor for FsaRatings class which performs all DAO calls and UI updates on the
+	 * calling thread.
+	 *
+	 * @param fsaDao the Data Access Object used to get the relevant API data
+	 * @param ui the UI component
+	 */
+	public FsaRatings(FsaDao fsaDao, FsaRatingsUI ui) {
+		this(new AsyncFsaDaoImpl(fsaDao, Runnable::run), ui, Runnable::run);
+	}
 
 	/**
 	 * Constructor for FsaRatings class, which acts effectively as an app controller.
 	 *
-	 * Retrieves the list of authorities and provides it to the UI.  Also sets up
-	 * a listener relationship with the UI.
+	 * Starts retrieving the list of authorities, providing it to the UI once available.
+	 * Also sets up a listener relationship with the UI.
 	 *
 	 * @param fsaDao the Data Access Object used to get the relevant API data
 	 * @param ui the UI component
+	 * @param uiExecutor runs tasks on the UI thread, e.g. SwingUtilities::invokeLater
 	 */
-	public FsaRatings(FsaDao fsaDao, FsaRatingsUI ui) {
+	public FsaRatings(AsyncFsaDao fsaDao, FsaRatingsUI ui, Executor uiExecutor) {
 		this.fsaDao = fsaDao;
 		this.ui = ui;
+		this.uiExecutor = uiExecutor;
 
-		try {
-			authorities = fsaDao.fetchAuthorityNamesWithIds();
-			ui.populateAuthoritiesList(authorities.keySet());
-		} catch (IOException e) {
-			ui.notifyErrorLoadingAuthorities();
-		}
+		fsaDao.fetchAuthorityNamesWithIds().whenCompleteAsync((result, error) -> {
+			if (error != null) {
+				ui.notifyErrorLoadingAuthorities();
+			} else {
+				authorities = result;
+				ui.populateAuthoritiesList(authorities.keySet());
+			}
+		}, uiExecutor);
 
 		ui.addItemListener(this);
+		ui.addCompareListener(this);
 	}
 
 	/**
 	 * Main method for app.  Instantiates the components and their relationships.
 	 *
-	 * @param args (no command line args are available)
+	 * With no arguments, starts the UI.  With "report" as the first argument, produces
+	 * a bulk report of all authorities instead; see BulkRatingReport for its arguments.
+	 * With "serve", starts a headless HTTP server instead; see RatingsServer.  With
+	 * "stub-api", starts a local stand-in for the FSA API; see StubFsaApiServer.  With
+	 * "store", builds or queries a local columnar store; see ColumnarEstablishmentStore.
+	 * With "history", queries the recorded history of rating counts; see RatingHistoryStore.
+	 *
+	 * With -Dfsaratings.metrics=true, the stage timings are recorded and published over JMX
+	 * in every mode; see Metrics.
+	 *
+	 * @param args the command line arguments
+	 */
+	public static void main(String[] args) throws Exception {
+		if (Metrics.ENABLED) {
+			Metrics.registerMBean();
+		}
+		if (args.length > 0 && args[0].equals("report")) {
+			BulkRatingReport.main(Arrays.copyOfRange(args, 1, args.length));
+			return;
+		} else if (args.length > 0 && args[0].equals("serve")) {
+			RatingsServer.main(Arrays.copyOfRange(args, 1, args.length));
+			return;
+		} else if (args.length > 0 && args[0].equals("stub-api")) {
+			StubFsaApiServer.main(Arrays.copyOfRange(args, 1, args.length));
+			return;
+		} else if (args.length > 0 && args[0].equals("store")) {
+			ColumnarEstablishmentStore.main(Arrays.copyOfRange(args, 1, args.length));
+			return;
+		} else if (args.length > 0 && args[0].equals("history")) {
+			RatingHistoryStore.main(Arrays.copyOfRange(args, 1, args.length));
+			return;
+		}
+
+		AtomicInteger pageThreadCount = new AtomicInteger();
+		Executor pageExecutor = Executors.newFixedThreadPool(PAGE_CONCURRENCY, r -> {
+			Thread thread = new Thread(r, "fsa-page-" + pageThreadCount.incrementAndGet());
+			thread.setDaemon(true);
+			return thread;
+		});
+		RestHandler restHandler = new ResilientRestHandler(new ThrottlingRestHandler(new PooledRestHandler()));
+		EstablishmentRatingsStore ratingsStore = FsaDaoImpl.isIncrementalRefreshConfigured()
+				? new EstablishmentRatingsStore(ESTABLISHMENTS_DIRECTORY)
+				: null;
+		FsaDaoImpl apiDao = new FsaDaoImpl(restHandler, PAGE_SIZE, pageExecutor, ratingsStore,
+				new HttpResponseCache(RESPONSES_DIRECTORY));
+		FsaDao historyDao = apiDao;
+		try {
+			RatingHistoryStore history = RatingHistoryStore.open(HISTORY_FILE);
+			Runtime.getRuntime().addShutdownHook(new Thread(() -> {
+				try {
+					history.close();
+				} catch (IOException e) {
+					// the records not yet written are lost, leaving a gap in the history
+				}
+			}, "fsa-history-close"));
+			historyDao = new HistoryFsaDao(apiDao, history);
+		} catch (IOException e) {
+			System.err.println("Not recording history, as " + HISTORY_FILE + " cannot be opened: " + e.getMessage());
+		}
+		SnapshotFsaDao snapshotDao = new SnapshotFsaDao(historyDao, new SnapshotStore(SNAPSHOT_FILE),
+				Executors.newSingleThreadExecutor(r -> {
+					Thread thread = new Thread(r, "fsa-snapshot-reconcile");
+					thread.setDaemon(true);
+					return thread;
+				}));
+		FsaDao dao = new CachingFsaDao(new CoalescingFsaDao(snapshotDao));
+		FsaRatings app = new FsaRatings(new AsyncFsaDaoImpl(dao), new FsaRatingsUIImpl(), SwingUtilities::invokeLater);
+		snapshotDao.reconcileAuthorities(app::refreshAuthorities);
+	}
+
+	/**
+	 * Replaces the list of authorities, for example when a newer list has been fetched
+	 * after startup.  May be called from any thread; the UI is updated on the UI thread.
+	 *
+	 * @param authorities the new authorities map
 	 */
-	public static void main(String[] args) throws IOException {
-		FsaDao dao = new FsaDaoImpl(new RestHandlerImpl());
-		FsaRatings app = new FsaRatings(dao, new FsaRatingsUIImpl());
+	public void refreshAuthorities(Map<String, Long> authorities) {
+		uiExecutor.execute(() -> {
+			this.authorities = authorities;
+			ui.populateAuthoritiesList(authorities.keySet());
+		});
 	}
 
 	/**
-	 * Retrieves the rating percentage information for the specified authority
-	 * and provides it to the UI.  Also handles various edge case and exception
-	 * scenarios and informs the UI as appropriate
+	 * Starts retrieving the rating percentage information for the specified authority,
+	 * providing it to the UI once available.  Also handles various edge case and exception
+	 * scenarios and informs the UI as appropriate.
+	 *
+	 * Where the DAO fetches establishments a page at a time, the partial distribution is
+	 * displayed after each page, so the first numbers appear before the last page arrives.
+	 *
+	 * Any request still in flight for a previous selection is cancelled, and its results,
+	 * partial or complete, are never displayed.
 	 *
 	 * @param authorityName the specified authority
 	 */
 	private void selectResults(String authorityName) {
-		Long authorityId = authorities.get(authorityName);
+		if (pendingResults != null) {
+			pendingResults.cancel(true);
+			pendingResults = null;
+		}
+
+		Long authorityId = authorityName == null ? null : authorities.get(authorityName);
 		if (authorityId == null) {
-			// Example scenario is if the Please Select option is selected on the UI
+			// Example scenario is if the selection is cleared because the authority has gone
 			ui.clearResultMessage();
-		} else {
-			Map<String, Double> results;
-			try {
-				results = fsaDao.fetchRatingPercentagesForAuthority(authorityId);
-				if (results.size() == 0) {
-					ui.displayNoResultsMessage(authorityName);
-				} else {
-					ui.displayResults(results);
-				}
-			} catch (IOException e) {
-				ui.displayResultError(authorityName);
-			} catch (NullPointerException e) {
+			return;
+		}
+
+		AtomicReference<CompletableFuture<Map<String, Double>>> self = new AtomicReference<>();
+		CompletableFuture<Map<String, Double>> request = fsaDao.fetchRatingPercentagesForAuthority(authorityId,
+				partial -> uiExecutor.execute(() -> {
+					// ignored if superseded, or if the request has already completed
+					if (pendingResults != null && pendingResults == self.get() && !partial.isEmpty()) {
+						ui.displayResults(authorityName, partial);
+					}
+				}));
+		self.set(request);
+		pendingResults = request;
+		request.whenCompleteAsync((results, error) -> {
+			if (pendingResults != request) {
+				// superseded by a newer selection
+				return;
+			}
+			pendingResults = null;
+
+			if (error != null) {
 				ui.displayResultError(authorityName);
+			} else if (results.size() == 0) {
+				ui.displayNoResultsMessage(authorityName);
+			} else {
+				ui.displayResults(authorityName, results);
+			}
+		}, uiExecutor);
+	}
+
+	/**
+	 * Starts retrieving the rating percentage information for each of the specified
+	 * authorities at once, providing them to the UI side by side once all are available.
+	 * Authorities whose results cannot be retrieved are reported to the UI alongside the
+	 * results of the others.
+	 *
+	 * Any comparison still in flight is cancelled, and its results are never displayed.
+	 *
+	 * @param authorityNames the specified authorities, in the order to compare them
+	 */
+	private void compareResults(List<String> authorityNames) {
+		if (pendingComparison != null) {
+			pendingComparison.cancel(true);
+			pendingComparison = null;
+		}
+
+		Map<Long, String> names = new LinkedHashMap<>();
+		for (String authorityName : authorityNames) {
+			Long authorityId = authorities.get(authorityName);
+			if (authorityId != null) {
+				names.put(authorityId, authorityName);
 			}
 		}
+
+		CompletableFuture<AuthorityComparison> request = fsaDao.fetchRatingPercentagesForAuthorities(names.keySet());
+		pendingComparison = request;
+		request.whenCompleteAsync((comparison, error) -> {
+			if (pendingComparison != request) {
+				// superseded by a newer comparison
+				return;
+			}
+			pendingComparison = null;
+
+			Map<String, Map<String, Double>> distributions = new LinkedHashMap<>();
+			comparison.getDistributions().forEach((authorityId, results) -> distributions.put(names.get(authorityId), results));
+			Set<String> failed = new LinkedHashSet<>();
+			comparison.getFailures().keySet().forEach(authorityId -> failed.add(names.get(authorityId)));
+			ui.displayComparison(distributions, comparison.getCombinedDistribution(), failed);
+		}, uiExecutor);
+	}
+
+	/**
+	 * This method handles requests to compare authorities on the UI.
+	 *
+	 * @param e the UI event
+	 */
+	@Override
+	public void actionPerformed(ActionEvent e) {
+		compareResults(ui.getComparedAuthorityNames());
 	}
 
 	/**
@@ -1,21 +1,33 @@
 package jl.fsaratings;
 
 import static org.easymock.EasyMock.anyObject;
+import static org.easymock.EasyMock.capture;
 import static org.easymock.EasyMock.createStrictMock;
+import static org.easymock.EasyMock.eq;
 import static org.easymock.EasyMock.expect;
 import static org.easymock.EasyMock.expectLastCall;
+import static org.easymock.EasyMock.newCapture;
 import static org.easymock.EasyMock.replay;
+import static org.easymock.EasyMock.reset;
 import static org.easymock.EasyMock.verify;
+import static org.junit.Assert.assertTrue;
 
 import java.io.IOException;
+import java.util.Arrays;
+import java.util.Collections;
 import java.util.LinkedHashMap;
 import java.util.Map;
 import java.util.TreeMap;
+import java.util.concurrent.CompletableFuture;
+import java.util.function.Consumer;
 
+import org.easymock.Capture;
 import org.junit.Before;
 import org.junit.Test;
 
+import jl.fsaratings.dao.AsyncFsaDao;
 import jl.fsaratings.dao.FsaDao;
+import jl.fsaratings.dao.RatingHistogram;
 import jl.fsaratings.ui.FsaRatingsUI;
 
 /**
@@ -56,6 +68,8 @@ public class FsaRatingsTest {
 		expectLastCall();
 		ui.addItemListener(anyObject(FsaRatings.class));
 		expectLastCall();
+		ui.addCompareListener(anyObject(FsaRatings.class));
+		expectLastCall();
 		replay(ui);
 
 		new FsaRatings(fsaDao, ui);
@@ -72,6 +86,8 @@ public class FsaRatingsTest {
 		expectLastCall();
 		ui.addItemListener(anyObject(FsaRatings.class));
 		expectLastCall();
+		ui.addCompareListener(anyObject(FsaRatings.class));
+		expectLastCall();
 		replay(ui);
 
 		new FsaRatings(fsaDao, ui);
@@ -85,13 +101,14 @@ public class FsaRatingsTest {
 		Map<String,Double> mockedPercentages = buildFakePercentages();
 
 		expect(fsaDao.fetchAuthorityNamesWithIds()).andReturn(mockedAuthorities).once();
-		expect(fsaDao.fetchRatingPercentagesForAuthority(2L)).andReturn(mockedPercentages).once();
+		expect(fsaDao.fetchRatingPercentagesForAuthority(eq(2L), anyObject())).andReturn(mockedPercentages).once();
 		replay(fsaDao);
 
 		ui.populateAuthoritiesList(mockedAuthorities.keySet());
 		ui.addItemListener(anyObject());
+		ui.addCompareListener(anyObject());
 		expect(ui.getSelectedAuthorityName()).andReturn("York").once();
-		ui.displayResults(mockedPercentages);
+		ui.displayResults("York", mockedPercentages);
 		expectLastCall();
 		replay(ui);
 
@@ -111,6 +128,7 @@ public class FsaRatingsTest {
 
 		ui.populateAuthoritiesList(mockedAuthorities.keySet());
 		ui.addItemListener(anyObject());
+		ui.addCompareListener(anyObject());
 		expect(ui.getSelectedAuthorityName()).andReturn("Please Select").once();
 		ui.clearResultMessage();;
 		replay(ui);
@@ -121,16 +139,38 @@ public class FsaRatingsTest {
 		verify();
 	}
 
+	@Test
+	public void testFsaRatingsClearsResultsIfSelectionIsCleared() throws IOException {
+		Map<String,Long> mockedAuthorities = buildFakeAuthorities();
+
+		expect(fsaDao.fetchAuthorityNamesWithIds()).andReturn(mockedAuthorities).once();
+		replay(fsaDao);
+
+		ui.populateAuthoritiesList(mockedAuthorities.keySet());
+		ui.addItemListener(anyObject());
+		ui.addCompareListener(anyObject());
+		expect(ui.getSelectedAuthorityName()).andReturn(null).once();
+		ui.clearResultMessage();
+		replay(ui);
+
+		FsaRatings instance = new FsaRatings(fsaDao, ui);
+		instance.itemStateChanged(null);
+
+		verify(fsaDao);
+		verify(ui);
+	}
+
 	@Test
 	public void testFsaRatingsNotifiesUIOfErrorFetchingPercentages() throws IOException {
 		Map<String,Long> mockedAuthorities = buildFakeAuthorities();
 
 		expect(fsaDao.fetchAuthorityNamesWithIds()).andReturn(mockedAuthorities).once();
-		expect(fsaDao.fetchRatingPercentagesForAuthority(2L)).andThrow(new IOException("mocked exception")).once();
+		expect(fsaDao.fetchRatingPercentagesForAuthority(eq(2L), anyObject())).andThrow(new IOException("mocked exception")).once();
 		replay(fsaDao);
 
 		ui.populateAuthoritiesList(mockedAuthorities.keySet());
 		ui.addItemListener(anyObject());
+		ui.addCompareListener(anyObject());
 		expect(ui.getSelectedAuthorityName()).andReturn("York").once();
 		ui.displayResultError("York");
 		replay(ui);
@@ -147,11 +187,12 @@ public class FsaRatingsTest {
 		Map<String,Long> mockedAuthorities = buildFakeAuthorities();
 
 		expect(fsaDao.fetchAuthorityNamesWithIds()).andReturn(mockedAuthorities).once();
-		expect(fsaDao.fetchRatingPercentagesForAuthority(2L)).andReturn(new LinkedHashMap<String,Double>()).once();
+		expect(fsaDao.fetchRatingPercentagesForAuthority(eq(2L), anyObject())).andReturn(new LinkedHashMap<String,Double>()).once();
 		replay(fsaDao);
 
 		ui.populateAuthoritiesList(mockedAuthorities.keySet());
 		ui.addItemListener(anyObject());
+		ui.addCompareListener(anyObject());
 		expect(ui.getSelectedAuthorityName()).andReturn("York").once();
 		ui.displayNoResultsMessage("York");
 		replay(ui);
@@ -162,6 +203,155 @@ public class FsaRatingsTest {
 		verify();
 	}
 
+	@Test
+	public void testFsaRatingsCancelsAndDiscardsResultsSupersededByNewerSelection() {
+		AsyncFsaDao asyncDao = createStrictMock(AsyncFsaDao.class);
+		Map<String,Long> mockedAuthorities = buildFakeAuthorities();
+		Map<String,Double> mockedPercentages = buildFakePercentages();
+		CompletableFuture<Map<String,Double>> leedsRequest = new CompletableFuture<>();
+		CompletableFuture<Map<String,Double>> yorkRequest = new CompletableFuture<>();
+
+		expect(asyncDao.fetchAuthorityNamesWithIds()).andReturn(CompletableFuture.completedFuture(mockedAuthorities)).once();
+		expect(asyncDao.fetchRatingPercentagesForAuthority(eq(1L), anyObject())).andReturn(leedsRequest).once();
+		expect(asyncDao.fetchRatingPercentagesForAuthority(eq(2L), anyObject())).andReturn(yorkRequest).once();
+		replay(asyncDao);
+
+		ui.populateAuthoritiesList(mockedAuthorities.keySet());
+		ui.addItemListener(anyObject());
+		ui.addCompareListener(anyObject());
+		expect(ui.getSelectedAuthorityName()).andReturn("Leeds").once();
+		expect(ui.getSelectedAuthorityName()).andReturn("York").once();
+		ui.displayResults("York", mockedPercentages);
+		expectLastCall();
+		replay(ui);
+
+		FsaRatings instance = new FsaRatings(asyncDao, ui, Runnable::run);
+		instance.itemStateChanged(null);
+		instance.itemStateChanged(null);
+		yorkRequest.complete(mockedPercentages);
+
+		verify(asyncDao);
+		verify(ui);
+		assertTrue(leedsRequest.isCancelled());
+	}
+
+	@Test
+	public void testFsaRatingsDoesNotDisplayResultsUntilRequestCompletes() {
+		AsyncFsaDao asyncDao = createStrictMock(AsyncFsaDao.class);
+		Map<String,Long> mockedAuthorities = buildFakeAuthorities();
+		CompletableFuture<Map<String,Double>> request = new CompletableFuture<>();
+
+		expect(asyncDao.fetchAuthorityNamesWithIds()).andReturn(CompletableFuture.completedFuture(mockedAuthorities)).once();
+		expect(asyncDao.fetchRatingPercentagesForAuthority(eq(2L), anyObject())).andReturn(request).once();
+		replay(asyncDao);
+
+		ui.populateAuthoritiesList(mockedAuthorities.keySet());
+		ui.addItemListener(anyObject());
+		ui.addCompareListener(anyObject());
+		expect(ui.getSelectedAuthorityName()).andReturn("York").once();
+		replay(ui);
+
+		FsaRatings instance = new FsaRatings(asyncDao, ui, Runnable::run);
+		instance.itemStateChanged(null);
+		verify(ui);
+
+		reset(ui);
+		ui.displayResultError("York");
+		replay(ui);
+
+		request.completeExceptionally(new IOException("mocked exception"));
+		verify(ui);
+	}
+
+	@Test
+	public void testFsaRatingsDisplaysPartialResultsUntilRequestCompletes() {
+		AsyncFsaDao asyncDao = createStrictMock(AsyncFsaDao.class);
+		Map<String,Long> mockedAuthorities = buildFakeAuthorities();
+		Map<String,Double> partialPercentages = new LinkedHashMap<String, Double>();
+		partialPercentages.put("5", 50d);
+		partialPercentages.put("Exempt", 50d);
+		Map<String,Double> mockedPercentages = buildFakePercentages();
+		CompletableFuture<Map<String,Double>> request = new CompletableFuture<>();
+		Capture<Consumer<Map<String,Double>>> progress = newCapture();
+
+		expect(asyncDao.fetchAuthorityNamesWithIds()).andReturn(CompletableFuture.completedFuture(mockedAuthorities)).once();
+		expect(asyncDao.fetchRatingPercentagesForAuthority(eq(2L), capture(progress))).andReturn(request).once();
+		replay(asyncDao);
+
+		ui.populateAuthoritiesList(mockedAuthorities.keySet());
+		ui.addItemListener(anyObject());
+		ui.addCompareListener(anyObject());
+		expect(ui.getSelectedAuthorityName()).andReturn("York").once();
+		ui.displayResults("York", partialPercentages);
+		ui.displayResults("York", mockedPercentages);
+		replay(ui);
+
+		FsaRatings instance = new FsaRatings(asyncDao, ui, Runnable::run);
+		instance.itemStateChanged(null);
+		progress.getValue().accept(partialPercentages);
+		request.complete(mockedPercentages);
+		progress.getValue().accept(partialPercentages);
+
+		verify(asyncDao);
+		verify(ui);
+	}
+
+	@Test
+	public void testFsaRatingsDiscardsPartialResultsSupersededByNewerSelection() {
+		AsyncFsaDao asyncDao = createStrictMock(AsyncFsaDao.class);
+		Map<String,Long> mockedAuthorities = buildFakeAuthorities();
+		Capture<Consumer<Map<String,Double>>> leedsProgress = newCapture();
+
+		expect(asyncDao.fetchAuthorityNamesWithIds()).andReturn(CompletableFuture.completedFuture(mockedAuthorities)).once();
+		expect(asyncDao.fetchRatingPercentagesForAuthority(eq(1L), capture(leedsProgress))).andReturn(new CompletableFuture<>()).once();
+		expect(asyncDao.fetchRatingPercentagesForAuthority(eq(2L), anyObject())).andReturn(new CompletableFuture<>()).once();
+		replay(asyncDao);
+
+		ui.populateAuthoritiesList(mockedAuthorities.keySet());
+		ui.addItemListener(anyObject());
+		ui.addCompareListener(anyObject());
+		expect(ui.getSelectedAuthorityName()).andReturn("Leeds").once();
+		expect(ui.getSelectedAuthorityName()).andReturn("York").once();
+		replay(ui);
+
+		FsaRatings instance = new FsaRatings(asyncDao, ui, Runnable::run);
+		instance.itemStateChanged(null);
+		instance.itemStateChanged(null);
+		leedsProgress.getValue().accept(buildFakePercentages());
+
+		verify(asyncDao);
+		verify(ui);
+	}
+
+	@Test
+	public void testFsaRatingsComparesAuthoritiesAndReportsThoseThatFailed() throws IOException {
+		Map<String,Long> mockedAuthorities = buildFakeAuthorities();
+		RatingHistogram yorkCounts = new RatingHistogram(RatingHistogram.Scheme.FHRS);
+		yorkCounts.add(RatingHistogram.ordinalOf("5"), 1);
+		yorkCounts.add(RatingHistogram.ordinalOf("Exempt"), 4);
+
+		expect(fsaDao.fetchAuthorityNamesWithIds()).andReturn(mockedAuthorities).once();
+		expect(fsaDao.fetchRatingCountsForAuthority(2L)).andReturn(yorkCounts).once();
+		expect(fsaDao.fetchRatingCountsForAuthority(1L)).andThrow(new IOException("mockedException")).once();
+		replay(fsaDao);
+
+		Map<String, Map<String, Double>> distributions = new LinkedHashMap<>();
+		distributions.put("York", buildFakePercentages());
+		ui.populateAuthoritiesList(mockedAuthorities.keySet());
+		ui.addItemListener(anyObject());
+		ui.addCompareListener(anyObject());
+		expect(ui.getComparedAuthorityNames()).andReturn(Arrays.asList("York", "Leeds", "Please Select")).once();
+		ui.displayComparison(distributions, buildFakePercentages(), Collections.singleton("Leeds"));
+		expectLastCall();
+		replay(ui);
+
+		FsaRatings instance = new FsaRatings(fsaDao, ui);
+		instance.actionPerformed(null);
+
+		verify(fsaDao);
+		verify(ui);
+	}
+
 	private Map<String, Long> buildFakeAuthorities() {
 		Map<String, Long> fakeAuthorities = new TreeMap<String, Long>();
 		fakeAuthorities.put("Leeds", 1L);
@@ -0,0 +1,63 @@
+package jl.fsaratings.dao;
+
+import java.util.Collection;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.function.Consumer;
+
+/**
+ * Non-blocking counterpart of FsaDao.  Each call returns immediately with a future which
+ * completes once the data has been retrieved, or completes exceptionally with the error
+ * that the equivalent FsaDao call would have thrown.
+ *
+ * Cancelling a returned future abandons the request; if it has not started yet it will
+ * never be made.
+ *
+ * @author jonny.lyon
+ *
+ */
+public interface AsyncFsaDao {
+
+	/**
+	 * Asynchronously retrieves the authorities map.
+	 *
+	 * @return a future for the authorities map
+	 * @see FsaDao#fetchAuthorityNamesWithIds()
+	 */
+	CompletableFuture<Map<String, Long>> fetchAuthorityNamesWithIds();
+
+	/**
+	 * Asynchronously calculates the distribution of ratings for the authority specified.
+	 *
+	 * @param authorityId the authority to find rating distributions for
+	 * @return a future for the map of rating name to percentage
+	 * @see FsaDao#fetchRatingPercentagesForAuthority(Long)
+	 */
+	CompletableFuture<Map<String, Double>> fetchRatingPercentagesForAuthority(Long authorityId);
+
+	/**
+	 * Asynchronously calculates the distribution of ratings for the authority specified,
+	 * passing partial distributions to the progress listener as they become available.
+	 * The listener is called on the thread making the DAO call, and never after the returned
+	 * future has completed.
+	 *
+	 * @param authorityId the authority to find rating distributions for
+	 * @param progress notified with each partial distribution
+	 * @return a future for the map of rating name to percentage
+	 * @see FsaDao#fetchRatingPercentagesForAuthority(Long, Consumer)
+	 */
+	CompletableFuture<Map<String, Double>> fetchRatingPercentagesForAuthority(Long authorityId,
+			Consumer<Map<String, Double>> progress);
+
+	/**
+	 * Asynchronously calculates the distribution of ratings for each of the authorities
+	 * specified, fetching them at the same time.  The future completes once every authority
+	 * has succeeded or failed, and never completes exceptionally; the errors of the
+	 * authorities which failed are recorded in the comparison.
+	 *
+	 * @param authorityIds the authorities to compare
+	 * @return a future for the comparison
+	 * @see FsaDao#fetchRatingPercentagesForAuthorities(Collection)
+	 */
+	CompletableFuture<AuthorityComparison> fetchRatingPercentagesForAuthorities(Collection<Long> authorityIds);
+}
@@ -0,0 +1,147 @@
+package jl.fsaratings.dao;
+
+import java.util.Collection;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.Executor;
+import java.util.concurrent.Executors;
+import java.util.concurrent.FutureTask;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Consumer;
+
+/**
+ * Implements AsyncFsaDao by running the calls of a synchronous FsaDao on a dedicated
+ * executor, so that callers such as the UI thread are never blocked by the API.
+ *
+ * @author jonny.lyon
+ *
+ */
+public class AsyncFsaDaoImpl implements AsyncFsaDao {
+
+	private static final int DEFAULT_THREADS = 4;
+
+	private final FsaDao delegate;
+
+	private final Executor executor;
+
+	private final Executor comparisonExecutor;
+
+	/**
+	 * Constructor for AsyncFsaDaoImpl, using a dedicated pool of daemon threads, and the
+	 * threads shared with {@link FsaDao#fetchRatingPercentagesForAuthorities(Collection)}
+	 * for comparisons
+	 *
+	 * @param delegate the DAO whose calls are to be made asynchronously
+	 */
+	public AsyncFsaDaoImpl(FsaDao delegate) {
+		this(delegate, defaultExecutor(), AuthorityComparison.fetchExecutor());
+	}
+
+	/**
+	 * Constructor for AsyncFsaDaoImpl, running comparisons on the same executor as every
+	 * other call
+	 *
+	 * @param delegate the DAO whose calls are to be made asynchronously
+	 * @param executor runs the DAO calls
+	 */
+	public AsyncFsaDaoImpl(FsaDao delegate, Executor executor) {
+		this(delegate, executor, executor);
+	}
+
+	/**
+	 * Constructor for AsyncFsaDaoImpl
+	 *
+	 * @param delegate the DAO whose calls are to be made asynchronously
+	 * @param executor runs the DAO calls
+	 * @param comparisonExecutor runs the fetch of each authority in a comparison; this
+	 * should have a thread for every authority, so that a comparison takes about as long
+	 * as its slowest authority, and should be separate from executor, so that a large
+	 * comparison does not hold up other calls
+	 */
+	public AsyncFsaDaoImpl(FsaDao delegate, Executor executor, Executor comparisonExecutor) {
+		this.delegate = delegate;
+		this.executor = executor;
+		this.comparisonExecutor = comparisonExecutor;
+	}
+
+	/**
+	 * {@inheritDoc}
+	 */
+	@Override
+	public CompletableFuture<Map<String, Long>> fetchAuthorityNamesWithIds() {
+		return submit(delegate::fetchAuthorityNamesWithIds);
+	}
+
+	/**
+	 * {@inheritDoc}
+	 */
+	@Override
+	public CompletableFuture<Map<String, Double>> fetchRatingPercentagesForAuthority(Long authorityId) {
+		return submit(() -> delegate.fetchRatingPercentagesForAuthority(authorityId));
+	}
+
+	/**
+	 * {@inheritDoc}
+	 */
+	@Override
+	public CompletableFuture<Map<String, Double>> fetchRatingPercentagesForAuthority(Long authorityId,
+			Consumer<Map<String, Double>> progress) {
+		return submit(() -> delegate.fetchRatingPercentagesForAuthority(authorityId, progress));
+	}
+
+	/**
+	 * {@inheritDoc}
+	 *
+	 * Each authority is counted as a separate call on the comparison executor, so that none
+	 * of them is held waiting for the others; the load on the API is limited by the
+	 * RequestThrottle shared by the whole process.
+	 */
+	@Override
+	public CompletableFuture<AuthorityComparison> fetchRatingPercentagesForAuthorities(Collection<Long> authorityIds) {
+		Map<Long, CompletableFuture<RatingHistogram>> fetches = new LinkedHashMap<>();
+		for (Long authorityId : new LinkedHashSet<>(authorityIds)) {
+			fetches.put(authorityId, submit(comparisonExecutor, () -> delegate.fetchRatingCountsForAuthority(authorityId)));
+		}
+		return AuthorityComparison.combine(fetches);
+	}
+
+	private <T> CompletableFuture<T> submit(Callable<T> call) {
+		return submit(executor, call);
+	}
+
+	/**
+	 * Runs the call on the executor given, completing the returned future with its outcome.
+	 * Cancelling the returned future also cancels the task, interrupting it if it is running,
+	 * which cancelling a future from CompletableFuture.supplyAsync would not.
+	 */
+	static <T> CompletableFuture<T> submit(Executor executor, Callable<T> call) {
+		CompletableFuture<T> result = new CompletableFuture<>();
+		FutureTask<Void> task = new FutureTask<>(() -> {
+			try {
+				result.complete(call.call());
+			} catch (Throwable t) {
+				result.completeExceptionally(t);
+			}
+		}, null);
+
+		result.whenComplete((value, error) -> {
+			if (result.isCancelled()) {
+				task.cancel(true);
+			}
+		});
+		executor.execute(task);
+		return result;
+	}
+
+	private static Executor defaultExecutor() {
+		AtomicInteger threadCount = new AtomicInteger();
+		return Executors.newFixedThreadPool(DEFAULT_THREADS, r -> {
+			Thread thread = new Thread(r, "fsa-dao-" + threadCount.incrementAndGet());
+			thread.setDaemon(true);
+			return thread;
+		});
+	}
+}
@@ -0,0 +1,198 @@
+package jl.fsaratings.dao;
+
+import static org.easymock.EasyMock.createStrictMock;
+import static org.easymock.EasyMock.expect;
+import static org.easymock.EasyMock.replay;
+import static org.easymock.EasyMock.verify;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+
+import org.junit.Before;
+import org.junit.Test;
+
+/**
+ * Test class for AsyncFsaDaoImpl, mocking out the wrapped DAO.  Tasks are queued and
+ * run when the test chooses.
+ *
+ * @author jonny.lyon
+ *
+ */
+public class AsyncFsaDaoImplTest {
+
+	/**
+	 * Mock DAO being wrapped
+	 */
+	private FsaDao delegate;
+
+	/**
+	 * Tasks submitted to the executor and not yet run
+	 */
+	private List<Runnable> queued;
+
+	/**
+	 * Instance under test
+	 */
+	private AsyncFsaDaoImpl instance;
+
+	@Before
+	public void setUp() {
+		delegate = createStrictMock(FsaDao.class);
+		queued = new ArrayList<>();
+		instance = new AsyncFsaDaoImpl(delegate, queued::add);
+	}
+
+	@Test
+	public void testFutureCompletesWithResultOnceTaskHasRun() throws Exception {
+		Map<String, Double> percentages = new LinkedHashMap<>();
+		percentages.put("5", 100d);
+		expect(delegate.fetchRatingPercentagesForAuthority(2L)).andReturn(percentages).once();
+		replay(delegate);
+
+		CompletableFuture<Map<String, Double>> future = instance.fetchRatingPercentagesForAuthority(2L);
+		assertFalse(future.isDone());
+		runQueued();
+
+		assertEquals(percentages, future.get());
+		verify(delegate);
+	}
+
+	@Test
+	public void testFutureCompletesExceptionallyWithDaoException() throws Exception {
+		IOException thrown = new IOException("mocked exception");
+		expect(delegate.fetchAuthorityNamesWithIds()).andThrow(thrown).once();
+		replay(delegate);
+
+		CompletableFuture<Map<String, Long>> future = instance.fetchAuthorityNamesWithIds();
+		runQueued();
+
+		try {
+			future.get();
+		} catch (ExecutionException e) {
+			assertEquals(thrown, e.getCause());
+		}
+		assertTrue(future.isCompletedExceptionally());
+	}
+
+	@Test
+	public void testCancelledRequestIsNeverMade() {
+		replay(delegate);
+
+		instance.fetchRatingPercentagesForAuthority(2L).cancel(true);
+		runQueued();
+
+		verify(delegate);
+	}
+
+	@Test
+	public void testComparisonFetchesEveryAuthorityAtOnceAndReportsFailures() throws Exception {
+		IOException thrown = new IOException("mocked exception");
+		RatingHistogram counts = new RatingHistogram(RatingHistogram.Scheme.FHRS);
+		counts.add(RatingHistogram.ordinalOf("5"), 3);
+		expect(delegate.fetchRatingCountsForAuthority(1L)).andReturn(counts).once();
+		expect(delegate.fetchRatingCountsForAuthority(2L)).andThrow(thrown).once();
+		expect(delegate.fetchRatingCountsForAuthority(3L)).andReturn(counts).once();
+		replay(delegate);
+
+		CompletableFuture<AuthorityComparison> future = instance
+				.fetchRatingPercentagesForAuthorities(Arrays.asList(1L, 2L, 3L, 1L));
+		// one task per authority, none waiting on another
+		assertEquals(3, queued.size());
+		runQueued();
+
+		AuthorityComparison comparison = future.get();
+		assertEquals(Arrays.asList(1L, 3L), new ArrayList<>(comparison.getDistributions().keySet()));
+		assertEquals(counts.toPercentages(), comparison.getDistributions().get(3L));
+		assertEquals(thrown, comparison.getFailures().get(2L));
+		assertFalse(comparison.isComplete());
+		assertEquals(6, comparison.getCounts().values().stream().mapToLong(RatingHistogram::getTotal).sum());
+		verify(delegate);
+	}
+
+	@Test
+	public void testComparisonRunsOnItsOwnExecutor() throws Exception {
+		List<Runnable> comparisonQueued = new ArrayList<>();
+		expect(delegate.fetchRatingCountsForAuthority(1L)).andReturn(new RatingHistogram()).once();
+		expect(delegate.fetchRatingCountsForAuthority(2L)).andReturn(new RatingHistogram()).once();
+		replay(delegate);
+		instance = new AsyncFsaDaoImpl(delegate, queued::add, comparisonQueued::add);
+
+		CompletableFuture<AuthorityComparison> future = instance
+				.fetchRatingPercentagesForAuthorities(Arrays.asList(1L, 2L));
+		// a comparison leaves the executor for single authorities free
+		assertTrue(queued.isEmpty());
+		assertEquals(2, comparisonQueued.size());
+		comparisonQueued.forEach(Runnable::run);
+
+		assertTrue(future.get().isComplete());
+		verify(delegate);
+	}
+
+	@Test
+	public void testCancelledComparisonMakesNoRequests() {
+		replay(delegate);
+
+		instance.fetchRatingPercentagesForAuthorities(Arrays.asList(1L, 2L)).cancel(true);
+		runQueued();
+
+		verify(delegate);
+	}
+
+	@Test
+	public void testInterruptedComparisonInterruptsItsFetches() throws Exception {
+		CountDownLatch started = new CountDownLatch(1);
+		CountDownLatch interrupted = new CountDownLatch(1);
+		expect(delegate.fetchRatingCountsForAuthority(1L)).andAnswer(() -> {
+			started.countDown();
+			try {
+				Thread.sleep(TimeUnit.SECONDS.toMillis(30));
+			} catch (InterruptedException e) {
+				interrupted.countDown();
+				throw new InterruptedIOException();
+			}
+			return new RatingHistogram();
+		}).once();
+		replay(delegate);
+
+		ExecutorService fetchers = Executors.newCachedThreadPool();
+		try {
+			List<Exception> thrown = new ArrayList<>();
+			Thread caller = new Thread(() -> {
+				try {
+					AuthorityComparison.fetch(delegate, Arrays.asList(1L), fetchers);
+				} catch (InterruptedIOException e) {
+					thrown.add(e);
+				}
+			});
+			caller.start();
+			assertTrue(started.await(5, TimeUnit.SECONDS));
+			caller.interrupt();
+			caller.join(5000);
+
+			assertEquals(1, thrown.size());
+			assertTrue("fetch was not interrupted", interrupted.await(5, TimeUnit.SECONDS));
+		} finally {
+			fetchers.shutdownNow();
+		}
+		verify(delegate);
+	}
+
+	private void runQueued() {
+		queued.forEach(Runnable::run);
+		queued.clear();
+	}
+}
@@ -0,0 +1,184 @@
+package jl.fsaratings.dao;
+
+import java.io.InterruptedIOException;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * The rating distributions of several authorities, fetched together for comparison.  Each
+ * authority succeeds or fails on its own, so one authority that cannot be fetched does not
+ * lose the others: the distributions of those that succeeded are given together with the
+ * errors of those that failed.
+ *
+ * The counts of the authorities that succeeded are also merged, giving their combined
+ * distribution, which could not be had from their percentages.
+ *
+ * @author jonny.lyon
+ *
+ */
+public final class AuthorityComparison {
+
+	/**
+	 * Runs the fetches of {@link FsaDao#fetchRatingPercentagesForAuthorities(Collection)},
+	 * and by default those of AsyncFsaDaoImpl's comparisons.  Threads are made as needed,
+	 * so that every authority is fetched at once and a comparison takes about as long as
+	 * its slowest authority; the load on the API is limited by the RequestThrottle shared
+	 * by the whole process, not here.  Idle threads die after a minute.
+	 */
+	private static final class Fetchers {
+		private static final ExecutorService EXECUTOR;
+
+		static {
+			AtomicInteger threadCount = new AtomicInteger();
+			EXECUTOR = Executors.newCachedThreadPool(r -> {
+				Thread thread = new Thread(r, "fsa-compare-" + threadCount.incrementAndGet());
+				thread.setDaemon(true);
+				return thread;
+			});
+		}
+	}
+
+	private final Map<Long, RatingHistogram> counts;
+
+	private final Map<Long, Exception> failures;
+
+	private final RatingHistogram combined;
+
+	private AuthorityComparison(Map<Long, RatingHistogram> counts, Map<Long, Exception> failures) {
+		this.counts = Collections.unmodifiableMap(counts);
+		this.failures = Collections.unmodifiableMap(failures);
+		this.combined = new RatingHistogram();
+		counts.values().forEach(combined::merge);
+	}
+
+	/**
+	 * @return the shared pool of threads comparisons are fetched on by default
+	 */
+	static Executor fetchExecutor() {
+		return Fetchers.EXECUTOR;
+	}
+
+	/**
+	 * Fetches the counts of every authority given at once, on a shared pool of threads,
+	 * waiting for them all
+	 *
+	 * @param dao the DAO to fetch them from
+	 * @param authorityIds the authorities; duplicates are fetched once
+	 * @return the comparison
+	 * @throws InterruptedIOException if interrupted while waiting, in which case the fetches
+	 * are cancelled, interrupting those still running
+	 */
+	static AuthorityComparison fetch(FsaDao dao, Collection<Long> authorityIds) throws InterruptedIOException {
+		return fetch(dao, authorityIds, Fetchers.EXECUTOR);
+	}
+
+	/**
+	 * As {@link #fetch(FsaDao, Collection)}, on the executor given
+	 */
+	static AuthorityComparison fetch(FsaDao dao, Collection<Long> authorityIds, Executor executor)
+			throws InterruptedIOException {
+		Map<Long, CompletableFuture<RatingHistogram>> fetches = new LinkedHashMap<>();
+		for (Long authorityId : new LinkedHashSet<>(authorityIds)) {
+			fetches.put(authorityId, AsyncFsaDaoImpl.submit(executor, () -> dao.fetchRatingCountsForAuthority(authorityId)));
+		}
+
+		CompletableFuture<AuthorityComparison> comparison = combine(fetches);
+		try {
+			return comparison.get();
+		} catch (InterruptedException e) {
+			comparison.cancel(true);
+			Thread.currentThread().interrupt();
+			throw new InterruptedIOException("Interrupted while comparing authorities");
+		} catch (ExecutionException e) {
+			// combine never completes exceptionally
+			throw new IllegalStateException(e.getCause());
+		}
+	}
+
+	/**
+	 * Combines the fetches of several authorities into one comparison, once they have all
+	 * completed.  The comparison never completes exceptionally; the failures of individual
+	 * fetches are recorded in it instead.  Cancelling it cancels the fetches.
+	 *
+	 * @param fetches the fetch of each authority, in the order to compare them
+	 * @return a future for the comparison
+	 */
+	static CompletableFuture<AuthorityComparison> combine(Map<Long, CompletableFuture<RatingHistogram>> fetches) {
+		CompletableFuture<AuthorityComparison> comparison = CompletableFuture
+				.allOf(fetches.values().toArray(new CompletableFuture<?>[0]))
+				.handle((ignored, error) -> {
+					Map<Long, RatingHistogram> counts = new LinkedHashMap<>();
+					Map<Long, Exception> failures = new LinkedHashMap<>();
+					fetches.forEach((authorityId, fetch) -> {
+						try {
+							counts.put(authorityId, fetch.join());
+						} catch (CompletionException e) {
+							failures.put(authorityId, unwrap(e.getCause()));
+						} catch (RuntimeException e) {
+							// e.g. cancelled
+							failures.put(authorityId, e);
+						}
+					});
+					return new AuthorityComparison(counts, failures);
+				});
+		comparison.whenComplete((result, error) -> {
+			if (comparison.isCancelled()) {
+				fetches.values().forEach(fetch -> fetch.cancel(true));
+			}
+		});
+		return comparison;
+	}
+
+	private static Exception unwrap(Throwable error) {
+		return error instanceof Exception ? (Exception) error : new ExecutionException(error);
+	}
+
+	/**
+	 * @return the distribution of each authority that succeeded, by authority id, in the
+	 * order asked for; see {@link RatingHistogram#toPercentages()}
+	 */
+	public Map<Long, Map<String, Double>> getDistributions() {
+		Map<Long, Map<String, Double>> distributions = new LinkedHashMap<>();
+		counts.forEach((authorityId, histogram) -> distributions.put(authorityId, histogram.toPercentages()));
+		return distributions;
+	}
+
+	/**
+	 * @return the counts of each authority that succeeded, by authority id, in the order
+	 * asked for.  The counts must not be changed.
+	 */
+	public Map<Long, RatingHistogram> getCounts() {
+		return counts;
+	}
+
+	/**
+	 * @return the distribution of all the authorities that succeeded, taken together
+	 */
+	public Map<String, Double> getCombinedDistribution() {
+		return combined.toPercentages();
+	}
+
+	/**
+	 * @return the error of each authority that failed, by authority id, in the order asked for
+	 */
+	public Map<Long, Exception> getFailures() {
+		return failures;
+	}
+
+	/**
+	 * @return true if every authority succeeded
+	 */
+	public boolean isComplete() {
+		return failures.isEmpty();
+	}
+}
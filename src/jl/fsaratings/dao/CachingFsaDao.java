@@ -0,0 +1,312 @@
+package jl.fsaratings.dao;
+
+import java.io.IOException;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Consumer;
+import java.util.function.LongSupplier;
+
+import jl.fsaratings.metrics.Metrics;
+
+/**
+ * Decorates any FsaDao with an in-memory cache of the authorities list and of the rating
+ * counts for each authority.  Only the counts are cached, and rating distributions are
+ * calculated from them, so an authority viewed on its own and then compared, or the other
+ * way round, is only fetched once.
+ *
+ * Each entry is fresh for a configurable time-to-live, during which it is returned without
+ * calling the wrapped DAO.  Once an entry has expired, it can still be returned for a further
+ * stale-while-revalidate period; when this happens the stale value is returned immediately
+ * and a refresh is started in the background, so the next lookup sees current data.  Entries
+ * older than that are fetched synchronously, as are those not cached at all; but if that
+ * fetch fails, e.g. because the API is down and ResilientRestHandler's circuit breaker is
+ * open, the old entry is returned instead of the error, however old it is.
+ *
+ * The number of entries is bounded, with the least recently used authority's counts being evicted
+ * first.  Failed fetches are never cached.
+ *
+ * @author jonny.lyon
+ *
+ */
+public class CachingFsaDao implements FsaDao {
+
+	private static final long DEFAULT_TTL_MINUTES = 10;
+	private static final long DEFAULT_STALE_MINUTES = 60;
+	private static final int DEFAULT_MAX_ENTRIES = 500;
+
+	/**
+	 * Key under which the authorities list is cached, alongside the per-authority counts
+	 */
+	private static final Object AUTHORITIES_KEY = new Object();
+
+	private final FsaDao delegate;
+
+	private final long ttlNanos;
+
+	private final long staleNanos;
+
+	private final Executor refreshExecutor;
+
+	private final LongSupplier nanoClock;
+
+	/**
+	 * The cache itself.  An access-ordered LinkedHashMap is used so that the eldest entry
+	 * is always the least recently used one.  All access is synchronized on the map.
+	 */
+	private final Map<Object, CachedValue> cache;
+
+	/**
+	 * Keys with a background refresh in progress, so that only one is started per key
+	 */
+	private final Set<Object> refreshing = ConcurrentHashMap.newKeySet();
+
+	/**
+	 * Constructor for CachingFsaDao using default settings: entries are fresh for 10 minutes,
+	 * may be served stale for a further hour, and at most 500 entries are held.
+	 *
+	 * @param delegate the DAO to fetch uncached data from
+	 */
+	public CachingFsaDao(FsaDao delegate) {
+		this(delegate, DEFAULT_TTL_MINUTES, DEFAULT_STALE_MINUTES, TimeUnit.MINUTES, DEFAULT_MAX_ENTRIES);
+	}
+
+	/**
+	 * Constructor for CachingFsaDao.  Background refreshes are run on a single daemon thread.
+	 *
+	 * @param delegate the DAO to fetch uncached data from
+	 * @param ttl how long an entry is fresh for
+	 * @param staleWhileRevalidate how long after expiring an entry may still be served while it is refreshed
+	 * @param unit the unit of ttl and staleWhileRevalidate
+	 * @param maxEntries the maximum number of entries held
+	 */
+	public CachingFsaDao(FsaDao delegate, long ttl, long staleWhileRevalidate, TimeUnit unit, int maxEntries) {
+		this(delegate, ttl, staleWhileRevalidate, unit, maxEntries, defaultRefreshExecutor(), System::nanoTime);
+	}
+
+	/**
+	 * Constructor for CachingFsaDao, allowing the refresh executor and clock to be provided
+	 * for test purposes.
+	 */
+	CachingFsaDao(FsaDao delegate, long ttl, long staleWhileRevalidate, TimeUnit unit, final int maxEntries,
+			Executor refreshExecutor, LongSupplier nanoClock) {
+		if (maxEntries < 1) {
+			throw new IllegalArgumentException("maxEntries must be at least 1");
+		}
+		this.delegate = delegate;
+		this.ttlNanos = unit.toNanos(ttl);
+		this.staleNanos = unit.toNanos(staleWhileRevalidate);
+		this.refreshExecutor = refreshExecutor;
+		this.nanoClock = nanoClock;
+		this.cache = new LinkedHashMap<Object, CachedValue>(16, 0.75f, true) {
+			@Override
+			protected boolean removeEldestEntry(Map.Entry<Object, CachedValue> eldest) {
+				return size() > maxEntries;
+			}
+		};
+	}
+
+	/**
+	 * {@inheritDoc}
+	 */
+	@Override
+	public Map<String, Long> fetchAuthorityNamesWithIds() throws IOException {
+		return lookup(AUTHORITIES_KEY, () -> Collections.unmodifiableMap(delegate.fetchAuthorityNamesWithIds()));
+	}
+
+	/**
+	 * {@inheritDoc}
+	 */
+	@Override
+	public Map<Long, String> fetchAuthorityRegions() throws IOException {
+		return delegate.fetchAuthorityRegions();
+	}
+
+	/**
+	 * {@inheritDoc}
+	 *
+	 * Calculated from the counts when they are cached, so the same map is returned until
+	 * they are next fetched.
+	 */
+	@Override
+	public Map<String, Double> fetchRatingPercentagesForAuthority(Long authorityId) throws IOException {
+		return lookupCounts(authorityId).percentages;
+	}
+
+	/**
+	 * {@inheritDoc}
+	 *
+	 * Calculated from the counts when they are cached, so the same map is returned until
+	 * they are next fetched.  Progress is only reported when the counts are not already
+	 * cached; background refreshes never report it.
+	 */
+	@Override
+	public Map<String, Double> fetchRatingPercentagesForAuthority(Long authorityId,
+			Consumer<Map<String, Double>> progress) throws IOException {
+		return lookupCounts(authorityId, partial -> progress.accept(partial.toPercentages())).percentages;
+	}
+
+	/**
+	 * {@inheritDoc}
+	 *
+	 * A copy of the cached counts is returned, so callers are free to merge into it.
+	 */
+	@Override
+	public RatingHistogram fetchRatingCountsForAuthority(Long authorityId) throws IOException {
+		return lookupCounts(authorityId).counts.copy();
+	}
+
+	/**
+	 * {@inheritDoc}
+	 *
+	 * Progress is only reported when the counts are not already cached; background
+	 * refreshes never report it.
+	 */
+	@Override
+	public RatingHistogram fetchRatingCountsForAuthority(Long authorityId, Consumer<RatingHistogram> progress)
+			throws IOException {
+		return lookupCounts(authorityId, progress).counts.copy();
+	}
+
+	/**
+	 * Removes all entries from the cache
+	 */
+	public void invalidateAll() {
+		synchronized (cache) {
+			cache.clear();
+		}
+	}
+
+	/**
+	 * Looks up the counts of an authority, which are cached under its id
+	 */
+	private CachedCounts lookupCounts(Long authorityId) throws IOException {
+		return lookup(authorityId, () -> new CachedCounts(delegate.fetchRatingCountsForAuthority(authorityId)));
+	}
+
+	/**
+	 * As {@link #lookupCounts(Long)}, reporting progress if the counts have to be fetched
+	 */
+	private CachedCounts lookupCounts(Long authorityId, Consumer<RatingHistogram> progress) throws IOException {
+		return lookup(authorityId,
+				() -> new CachedCounts(delegate.fetchRatingCountsForAuthority(authorityId, progress)),
+				() -> new CachedCounts(delegate.fetchRatingCountsForAuthority(authorityId)));
+	}
+
+	/**
+	 * Returns the cached value for the key if it is fresh, or if it is stale but still within
+	 * the stale-while-revalidate period, in which case a background refresh is also started.
+	 * Otherwise loads the value synchronously and caches it.
+	 */
+	private <V> V lookup(Object key, Loader<V> loader) throws IOException {
+		return lookup(key, loader, loader);
+	}
+
+	/**
+	 * As {@link #lookup(Object, Loader)}, but with a separate loader for background refreshes,
+	 * for when the synchronous loader reports progress to a caller who will not be waiting
+	 * for a refresh.
+	 */
+	@SuppressWarnings("unchecked")
+	private <V> V lookup(Object key, Loader<V> loader, Loader<V> refreshLoader) throws IOException {
+		CachedValue cached;
+		synchronized (cache) {
+			cached = cache.get(key);
+		}
+
+		long now = nanoClock.getAsLong();
+		if (cached != null) {
+			long age = now - cached.loadedAt;
+			if (age < ttlNanos) {
+				Metrics.Counter.CACHE_HITS.increment();
+				return (V) cached.value;
+			} else if (age < ttlNanos + staleNanos) {
+				Metrics.Counter.CACHE_STALE_HITS.increment();
+				refreshInBackground(key, refreshLoader);
+				return (V) cached.value;
+			}
+		}
+
+		Metrics.Counter.CACHE_MISSES.increment();
+		try {
+			return load(key, loader);
+		} catch (IOException e) {
+			if (cached == null) {
+				throw e;
+			}
+			// better out of date than nothing while the API is unavailable
+			return (V) cached.value;
+		}
+	}
+
+	private <V> V load(Object key, Loader<V> loader) throws IOException {
+		V value = loader.load();
+		synchronized (cache) {
+			cache.put(key, new CachedValue(value, nanoClock.getAsLong()));
+		}
+		return value;
+	}
+
+	private void refreshInBackground(Object key, Loader<?> loader) {
+		if (!refreshing.add(key)) {
+			return;
+		}
+		refreshExecutor.execute(() -> {
+			try {
+				load(key, loader);
+			} catch (IOException | RuntimeException e) {
+				// the stale value stays in place and the refresh will be retried on the next lookup
+			} finally {
+				refreshing.remove(key);
+			}
+		});
+	}
+
+	private static ExecutorService defaultRefreshExecutor() {
+		return Executors.newSingleThreadExecutor(r -> {
+			Thread thread = new Thread(r, "fsa-cache-refresh");
+			thread.setDaemon(true);
+			return thread;
+		});
+	}
+
+	/**
+	 * A cached value along with the time it was loaded
+	 */
+	private static class CachedValue {
+		private final Object value;
+		private final long loadedAt;
+
+		private CachedValue(Object value, long loadedAt) {
+			this.value = value;
+			this.loadedAt = loadedAt;
+		}
+	}
+
+	/**
+	 * The counts of an authority, which must not be changed, and the distribution calculated
+	 * from them once when they are cached
+	 */
+	private static class CachedCounts {
+		private final RatingHistogram counts;
+		private final Map<String, Double> percentages;
+
+		private CachedCounts(RatingHistogram counts) {
+			this.counts = counts;
+			this.percentages = Collections.unmodifiableMap(counts.toPercentages());
+		}
+	}
+
+	/**
+	 * Fetches a value from the wrapped DAO
+	 */
+	private interface Loader<V> {
+		V load() throws IOException;
+	}
+}
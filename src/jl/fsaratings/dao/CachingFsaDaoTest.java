@@ -0,0 +1,190 @@
+package jl.fsaratings.dao;
+
+import static org.easymock.EasyMock.createStrictMock;
+import static org.easymock.EasyMock.expect;
+import static org.easymock.EasyMock.replay;
+import static org.easymock.EasyMock.verify;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.fail;
+
+import java.io.IOException;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.junit.Before;
+import org.junit.Test;
+
+/**
+ * Test class for CachingFsaDao, mocking out the wrapped DAO.  Background refreshes are
+ * run on the calling thread and time is controlled by the test.
+ *
+ * @author jonny.lyon
+ *
+ */
+public class CachingFsaDaoTest {
+
+	/**
+	 * Mock DAO being wrapped
+	 */
+	private FsaDao delegate;
+
+	/**
+	 * Fake clock, in nanoseconds
+	 */
+	private AtomicLong now;
+
+	/**
+	 * Instance under test: 10 second TTL, 20 second stale window, 2 entries
+	 */
+	private CachingFsaDao instance;
+
+	@Before
+	public void setUp() {
+		delegate = createStrictMock(FsaDao.class);
+		now = new AtomicLong();
+		instance = new CachingFsaDao(delegate, 10, 20, TimeUnit.SECONDS, 2, Runnable::run, now::get);
+	}
+
+	@Test
+	public void testRepeatLookupWithinTtlIsServedFromCache() throws IOException {
+		expect(delegate.fetchAuthorityNamesWithIds()).andReturn(buildAuthorities("York", 2L)).once();
+		expect(delegate.fetchRatingCountsForAuthority(2L)).andReturn(buildCounts(20)).once();
+		replay(delegate);
+
+		instance.fetchAuthorityNamesWithIds();
+		instance.fetchRatingPercentagesForAuthority(2L);
+		advanceSeconds(9);
+		Map<String, Long> authorities = instance.fetchAuthorityNamesWithIds();
+		Map<String, Double> percentages = instance.fetchRatingPercentagesForAuthority(2L);
+
+		verify(delegate);
+		assertEquals(buildAuthorities("York", 2L), authorities);
+		assertEquals(buildPercentages(20), percentages);
+	}
+
+	@Test
+	public void testStaleEntryIsReturnedAndRefreshedInBackground() throws IOException {
+		expect(delegate.fetchRatingCountsForAuthority(2L)).andReturn(buildCounts(20)).once();
+		expect(delegate.fetchRatingCountsForAuthority(2L)).andReturn(buildCounts(40)).once();
+		replay(delegate);
+
+		instance.fetchRatingPercentagesForAuthority(2L);
+		advanceSeconds(15);
+
+		assertEquals(buildPercentages(20), instance.fetchRatingPercentagesForAuthority(2L));
+		assertEquals(buildPercentages(40), instance.fetchRatingPercentagesForAuthority(2L));
+		verify(delegate);
+	}
+
+	@Test
+	public void testEntryOlderThanStaleWindowIsFetchedSynchronously() throws IOException {
+		expect(delegate.fetchRatingCountsForAuthority(2L)).andReturn(buildCounts(20)).once();
+		expect(delegate.fetchRatingCountsForAuthority(2L)).andReturn(buildCounts(40)).once();
+		replay(delegate);
+
+		instance.fetchRatingPercentagesForAuthority(2L);
+		advanceSeconds(31);
+
+		assertEquals(buildPercentages(40), instance.fetchRatingPercentagesForAuthority(2L));
+		verify(delegate);
+	}
+
+	@Test
+	public void testFailedBackgroundRefreshKeepsStaleEntry() throws IOException {
+		expect(delegate.fetchRatingCountsForAuthority(2L)).andReturn(buildCounts(20)).once();
+		expect(delegate.fetchRatingCountsForAuthority(2L)).andThrow(new IOException("mocked exception")).once();
+		replay(delegate);
+
+		instance.fetchRatingPercentagesForAuthority(2L);
+		advanceSeconds(15);
+
+		assertEquals(buildPercentages(20), instance.fetchRatingPercentagesForAuthority(2L));
+		verify(delegate);
+	}
+
+	@Test
+	public void testLeastRecentlyUsedEntryIsEvicted() throws IOException {
+		expect(delegate.fetchRatingCountsForAuthority(1L)).andReturn(buildCounts(10)).once();
+		expect(delegate.fetchRatingCountsForAuthority(2L)).andReturn(buildCounts(20)).once();
+		expect(delegate.fetchRatingCountsForAuthority(3L)).andReturn(buildCounts(30)).once();
+		expect(delegate.fetchRatingCountsForAuthority(2L)).andReturn(buildCounts(20)).once();
+		replay(delegate);
+
+		instance.fetchRatingPercentagesForAuthority(1L);
+		instance.fetchRatingPercentagesForAuthority(2L);
+		// touching 1 makes 2 the least recently used entry
+		instance.fetchRatingPercentagesForAuthority(1L);
+		instance.fetchRatingPercentagesForAuthority(3L);
+		instance.fetchRatingPercentagesForAuthority(1L);
+		instance.fetchRatingPercentagesForAuthority(2L);
+
+		verify(delegate);
+	}
+
+	@Test
+	public void testFailedFetchIsNotCached() throws IOException {
+		expect(delegate.fetchAuthorityNamesWithIds()).andThrow(new IOException("mocked exception")).once();
+		expect(delegate.fetchAuthorityNamesWithIds()).andReturn(buildAuthorities("York", 2L)).once();
+		replay(delegate);
+
+		try {
+			instance.fetchAuthorityNamesWithIds();
+			fail("IOException expected");
+		} catch (IOException e) {
+			// do nothing;
+		}
+		assertEquals(buildAuthorities("York", 2L), instance.fetchAuthorityNamesWithIds());
+		verify(delegate);
+	}
+
+	@Test
+	public void testExpiredEntryIsReturnedWhenRefetchFails() throws IOException {
+		expect(delegate.fetchRatingCountsForAuthority(2L)).andReturn(buildCounts(20)).once();
+		expect(delegate.fetchRatingCountsForAuthority(2L)).andThrow(new IOException("mocked exception")).once();
+		replay(delegate);
+
+		instance.fetchRatingPercentagesForAuthority(2L);
+		advanceSeconds(3600);
+		Map<String, Double> percentages = instance.fetchRatingPercentagesForAuthority(2L);
+
+		verify(delegate);
+		assertEquals(buildPercentages(20), percentages);
+	}
+
+	@Test
+	public void testDistributionAndCountsOfAnAuthorityShareOneEntry() throws IOException {
+		expect(delegate.fetchRatingCountsForAuthority(2L)).andReturn(buildCounts(20)).once();
+		replay(delegate);
+
+		Map<String, Double> percentages = instance.fetchRatingPercentagesForAuthority(2L);
+		RatingHistogram counts = instance.fetchRatingCountsForAuthority(2L);
+		counts.merge(buildCounts(40));
+
+		verify(delegate);
+		assertEquals(buildPercentages(20), percentages);
+		assertEquals(buildPercentages(20), instance.fetchRatingPercentagesForAuthority(2L));
+	}
+
+	private void advanceSeconds(long seconds) {
+		now.addAndGet(TimeUnit.SECONDS.toNanos(seconds));
+	}
+
+	private Map<String, Long> buildAuthorities(String name, Long id) {
+		Map<String, Long> authorities = new TreeMap<>();
+		authorities.put(name, id);
+		return authorities;
+	}
+
+	private RatingHistogram buildCounts(long fiveStar) {
+		RatingHistogram counts = new RatingHistogram(RatingHistogram.Scheme.FHRS);
+		counts.add(RatingHistogram.ordinalOf("5"), fiveStar);
+		counts.add(RatingHistogram.ordinalOf("Exempt"), 100 - fiveStar);
+		return counts;
+	}
+
+	private Map<String, Double> buildPercentages(long fiveStar) {
+		return buildCounts(fiveStar).toPercentages();
+	}
+}
@@ -0,0 +1,218 @@
+package jl.fsaratings.dao;
+
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.ExecutionException;
+import java.util.function.Consumer;
+
+/**
+ * Decorates any FsaDao so that concurrent requests for the same data share a single
+ * fetch.  The first caller for a key makes the call to the wrapped DAO; callers asking
+ * for the same key while that call is in flight wait for it and receive its result, or
+ * its exception, rather than making calls of their own.  Nothing is kept once the call
+ * has completed; caching is left to CachingFsaDao.
+ *
+ * Callers waiting with a progress listener receive the partial results reported after
+ * they joined.  If the caller making the call is interrupted, for example because its
+ * request was cancelled, the callers waiting on it are not failed with it; one of them
+ * makes the call again instead.
+ *
+ * @author jonny.lyon
+ *
+ */
+public class CoalescingFsaDao implements FsaDao {
+
+	/**
+	 * Key under which the authorities list is fetched, alongside the per-authority counts
+	 */
+	private static final Object AUTHORITIES_KEY = new Object();
+
+	private final FsaDao delegate;
+
+	/**
+	 * Calls in flight, by key.  A flight is removed as soon as it completes.
+	 */
+	private final ConcurrentMap<Object, Flight<?>> inFlight = new ConcurrentHashMap<>();
+
+	/**
+	 * Constructor for CoalescingFsaDao
+	 *
+	 * @param delegate the DAO to share calls to
+	 */
+	public CoalescingFsaDao(FsaDao delegate) {
+		this.delegate = delegate;
+	}
+
+	/**
+	 * {@inheritDoc}
+	 */
+	@Override
+	public Map<String, Long> fetchAuthorityNamesWithIds() throws IOException {
+		return share(AUTHORITIES_KEY, null,
+				listeners -> Collections.unmodifiableMap(delegate.fetchAuthorityNamesWithIds()));
+	}
+
+	/**
+	 * {@inheritDoc}
+	 */
+	@Override
+	public Map<Long, String> fetchAuthorityRegions() throws IOException {
+		return delegate.fetchAuthorityRegions();
+	}
+
+	/**
+	 * {@inheritDoc}
+	 *
+	 * Calculated from the counts, so that it shares a fetch of the counts in flight.
+	 */
+	@Override
+	public Map<String, Double> fetchRatingPercentagesForAuthority(Long authorityId) throws IOException {
+		return shareCounts(authorityId, null).toPercentages();
+	}
+
+	/**
+	 * {@inheritDoc}
+	 *
+	 * Calculated from the counts, so that it shares a fetch of the counts in flight.
+	 */
+	@Override
+	public Map<String, Double> fetchRatingPercentagesForAuthority(Long authorityId,
+			Consumer<Map<String, Double>> progress) throws IOException {
+		return shareCounts(authorityId, partial -> progress.accept(partial.toPercentages())).toPercentages();
+	}
+
+	/**
+	 * {@inheritDoc}
+	 *
+	 * Each caller receives its own copy of the counts, so callers are free to merge into it.
+	 */
+	@Override
+	public RatingHistogram fetchRatingCountsForAuthority(Long authorityId) throws IOException {
+		return fetchRatingCountsForAuthority(authorityId, null);
+	}
+
+	/**
+	 * {@inheritDoc}
+	 *
+	 * Each caller receives its own copy of the counts, so callers are free to merge into it.
+	 */
+	@Override
+	public RatingHistogram fetchRatingCountsForAuthority(Long authorityId, Consumer<RatingHistogram> progress)
+			throws IOException {
+		return shareCounts(authorityId, progress).copy();
+	}
+
+	/**
+	 * Joins the fetch of an authority's counts in flight, which is keyed by its id.  The
+	 * counts returned are shared by all its callers, so must not be changed.
+	 */
+	private RatingHistogram shareCounts(Long authorityId, Consumer<RatingHistogram> progress) throws IOException {
+		return share(authorityId, progress, listeners -> delegate.fetchRatingCountsForAuthority(authorityId, listeners));
+	}
+
+	/**
+	 * Joins the call in flight for the key, or makes the call if there is none.
+	 *
+	 * @param key identifies the data being fetched
+	 * @param progress notified of partial results, or null
+	 * @param call makes the call to the wrapped DAO, reporting progress to the listener given
+	 * @return the result of the shared call
+	 */
+	@SuppressWarnings("unchecked")
+	private <V> V share(Object key, Consumer<V> progress, Call<V> call) throws IOException {
+		while (true) {
+			Flight<V> flight = new Flight<>();
+			Flight<V> existing = (Flight<V>) inFlight.putIfAbsent(key, flight);
+			if (existing == null) {
+				return fly(key, flight, progress, call);
+			}
+
+			existing.addListener(progress);
+			try {
+				return existing.result.get();
+			} catch (InterruptedException e) {
+				Thread.currentThread().interrupt();
+				throw new InterruptedIOException("Interrupted while waiting for a shared fetch");
+			} catch (ExecutionException e) {
+				if (!(e.getCause() instanceof CallerInterrupted)) {
+					throw rethrow(e.getCause());
+				}
+				// the caller making the call was interrupted; try again
+			} finally {
+				existing.removeListener(progress);
+			}
+		}
+	}
+
+	private <V> V fly(Object key, Flight<V> flight, Consumer<V> progress, Call<V> call) throws IOException {
+		flight.addListener(progress);
+		try {
+			V value = call.run(flight::report);
+			flight.result.complete(value);
+			return value;
+		} catch (IOException | RuntimeException | Error e) {
+			flight.result.completeExceptionally(Thread.currentThread().isInterrupted() ? new CallerInterrupted() : e);
+			throw e;
+		} finally {
+			inFlight.remove(key, flight);
+		}
+	}
+
+	private static IOException rethrow(Throwable cause) {
+		if (cause instanceof IOException) {
+			return (IOException) cause;
+		} else if (cause instanceof RuntimeException) {
+			throw (RuntimeException) cause;
+		} else if (cause instanceof Error) {
+			throw (Error) cause;
+		}
+		return new IOException(cause);
+	}
+
+	/**
+	 * One call to the wrapped DAO, shared by all the callers for its key
+	 */
+	private static class Flight<V> {
+		private final CompletableFuture<V> result = new CompletableFuture<>();
+		private final List<Consumer<V>> listeners = new CopyOnWriteArrayList<>();
+
+		private void addListener(Consumer<V> listener) {
+			if (listener != null) {
+				listeners.add(listener);
+			}
+		}
+
+		private void removeListener(Consumer<V> listener) {
+			if (listener != null) {
+				listeners.remove(listener);
+			}
+		}
+
+		private void report(V partial) {
+			for (Consumer<V> listener : listeners) {
+				listener.accept(partial);
+			}
+		}
+	}
+
+	/**
+	 * Passed to the callers waiting on a call whose caller was interrupted, telling them to retry
+	 */
+	private static class CallerInterrupted extends IOException {
+		private static final long serialVersionUID = 1L;
+	}
+
+	/**
+	 * Makes a call to the wrapped DAO, reporting any partial results to the listener given
+	 */
+	private interface Call<V> {
+		V run(Consumer<V> progress) throws IOException;
+	}
+}
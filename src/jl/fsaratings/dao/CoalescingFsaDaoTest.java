@@ -0,0 +1,235 @@
+package jl.fsaratings.dao;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotSame;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Consumer;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+/**
+ * Test class for CoalescingFsaDao, using a stub DAO whose fetches block until the test
+ * releases them, so that callers can be made to overlap.
+ *
+ * @author jonny.lyon
+ *
+ */
+public class CoalescingFsaDaoTest {
+
+	private static final int CALLERS = 8;
+
+	private BlockingFsaDao delegate;
+
+	private CoalescingFsaDao instance;
+
+	private ExecutorService callers;
+
+	@Before
+	public void setUp() {
+		delegate = new BlockingFsaDao();
+		instance = new CoalescingFsaDao(delegate);
+		callers = Executors.newCachedThreadPool();
+	}
+
+	@After
+	public void tearDown() {
+		callers.shutdownNow();
+	}
+
+	@Test
+	public void testConcurrentCallersForSameAuthorityShareOneFetch() throws Exception {
+		List<Future<Map<String, Double>>> results = new ArrayList<>();
+		for (int i = 0; i < CALLERS; i++) {
+			results.add(callers.submit(() -> instance.fetchRatingPercentagesForAuthority(2L)));
+		}
+		delegate.started.await(5, TimeUnit.SECONDS);
+		awaitWaitingCallers(CALLERS - 1);
+		delegate.release.countDown();
+
+		for (Future<Map<String, Double>> result : results) {
+			assertEquals(buildPercentages(), result.get(5, TimeUnit.SECONDS));
+		}
+		assertEquals(1, delegate.calls.get());
+	}
+
+	@Test
+	public void testCallersForDifferentAuthoritiesAreNotCoalesced() throws Exception {
+		delegate.release.countDown();
+
+		instance.fetchRatingPercentagesForAuthority(1L);
+		instance.fetchRatingPercentagesForAuthority(2L);
+		instance.fetchRatingPercentagesForAuthority(2L);
+
+		assertEquals(3, delegate.calls.get());
+	}
+
+	@Test
+	public void testFailureIsSharedWithWaitingCallers() throws Exception {
+		delegate.failure = new IOException("mocked exception");
+		List<Future<Map<String, Double>>> results = new ArrayList<>();
+		for (int i = 0; i < CALLERS; i++) {
+			results.add(callers.submit(() -> instance.fetchRatingPercentagesForAuthority(2L)));
+		}
+		delegate.started.await(5, TimeUnit.SECONDS);
+		awaitWaitingCallers(CALLERS - 1);
+		delegate.release.countDown();
+
+		for (Future<Map<String, Double>> result : results) {
+			try {
+				result.get(5, TimeUnit.SECONDS);
+				fail("IOException expected");
+			} catch (ExecutionException e) {
+				assertSame(delegate.failure, e.getCause());
+			}
+		}
+		assertEquals(1, delegate.calls.get());
+	}
+
+	@Test
+	public void testWaitingCallersReceiveProgressAndOwnCopyOfCounts() throws Exception {
+		List<RatingHistogram> partials = new ArrayList<>();
+		Future<RatingHistogram> first = callers.submit(() -> instance.fetchRatingCountsForAuthority(2L));
+		delegate.started.await(5, TimeUnit.SECONDS);
+		Future<RatingHistogram> second = callers.submit(() -> instance.fetchRatingCountsForAuthority(2L, partials::add));
+		awaitWaitingCallers(1);
+		delegate.release.countDown();
+
+		RatingHistogram firstCounts = first.get(5, TimeUnit.SECONDS);
+		RatingHistogram secondCounts = second.get(5, TimeUnit.SECONDS);
+		assertEquals(firstCounts, secondCounts);
+		assertNotSame(firstCounts, secondCounts);
+		assertEquals(1, partials.size());
+		assertEquals(1, delegate.calls.get());
+	}
+
+	@Test
+	public void testWaitingCallerRetriesWhenCallerMakingTheFetchIsInterrupted() throws Exception {
+		Future<Map<String, Double>> first = callers.submit(() -> instance.fetchRatingPercentagesForAuthority(2L));
+		delegate.started.await(5, TimeUnit.SECONDS);
+		Future<Map<String, Double>> second = callers.submit(() -> instance.fetchRatingPercentagesForAuthority(2L));
+		awaitWaitingCallers(1);
+
+		first.cancel(true);
+		delegate.release.countDown();
+
+		assertEquals(buildPercentages(), second.get(5, TimeUnit.SECONDS));
+		assertEquals(2, delegate.calls.get());
+	}
+
+	@Test
+	public void testDistributionCallerSharesFetchOfCountsInFlight() throws Exception {
+		Future<RatingHistogram> counts = callers.submit(() -> instance.fetchRatingCountsForAuthority(2L));
+		delegate.started.await(5, TimeUnit.SECONDS);
+		Future<Map<String, Double>> percentages = callers.submit(() -> instance.fetchRatingPercentagesForAuthority(2L));
+		awaitWaitingCallers(1);
+		delegate.release.countDown();
+
+		assertEquals(buildCounts(), counts.get(5, TimeUnit.SECONDS));
+		assertEquals(buildPercentages(), percentages.get(5, TimeUnit.SECONDS));
+		assertEquals(1, delegate.calls.get());
+	}
+
+	/**
+	 * Waits until the callers given have joined the fetch in flight.  Callers are counted
+	 * as waiting once their thread is parked, which is close enough for these tests.
+	 */
+	private void awaitWaitingCallers(int waiting) throws InterruptedException {
+		for (int i = 0; i < 500 && countWaitingThreads() < waiting; i++) {
+			Thread.sleep(10);
+		}
+		assertTrue("callers did not join the fetch in flight", countWaitingThreads() >= waiting);
+	}
+
+	private int countWaitingThreads() {
+		int waiting = 0;
+		for (Map.Entry<Thread, StackTraceElement[]> thread : Thread.getAllStackTraces().entrySet()) {
+			for (StackTraceElement frame : thread.getValue()) {
+				if (frame.getClassName().equals(CoalescingFsaDao.class.getName()) && frame.getMethodName().equals("share")
+						&& thread.getKey().getState() == Thread.State.WAITING) {
+					waiting++;
+					break;
+				}
+			}
+		}
+		return waiting;
+	}
+
+	private static RatingHistogram buildCounts() {
+		RatingHistogram counts = new RatingHistogram(RatingHistogram.Scheme.FHRS);
+		counts.add(RatingHistogram.ordinalOf("5"), 3);
+		counts.add(RatingHistogram.ordinalOf("Exempt"), 1);
+		return counts;
+	}
+
+	private static Map<String, Double> buildPercentages() {
+		return buildCounts().toPercentages();
+	}
+
+	/**
+	 * Stub DAO whose distribution fetches block until released, reporting one partial result first
+	 */
+	private static class BlockingFsaDao implements FsaDao {
+
+		private final CountDownLatch started = new CountDownLatch(1);
+		private final CountDownLatch release = new CountDownLatch(1);
+		private final AtomicInteger calls = new AtomicInteger();
+		private volatile IOException failure;
+
+		@Override
+		public Map<String, Long> fetchAuthorityNamesWithIds() throws IOException {
+			throw new UnsupportedOperationException();
+		}
+
+		@Override
+		public Map<String, Double> fetchRatingPercentagesForAuthority(Long authorityId) throws IOException {
+			return fetchRatingCountsForAuthority(authorityId).toPercentages();
+		}
+
+		@Override
+		public RatingHistogram fetchRatingCountsForAuthority(Long authorityId) throws IOException {
+			return fetchRatingCountsForAuthority(authorityId, partial -> {});
+		}
+
+		@Override
+		public Map<String, Double> fetchRatingPercentagesForAuthority(Long authorityId,
+				Consumer<Map<String, Double>> progress) throws IOException {
+			return fetchRatingCountsForAuthority(authorityId, partial -> progress.accept(partial.toPercentages())).toPercentages();
+		}
+
+		@Override
+		public RatingHistogram fetchRatingCountsForAuthority(Long authorityId, Consumer<RatingHistogram> progress)
+				throws IOException {
+			calls.incrementAndGet();
+			started.countDown();
+			try {
+				release.await();
+			} catch (InterruptedException e) {
+				Thread.currentThread().interrupt();
+				throw new InterruptedIOException();
+			}
+			if (failure != null) {
+				throw failure;
+			}
+			RatingHistogram counts = buildCounts();
+			progress.accept(counts.copy());
+			return counts;
+		}
+	}
+}
@@ -0,0 +1,293 @@
+package jl.fsaratings.dao;
+
+import java.io.DataInput;
+import java.io.DataOutput;
+import java.io.IOException;
+import java.util.Arrays;
+
+/**
+ * The last known rating of each establishment in one authority, along with the counts
+ * they add up to, so that the counts can be kept current by applying the changes to
+ * individual establishments rather than by counting them all again.
+ *
+ * Recording a new rating for an establishment takes one off the count of its old rating
+ * and adds one to the count of its new one.  Recording the same rating again changes
+ * nothing, so applying a change more than once is harmless.
+ *
+ * Ratings are held in an open-addressing map from establishment id to rating ordinal,
+ * made of a long array and a byte array, so an authority of 10,000 establishments costs
+ * a couple of hundred kilobytes at most and no boxing.
+ *
+ * Also records when the ratings were last brought up to date, in full or in part.
+ *
+ * Instances are not thread safe.
+ *
+ * @author jonny.lyon
+ *
+ */
+public final class EstablishmentRatings {
+
+	private static final int INITIAL_CAPACITY = 64;
+
+	/**
+	 * Marks an empty slot.  Not a rating ordinal, since those are -1 (unwanted) to 8.
+	 */
+	private static final byte EMPTY = Byte.MIN_VALUE;
+
+	private final RatingHistogram counts = new RatingHistogram();
+
+	private long[] ids = new long[INITIAL_CAPACITY];
+
+	private byte[] ordinals = newOrdinals(INITIAL_CAPACITY);
+
+	private int size;
+
+	private long syncedAt;
+
+	private long fullSyncedAt;
+
+	/**
+	 * Records the current rating of an establishment, adjusting the counts if it has changed.
+	 * The counts take their scheme from the first establishment that has one.
+	 *
+	 * @param establishmentId the establishment's FHRSID
+	 * @param scheme the establishment's scheme, or null if not recognised
+	 * @param ordinal the rating ordinal, or -1 for an unwanted rating
+	 * @return true if the rating was new or different to the one held
+	 */
+	public boolean put(long establishmentId, RatingHistogram.Scheme scheme, int ordinal) {
+		if (counts.getSchemeBits() == 0) {
+			counts.addScheme(scheme);
+		}
+
+		int slot = slotOf(establishmentId);
+		if (ordinals[slot] != EMPTY) {
+			int previous = ordinals[slot];
+			if (previous == ordinal) {
+				return false;
+			}
+			counts.add(previous, -1);
+		} else {
+			if ((size + 1) * 4 > ids.length * 3) {
+				grow();
+				slot = slotOf(establishmentId);
+			}
+			ids[slot] = establishmentId;
+			size++;
+		}
+		ordinals[slot] = (byte) ordinal;
+		counts.increment(ordinal);
+		return true;
+	}
+
+	/**
+	 * Forgets an establishment, taking it off the count of its rating
+	 *
+	 * @param establishmentId the establishment's FHRSID
+	 * @return true if the establishment was held
+	 */
+	public boolean remove(long establishmentId) {
+		int slot = slotOf(establishmentId);
+		if (ordinals[slot] == EMPTY) {
+			return false;
+		}
+		counts.add(ordinals[slot], -1);
+		size--;
+
+		// shift back any later entries of the same probe run, so that no lookup stops short
+		int mask = ids.length - 1;
+		int free = slot;
+		for (int next = (free + 1) & mask; ordinals[next] != EMPTY; next = (next + 1) & mask) {
+			int home = hash(ids[next]) & mask;
+			if (((next - home) & mask) >= ((next - free) & mask)) {
+				ids[free] = ids[next];
+				ordinals[free] = ordinals[next];
+				free = next;
+			}
+		}
+		ordinals[free] = EMPTY;
+		return true;
+	}
+
+	/**
+	 * @param establishmentId the establishment's FHRSID
+	 * @return the rating ordinal held for the establishment, -1 for an unwanted rating, or
+	 * -2 if the establishment is not held
+	 */
+	public int getRating(long establishmentId) {
+		byte ordinal = ordinals[slotOf(establishmentId)];
+		return ordinal == EMPTY ? -2 : ordinal;
+	}
+
+	/**
+	 * Records the ratings of another set in this one, e.g. to combine the pages of an
+	 * authority.  The sync times of this set are unchanged.
+	 *
+	 * @param other the ratings to record
+	 * @return this set
+	 */
+	public EstablishmentRatings merge(EstablishmentRatings other) {
+		if (counts.getSchemeBits() == 0) {
+			counts.addSchemeBits(other.counts.getSchemeBits());
+		}
+		for (int i = 0; i < other.ids.length; i++) {
+			if (other.ordinals[i] != EMPTY) {
+				put(other.ids[i], null, other.ordinals[i]);
+			}
+		}
+		return this;
+	}
+
+	/**
+	 * @return the number of establishments held
+	 */
+	public int size() {
+		return size;
+	}
+
+	/**
+	 * Passes each establishment held and its rating to the visitor, in no particular order
+	 *
+	 * @param visitor the visitor
+	 */
+	public void forEach(Visitor visitor) {
+		for (int i = 0; i < ids.length; i++) {
+			if (ordinals[i] != EMPTY) {
+				visitor.visit(ids[i], ordinals[i]);
+			}
+		}
+	}
+
+	/**
+	 * @return the schemes of the counts, as a bit set of Scheme ordinals
+	 */
+	public int getSchemeBits() {
+		return counts.getSchemeBits();
+	}
+
+	/**
+	 * @return a copy of the counts of the ratings held
+	 */
+	public RatingHistogram getCounts() {
+		return counts.copy();
+	}
+
+	/**
+	 * @return when the ratings were last brought up to date, in full or with changes, in
+	 * milliseconds since the epoch, or 0 if never
+	 */
+	public long getSyncedAt() {
+		return syncedAt;
+	}
+
+	/**
+	 * @param syncedAt when the ratings were last brought up to date, in milliseconds since the epoch
+	 */
+	public void setSyncedAt(long syncedAt) {
+		this.syncedAt = syncedAt;
+	}
+
+	/**
+	 * @return when the ratings were last fetched in full, in milliseconds since the epoch, or 0 if never
+	 */
+	public long getFullSyncedAt() {
+		return fullSyncedAt;
+	}
+
+	/**
+	 * @param fullSyncedAt when the ratings were last fetched in full, in milliseconds since the epoch
+	 */
+	public void setFullSyncedAt(long fullSyncedAt) {
+		this.fullSyncedAt = fullSyncedAt;
+	}
+
+	/**
+	 * Writes the ratings and sync times, for reading back with {@link #readFrom(DataInput)}
+	 *
+	 * @param out where to write them
+	 * @throws IOException if they cannot be written
+	 */
+	public void writeTo(DataOutput out) throws IOException {
+		out.writeByte(counts.getSchemeBits());
+		out.writeLong(syncedAt);
+		out.writeLong(fullSyncedAt);
+		out.writeInt(size);
+		for (int i = 0; i < ids.length; i++) {
+			if (ordinals[i] != EMPTY) {
+				out.writeLong(ids[i]);
+				out.writeByte(ordinals[i]);
+			}
+		}
+	}
+
+	/**
+	 * Reads ratings written by {@link #writeTo(DataOutput)}, recounting them as they are read
+	 *
+	 * @param in where to read them from
+	 * @return the ratings
+	 * @throws IOException if they cannot be read
+	 */
+	public static EstablishmentRatings readFrom(DataInput in) throws IOException {
+		EstablishmentRatings ratings = new EstablishmentRatings();
+		ratings.counts.addSchemeBits(in.readByte());
+		ratings.syncedAt = in.readLong();
+		ratings.fullSyncedAt = in.readLong();
+		int size = in.readInt();
+		for (int i = 0; i < size; i++) {
+			long id = in.readLong();
+			ratings.put(id, null, in.readByte());
+		}
+		return ratings;
+	}
+
+	/**
+	 * Receives each establishment held, from {@link EstablishmentRatings#forEach(Visitor)}
+	 */
+	public interface Visitor {
+		/**
+		 * @param establishmentId the establishment's FHRSID
+		 * @param ordinal the rating ordinal, or -1 for an unwanted rating
+		 */
+		void visit(long establishmentId, int ordinal);
+	}
+
+	/**
+	 * @return the slot holding the id, or the empty slot where it would go
+	 */
+	private int slotOf(long establishmentId) {
+		int mask = ids.length - 1;
+		int slot = hash(establishmentId) & mask;
+		while (ordinals[slot] != EMPTY && ids[slot] != establishmentId) {
+			slot = (slot + 1) & mask;
+		}
+		return slot;
+	}
+
+	private void grow() {
+		long[] oldIds = ids;
+		byte[] oldOrdinals = ordinals;
+		ids = new long[oldIds.length * 2];
+		ordinals = newOrdinals(oldIds.length * 2);
+		for (int i = 0; i < oldIds.length; i++) {
+			if (oldOrdinals[i] != EMPTY) {
+				int slot = slotOf(oldIds[i]);
+				ids[slot] = oldIds[i];
+				ordinals[slot] = oldOrdinals[i];
+			}
+		}
+	}
+
+	private static byte[] newOrdinals(int capacity) {
+		byte[] ordinals = new byte[capacity];
+		Arrays.fill(ordinals, EMPTY);
+		return ordinals;
+	}
+
+	/**
+	 * Establishment ids are often sequential, so they are mixed before being reduced to a slot
+	 */
+	private static int hash(long establishmentId) {
+		long mixed = establishmentId * 0x9E3779B97F4A7C15L;
+		return (int) (mixed ^ (mixed >>> 32));
+	}
+}
@@ -0,0 +1,91 @@
+package jl.fsaratings.dao;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+
+import org.junit.Test;
+
+/**
+ * Test class for EstablishmentRatings
+ *
+ * @author jonny.lyon
+ *
+ */
+public class EstablishmentRatingsTest {
+
+	private static final int FIVE = RatingHistogram.ordinalOf("5");
+
+	private static final int THREE = RatingHistogram.ordinalOf("3");
+
+	@Test
+	public void testChangedRatingMovesOneBetweenCounts() {
+		EstablishmentRatings instance = new EstablishmentRatings();
+		instance.put(1, RatingHistogram.Scheme.FHRS, FIVE);
+		instance.put(2, RatingHistogram.Scheme.FHRS, FIVE);
+
+		assertTrue(instance.put(2, RatingHistogram.Scheme.FHRS, THREE));
+		assertFalse(instance.put(2, RatingHistogram.Scheme.FHRS, THREE));
+
+		RatingHistogram counts = instance.getCounts();
+		assertEquals(1, counts.getCount(FIVE));
+		assertEquals(1, counts.getCount(THREE));
+		assertEquals(2, instance.size());
+	}
+
+	@Test
+	public void testUnwantedRatingsAreHeldButNotCounted() {
+		EstablishmentRatings instance = new EstablishmentRatings();
+		instance.put(1, RatingHistogram.Scheme.FHRS, -1);
+		assertEquals(0, instance.getCounts().getTotal());
+
+		instance.put(1, RatingHistogram.Scheme.FHRS, FIVE);
+		instance.put(1, RatingHistogram.Scheme.FHRS, -1);
+
+		assertEquals(-1, instance.getRating(1));
+		assertEquals(0, instance.getCounts().getTotal());
+	}
+
+	@Test
+	public void testRemovalKeepsEveryOtherEstablishmentReachable() {
+		EstablishmentRatings instance = new EstablishmentRatings();
+		for (long id = 0; id < 1000; id++) {
+			instance.put(id, RatingHistogram.Scheme.FHRS, (int) (id % 6));
+		}
+		for (long id = 0; id < 1000; id += 3) {
+			assertTrue(instance.remove(id));
+		}
+
+		assertFalse(instance.remove(0));
+		assertEquals(666, instance.size());
+		assertEquals(666, instance.getCounts().getTotal());
+		for (long id = 0; id < 1000; id++) {
+			assertEquals(id % 3 == 0 ? -2 : id % 6, instance.getRating(id));
+		}
+	}
+
+	@Test
+	public void testWrittenRatingsAreReadBackAndRecounted() throws IOException {
+		EstablishmentRatings instance = new EstablishmentRatings();
+		instance.put(10, RatingHistogram.Scheme.FHIS, RatingHistogram.ordinalOf("Pass"));
+		instance.put(20, RatingHistogram.Scheme.FHIS, -1);
+		instance.setSyncedAt(200);
+		instance.setFullSyncedAt(100);
+
+		ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+		instance.writeTo(new DataOutputStream(bytes));
+		EstablishmentRatings actual = EstablishmentRatings.readFrom(new DataInputStream(new ByteArrayInputStream(bytes.toByteArray())));
+
+		assertEquals(instance.getCounts(), actual.getCounts());
+		assertEquals(2, actual.size());
+		assertEquals(-1, actual.getRating(20));
+		assertEquals(200, actual.getSyncedAt());
+		assertEquals(100, actual.getFullSyncedAt());
+	}
+}
@@ -1,7 +1,11 @@
 package jl.fsaratings.dao;
 
 import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.util.Collection;
+import java.util.Collections;
 import java.util.Map;
+import java.util.function.Consumer;
 
 /**
  * DAO interface, provided to allow easy mocking for test purposes.
@@ -19,6 +23,20 @@ public interface FsaDao {
 	 */
 	Map<String, Long> fetchAuthorityNamesWithIds() throws IOException;
 
+	/**
+	 * Retrieves the name of the region of every authority, e.g. for combining their counts
+	 * with a RatingRollup.
+	 *
+	 * By default no regions are known.  Regions are only needed for occasional roll-ups, so
+	 * the decorating DAOs pass this straight to the DAO they wrap rather than caching it.
+	 *
+	 * @return a map indexed by authority ID, mapped to the name of its region
+	 * @throws IOException if an error occurs retrieving data from the external API
+	 */
+	default Map<Long, String> fetchAuthorityRegions() throws IOException {
+		return Collections.emptyMap();
+	}
+
 	/**
 	 * For the authority ID specified, calculates the distribution of ratings between all of the
 	 * 'wanted' ratings.  An assumption is made that all establishments in a single authority
@@ -30,4 +48,69 @@ public interface FsaDao {
 	 * @throws IOException if an error occurs retrieving data from the external API
 	 */
 	Map<String, Double> fetchRatingPercentagesForAuthority(Long authorityId) throws IOException;
+
+	/**
+	 * For the authority ID specified, counts the establishments with each of the 'wanted'
+	 * ratings, on the same assumptions as {@link #fetchRatingPercentagesForAuthority(Long)}.
+	 * Unlike percentages, counts can be merged across authorities.
+	 *
+	 * @param authorityId the authority to count ratings for
+	 * @return the counts for each rating
+	 * @throws IOException if an error occurs retrieving data from the external API
+	 */
+	RatingHistogram fetchRatingCountsForAuthority(Long authorityId) throws IOException;
+
+	/**
+	 * For each of the authority IDs specified, calculates the distribution of ratings as
+	 * {@link #fetchRatingPercentagesForAuthority(Long)} does, for comparing them.  The
+	 * authorities are fetched at the same time, so that this takes about as long as the
+	 * slowest of them rather than all of them added up.  An authority which cannot be
+	 * fetched does not fail the others; its error is recorded in the comparison instead.
+	 *
+	 * By default each authority is counted with {@link #fetchRatingCountsForAuthority(Long)}
+	 * on a shared pool of threads.
+	 *
+	 * @param authorityIds the authorities to compare
+	 * @return the distribution of each authority that succeeded and the error of each that failed
+	 * @throws InterruptedIOException if interrupted while waiting for the authorities
+	 */
+	default AuthorityComparison fetchRatingPercentagesForAuthorities(Collection<Long> authorityIds)
+			throws InterruptedIOException {
+		return AuthorityComparison.fetch(this, authorityIds);
+	}
+
+	/**
+	 * As {@link #fetchRatingPercentagesForAuthority(Long)}, but for implementations which
+	 * fetch an authority's establishments a page at a time, also passes the distribution of
+	 * the establishments fetched so far to the progress listener after each page, so that
+	 * callers can show partial results.  The listener is called on the fetching thread.
+	 *
+	 * By default no partial results are reported.
+	 *
+	 * @param authorityId the authority to find rating distributions for
+	 * @param progress notified with the partial distribution after each page
+	 * @return a map indexed by rating name, mapping to the percentage for that rating
+	 * @throws IOException if an error occurs retrieving data from the external API
+	 */
+	default Map<String, Double> fetchRatingPercentagesForAuthority(Long authorityId,
+			Consumer<Map<String, Double>> progress) throws IOException {
+		return fetchRatingPercentagesForAuthority(authorityId);
+	}
+
+	/**
+	 * As {@link #fetchRatingCountsForAuthority(Long)}, also passing the counts so far to the
+	 * progress listener after each page fetched, as for
+	 * {@link #fetchRatingPercentagesForAuthority(Long, Consumer)}.
+	 *
+	 * By default no partial results are reported.
+	 *
+	 * @param authorityId the authority to count ratings for
+	 * @param progress notified with a copy of the partial counts after each page
+	 * @return the counts for each rating
+	 * @throws IOException if an error occurs retrieving data from the external API
+	 */
+	default RatingHistogram fetchRatingCountsForAuthority(Long authorityId, Consumer<RatingHistogram> progress)
+			throws IOException {
+		return fetchRatingCountsForAuthority(authorityId);
+	}
 }
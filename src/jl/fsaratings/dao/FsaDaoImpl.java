@@ -1,18 +1,68 @@
 package jl.fsaratings.dao;
 
+import java.io.DataInput;
+import java.io.DataOutput;
 import java.io.IOException;
-import java.util.LinkedHashMap;
+import java.io.InterruptedIOException;
+import java.io.Reader;
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.List;
 import java.util.Map;
 import java.util.TreeMap;
+import java.util.concurrent.CompletionService;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ExecutorCompletionService;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Consumer;
+import java.util.function.LongSupplier;
 
 import org.json.JSONArray;
 import org.json.JSONObject;
+import org.json.JSONTokener;
 
+import jl.fsaratings.json.JsonStreamReader;
+import jl.fsaratings.metrics.Metrics;
+import jl.fsaratings.rest.ConditionalResponse;
 import jl.fsaratings.rest.RestHandler;
+import jl.fsaratings.store.EstablishmentRatingsStore;
+import jl.fsaratings.store.HttpResponseCache;
 
 /**
  * Implements FsaDao and handles all of the API data retrieval
  *
+ * By default each authority's establishments are fetched in a single response.  If a
+ * page size is given, they are fetched a page at a time instead, and the counts so far
+ * are reported to any progress listener after each page, so that the first numbers can
+ * be shown long before the last page of a large authority has arrived.  Given a page
+ * executor, the pages after the first are fetched concurrently on it and merged in the
+ * order they arrive.
+ *
+ * Given an EstablishmentRatingsStore, refreshes are incremental.  The first fetch of an
+ * authority is a full one, which also records the rating of each establishment by its
+ * FHRSID.  Later fetches only ask the changes endpoint for the establishments changed
+ * since the last sync, and adjust the counts by one for each rating that has changed, so
+ * their cost depends on how many ratings have changed rather than on the size of the
+ * authority.  A change feed cannot say which establishments have closed, so a full
+ * fetch is still made once a day to drop them.  Each sync asks for changes from a few
+ * minutes before the previous one started, to allow for clock differences; since
+ * applying a change twice has no effect, the overlap is harmless.
+ *
+ * The live API has no changes endpoint, so incremental refresh is only available when
+ * the FsaDao.fsa.api.establishments.changes property is set, e.g. to a service which
+ * mirrors the API; see {@link #isIncrementalRefreshConfigured()}.
+ *
+ * Given an HttpResponseCache, the authorities list and establishments responses are
+ * fetched with conditional requests, and what was made of each response last time (the
+ * authorities map, or a page's counts) is kept along with its ETag and Last-Modified
+ * validators.  When the API answers 304 Not Modified, that is used again, so an unchanged
+ * authority costs neither the transfer nor the parse of its establishments.  Changes
+ * responses are never cached, since each is asked for with a different time.
+ *
  * @author jonny.lyon
  *
  */
@@ -23,20 +73,173 @@ public class FsaDaoImpl implements FsaDao {
 	 */
 	private static final String AUTHORITIES_ENDPOINT = Messages.getString("FsaDao.fsa.api.authorities");
 
+	/**
+	 * Pulls in the URL to the full authorities endpoint, which gives their regions, from an
+	 * externalised property file
+	 */
+	private static final String AUTHORITIES_FULL_ENDPOINT = Messages.getString("FsaDao.fsa.api.authorities.full");
+
 	/**
 	 * Pulls in the URL to the establishments endpoint from an externalised property file
 	 */
 	private static final String ESTABLISHMENTS_ENDPOINT = Messages.getString("FsaDao.fsa.api.establishments");
 
+	/**
+	 * Pulls in the URL to one page of the establishments endpoint from an externalised property file
+	 */
+	private static final String ESTABLISHMENTS_PAGE_ENDPOINT = Messages.getString("FsaDao.fsa.api.establishments.page");
+
+	/**
+	 * Pulls in the URL to the establishments changed since a time from an externalised
+	 * property file.  Empty unless configured, since the live API does not offer one.
+	 */
+	private static final String ESTABLISHMENTS_CHANGES_ENDPOINT = Messages.getString("FsaDao.fsa.api.establishments.changes");
+
+	/**
+	 * How often each authority is fetched in full when refreshing incrementally, to drop closed establishments
+	 */
+	private static final long FULL_SYNC_INTERVAL_MILLIS = TimeUnit.DAYS.toMillis(1);
+
+	/**
+	 * How far before the previous sync changes are asked for, to allow for clock differences
+	 */
+	private static final long SYNC_OVERLAP_MILLIS = TimeUnit.MINUTES.toMillis(5);
+
+	/**
+	 * Encode what is made of each kind of response for the response cache
+	 */
+	private static final HttpResponseCache.Codec<Map<String, Long>> AUTHORITIES_CODEC = new AuthoritiesCodec();
+	private static final HttpResponseCache.Codec<Map<Long, String>> REGIONS_CODEC = new RegionsCodec();
+	private static final HttpResponseCache.Codec<Page> PAGE_CODEC = new PageCodec("establishments");
+	private static final HttpResponseCache.Codec<Page> TRACKED_PAGE_CODEC = new PageCodec("establishments-tracked");
+
 	private final RestHandler restHandler;
 
+	/**
+	 * Number of establishments per page, or 0 to fetch them all in one response
+	 */
+	private final int pageSize;
+
+	/**
+	 * Runs the fetches of the second and later pages, or null to fetch them in turn on the calling thread
+	 */
+	private final Executor pageExecutor;
+
+	/**
+	 * Saves the establishment ratings of each authority for incremental refresh, or null to always fetch in full
+	 */
+	private final EstablishmentRatingsStore ratingsStore;
+
+	/**
+	 * Keeps what was made of each response for conditional requests, or null to always fetch in full
+	 */
+	private final HttpResponseCache responseCache;
+
+	/**
+	 * The URL of the establishments changed since a time, with {authorityId} and {since} placeholders
+	 */
+	private final String changesEndpoint;
+
+	private final LongSupplier clock;
+
+	/**
+	 * The establishment ratings of each authority fetched incrementally, loaded from the
+	 * store on first use.  Each authority's entry is locked while it is being synced.
+	 */
+	private final ConcurrentMap<Long, TrackedAuthority> tracked = new ConcurrentHashMap<>();
+
 	/**
 	 * Constructor for FsaDaoImpl
 	 *
 	 * @param restHandler A class to handle the rest calls and return JSONObjects with the response data
 	 */
 	public FsaDaoImpl(RestHandler restHandler) {
+		this(restHandler, 0, null);
+	}
+
+	/**
+	 * Constructor for FsaDaoImpl which fetches establishments a page at a time, in turn on
+	 * the calling thread
+	 *
+	 * @param restHandler A class to handle the rest calls and return JSONObjects with the response data
+	 * @param pageSize the number of establishments per page
+	 */
+	public FsaDaoImpl(RestHandler restHandler, int pageSize) {
+		this(restHandler, pageSize, null);
+	}
+
+	/**
+	 * Constructor for FsaDaoImpl which fetches establishments a page at a time.  The first
+	 * page is fetched on the calling thread, to find out how many pages there are, and the
+	 * rest are all submitted to the page executor, whose size therefore limits how many are
+	 * fetched at once.
+	 *
+	 * @param restHandler A class to handle the rest calls and return JSONObjects with the response data
+	 * @param pageSize the number of establishments per page, or 0 to fetch them all in one response
+	 * @param pageExecutor runs the page fetches after the first, or null to fetch them in turn
+	 */
+	public FsaDaoImpl(RestHandler restHandler, int pageSize, Executor pageExecutor) {
+		this(restHandler, pageSize, pageExecutor, null, null, null, System::currentTimeMillis);
+	}
+
+	/**
+	 * Constructor for FsaDaoImpl which refreshes incrementally, fetching establishments as
+	 * the three argument constructor does whenever an authority is fetched in full.
+	 *
+	 * @param restHandler A class to handle the rest calls and return JSONObjects with the response data
+	 * @param pageSize the number of establishments per page, or 0 to fetch them all in one response
+	 * @param pageExecutor runs the page fetches after the first, or null to fetch them in turn
+	 * @param ratingsStore saves the establishment ratings between syncs
+	 * @throws IllegalStateException if no changes endpoint is configured
+	 */
+	public FsaDaoImpl(RestHandler restHandler, int pageSize, Executor pageExecutor, EstablishmentRatingsStore ratingsStore) {
+		this(restHandler, pageSize, pageExecutor, ratingsStore, null);
+	}
+
+	/**
+	 * Constructor for FsaDaoImpl which may refresh incrementally, and may make its requests
+	 * conditional on the responses it has already had.
+	 *
+	 * @param restHandler A class to handle the rest calls and return JSONObjects with the response data
+	 * @param pageSize the number of establishments per page, or 0 to fetch them all in one response
+	 * @param pageExecutor runs the page fetches after the first, or null to fetch them in turn
+	 * @param ratingsStore saves the establishment ratings between syncs, or null to always fetch in full
+	 * @param responseCache keeps what was made of each response, or null to make unconditional requests
+	 * @throws IllegalStateException if a ratings store is given but no changes endpoint is configured
+	 */
+	public FsaDaoImpl(RestHandler restHandler, int pageSize, Executor pageExecutor, EstablishmentRatingsStore ratingsStore,
+			HttpResponseCache responseCache) {
+		this(restHandler, pageSize, pageExecutor, ratingsStore, responseCache, ESTABLISHMENTS_CHANGES_ENDPOINT,
+				System::currentTimeMillis);
+		if (ratingsStore != null && !isIncrementalRefreshConfigured()) {
+			throw new IllegalStateException("FsaDao.fsa.api.establishments.changes must be set for incremental refresh");
+		}
+	}
+
+	/**
+	 * Constructor for FsaDaoImpl, allowing the changes endpoint and clock to be provided
+	 * for test purposes
+	 */
+	FsaDaoImpl(RestHandler restHandler, int pageSize, Executor pageExecutor, EstablishmentRatingsStore ratingsStore,
+			HttpResponseCache responseCache, String changesEndpoint, LongSupplier clock) {
+		if (pageSize < 0) {
+			throw new IllegalArgumentException("pageSize must not be negative");
+		}
 		this.restHandler = restHandler;
+		this.pageSize = pageSize;
+		this.pageExecutor = pageExecutor;
+		this.ratingsStore = ratingsStore;
+		this.responseCache = responseCache;
+		this.changesEndpoint = changesEndpoint;
+		this.clock = clock;
+	}
+
+	/**
+	 * @return true if an endpoint for the establishments changed since a time has been
+	 * configured, so that incremental refresh is possible
+	 */
+	public static boolean isIncrementalRefreshConfigured() {
+		return !ESTABLISHMENTS_CHANGES_ENDPOINT.isEmpty() && !ESTABLISHMENTS_CHANGES_ENDPOINT.startsWith("!");
 	}
 
 	/**
@@ -44,8 +247,17 @@ public class FsaDaoImpl implements FsaDao {
 	 */
 	@Override
 	public Map<String, Long> fetchAuthorityNamesWithIds() throws IOException {
-		JSONObject json = restHandler.getEndpointResponse(AUTHORITIES_ENDPOINT);
+		if (responseCache != null) {
+			return new TreeMap<>(fetchCached(AUTHORITIES_ENDPOINT, AUTHORITIES_CODEC,
+					body -> readAuthorities(new JSONObject(new JSONTokener(body)))));
+		}
+		return readAuthorities(restHandler.getEndpointResponse(AUTHORITIES_ENDPOINT));
+	}
 
+	/**
+	 * @return the authorities in an authorities response, by name
+	 */
+	private static Map<String, Long> readAuthorities(JSONObject json) {
 		JSONArray authorities = json.getJSONArray("authorities");
 
 		Map<String, Long> result = new TreeMap<>();
@@ -59,86 +271,542 @@ public class FsaDaoImpl implements FsaDao {
 		return result;
 	}
 
+	/**
+	 * {@inheritDoc}
+	 *
+	 * Read from the full authorities response, which is much larger than the basic one, so
+	 * only fetched when asked for.
+	 */
+	@Override
+	public Map<Long, String> fetchAuthorityRegions() throws IOException {
+		if (responseCache != null) {
+			return new TreeMap<>(fetchCached(AUTHORITIES_FULL_ENDPOINT, REGIONS_CODEC,
+					body -> readRegions(new JSONObject(new JSONTokener(body)))));
+		}
+		return readRegions(restHandler.getEndpointResponse(AUTHORITIES_FULL_ENDPOINT));
+	}
+
+	/**
+	 * @return the region of each authority in a full authorities response, by authority id
+	 */
+	private static Map<Long, String> readRegions(JSONObject json) {
+		JSONArray authorities = json.getJSONArray("authorities");
+
+		Map<Long, String> result = new TreeMap<>();
+		for (int i = 0; i < authorities.length(); i++) {
+			JSONObject authority = authorities.getJSONObject(i);
+			String region = authority.optString("RegionName", "");
+			if (!region.isEmpty()) {
+				result.put(authority.getLong("LocalAuthorityId"), region);
+			}
+		}
+
+		return result;
+	}
+
 	/**
 	 * {@inheritDoc}
 	 */
 	@Override
 	public Map<String, Double> fetchRatingPercentagesForAuthority(Long authorityId) throws IOException {
-		JSONObject json = restHandler.getEndpointResponse(ESTABLISHMENTS_ENDPOINT.replace("{authorityId}", authorityId.toString()));
+		return fetchRatingCountsForAuthority(authorityId).toPercentages();
+	}
+
+	/**
+	 * {@inheritDoc}
+	 */
+	@Override
+	public Map<String, Double> fetchRatingPercentagesForAuthority(Long authorityId,
+			Consumer<Map<String, Double>> progress) throws IOException {
+		return fetchRatingCountsForAuthority(authorityId, partial -> progress.accept(partial.toPercentages())).toPercentages();
+	}
+
+	/**
+	 * {@inheritDoc}
+	 *
+	 * The establishments response can be very large for big authorities, so it is
+	 * read as a stream rather than being built into a JSONObject.  Only SchemeType
+	 * and RatingValue are looked at; everything else is skipped as it is read.
+	 */
+	@Override
+	public RatingHistogram fetchRatingCountsForAuthority(Long authorityId) throws IOException {
+		return fetchRatingCountsForAuthority(authorityId, partial -> {});
+	}
 
-		JSONArray establishments = json.getJSONArray("establishments");
+	/**
+	 * {@inheritDoc}
+	 *
+	 * Partial counts are only reported when fetching a page at a time, and not when
+	 * applying changes.
+	 */
+	@Override
+	public RatingHistogram fetchRatingCountsForAuthority(Long authorityId, Consumer<RatingHistogram> progress)
+			throws IOException {
+		long start = Metrics.start();
+		RatingHistogram counts = ratingsStore == null
+				? fetchAll(authorityId, progress, false).histogram
+				: syncIncrementally(authorityId, progress);
+		Metrics.Stage.AUTHORITY.stop(start);
+		return counts;
+	}
 
-		Map<String, Integer> countPerRatingType = new LinkedHashMap<>();
-		// making the assumption that all establishments within one authority share
-		// the same scheme type (FHIS or FHRS); therefore just checking the first
-		// establishment to infer available ratings.
-		if (establishments.length() > 0) {
-			String schemeType = establishments.getJSONObject(0).getString("SchemeType");
-			if (schemeType.equals("FHIS")) {
-				countPerRatingType = initialCountsForScotland();
-			} else if (schemeType.equals("FHRS")) {
-				countPerRatingType = initialCountsForNotScotland();
+	/**
+	 * Fetches the rating of every establishment of an authority, in full, e.g. to build
+	 * a local store of them.  Establishments without an FHRSID are left out.
+	 *
+	 * @param authorityId the authority
+	 * @return the ratings by establishment
+	 * @throws IOException if the establishments cannot be fetched
+	 */
+	public EstablishmentRatings fetchEstablishmentRatings(Long authorityId) throws IOException {
+		return fetchAll(authorityId, partial -> {}, true).ratings;
+	}
+
+	/**
+	 * Brings the establishment ratings of an authority up to date, applying the changes
+	 * since the last sync if there has been one in the last day, and fetching them in full
+	 * otherwise.  Callers for the same authority wait for each other, so that they never
+	 * apply the same changes at once, and those that waited find little left to apply.
+	 *
+	 * @return the counts of the ratings once up to date
+	 */
+	private RatingHistogram syncIncrementally(Long authorityId, Consumer<RatingHistogram> progress) throws IOException {
+		TrackedAuthority authority = tracked.computeIfAbsent(authorityId, id -> new TrackedAuthority());
+		synchronized (authority) {
+			if (!authority.loaded) {
+				authority.ratings = ratingsStore.load(authorityId);
+				authority.loaded = true;
+			}
+
+			long now = clock.getAsLong();
+			EstablishmentRatings ratings = authority.ratings;
+			if (ratings != null && now - ratings.getFullSyncedAt() < FULL_SYNC_INTERVAL_MILLIS) {
+				applyChanges(authorityId, ratings, now);
+			} else {
+				Totals totals = fetchAll(authorityId, progress, true);
+				if (totals.untracked) {
+					// without an id for every establishment, changes cannot be applied reliably
+					return totals.histogram;
+				}
+				ratings = totals.ratings;
+				ratings.setSyncedAt(now);
+				ratings.setFullSyncedAt(now);
+				authority.ratings = ratings;
+			}
+
+			try {
+				ratingsStore.save(authorityId, ratings);
+			} catch (IOException e) {
+				// the counts are still current; the store will be updated on the next sync
 			}
+			return ratings.getCounts();
+		}
+	}
+
+	/**
+	 * Fetches the establishments changed since shortly before the last sync and records
+	 * their ratings, adjusting the counts.  Nothing is recorded unless the whole response
+	 * is read.
+	 */
+	private void applyChanges(Long authorityId, EstablishmentRatings ratings, long now) throws IOException {
+		String since = Instant.ofEpochMilli(ratings.getSyncedAt() - SYNC_OVERLAP_MILLIS).toString();
+		Page changes = countResponse(restHandler.getEndpointReader(changesEndpoint
+				.replace("{authorityId}", authorityId.toString())
+				.replace("{since}", since)), true);
+
+		ratings.merge(changes.ratings);
+		ratings.setSyncedAt(now);
+		if (changes.untracked > 0) {
+			// a change which cannot be applied: fetch in full next time
+			ratings.setFullSyncedAt(0);
 		}
+	}
 
-		// wanted ratings excludes 'unwanted' ratings such as Awaiting Inspection
-		Integer totalWantedRatingsCount = 0;
-		for (int i = 0; i < establishments.length(); i++) {
-			JSONObject establishment = establishments.getJSONObject(i);
-			String ratingValue = establishment.getString("RatingValue");
-			if (countPerRatingType.containsKey(ratingValue)) {
-				countPerRatingType.put(ratingValue, countPerRatingType.get(ratingValue) + 1);
-				totalWantedRatingsCount++;
+	/**
+	 * Fetches and counts all the establishments of an authority, recording the rating of
+	 * each one as well if tracking
+	 */
+	private Totals fetchAll(Long authorityId, Consumer<RatingHistogram> progress, boolean track) throws IOException {
+		Totals totals = new Totals(track);
+		if (pageSize == 0) {
+			totals.add(fetchCounts(ESTABLISHMENTS_ENDPOINT.replace("{authorityId}", authorityId.toString()), track));
+			return totals;
+		}
+
+		Page first = fetchPage(authorityId, 1, track);
+		totals.add(first);
+		progress.accept(totals.histogram.copy());
+
+		if (first.totalPages < 0) {
+			// page count unknown, so keep going until a page comes back short
+			Page page = first;
+			for (int pageNumber = 2; page.establishments == pageSize; pageNumber++) {
+				page = fetchPage(authorityId, pageNumber, track);
+				totals.add(page);
+				progress.accept(totals.histogram.copy());
+			}
+		} else if (pageExecutor == null) {
+			for (int pageNumber = 2; pageNumber <= first.totalPages; pageNumber++) {
+				totals.add(fetchPage(authorityId, pageNumber, track));
+				progress.accept(totals.histogram.copy());
 			}
+		} else {
+			fetchRemainingPagesConcurrently(authorityId, first.totalPages, totals, progress, track);
 		}
+		return totals;
+	}
 
-		// create a new LinkedHashMap with the same indexes as the previous countPerRatingType
-		// LinkedHashMap, calculating the percentages applicable to each rating type
-		Map<String, Double> result = new LinkedHashMap<>();
-		if (totalWantedRatingsCount > 0) {
-			for (Map.Entry<String, Integer> entry : countPerRatingType.entrySet()) {
-				Integer ratingCount = entry.getValue() * 100;
-				result.put(entry.getKey(), (double)(entry.getValue() * 100) / totalWantedRatingsCount);
+	/**
+	 * Fetches pages 2 to totalPages on the page executor, adding each to the totals as it
+	 * arrives.  If any page fails, or the calling thread is interrupted, the outstanding
+	 * fetches are cancelled.
+	 */
+	private void fetchRemainingPagesConcurrently(Long authorityId, int totalPages, Totals totals,
+			Consumer<RatingHistogram> progress, boolean track) throws IOException {
+		CompletionService<Page> pages = new ExecutorCompletionService<>(pageExecutor);
+		List<Future<Page>> outstanding = new ArrayList<>();
+		try {
+			for (int pageNumber = 2; pageNumber <= totalPages; pageNumber++) {
+				final int number = pageNumber;
+				outstanding.add(pages.submit(() -> fetchPage(authorityId, number, track)));
+			}
+			for (int i = 2; i <= totalPages; i++) {
+				totals.add(pages.take().get());
+				progress.accept(totals.histogram.copy());
+			}
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			throw new InterruptedIOException("Interrupted while fetching pages");
+		} catch (ExecutionException e) {
+			if (e.getCause() instanceof IOException) {
+				throw (IOException) e.getCause();
+			} else if (e.getCause() instanceof RuntimeException) {
+				throw (RuntimeException) e.getCause();
+			}
+			throw new IOException(e.getCause());
+		} finally {
+			for (Future<Page> page : outstanding) {
+				page.cancel(true);
 			}
 		}
+	}
 
-		return result;
+	private Page fetchPage(Long authorityId, int pageNumber, boolean track) throws IOException {
+		return fetchCounts(ESTABLISHMENTS_PAGE_ENDPOINT
+				.replace("{authorityId}", authorityId.toString())
+				.replace("{pageNumber}", Integer.toString(pageNumber))
+				.replace("{pageSize}", Integer.toString(pageSize)), track);
+	}
+
+	private Page fetchCounts(String endpointUrl, boolean track) throws IOException {
+		if (responseCache != null) {
+			return fetchCached(endpointUrl, track ? TRACKED_PAGE_CODEC : PAGE_CODEC, body -> countResponse(body, track));
+		}
+		return countResponse(restHandler.getEndpointReader(endpointUrl), track);
 	}
 
 	/**
-	 * Constructs an initial map of zero counts containing all of the 'wanted' rating types for Scotland.
-	 * Excludes 'Awaiting Inspection', 'Pass and Eat Safe' and all others not specified in the tech test
-	 * document.
-	 *
-	 * LinkedHashMap is used so that the order of indexes is retained.
-	 *
-	 * @return a map of Rating Type to initial count (0)
+	 * Makes a request conditional on the validators of the last response from the same
+	 * URL, if there is one in the cache, and returns what was made of that response if
+	 * it has not changed.  Otherwise reads the new response and caches what is made of it,
+	 * provided it has validators.  A Not Modified response when nothing was cached is an
+	 * error, as there is no response to reuse.
 	 */
-	private Map<String, Integer> initialCountsForScotland() {
-		Map<String, Integer> initial = new LinkedHashMap<>();
-		initial.put("Pass", 0);
-		initial.put("Improvement Required", 0);
-		initial.put("Exempt", 0);
-		return initial;
+	private <T> T fetchCached(String endpointUrl, HttpResponseCache.Codec<T> codec, ResponseReader<T> responseReader)
+			throws IOException {
+		HttpResponseCache.Entry<T> cached = responseCache.get(endpointUrl, codec);
+		ConditionalResponse response = cached == null
+				? restHandler.getConditionalReader(endpointUrl, null, null)
+				: restHandler.getConditionalReader(endpointUrl, cached.getEtag(), cached.getLastModified());
+		if (response.isNotModified()) {
+			if (cached == null) {
+				// nothing was asked to be validated, so there is nothing to serve
+				throw new IOException("Not Modified received for an unconditional request to " + endpointUrl);
+			}
+			Metrics.Counter.NOT_MODIFIED.increment();
+			return cached.getValue();
+		}
+
+		T value;
+		try (Reader body = response.getBody()) {
+			value = responseReader.read(body);
+		}
+		if (response.hasValidators()) {
+			try {
+				responseCache.put(endpointUrl, response.getEtag(), response.getLastModified(), value, codec);
+			} catch (IOException e) {
+				// still cached in memory; it will be written again when it next changes
+			}
+		}
+		return value;
+	}
+
+	/**
+	 * Counts the ratings in an establishments response, closing it afterwards
+	 */
+	private Page countResponse(Reader body, boolean track) throws IOException {
+		long start = Metrics.start();
+		try (JsonStreamReader reader = new JsonStreamReader(body)) {
+			Page page = countRatings(reader, track);
+			Metrics.Stage.AGGREGATE.stop(start);
+			Metrics.Counter.ESTABLISHMENTS.add(page.establishments);
+			return page;
+		}
 	}
 
 	/**
-	 * Constructs an initial map of zero counts containing all of the 'wanted' rating types for not-Scotland.
-	 * Excludes 'Awaiting Inspection' and all others not specified in the tech test document.
+	 * Walks the establishments response, counting the establishments with each
+	 * 'wanted' rating type.  Any top level properties other than 'establishments'
+	 * are skipped.  Names and values are compared in place, so no Strings are
+	 * created per establishment.
 	 *
-	 * LinkedHashMap is used so that the order of indexes is retained.
+	 * The page count is taken from the response's meta object, where present.
 	 *
-	 * @return a map of Rating Type to initial count (0)
-	 */
-	private Map<String, Integer> initialCountsForNotScotland() {
-		Map<String, Integer> initial = new LinkedHashMap<>();
-		initial.put("5", 0);
-		initial.put("4", 0);
-		initial.put("3", 0);
-		initial.put("2", 0);
-		initial.put("1", 0);
-		initial.put("0", 0);
-		initial.put("Exempt", 0);
-		return initial;
+	 * @param reader a reader positioned at the start of the response
+	 * @param track whether to record the rating of each establishment by its FHRSID
+	 * @return the counts, with no scheme if there are no establishments
+	 * @throws IOException if the response cannot be read or is not valid JSON
+	 */
+	private Page countRatings(JsonStreamReader reader, boolean track) throws IOException {
+		RatingHistogram histogram = null;
+		EstablishmentRatings ratings = track ? new EstablishmentRatings() : null;
+		int establishments = 0;
+		int untracked = 0;
+		int totalPages = -1;
+
+		reader.beginObject();
+		while (reader.hasNext()) {
+			CharSequence property = reader.nextNameChars();
+			if ("meta".contentEquals(property)) {
+				totalPages = readTotalPages(reader);
+				continue;
+			} else if (!"establishments".contentEquals(property)) {
+				reader.skipValue();
+				continue;
+			}
+
+			reader.beginArray();
+			while (reader.hasNext()) {
+				RatingHistogram.Scheme scheme = null;
+				int rating = -1;
+				long establishmentId = -1;
+
+				reader.beginObject();
+				while (reader.hasNext()) {
+					CharSequence name = reader.nextNameChars();
+					if ("SchemeType".contentEquals(name)) {
+						scheme = RatingHistogram.Scheme.of(reader.nextStringChars());
+					} else if ("RatingValue".contentEquals(name)) {
+						rating = RatingHistogram.ordinalOf(reader.nextStringChars());
+					} else if (track && "FHRSID".contentEquals(name)) {
+						establishmentId = reader.nextLong();
+					} else {
+						reader.skipValue();
+					}
+				}
+				reader.endObject();
+
+				// making the assumption that all establishments within one authority share
+				// the same scheme type (FHIS or FHRS); therefore just checking the first
+				// establishment to infer available ratings.  'Unwanted' ratings such as
+				// Awaiting Inspection are not counted.
+				if (histogram == null) {
+					histogram = new RatingHistogram(scheme);
+				}
+				histogram.increment(rating);
+				establishments++;
+				if (track) {
+					if (establishmentId < 0) {
+						untracked++;
+					} else {
+						ratings.put(establishmentId, scheme, rating);
+					}
+				}
+			}
+			reader.endArray();
+		}
+		reader.endObject();
+
+		return new Page(histogram == null ? new RatingHistogram() : histogram, establishments, totalPages, ratings, untracked);
+	}
+
+	/**
+	 * @return the totalPages value of the meta object, or -1 if it has none
+	 */
+	private int readTotalPages(JsonStreamReader reader) throws IOException {
+		int totalPages = -1;
+		reader.beginObject();
+		while (reader.hasNext()) {
+			if ("totalPages".contentEquals(reader.nextNameChars())) {
+				totalPages = (int) reader.nextLong();
+			} else {
+				reader.skipValue();
+			}
+		}
+		reader.endObject();
+		return totalPages;
+	}
+
+	/**
+	 * The counts from one establishments response, along with what it says about paging,
+	 * and the rating of each establishment if tracking
+	 */
+	private static class Page {
+		private final RatingHistogram histogram;
+		private final int establishments;
+		private final int totalPages;
+		private final EstablishmentRatings ratings;
+		private final int untracked;
+
+		private Page(RatingHistogram histogram, int establishments, int totalPages, EstablishmentRatings ratings,
+				int untracked) {
+			this.histogram = histogram;
+			this.establishments = establishments;
+			this.totalPages = totalPages;
+			this.ratings = ratings;
+			this.untracked = untracked;
+		}
+	}
+
+	/**
+	 * The pages of an authority added together
+	 */
+	private static class Totals {
+		private final RatingHistogram histogram = new RatingHistogram();
+		private final EstablishmentRatings ratings;
+		private boolean untracked;
+
+		private Totals(boolean track) {
+			this.ratings = track ? new EstablishmentRatings() : null;
+		}
+
+		private void add(Page page) {
+			histogram.merge(page.histogram);
+			if (ratings != null) {
+				ratings.merge(page.ratings);
+				untracked |= page.untracked > 0;
+			}
+		}
+	}
+
+	/**
+	 * Makes something of a response body
+	 */
+	private interface ResponseReader<T> {
+		T read(Reader body) throws IOException;
+	}
+
+	/**
+	 * Encodes the authorities map for the response cache
+	 */
+	private static class AuthoritiesCodec implements HttpResponseCache.Codec<Map<String, Long>> {
+		@Override
+		public String getName() {
+			return "authorities";
+		}
+
+		@Override
+		public void write(Map<String, Long> authorities, DataOutput out) throws IOException {
+			out.writeInt(authorities.size());
+			for (Map.Entry<String, Long> authority : authorities.entrySet()) {
+				out.writeUTF(authority.getKey());
+				out.writeLong(authority.getValue());
+			}
+		}
+
+		@Override
+		public Map<String, Long> read(DataInput in) throws IOException {
+			Map<String, Long> authorities = new TreeMap<>();
+			int size = in.readInt();
+			for (int i = 0; i < size; i++) {
+				String name = in.readUTF();
+				authorities.put(name, in.readLong());
+			}
+			return authorities;
+		}
+	}
+
+	/**
+	 * Encodes the regions of a full authorities response for the response cache
+	 */
+	private static class RegionsCodec implements HttpResponseCache.Codec<Map<Long, String>> {
+		@Override
+		public String getName() {
+			return "regions";
+		}
+
+		@Override
+		public void write(Map<Long, String> regions, DataOutput out) throws IOException {
+			out.writeInt(regions.size());
+			for (Map.Entry<Long, String> region : regions.entrySet()) {
+				out.writeLong(region.getKey());
+				out.writeUTF(region.getValue());
+			}
+		}
+
+		@Override
+		public Map<Long, String> read(DataInput in) throws IOException {
+			Map<Long, String> regions = new TreeMap<>();
+			int size = in.readInt();
+			for (int i = 0; i < size; i++) {
+				long authorityId = in.readLong();
+				regions.put(authorityId, in.readUTF());
+			}
+			return regions;
+		}
+	}
+
+	/**
+	 * Encodes the counts of an establishments response for the response cache, along with
+	 * the rating of each establishment if they were tracked
+	 */
+	private static class PageCodec implements HttpResponseCache.Codec<Page> {
+		private final String name;
+
+		private PageCodec(String name) {
+			this.name = name;
+		}
+
+		@Override
+		public String getName() {
+			return name;
+		}
+
+		@Override
+		public void write(Page page, DataOutput out) throws IOException {
+			out.writeByte(page.histogram.getSchemeBits());
+			for (int ordinal = 0; ordinal < RatingHistogram.RATING_COUNT; ordinal++) {
+				out.writeLong(page.histogram.getCount(ordinal));
+			}
+			out.writeInt(page.establishments);
+			out.writeInt(page.totalPages);
+			out.writeInt(page.untracked);
+			out.writeBoolean(page.ratings != null);
+			if (page.ratings != null) {
+				page.ratings.writeTo(out);
+			}
+		}
+
+		@Override
+		public Page read(DataInput in) throws IOException {
+			RatingHistogram histogram = new RatingHistogram();
+			histogram.addSchemeBits(in.readByte());
+			for (int ordinal = 0; ordinal < RatingHistogram.RATING_COUNT; ordinal++) {
+				histogram.add(ordinal, in.readLong());
+			}
+			int establishments = in.readInt();
+			int totalPages = in.readInt();
+			int untracked = in.readInt();
+			EstablishmentRatings ratings = in.readBoolean() ? EstablishmentRatings.readFrom(in) : null;
+			return new Page(histogram, establishments, totalPages, ratings, untracked);
+		}
+	}
+
+	/**
+	 * The establishment ratings of one authority, once loaded from the store
+	 */
+	private static class TrackedAuthority {
+		private EstablishmentRatings ratings;
+		private boolean loaded;
 	}
 }
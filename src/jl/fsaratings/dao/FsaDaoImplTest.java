@@ -3,20 +3,32 @@ package jl.fsaratings.dao;
 import static org.easymock.EasyMock.createStrictMock;
 import static org.easymock.EasyMock.expect;
 import static org.easymock.EasyMock.replay;
+import static org.easymock.EasyMock.verify;
 import static org.junit.Assert.assertEquals;
 import static org.junit.Assert.fail;
 
 import java.io.IOException;
+import java.io.StringReader;
+import java.time.Instant;
+import java.util.ArrayList;
 import java.util.LinkedHashMap;
+import java.util.List;
 import java.util.Map;
 import java.util.TreeMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
 
 import org.json.JSONArray;
 import org.json.JSONObject;
 import org.junit.Before;
+import org.junit.Rule;
 import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
 
+import jl.fsaratings.rest.ConditionalResponse;
 import jl.fsaratings.rest.RestHandler;
+import jl.fsaratings.store.EstablishmentRatingsStore;
+import jl.fsaratings.store.HttpResponseCache;
 
 /**
  * Test class for FsaDaoImplTest class, mocking out RestHandler implementation
@@ -26,6 +38,16 @@ import jl.fsaratings.rest.RestHandler;
  */
 public class FsaDaoImplTest {
 
+	private static final String CHANGES_URL = "http://localhost/Establishments?localAuthorityId={authorityId}&modifiedSince={since}";
+
+	/**
+	 * Sync times are fixed, so the since parameter of each changes request is known
+	 */
+	private static final long NOW = Instant.parse("2016-03-01T12:00:00Z").toEpochMilli();
+
+	@Rule
+	public TemporaryFolder folder = new TemporaryFolder();
+
 	/**
 	 * Mock RestHandler
 	 */
@@ -67,6 +89,29 @@ public class FsaDaoImplTest {
 		assertEquals(actual, expected);
 	}
 
+	@Test
+	public void testFetchRegionsSkipsAuthoritiesWithoutOne() throws IOException {
+		JSONArray authoritiesArray = new JSONArray();
+		authoritiesArray.put(createJsonAuthority("Birmingham", 5L).put("RegionName", "West Midlands"));
+		authoritiesArray.put(createJsonAuthority("Aberdeen City", 197L).put("RegionName", "Scotland"));
+		authoritiesArray.put(createJsonAuthority("Nowhere", 8L).put("RegionName", ""));
+		authoritiesArray.put(createJsonAuthority("Elsewhere", 9L));
+		JSONObject rootJson = new JSONObject();
+		rootJson.put("authorities", authoritiesArray);
+
+		expect(rest.getEndpointResponse(Messages.getString("FsaDao.fsa.api.authorities.full"))).andReturn(rootJson).once();
+		replay(rest);
+
+		Map<Long, String> actual = instance.fetchAuthorityRegions();
+
+		Map<Long, String> expected = new TreeMap<>();
+		expected.put(5L, "West Midlands");
+		expected.put(197L, "Scotland");
+
+		verify(rest);
+		assertEquals(expected, actual);
+	}
+
 	@Test
 	public void testFetchAutoritiesMapsJsonObjectCorrectlyWhenAuthoritiesCountIsZero() throws IOException {
 		JSONArray authoritiesArray = new JSONArray();
@@ -112,7 +157,7 @@ public class FsaDaoImplTest {
 		JSONObject rootJson = new JSONObject();
 		rootJson.put("establishments", establishmentsArray);
 
-		expect(rest.getEndpointResponse(Messages.getString("FsaDao.fsa.api.establishments").replace("{authorityId}", "2"))).andReturn(rootJson).once();
+		expect(rest.getEndpointReader(Messages.getString("FsaDao.fsa.api.establishments").replace("{authorityId}", "2"))).andReturn(new StringReader(rootJson.toString())).once();
 		replay(rest);
 
 		Map<String, Double> actual = instance.fetchRatingPercentagesForAuthority(2L);
@@ -142,7 +187,7 @@ public class FsaDaoImplTest {
 		JSONObject rootJson = new JSONObject();
 		rootJson.put("establishments", establishmentsArray);
 
-		expect(rest.getEndpointResponse(Messages.getString("FsaDao.fsa.api.establishments").replace("{authorityId}", "2"))).andReturn(rootJson).once();
+		expect(rest.getEndpointReader(Messages.getString("FsaDao.fsa.api.establishments").replace("{authorityId}", "2"))).andReturn(new StringReader(rootJson.toString())).once();
 		replay(rest);
 
 		Map<String, Double> actual = instance.fetchRatingPercentagesForAuthority(2L);
@@ -159,6 +204,44 @@ public class FsaDaoImplTest {
 		assertEquals(actual, expected);
 	}
 
+	@Test
+	public void testFetchPercentagesSkipsUnrelatedPropertiesAndNestedValues() throws IOException {
+		String response = "{\"establishments\":["
+				+ "{\"FHRSID\":1,\"RatingValue\":\"5\",\"geocode\":{\"longitude\":\"-1.5\",\"latitude\":null},"
+				+ "\"scores\":{\"Hygiene\":5,\"Structural\":[0,5]},\"SchemeType\":\"FHRS\",\"NewRatingPending\":false},"
+				+ "{\"SchemeType\":\"FHRS\",\"BusinessName\":\"Caf\\u00e9 \\\"Quoted\\\"\",\"RatingValue\":\"1\"}],"
+				+ "\"meta\":{\"totalCount\":2},\"links\":[{\"rel\":\"self\"}]}";
+
+		expect(rest.getEndpointReader(Messages.getString("FsaDao.fsa.api.establishments").replace("{authorityId}", "2"))).andReturn(new StringReader(response)).once();
+		replay(rest);
+
+		Map<String, Double> actual = instance.fetchRatingPercentagesForAuthority(2L);
+
+		Map<String, Double> expected = new LinkedHashMap<>();
+		expected.put("5", 50d);
+		expected.put("4", 0d);
+		expected.put("3", 0d);
+		expected.put("2", 0d);
+		expected.put("1", 50d);
+		expected.put("0", 0d);
+		expected.put("Exempt", 0d);
+
+		assertEquals(actual, expected);
+	}
+
+	@Test
+	public void testFetchPercentagesThrowsIOExceptionForMalformedJson() throws IOException {
+		expect(rest.getEndpointReader(Messages.getString("FsaDao.fsa.api.establishments").replace("{authorityId}", "2"))).andReturn(new StringReader("{\"establishments\":[{\"RatingValue\":")).once();
+		replay(rest);
+
+		try {
+			instance.fetchRatingPercentagesForAuthority(2L);
+			fail("IOException expected");
+		} catch (IOException e) {
+			// do nothing;
+		}
+	}
+
 	@Test
 	public void testFetchPercentagesMapsJsonObjectCorrectlyWhenRatingsCountIsZero() throws IOException {
 		JSONArray establishmentsArray = new JSONArray();
@@ -168,7 +251,7 @@ public class FsaDaoImplTest {
 		JSONObject rootJson = new JSONObject();
 		rootJson.put("establishments", establishmentsArray);
 
-		expect(rest.getEndpointResponse(Messages.getString("FsaDao.fsa.api.establishments").replace("{authorityId}", "2"))).andReturn(rootJson).once();
+		expect(rest.getEndpointReader(Messages.getString("FsaDao.fsa.api.establishments").replace("{authorityId}", "2"))).andReturn(new StringReader(rootJson.toString())).once();
 		replay(rest);
 
 		Map<String, Double> actual = instance.fetchRatingPercentagesForAuthority(2L);
@@ -184,7 +267,7 @@ public class FsaDaoImplTest {
 		JSONObject rootJson = new JSONObject();
 		rootJson.put("establishments", establishmentsArray);
 
-		expect(rest.getEndpointResponse(Messages.getString("FsaDao.fsa.api.establishments").replace("{authorityId}", "2"))).andReturn(rootJson).once();
+		expect(rest.getEndpointReader(Messages.getString("FsaDao.fsa.api.establishments").replace("{authorityId}", "2"))).andReturn(new StringReader(rootJson.toString())).once();
 		replay(rest);
 
 		Map<String, Double> actual = instance.fetchRatingPercentagesForAuthority(2L);
@@ -196,7 +279,7 @@ public class FsaDaoImplTest {
 
 	@Test
 	public void testFetchPercentagesThrowsIOExceptionStraightUp() throws IOException {
-		expect(rest.getEndpointResponse(Messages.getString("FsaDao.fsa.api.establishments").replace("{authorityId}", "2"))).andThrow(new IOException("mocked exception")).once();
+		expect(rest.getEndpointReader(Messages.getString("FsaDao.fsa.api.establishments").replace("{authorityId}", "2"))).andThrow(new IOException("mocked exception")).once();
 		replay(rest);
 
 		try {
@@ -207,6 +290,208 @@ public class FsaDaoImplTest {
 		}
 	}
 
+	@Test
+	public void testPagedFetchReportsRunningPercentagesAfterEachPage() throws IOException {
+		FsaDaoImpl paged = new FsaDaoImpl(rest, 2);
+		expect(rest.getEndpointReader(pageUrl(1, 2))).andReturn(createPage(2, "FHRS", "5", "5")).once();
+		expect(rest.getEndpointReader(pageUrl(2, 2))).andReturn(createPage(2, "FHRS", "Exempt", "Awaiting Inspection")).once();
+		replay(rest);
+
+		List<Map<String, Double>> partials = new ArrayList<>();
+		Map<String, Double> actual = paged.fetchRatingPercentagesForAuthority(2L, partials::add);
+
+		verify(rest);
+		assertEquals(2, partials.size());
+		assertEquals(100d, partials.get(0).get("5"), 0d);
+		assertEquals(actual, partials.get(1));
+		assertEquals(200d / 3, actual.get("5"), 0.0001d);
+		assertEquals(100d / 3, actual.get("Exempt"), 0.0001d);
+	}
+
+	@Test
+	public void testPagedFetchWithoutPageCountStopsAtShortPage() throws IOException {
+		FsaDaoImpl paged = new FsaDaoImpl(rest, 2);
+		expect(rest.getEndpointReader(pageUrl(1, 2))).andReturn(createPage(-1, "FHIS", "Pass", "Pass")).once();
+		expect(rest.getEndpointReader(pageUrl(2, 2))).andReturn(createPage(-1, "FHIS", "Improvement Required")).once();
+		replay(rest);
+
+		RatingHistogram actual = paged.fetchRatingCountsForAuthority(2L);
+
+		verify(rest);
+		assertEquals(3, actual.getTotal());
+		assertEquals(1, actual.getCount(RatingHistogram.ordinalOf("Improvement Required")));
+	}
+
+	@Test
+	public void testConcurrentPagedFetchMergesAllPages() throws IOException {
+		FsaDaoImpl paged = new FsaDaoImpl(rest, 1, Runnable::run);
+		expect(rest.getEndpointReader(pageUrl(1, 1))).andReturn(createPage(3, "FHRS", "5")).once();
+		expect(rest.getEndpointReader(pageUrl(2, 1))).andReturn(createPage(3, "FHRS", "4")).once();
+		expect(rest.getEndpointReader(pageUrl(3, 1))).andReturn(createPage(3, "FHRS", "4")).once();
+		replay(rest);
+
+		List<RatingHistogram> partials = new ArrayList<>();
+		RatingHistogram actual = paged.fetchRatingCountsForAuthority(2L, partials::add);
+
+		verify(rest);
+		assertEquals(3, partials.size());
+		assertEquals(1, partials.get(0).getTotal());
+		assertEquals(3, actual.getTotal());
+		assertEquals(2, actual.getCount(RatingHistogram.ordinalOf("4")));
+	}
+
+	@Test
+	public void testConcurrentPagedFetchThrowsIOExceptionFromAnyPage() throws IOException {
+		FsaDaoImpl paged = new FsaDaoImpl(rest, 1, Runnable::run);
+		expect(rest.getEndpointReader(pageUrl(1, 1))).andReturn(createPage(2, "FHRS", "5")).once();
+		expect(rest.getEndpointReader(pageUrl(2, 1))).andThrow(new IOException("mocked exception")).once();
+		replay(rest);
+
+		try {
+			paged.fetchRatingCountsForAuthority(2L);
+			fail("IOException expected");
+		} catch (IOException e) {
+			assertEquals("mocked exception", e.getMessage());
+		}
+	}
+
+	@Test
+	public void testIncrementalRefreshAppliesOnlyTheChangesSinceTheLastSync() throws IOException {
+		AtomicLong clock = new AtomicLong(NOW);
+		FsaDaoImpl incremental = incremental(clock);
+		expect(rest.getEndpointReader(establishmentsUrl())).andReturn(createTrackedPage("1:5", "2:5", "3:4", "4:Exempt")).once();
+		expect(rest.getEndpointReader(changesUrl("2016-03-01T11:55:00Z"))).andReturn(createTrackedPage("2:3", "5:5")).once();
+		expect(rest.getEndpointReader(changesUrl("2016-03-01T12:55:00Z"))).andReturn(createTrackedPage("2:3")).once();
+		replay(rest);
+
+		RatingHistogram full = incremental.fetchRatingCountsForAuthority(2L);
+		clock.set(NOW + TimeUnit.HOURS.toMillis(1));
+		RatingHistogram changed = incremental.fetchRatingCountsForAuthority(2L);
+		clock.set(NOW + TimeUnit.HOURS.toMillis(2));
+		RatingHistogram repeated = incremental.fetchRatingCountsForAuthority(2L);
+
+		verify(rest);
+		assertEquals(2, full.getCount(RatingHistogram.ordinalOf("5")));
+		assertEquals(2, changed.getCount(RatingHistogram.ordinalOf("5")));
+		assertEquals(1, changed.getCount(RatingHistogram.ordinalOf("3")));
+		assertEquals(5, changed.getTotal());
+		assertEquals(changed, repeated);
+	}
+
+	@Test
+	public void testIncrementalRefreshCarriesOnFromStoreAndRefetchesInFullDaily() throws IOException {
+		AtomicLong clock = new AtomicLong(NOW);
+		expect(rest.getEndpointReader(establishmentsUrl())).andReturn(createTrackedPage("1:5", "2:5")).once();
+		expect(rest.getEndpointReader(changesUrl("2016-03-01T11:55:00Z"))).andReturn(createTrackedPage("1:0")).once();
+		expect(rest.getEndpointReader(establishmentsUrl())).andReturn(createTrackedPage("1:0")).once();
+		replay(rest);
+
+		incremental(clock).fetchRatingCountsForAuthority(2L);
+		clock.set(NOW + TimeUnit.HOURS.toMillis(1));
+		RatingHistogram restarted = incremental(clock).fetchRatingCountsForAuthority(2L);
+		clock.set(NOW + TimeUnit.DAYS.toMillis(1));
+		RatingHistogram daily = incremental(clock).fetchRatingCountsForAuthority(2L);
+
+		verify(rest);
+		assertEquals(1, restarted.getCount(RatingHistogram.ordinalOf("0")));
+		assertEquals(1, restarted.getCount(RatingHistogram.ordinalOf("5")));
+		assertEquals(1, daily.getTotal());
+	}
+
+	@Test
+	public void testIncrementalRefreshFetchesInFullWhenEstablishmentsHaveNoIds() throws IOException {
+		FsaDaoImpl incremental = incremental(new AtomicLong(NOW));
+		expect(rest.getEndpointReader(establishmentsUrl())).andReturn(createPage(-1, "FHRS", "5")).once();
+		expect(rest.getEndpointReader(establishmentsUrl())).andReturn(createPage(-1, "FHRS", "5")).once();
+		replay(rest);
+
+		incremental.fetchRatingCountsForAuthority(2L);
+		RatingHistogram actual = incremental.fetchRatingCountsForAuthority(2L);
+
+		verify(rest);
+		assertEquals(1, actual.getTotal());
+	}
+
+	@Test
+	public void testUnchangedResponsesAreServedFromResponseCache() throws IOException {
+		HttpResponseCache cache = new HttpResponseCache(folder.getRoot().toPath());
+		FsaDaoImpl conditional = new FsaDaoImpl(rest, 0, null, null, cache);
+		expect(rest.getConditionalReader(establishmentsUrl(), null, null))
+				.andReturn(new ConditionalResponse(createPage(-1, "FHRS", "5", "4"), "\"v1\"", null)).once();
+		expect(rest.getConditionalReader(establishmentsUrl(), "\"v1\"", null)).andReturn(ConditionalResponse.notModified()).once();
+		// a new DAO and cache over the same directory carry on from the cache's files
+		expect(rest.getConditionalReader(establishmentsUrl(), "\"v1\"", null))
+				.andReturn(new ConditionalResponse(createPage(-1, "FHRS", "5"), "\"v2\"", null)).once();
+		replay(rest);
+
+		RatingHistogram first = conditional.fetchRatingCountsForAuthority(2L);
+		RatingHistogram unchanged = conditional.fetchRatingCountsForAuthority(2L);
+		RatingHistogram changed = new FsaDaoImpl(rest, 0, null, null, new HttpResponseCache(folder.getRoot().toPath()))
+				.fetchRatingCountsForAuthority(2L);
+
+		verify(rest);
+		assertEquals(2, first.getTotal());
+		assertEquals(first, unchanged);
+		assertEquals(1, changed.getTotal());
+	}
+
+	@Test
+	public void testNotModifiedWithNothingCachedThrowsIOException() throws IOException {
+		FsaDaoImpl conditional = new FsaDaoImpl(rest, 0, null, null, new HttpResponseCache(folder.getRoot().toPath()));
+		expect(rest.getConditionalReader(establishmentsUrl(), null, null)).andReturn(ConditionalResponse.notModified()).once();
+		replay(rest);
+
+		try {
+			conditional.fetchRatingCountsForAuthority(2L);
+			fail("IOException expected");
+		} catch (IOException e) {
+			// expected
+		}
+		verify(rest);
+	}
+
+	private FsaDaoImpl incremental(AtomicLong clock) {
+		return new FsaDaoImpl(rest, 0, null, new EstablishmentRatingsStore(folder.getRoot().toPath()), null, CHANGES_URL, clock::get);
+	}
+
+	private String establishmentsUrl() {
+		return Messages.getString("FsaDao.fsa.api.establishments").replace("{authorityId}", "2");
+	}
+
+	private String changesUrl(String since) {
+		return CHANGES_URL.replace("{authorityId}", "2").replace("{since}", since);
+	}
+
+	/**
+	 * Builds an FHRS establishments response from "id:rating" pairs
+	 */
+	private StringReader createTrackedPage(String... establishments) {
+		JSONArray establishmentsArray = new JSONArray();
+		for (String establishment : establishments) {
+			String[] idAndRating = establishment.split(":");
+			establishmentsArray.put(createJsonEstablishment(idAndRating[1], "FHRS").put("FHRSID", Long.parseLong(idAndRating[0])));
+		}
+		return new StringReader("{\"establishments\":" + establishmentsArray + "}");
+	}
+
+	private String pageUrl(int pageNumber, int pageSize) {
+		return Messages.getString("FsaDao.fsa.api.establishments.page").replace("{authorityId}", "2")
+				.replace("{pageNumber}", Integer.toString(pageNumber)).replace("{pageSize}", Integer.toString(pageSize));
+	}
+
+	/**
+	 * Builds one page of establishments, with a meta object giving the page count unless
+	 * it is negative.  The meta object follows the establishments, as in the API.
+	 */
+	private StringReader createPage(int totalPages, String schemeType, String... ratingValues) {
+		JSONArray establishmentsArray = new JSONArray();
+		for (String ratingValue : ratingValues) {
+			establishmentsArray.put(createJsonEstablishment(ratingValue, schemeType));
+		}
+		String meta = totalPages < 0 ? "" : ",\"meta\":{\"pageSize\":" + ratingValues.length + ",\"totalPages\":" + totalPages + "}";
+		return new StringReader("{\"establishments\":" + establishmentsArray + meta + "}");
+	}
+
 	private JSONObject createJsonAuthority(String name, Long id) {
 		JSONObject auth = new JSONObject();
 		auth.put("Name", name);
@@ -0,0 +1,115 @@
+package jl.fsaratings.dao;
+
+import java.io.IOException;
+import java.util.Map;
+import java.util.function.Consumer;
+import java.util.function.LongSupplier;
+
+import jl.fsaratings.store.RatingHistoryStore;
+
+/**
+ * Decorates any FsaDao by recording the rating counts of each authority in a
+ * RatingHistoryStore every time they are fetched, building up a history for trend reports.
+ *
+ * Only counts the wrapped DAO returns are recorded, so this should wrap the DAO fetching
+ * from the API, beneath any cache or snapshot, so that a cached or stale result is never
+ * recorded as a new one.  Failures to record are ignored, since the counts were still
+ * fetched successfully.
+ *
+ * @author jonny.lyon
+ *
+ */
+public class HistoryFsaDao implements FsaDao {
+
+	private final FsaDao delegate;
+
+	private final RatingHistoryStore history;
+
+	private final LongSupplier clock;
+
+	/**
+	 * Constructor for HistoryFsaDao
+	 *
+	 * @param delegate the DAO to fetch current data from
+	 * @param history the store to record counts in
+	 */
+	public HistoryFsaDao(FsaDao delegate, RatingHistoryStore history) {
+		this(delegate, history, System::currentTimeMillis);
+	}
+
+	/**
+	 * Constructor for HistoryFsaDao, for test purposes
+	 *
+	 * @param clock gives the time to record counts at, in milliseconds since the epoch
+	 */
+	HistoryFsaDao(FsaDao delegate, RatingHistoryStore history, LongSupplier clock) {
+		this.delegate = delegate;
+		this.history = history;
+		this.clock = clock;
+	}
+
+	/**
+	 * {@inheritDoc}
+	 */
+	@Override
+	public Map<String, Long> fetchAuthorityNamesWithIds() throws IOException {
+		return delegate.fetchAuthorityNamesWithIds();
+	}
+
+	/**
+	 * {@inheritDoc}
+	 */
+	@Override
+	public Map<Long, String> fetchAuthorityRegions() throws IOException {
+		return delegate.fetchAuthorityRegions();
+	}
+
+	/**
+	 * {@inheritDoc}
+	 *
+	 * Calculated from the counts, so that they are recorded.
+	 */
+	@Override
+	public Map<String, Double> fetchRatingPercentagesForAuthority(Long authorityId) throws IOException {
+		return fetchRatingCountsForAuthority(authorityId).toPercentages();
+	}
+
+	/**
+	 * {@inheritDoc}
+	 *
+	 * Calculated from the counts, so that they are recorded.
+	 */
+	@Override
+	public Map<String, Double> fetchRatingPercentagesForAuthority(Long authorityId,
+			Consumer<Map<String, Double>> progress) throws IOException {
+		return fetchRatingCountsForAuthority(authorityId, partial -> progress.accept(partial.toPercentages())).toPercentages();
+	}
+
+	/**
+	 * {@inheritDoc}
+	 */
+	@Override
+	public RatingHistogram fetchRatingCountsForAuthority(Long authorityId) throws IOException {
+		return record(authorityId, delegate.fetchRatingCountsForAuthority(authorityId));
+	}
+
+	/**
+	 * {@inheritDoc}
+	 *
+	 * Only the final counts are recorded.
+	 */
+	@Override
+	public RatingHistogram fetchRatingCountsForAuthority(Long authorityId, Consumer<RatingHistogram> progress)
+			throws IOException {
+		return record(authorityId, delegate.fetchRatingCountsForAuthority(authorityId, progress));
+	}
+
+	private RatingHistogram record(Long authorityId, RatingHistogram counts) {
+		try {
+			history.append(clock.getAsLong(), authorityId, counts);
+		} catch (IOException e) {
+			// the counts were still fetched successfully; the history just has a gap
+		}
+		return counts;
+	}
+}
@@ -0,0 +1,81 @@
+package jl.fsaratings.dao;
+
+import static org.easymock.EasyMock.createStrictMock;
+import static org.easymock.EasyMock.expect;
+import static org.easymock.EasyMock.replay;
+import static org.easymock.EasyMock.verify;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.fail;
+
+import java.io.IOException;
+import java.nio.file.Path;
+import java.util.List;
+
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import jl.fsaratings.store.RatingHistoryStore;
+
+/**
+ * Test class for HistoryFsaDao, mocking out the wrapped DAO and recording to a real
+ * history file in a temporary folder
+ *
+ * @author jonny.lyon
+ *
+ */
+public class HistoryFsaDaoTest {
+
+	@Rule
+	public TemporaryFolder folder = new TemporaryFolder();
+
+	/**
+	 * Mock DAO being wrapped
+	 */
+	private FsaDao delegate;
+
+	private Path historyFile;
+
+	@Before
+	public void setUp() {
+		delegate = createStrictMock(FsaDao.class);
+		historyFile = folder.getRoot().toPath().resolve("history.bin");
+	}
+
+	@Test
+	public void testCountsFetchedAreRecordedAtTheTimeOfFetching() throws IOException {
+		RatingHistogram counts = new RatingHistogram(RatingHistogram.Scheme.FHRS);
+		counts.add(RatingHistogram.ordinalOf("5"), 4);
+		expect(delegate.fetchRatingCountsForAuthority(2L)).andReturn(counts).once();
+		replay(delegate);
+
+		try (RatingHistoryStore history = RatingHistoryStore.open(historyFile)) {
+			assertEquals(counts.toPercentages(),
+					new HistoryFsaDao(delegate, history, () -> 1000L).fetchRatingPercentagesForAuthority(2L));
+
+			List<RatingHistoryStore.Sample> samples = history.getHistory(2L, 0, Long.MAX_VALUE);
+			assertEquals(1, samples.size());
+			assertEquals(1000L, samples.get(0).getTime());
+			assertEquals(counts, samples.get(0).getCounts());
+		}
+		verify(delegate);
+	}
+
+	@Test
+	public void testNothingIsRecordedWhenTheFetchFails() throws IOException {
+		expect(delegate.fetchRatingCountsForAuthority(2L)).andThrow(new IOException("mocked exception")).once();
+		replay(delegate);
+
+		try (RatingHistoryStore history = RatingHistoryStore.open(historyFile)) {
+			try {
+				new HistoryFsaDao(delegate, history, () -> 1000L).fetchRatingCountsForAuthority(2L);
+				fail("Expected IOException");
+			} catch (IOException e) {
+				// expected
+			}
+			assertEquals(0, history.getCountsAt(Long.MAX_VALUE).size());
+		}
+		verify(delegate);
+	}
+}
@@ -6,6 +6,9 @@ import java.util.ResourceBundle;
 /**
  * This class was automatically generated by a tool in the Eclipse IDE to externalise
  * string properties - JL
+ *
+ * A system property with the same key overrides the value in the bundle, so that the
+ * endpoint URLs can be pointed elsewhere, e.g. at StubFsaApiServer, without a rebuild.
  */
 public class Messages {
 	private static final String BUNDLE_NAME = "jl.fsaratings.dao.messages";
@@ -16,6 +19,10 @@ public class Messages {
 	}
 
 	public static String getString(String key) {
+		String override = System.getProperty(key);
+		if (override != null) {
+			return override;
+		}
 		try {
 			return RESOURCE_BUNDLE.getString(key);
 		} catch (MissingResourceException e) {
@@ -0,0 +1,307 @@
+package jl.fsaratings.dao;
+
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * Counts of establishments for each of the 'wanted' rating types, held in a fixed array
+ * indexed by rating ordinal rather than in a map, so that counting is free of hashing,
+ * boxing and allocation.
+ *
+ * The ordinals cover the ratings of both schemes, in display order: 5 to 0 for FHRS, then
+ * Pass and Improvement Required for FHIS, then Exempt which both schemes share.  A histogram
+ * only counts the ratings wanted by the scheme or schemes it has been given, in keeping with
+ * the assumption that all establishments in one authority use the same scheme.  Histograms
+ * may be merged, e.g. to combine authorities, in which case the schemes are merged too.
+ *
+ * Instances are not thread safe.
+ *
+ * @author jonny.lyon
+ *
+ */
+public final class RatingHistogram {
+
+	/**
+	 * The rating schemes in use, and the ratings wanted for each
+	 */
+	public enum Scheme {
+		/**
+		 * Food Hygiene Rating Scheme, used outside Scotland
+		 */
+		FHRS(0, 1, 2, 3, 4, 5, 8),
+
+		/**
+		 * Food Hygiene Information Scheme, used in Scotland
+		 */
+		FHIS(6, 7, 8);
+
+		private final int wantedMask;
+
+		private Scheme(int... ordinals) {
+			int mask = 0;
+			for (int ordinal : ordinals) {
+				mask |= 1 << ordinal;
+			}
+			this.wantedMask = mask;
+		}
+
+		/**
+		 * @param schemeType a SchemeType value from the API
+		 * @return the matching scheme, or null if not recognised
+		 */
+		public static Scheme of(CharSequence schemeType) {
+			if (schemeType == null) {
+				return null;
+			} else if ("FHRS".contentEquals(schemeType)) {
+				return FHRS;
+			} else if ("FHIS".contentEquals(schemeType)) {
+				return FHIS;
+			}
+			return null;
+		}
+	}
+
+	/**
+	 * The number of distinct rating ordinals
+	 */
+	public static final int RATING_COUNT = 9;
+
+	private static final String[] RATING_NAMES = { "5", "4", "3", "2", "1", "0", "Pass", "Improvement Required", "Exempt" };
+
+	private final long[] counts = new long[RATING_COUNT];
+
+	/**
+	 * Bit set of the ordinals counted, built from the schemes this histogram has been given
+	 */
+	private int wantedMask;
+
+	/**
+	 * Bit set of the Scheme ordinals this histogram has been given
+	 */
+	private int schemes;
+
+	/**
+	 * Constructor for an empty RatingHistogram with no scheme, which counts nothing until
+	 * a scheme is added
+	 */
+	public RatingHistogram() {
+	}
+
+	/**
+	 * Constructor for an empty RatingHistogram for one scheme
+	 *
+	 * @param scheme the scheme whose ratings are to be counted
+	 */
+	public RatingHistogram(Scheme scheme) {
+		addScheme(scheme);
+	}
+
+	/**
+	 * Looks up the ordinal of a rating without allocating
+	 *
+	 * @param ratingValue a RatingValue from the API
+	 * @return the ordinal of the rating, or -1 if it is not a 'wanted' rating in either scheme
+	 */
+	public static int ordinalOf(CharSequence ratingValue) {
+		if (ratingValue == null) {
+			return -1;
+		}
+		for (int i = 0; i < RATING_COUNT; i++) {
+			if (RATING_NAMES[i].contentEquals(ratingValue)) {
+				return i;
+			}
+		}
+		return -1;
+	}
+
+	/**
+	 * @param ordinal a rating ordinal
+	 * @return the rating name, as used by the API
+	 */
+	public static String nameOf(int ordinal) {
+		return RATING_NAMES[ordinal];
+	}
+
+	/**
+	 * Adds a scheme whose ratings are to be counted.  Ignored if null.
+	 *
+	 * @param scheme the scheme
+	 */
+	public void addScheme(Scheme scheme) {
+		if (scheme != null) {
+			schemes |= 1 << scheme.ordinal();
+			wantedMask |= scheme.wantedMask;
+		}
+	}
+
+	/**
+	 * Adds schemes from a bit set as returned by {@link #getSchemeBits()}, e.g. when reading
+	 * a histogram back from storage.
+	 *
+	 * @param schemeBits a bit set of Scheme ordinals
+	 */
+	public void addSchemeBits(int schemeBits) {
+		for (Scheme scheme : Scheme.values()) {
+			if ((schemeBits & (1 << scheme.ordinal())) != 0) {
+				addScheme(scheme);
+			}
+		}
+	}
+
+	/**
+	 * @return the schemes of this histogram as a bit set of Scheme ordinals, e.g. for storage
+	 */
+	public int getSchemeBits() {
+		return schemes;
+	}
+
+	/**
+	 * @param scheme a scheme
+	 * @return true if this histogram counts the ratings of the scheme
+	 */
+	public boolean hasScheme(Scheme scheme) {
+		return (schemes & (1 << scheme.ordinal())) != 0;
+	}
+
+	/**
+	 * @param ordinal a rating ordinal, or -1
+	 * @return true if the rating is counted by this histogram's schemes
+	 */
+	public boolean isWanted(int ordinal) {
+		return ordinal >= 0 && (wantedMask & (1 << ordinal)) != 0;
+	}
+
+	/**
+	 * Counts one establishment with the rating given, if the rating is wanted
+	 *
+	 * @param ordinal the rating ordinal, or -1 for an unwanted rating
+	 * @return true if the rating was counted
+	 */
+	public boolean increment(int ordinal) {
+		return add(ordinal, 1);
+	}
+
+	/**
+	 * Adjusts the count for the rating given, if the rating is wanted
+	 *
+	 * @param ordinal the rating ordinal, or -1 for an unwanted rating
+	 * @param delta the amount to add, which may be negative
+	 * @return true if the count was adjusted
+	 */
+	public boolean add(int ordinal, long delta) {
+		if (!isWanted(ordinal)) {
+			return false;
+		}
+		counts[ordinal] += delta;
+		return true;
+	}
+
+	/**
+	 * Adds the schemes and counts of another histogram into this one
+	 *
+	 * @param other the histogram to merge in
+	 * @return this histogram
+	 */
+	public RatingHistogram merge(RatingHistogram other) {
+		schemes |= other.schemes;
+		wantedMask |= other.wantedMask;
+		for (int i = 0; i < RATING_COUNT; i++) {
+			counts[i] += other.counts[i];
+		}
+		return this;
+	}
+
+	/**
+	 * Subtracts the counts of another histogram from this one, e.g. to remove an earlier
+	 * contribution before merging its replacement.  Schemes are unchanged.
+	 *
+	 * @param other the histogram to subtract
+	 * @return this histogram
+	 */
+	public RatingHistogram subtract(RatingHistogram other) {
+		for (int i = 0; i < RATING_COUNT; i++) {
+			counts[i] -= other.counts[i];
+		}
+		return this;
+	}
+
+	/**
+	 * @param ordinal a rating ordinal
+	 * @return the count for the rating
+	 */
+	public long getCount(int ordinal) {
+		return counts[ordinal];
+	}
+
+	/**
+	 * @return the total number of establishments counted, across all wanted ratings
+	 */
+	public long getTotal() {
+		long total = 0;
+		for (int i = 0; i < RATING_COUNT; i++) {
+			total += counts[i];
+		}
+		return total;
+	}
+
+	/**
+	 * @return a new histogram with the same schemes and counts
+	 */
+	public RatingHistogram copy() {
+		return new RatingHistogram().merge(this);
+	}
+
+	/**
+	 * Calculates the percentage of establishments with each wanted rating, in display order.
+	 *
+	 * @return a map indexed by rating name, mapping to the percentage for that rating, or an
+	 * empty map if nothing has been counted
+	 */
+	public Map<String, Double> toPercentages() {
+		Map<String, Double> result = new LinkedHashMap<>();
+		long total = getTotal();
+		if (total > 0) {
+			for (int i = 0; i < RATING_COUNT; i++) {
+				if (isWanted(i)) {
+					result.put(RATING_NAMES[i], (double) (counts[i] * 100) / total);
+				}
+			}
+		}
+		return result;
+	}
+
+	/**
+	 * @return a map indexed by rating name, mapping to the count for that rating, in display order
+	 */
+	public Map<String, Long> toCounts() {
+		Map<String, Long> result = new LinkedHashMap<>();
+		for (int i = 0; i < RATING_COUNT; i++) {
+			if (isWanted(i)) {
+				result.put(RATING_NAMES[i], counts[i]);
+			}
+		}
+		return result;
+	}
+
+	@Override
+	public boolean equals(Object obj) {
+		if (this == obj) {
+			return true;
+		} else if (!(obj instanceof RatingHistogram)) {
+			return false;
+		}
+		RatingHistogram other = (RatingHistogram) obj;
+		return schemes == other.schemes && Arrays.equals(counts, other.counts);
+	}
+
+	@Override
+	public int hashCode() {
+		return 31 * schemes + Arrays.hashCode(counts);
+	}
+
+	@Override
+	public String toString() {
+		return "RatingHistogram" + toCounts();
+	}
+}
@@ -0,0 +1,105 @@
+package jl.fsaratings.dao;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+import org.junit.Test;
+
+/**
+ * Test class for RatingHistogram
+ *
+ * @author jonny.lyon
+ *
+ */
+public class RatingHistogramTest {
+
+	@Test
+	public void testOnlyRatingsWantedBySchemeAreCounted() {
+		RatingHistogram instance = new RatingHistogram(RatingHistogram.Scheme.FHIS);
+
+		assertTrue(instance.increment(RatingHistogram.ordinalOf("Pass")));
+		assertTrue(instance.increment(RatingHistogram.ordinalOf("Exempt")));
+		assertFalse(instance.increment(RatingHistogram.ordinalOf("5")));
+		assertFalse(instance.increment(RatingHistogram.ordinalOf("Awaiting Inspection")));
+
+		assertEquals(2, instance.getTotal());
+	}
+
+	@Test
+	public void testHistogramWithNoSchemeCountsNothing() {
+		RatingHistogram instance = new RatingHistogram();
+
+		assertFalse(instance.increment(RatingHistogram.ordinalOf("5")));
+		assertEquals(new LinkedHashMap<String, Double>(), instance.toPercentages());
+	}
+
+	@Test
+	public void testPercentagesAreInDisplayOrderForScheme() {
+		RatingHistogram instance = new RatingHistogram(RatingHistogram.Scheme.FHRS);
+		instance.add(RatingHistogram.ordinalOf("Exempt"), 2);
+		instance.add(RatingHistogram.ordinalOf("5"), 3);
+		instance.add(RatingHistogram.ordinalOf("1"), 3);
+
+		Map<String, Double> expected = new LinkedHashMap<>();
+		expected.put("5", 37.5d);
+		expected.put("4", 0d);
+		expected.put("3", 0d);
+		expected.put("2", 0d);
+		expected.put("1", 37.5d);
+		expected.put("0", 0d);
+		expected.put("Exempt", 25d);
+
+		assertEquals(expected, instance.toPercentages());
+	}
+
+	@Test
+	public void testMergingSchemesCombinesCountsAndRatings() {
+		RatingHistogram fhrs = new RatingHistogram(RatingHistogram.Scheme.FHRS);
+		fhrs.add(RatingHistogram.ordinalOf("5"), 1);
+		fhrs.add(RatingHistogram.ordinalOf("Exempt"), 1);
+		RatingHistogram fhis = new RatingHistogram(RatingHistogram.Scheme.FHIS);
+		fhis.add(RatingHistogram.ordinalOf("Pass"), 1);
+		fhis.add(RatingHistogram.ordinalOf("Exempt"), 1);
+
+		RatingHistogram merged = new RatingHistogram().merge(fhrs).merge(fhis);
+
+		Map<String, Long> expected = new LinkedHashMap<>();
+		expected.put("5", 1L);
+		expected.put("4", 0L);
+		expected.put("3", 0L);
+		expected.put("2", 0L);
+		expected.put("1", 0L);
+		expected.put("0", 0L);
+		expected.put("Pass", 1L);
+		expected.put("Improvement Required", 0L);
+		expected.put("Exempt", 2L);
+		assertEquals(expected, merged.toCounts());
+		assertTrue(merged.hasScheme(RatingHistogram.Scheme.FHRS));
+		assertTrue(merged.hasScheme(RatingHistogram.Scheme.FHIS));
+	}
+
+	@Test
+	public void testSubtractReversesMerge() {
+		RatingHistogram total = new RatingHistogram(RatingHistogram.Scheme.FHRS);
+		total.add(RatingHistogram.ordinalOf("3"), 10);
+		RatingHistogram part = new RatingHistogram(RatingHistogram.Scheme.FHRS);
+		part.add(RatingHistogram.ordinalOf("3"), 4);
+
+		RatingHistogram expected = total.copy();
+		total.merge(part).subtract(part);
+
+		assertEquals(expected, total);
+	}
+
+	@Test
+	public void testOrdinalLookupMatchesCharSequencesWithoutStrings() {
+		assertEquals(RatingHistogram.ordinalOf("Improvement Required"),
+				RatingHistogram.ordinalOf(new StringBuilder("Improvement Required")));
+		assertEquals("Improvement Required", RatingHistogram.nameOf(RatingHistogram.ordinalOf("Improvement Required")));
+		assertEquals(-1, RatingHistogram.ordinalOf(null));
+	}
+}
@@ -0,0 +1,235 @@
+package jl.fsaratings.dao;
+
+import java.util.ArrayList;
+import java.util.EnumMap;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+
+/**
+ * Combines the rating counts of individual authorities into aggregates for their region,
+ * their country and the nation as a whole, so that wider distributions can be had without
+ * fetching and counting every establishment again.
+ *
+ * The aggregates form a tree: the nation, then a country for each rating scheme (FHRS for
+ * England, Wales and Northern Ireland, FHIS for Scotland), then the regions within each,
+ * then the authorities.  Each node holds the raw counts of everything below it, since
+ * counts, unlike percentages, can be added up.  An authority's country is that of the
+ * scheme of its counts, and its region is looked up in the regions given, defaulting to
+ * {@link #UNKNOWN_REGION}.
+ *
+ * Updating an authority costs O(depth) rather than a recount of the tree: the difference
+ * between its new counts and the counts it had before is added to each of its ancestors
+ * in turn.  An authority whose scheme changes is taken out of its old branch and added to
+ * its new one in the same way.
+ *
+ * Instances are thread safe; all methods return copies.
+ *
+ * @author jonny.lyon
+ *
+ */
+public class RatingRollup {
+
+	/**
+	 * The region of authorities not found in the regions given
+	 */
+	public static final String UNKNOWN_REGION = "Unknown";
+
+	/**
+	 * The levels of the tree, from the top
+	 */
+	public enum Level {
+		NATION, COUNTRY, REGION, AUTHORITY
+	}
+
+	private final Map<Long, String> regions;
+
+	/**
+	 * All of the following are guarded by this
+	 */
+	private final Node nation = new Node(Level.NATION, "United Kingdom", null);
+	private final Map<RatingHistogram.Scheme, Node> countries = new EnumMap<>(RatingHistogram.Scheme.class);
+	private final Map<Long, Node> authorities = new HashMap<>();
+
+	/**
+	 * Constructor for RatingRollup
+	 *
+	 * @param regions the name of the region of each authority, by authority id, e.g. from
+	 * {@link FsaDao#fetchAuthorityRegions()}
+	 */
+	public RatingRollup(Map<Long, String> regions) {
+		this.regions = new HashMap<>(regions);
+	}
+
+	/**
+	 * Sets the counts of an authority, replacing any it had before, and adjusts the
+	 * aggregates above it
+	 *
+	 * @param authorityId the authority
+	 * @param counts its counts; an authority with no scheme is taken to be FHRS
+	 */
+	public synchronized void update(Long authorityId, RatingHistogram counts) {
+		Node country = countries.computeIfAbsent(schemeOf(counts),
+				scheme -> nation.child(Level.COUNTRY, scheme.name()));
+		Node authority = authorities.get(authorityId);
+
+		if (authority != null && authority.parent.parent != country) {
+			remove(authorityId);
+			authority = null;
+		}
+		if (authority == null) {
+			String regionName = regions.getOrDefault(authorityId, UNKNOWN_REGION);
+			authority = country.child(Level.REGION, regionName).child(Level.AUTHORITY, authorityId.toString());
+			authorities.put(authorityId, authority);
+		}
+
+		RatingHistogram delta = counts.copy().subtract(authority.counts);
+		for (Node node = authority; node != null; node = node.parent) {
+			node.counts.merge(delta);
+		}
+	}
+
+	/**
+	 * Takes an authority's counts out of the aggregates above it, e.g. if it no longer exists
+	 *
+	 * @param authorityId the authority
+	 */
+	public synchronized void remove(Long authorityId) {
+		Node authority = authorities.remove(authorityId);
+		if (authority == null) {
+			return;
+		}
+		for (Node node = authority.parent; node != null; node = node.parent) {
+			node.counts.subtract(authority.counts);
+		}
+		// drop the nodes left empty, so that only regions with authorities are listed
+		for (Node node = authority; node.parent != null && (node == authority || node.children.isEmpty()); node = node.parent) {
+			node.parent.children.remove(node.name);
+			if (node.level == Level.COUNTRY) {
+				countries.values().remove(node);
+			}
+		}
+	}
+
+	/**
+	 * @return the counts of every authority added up
+	 */
+	public synchronized RatingHistogram getNation() {
+		return nation.counts.copy();
+	}
+
+	/**
+	 * @param scheme the scheme of the country
+	 * @return the counts of the authorities using the scheme, empty if there are none
+	 */
+	public synchronized RatingHistogram getCountry(RatingHistogram.Scheme scheme) {
+		Node country = countries.get(scheme);
+		return country == null ? new RatingHistogram(scheme) : country.counts.copy();
+	}
+
+	/**
+	 * @param scheme the scheme of the country the region is in
+	 * @return the counts of each region in the country, by region name
+	 */
+	public synchronized Map<String, RatingHistogram> getRegions(RatingHistogram.Scheme scheme) {
+		Map<String, RatingHistogram> result = new TreeMap<>();
+		Node country = countries.get(scheme);
+		if (country != null) {
+			country.children.values().forEach(region -> result.put(region.name, region.counts.copy()));
+		}
+		return result;
+	}
+
+	/**
+	 * @param authorityId an authority
+	 * @return its counts, or null if it has not been added
+	 */
+	public synchronized RatingHistogram getAuthority(Long authorityId) {
+		Node authority = authorities.get(authorityId);
+		return authority == null ? null : authority.counts.copy();
+	}
+
+	/**
+	 * @return every aggregate above the authorities, from the top down: the nation, then
+	 * each country followed by its regions, in name order
+	 */
+	public synchronized List<Aggregate> getAggregates() {
+		List<Aggregate> result = new ArrayList<>();
+		result.add(new Aggregate(Level.NATION, nation.name, nation.counts.copy()));
+		for (Node country : nation.children.values()) {
+			result.add(new Aggregate(Level.COUNTRY, country.name, country.counts.copy()));
+			for (Node region : country.children.values()) {
+				result.add(new Aggregate(Level.REGION, region.name, region.counts.copy()));
+			}
+		}
+		return result;
+	}
+
+	private static RatingHistogram.Scheme schemeOf(RatingHistogram counts) {
+		return counts.hasScheme(RatingHistogram.Scheme.FHIS) ? RatingHistogram.Scheme.FHIS
+				: RatingHistogram.Scheme.FHRS;
+	}
+
+	/**
+	 * One node of the tree
+	 */
+	private static final class Node {
+		private final Level level;
+		private final String name;
+		private final Node parent;
+		private final RatingHistogram counts = new RatingHistogram();
+		private final Map<String, Node> children = new TreeMap<>();
+
+		private Node(Level level, String name, Node parent) {
+			this.level = level;
+			this.name = name;
+			this.parent = parent;
+		}
+
+		private Node child(Level level, String name) {
+			return children.computeIfAbsent(name, n -> new Node(level, n, this));
+		}
+	}
+
+	/**
+	 * The counts of one node above the authorities
+	 */
+	public static final class Aggregate {
+		private final Level level;
+		private final String name;
+		private final RatingHistogram counts;
+
+		private Aggregate(Level level, String name, RatingHistogram counts) {
+			this.level = level;
+			this.name = name;
+			this.counts = counts;
+		}
+
+		/**
+		 * @return the level of the aggregate
+		 */
+		public Level getLevel() {
+			return level;
+		}
+
+		/**
+		 * @return the name of the nation or region, or of the scheme for a country
+		 */
+		public String getName() {
+			return name;
+		}
+
+		/**
+		 * @return the counts of every authority below
+		 */
+		public RatingHistogram getCounts() {
+			return counts;
+		}
+
+		@Override
+		public String toString() {
+			return level + " " + name + " " + counts;
+		}
+	}
+}
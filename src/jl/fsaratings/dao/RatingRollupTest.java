@@ -0,0 +1,119 @@
+package jl.fsaratings.dao;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.stream.Collectors;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import jl.fsaratings.dao.RatingHistogram.Scheme;
+
+/**
+ * Test class for RatingRollup
+ *
+ * @author jonny.lyon
+ *
+ */
+public class RatingRollupTest {
+
+	private static final int FIVE = RatingHistogram.ordinalOf("5");
+	private static final int ZERO = RatingHistogram.ordinalOf("0");
+	private static final int PASS = RatingHistogram.ordinalOf("Pass");
+
+	private RatingRollup instance;
+
+	@Before
+	public void setUp() {
+		Map<Long, String> regions = new HashMap<>();
+		regions.put(1L, "Yorkshire and Humberside");
+		regions.put(2L, "Yorkshire and Humberside");
+		regions.put(3L, "London");
+		regions.put(4L, "Scotland");
+		instance = new RatingRollup(regions);
+	}
+
+	@Test
+	public void testCountsAreAddedUpAtEveryLevel() {
+		instance.update(1L, fhrs(10, 0));
+		instance.update(2L, fhrs(5, 5));
+		instance.update(3L, fhrs(1, 1));
+		instance.update(4L, fhis(7));
+
+		assertEquals(fhrs(15, 5), instance.getRegions(Scheme.FHRS).get("Yorkshire and Humberside"));
+		assertEquals(fhrs(16, 6), instance.getCountry(Scheme.FHRS));
+		assertEquals(fhis(7), instance.getCountry(Scheme.FHIS));
+		assertEquals(23, instance.getNation().getCount(FIVE) + instance.getNation().getCount(PASS));
+		assertEquals(6, instance.getNation().getCount(ZERO));
+		assertEquals(Arrays.asList("NATION United Kingdom", "COUNTRY FHIS", "REGION Scotland", "COUNTRY FHRS",
+				"REGION London", "REGION Yorkshire and Humberside"), names(instance.getAggregates()));
+	}
+
+	@Test
+	public void testUpdateReplacesAnAuthoritysEarlierCounts() {
+		instance.update(1L, fhrs(10, 0));
+		instance.update(2L, fhrs(5, 5));
+
+		instance.update(1L, fhrs(8, 3));
+
+		assertEquals(fhrs(8, 3), instance.getAuthority(1L));
+		assertEquals(fhrs(13, 8), instance.getRegions(Scheme.FHRS).get("Yorkshire and Humberside"));
+		assertEquals(fhrs(13, 8), instance.getNation());
+	}
+
+	@Test
+	public void testAuthorityMovesCountryWhenItsSchemeChanges() {
+		instance.update(3L, fhrs(4, 0));
+		instance.update(1L, fhrs(1, 0));
+
+		instance.update(3L, fhis(2));
+
+		assertEquals(fhrs(1, 0), instance.getCountry(Scheme.FHRS));
+		assertEquals(fhis(2), instance.getCountry(Scheme.FHIS));
+		assertEquals(Arrays.asList("London"), Arrays.asList(instance.getRegions(Scheme.FHIS).keySet().toArray()));
+		assertEquals(Arrays.asList("Yorkshire and Humberside"),
+				Arrays.asList(instance.getRegions(Scheme.FHRS).keySet().toArray()));
+	}
+
+	@Test
+	public void testRemoveTakesCountsOutAndDropsEmptyRegions() {
+		instance.update(1L, fhrs(10, 0));
+		instance.update(3L, fhrs(1, 1));
+
+		instance.remove(3L);
+		instance.remove(99L);
+
+		assertNull(instance.getAuthority(3L));
+		assertEquals(fhrs(10, 0), instance.getCountry(Scheme.FHRS));
+		assertEquals(1, instance.getRegions(Scheme.FHRS).size());
+	}
+
+	@Test
+	public void testAuthorityWithoutRegionIsCountedUnderUnknown() {
+		instance.update(50L, fhrs(3, 0));
+
+		assertEquals(fhrs(3, 0), instance.getRegions(Scheme.FHRS).get(RatingRollup.UNKNOWN_REGION));
+	}
+
+	private static RatingHistogram fhrs(long fiveStar, long zeroStar) {
+		RatingHistogram histogram = new RatingHistogram(Scheme.FHRS);
+		histogram.add(FIVE, fiveStar);
+		histogram.add(ZERO, zeroStar);
+		return histogram;
+	}
+
+	private static RatingHistogram fhis(long pass) {
+		RatingHistogram histogram = new RatingHistogram(Scheme.FHIS);
+		histogram.add(PASS, pass);
+		return histogram;
+	}
+
+	private static List<String> names(List<RatingRollup.Aggregate> aggregates) {
+		return aggregates.stream().map(a -> a.getLevel() + " " + a.getName()).collect(Collectors.toList());
+	}
+}
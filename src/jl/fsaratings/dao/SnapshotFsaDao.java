@@ -0,0 +1,167 @@
+package jl.fsaratings.dao;
+
+import java.io.IOException;
+import java.util.Map;
+import java.util.concurrent.Executor;
+import java.util.function.Consumer;
+
+import jl.fsaratings.store.SnapshotStore;
+
+/**
+ * Decorates any FsaDao with a persistent snapshot of the last data successfully fetched.
+ *
+ * The authorities list is served from the snapshot when one exists, so startup does not
+ * wait for the API; {@link #reconcileAuthorities} then fetches the current list in the
+ * background and reports it if it has changed.  Rating counts are always fetched
+ * from the API when it is available, and served from the snapshot when it is not, so the
+ * app keeps working offline for any authority viewed before.
+ *
+ * @author jonny.lyon
+ *
+ */
+public class SnapshotFsaDao implements FsaDao {
+
+	private final FsaDao delegate;
+
+	private final SnapshotStore store;
+
+	private final Executor reconcileExecutor;
+
+	/**
+	 * Constructor for SnapshotFsaDao
+	 *
+	 * @param delegate the DAO to fetch current data from
+	 * @param store the snapshot to serve and update
+	 * @param reconcileExecutor runs the background reconciliation of the authorities list
+	 */
+	public SnapshotFsaDao(FsaDao delegate, SnapshotStore store, Executor reconcileExecutor) {
+		this.delegate = delegate;
+		this.store = store;
+		this.reconcileExecutor = reconcileExecutor;
+	}
+
+	/**
+	 * {@inheritDoc}
+	 *
+	 * Returns the snapshot's authorities if it has any, without contacting the API.
+	 */
+	@Override
+	public Map<String, Long> fetchAuthorityNamesWithIds() throws IOException {
+		Map<String, Long> snapshot = store.getAuthorities();
+		if (!snapshot.isEmpty()) {
+			return snapshot;
+		}
+
+		Map<String, Long> authorities = delegate.fetchAuthorityNamesWithIds();
+		saveQuietly(() -> store.saveAuthorities(authorities));
+		return authorities;
+	}
+
+	/**
+	 * {@inheritDoc}
+	 */
+	@Override
+	public Map<Long, String> fetchAuthorityRegions() throws IOException {
+		return delegate.fetchAuthorityRegions();
+	}
+
+	/**
+	 * {@inheritDoc}
+	 *
+	 * Calculated from the counts, so falls back to the snapshot in the same way.
+	 */
+	@Override
+	public Map<String, Double> fetchRatingPercentagesForAuthority(Long authorityId) throws IOException {
+		return fetchRatingCountsForAuthority(authorityId).toPercentages();
+	}
+
+	/**
+	 * {@inheritDoc}
+	 *
+	 * Calculated from the counts, so falls back to the snapshot in the same way.
+	 */
+	@Override
+	public Map<String, Double> fetchRatingPercentagesForAuthority(Long authorityId,
+			Consumer<Map<String, Double>> progress) throws IOException {
+		return fetchRatingCountsForAuthority(authorityId, partial -> progress.accept(partial.toPercentages())).toPercentages();
+	}
+
+	/**
+	 * {@inheritDoc}
+	 *
+	 * Falls back to the snapshot if the API cannot be reached or returns an error.
+	 */
+	@Override
+	public RatingHistogram fetchRatingCountsForAuthority(Long authorityId) throws IOException {
+		return fetchCounts(authorityId, () -> delegate.fetchRatingCountsForAuthority(authorityId));
+	}
+
+	/**
+	 * {@inheritDoc}
+	 *
+	 * Falls back to the snapshot if the API cannot be reached or returns an error, even
+	 * if some partial counts have already been reported.
+	 */
+	@Override
+	public RatingHistogram fetchRatingCountsForAuthority(Long authorityId, Consumer<RatingHistogram> progress)
+			throws IOException {
+		return fetchCounts(authorityId, () -> delegate.fetchRatingCountsForAuthority(authorityId, progress));
+	}
+
+	private RatingHistogram fetchCounts(Long authorityId, CountsFetch fetch) throws IOException {
+		RatingHistogram counts;
+		try {
+			counts = fetch.run();
+		} catch (IOException | RuntimeException e) {
+			RatingHistogram snapshot = store.getCounts(authorityId);
+			if (snapshot == null) {
+				throw e;
+			}
+			return snapshot;
+		}
+
+		saveQuietly(() -> store.saveCounts(authorityId, counts));
+		return counts;
+	}
+
+	/**
+	 * Fetches the current authorities list from the API in the background and saves it to
+	 * the snapshot.  If it differs from the list previously in the snapshot, it is passed to
+	 * the listener.  Failures are ignored, leaving the snapshot as it is.
+	 *
+	 * @param listener notified with the new authorities list if it has changed
+	 */
+	public void reconcileAuthorities(Consumer<Map<String, Long>> listener) {
+		reconcileExecutor.execute(() -> {
+			try {
+				Map<String, Long> previous = store.getAuthorities();
+				Map<String, Long> current = delegate.fetchAuthorityNamesWithIds();
+				saveQuietly(() -> store.saveAuthorities(current));
+				if (!current.equals(previous)) {
+					listener.accept(current);
+				}
+			} catch (IOException | RuntimeException e) {
+				// offline or API unavailable: carry on with the snapshot
+			}
+		});
+	}
+
+	/**
+	 * Runs a snapshot write, ignoring any failure since the snapshot is only an optimisation
+	 */
+	private void saveQuietly(SnapshotWrite write) {
+		try {
+			write.run();
+		} catch (IOException e) {
+			// the data was still fetched successfully; the snapshot will be updated next time
+		}
+	}
+
+	private interface SnapshotWrite {
+		void run() throws IOException;
+	}
+
+	private interface CountsFetch {
+		RatingHistogram run() throws IOException;
+	}
+}
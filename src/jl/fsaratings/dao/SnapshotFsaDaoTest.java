@@ -0,0 +1,155 @@
+package jl.fsaratings.dao;
+
+import static org.easymock.EasyMock.createStrictMock;
+import static org.easymock.EasyMock.expect;
+import static org.easymock.EasyMock.replay;
+import static org.easymock.EasyMock.verify;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.fail;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.atomic.AtomicReference;
+
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import jl.fsaratings.store.SnapshotStore;
+
+/**
+ * Test class for SnapshotFsaDao, mocking out the wrapped DAO and using a real snapshot
+ * file in a temporary folder.  Reconciliation is run on the calling thread.
+ *
+ * @author jonny.lyon
+ *
+ */
+public class SnapshotFsaDaoTest {
+
+	@Rule
+	public TemporaryFolder folder = new TemporaryFolder();
+
+	/**
+	 * Mock DAO being wrapped
+	 */
+	private FsaDao delegate;
+
+	private Path snapshotFile;
+
+	@Before
+	public void setUp() {
+		delegate = createStrictMock(FsaDao.class);
+		snapshotFile = folder.getRoot().toPath().resolve("snapshot.bin");
+	}
+
+	@Test
+	public void testAuthoritiesAreFetchedAndSavedWhenNoSnapshotExists() throws IOException {
+		expect(delegate.fetchAuthorityNamesWithIds()).andReturn(buildAuthorities()).once();
+		replay(delegate);
+
+		assertEquals(buildAuthorities(), newInstance().fetchAuthorityNamesWithIds());
+		verify(delegate);
+		assertEquals(buildAuthorities(), new SnapshotStore(snapshotFile).getAuthorities());
+	}
+
+	@Test
+	public void testAuthoritiesAreServedFromSnapshotWithoutCallingApi() throws IOException {
+		new SnapshotStore(snapshotFile).saveAuthorities(buildAuthorities());
+		replay(delegate);
+
+		assertEquals(buildAuthorities(), newInstance().fetchAuthorityNamesWithIds());
+		verify(delegate);
+	}
+
+	@Test
+	public void testDistributionIsServedFromSnapshotWhenApiIsUnavailable() throws IOException {
+		expect(delegate.fetchRatingCountsForAuthority(2L)).andReturn(buildCounts()).once();
+		expect(delegate.fetchRatingCountsForAuthority(2L)).andThrow(new IOException("mocked exception")).once();
+		replay(delegate);
+
+		newInstance().fetchRatingPercentagesForAuthority(2L);
+		Map<String, Double> offline = newInstance().fetchRatingPercentagesForAuthority(2L);
+
+		verify(delegate);
+		assertEquals(buildCounts().toPercentages(), offline);
+	}
+
+	@Test
+	public void testCountsAreSavedAndServedFromSnapshotWhenApiReturnsError() throws IOException {
+		expect(delegate.fetchRatingCountsForAuthority(2L)).andReturn(buildCounts()).once();
+		expect(delegate.fetchRatingCountsForAuthority(2L)).andThrow(new RuntimeException("Endpoint returned HTTP error code 503")).once();
+		replay(delegate);
+
+		newInstance().fetchRatingCountsForAuthority(2L);
+		RatingHistogram offline = newInstance().fetchRatingCountsForAuthority(2L);
+
+		verify(delegate);
+		assertEquals(buildCounts(), offline);
+	}
+
+	@Test
+	public void testErrorIsThrownWhenApiIsUnavailableAndNoSnapshotExists() throws IOException {
+		expect(delegate.fetchRatingCountsForAuthority(2L)).andThrow(new IOException("mocked exception")).once();
+		replay(delegate);
+
+		try {
+			newInstance().fetchRatingPercentagesForAuthority(2L);
+			fail("IOException expected");
+		} catch (IOException e) {
+			// do nothing;
+		}
+	}
+
+	@Test
+	public void testReconcileNotifiesListenerOnlyWhenAuthoritiesHaveChanged() throws IOException {
+		new SnapshotStore(snapshotFile).saveAuthorities(buildAuthorities());
+		Map<String, Long> changed = buildAuthorities();
+		changed.put("Sheffield", 3L);
+
+		expect(delegate.fetchAuthorityNamesWithIds()).andReturn(changed).times(2);
+		replay(delegate);
+
+		AtomicReference<Map<String, Long>> notified = new AtomicReference<>();
+		SnapshotFsaDao instance = newInstance();
+		instance.reconcileAuthorities(notified::set);
+		assertEquals(changed, notified.get());
+
+		notified.set(null);
+		instance.reconcileAuthorities(notified::set);
+		assertNull(notified.get());
+		verify(delegate);
+	}
+
+	@Test
+	public void testCorruptSnapshotIsTreatedAsEmpty() throws IOException {
+		Files.write(snapshotFile, new byte[] { 0x46, 0x53, 0x41, 0x53, 0, 0 });
+
+		SnapshotStore store = new SnapshotStore(snapshotFile);
+
+		assertEquals(new TreeMap<String, Long>(), store.getAuthorities());
+		assertNull(store.getCounts(2L));
+	}
+
+	private SnapshotFsaDao newInstance() {
+		return new SnapshotFsaDao(delegate, new SnapshotStore(snapshotFile), Runnable::run);
+	}
+
+	private Map<String, Long> buildAuthorities() {
+		Map<String, Long> authorities = new TreeMap<>();
+		authorities.put("Leeds", 1L);
+		authorities.put("York", 2L);
+		return authorities;
+	}
+
+	private RatingHistogram buildCounts() {
+		RatingHistogram counts = new RatingHistogram(RatingHistogram.Scheme.FHRS);
+		counts.add(RatingHistogram.ordinalOf("5"), 5);
+		counts.add(RatingHistogram.ordinalOf("Exempt"), 3);
+		return counts;
+	}
+}
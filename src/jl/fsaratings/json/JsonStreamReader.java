@@ -0,0 +1,474 @@
+package jl.fsaratings.json;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.Reader;
+
+/**
+ * A minimal pull-based JSON reader which works through a character stream one token
+ * at a time.  Unlike JSONObject, no tree is built - the caller asks for the next token
+ * and either consumes it or skips it, so memory use is bounded by the depth of the
+ * document and the length of the longest string rather than by the size of the response.
+ *
+ * Only the subset of JSON handling needed for the FSA API responses is provided, but
+ * any valid JSON document can be walked and skipped.
+ *
+ * @author jonny.lyon
+ *
+ */
+public class JsonStreamReader implements Closeable {
+
+	/**
+	 * The kinds of token which may be returned by {@link #peek()}
+	 */
+	public enum Token {
+		BEGIN_OBJECT, END_OBJECT, BEGIN_ARRAY, END_ARRAY, NAME, STRING, NUMBER, BOOLEAN, NULL, END_DOCUMENT
+	}
+
+	private static final int EMPTY_DOCUMENT = 0;
+	private static final int NONEMPTY_DOCUMENT = 1;
+	private static final int EMPTY_OBJECT = 2;
+	private static final int DANGLING_NAME = 3;
+	private static final int NONEMPTY_OBJECT = 4;
+	private static final int EMPTY_ARRAY = 5;
+	private static final int NONEMPTY_ARRAY = 6;
+
+	private final Reader in;
+
+	private final char[] buffer = new char[8192];
+	private int pos = 0;
+	private int limit = 0;
+
+	/**
+	 * Stack of the scopes currently open, one entry per enclosing object or array
+	 */
+	private int[] stack = new int[32];
+	private int stackSize = 0;
+
+	/**
+	 * The token found by the last call to peek() which has not yet been consumed
+	 */
+	private Token peeked;
+
+	/**
+	 * Holds the text of a peeked number, boolean or null literal
+	 */
+	private final StringBuilder literal = new StringBuilder();
+
+	/**
+	 * Reused for assembling names and string values
+	 */
+	private final StringBuilder text = new StringBuilder();
+
+	/**
+	 * Constructor for JsonStreamReader
+	 *
+	 * @param in the source of the JSON text.  It is read incrementally and is closed
+	 * when this reader is closed.
+	 */
+	public JsonStreamReader(Reader in) {
+		this.in = in;
+		stack[stackSize++] = EMPTY_DOCUMENT;
+	}
+
+	/**
+	 * Returns the type of the next token without consuming it
+	 *
+	 * @return the next token type
+	 * @throws IOException if the underlying stream fails or the JSON is malformed
+	 */
+	public Token peek() throws IOException {
+		if (peeked != null) {
+			return peeked;
+		}
+
+		int c;
+		switch (stack[stackSize - 1]) {
+		case EMPTY_DOCUMENT:
+			stack[stackSize - 1] = NONEMPTY_DOCUMENT;
+			return peeked = peekValue();
+		case NONEMPTY_DOCUMENT:
+			if (nextNonWhitespace() != -1) {
+				throw syntaxError("Unexpected content after end of document");
+			}
+			return peeked = Token.END_DOCUMENT;
+		case EMPTY_ARRAY:
+			stack[stackSize - 1] = NONEMPTY_ARRAY;
+			c = nextNonWhitespace();
+			if (c == ']') {
+				return peeked = Token.END_ARRAY;
+			} else if (c == -1) {
+				throw syntaxError("Unterminated array");
+			}
+			pos--;
+			return peeked = peekValue();
+		case NONEMPTY_ARRAY:
+			c = nextNonWhitespace();
+			if (c == ']') {
+				return peeked = Token.END_ARRAY;
+			} else if (c != ',') {
+				throw syntaxError("Expected ',' or ']'");
+			}
+			return peeked = peekValue();
+		case EMPTY_OBJECT:
+		case NONEMPTY_OBJECT:
+			c = nextNonWhitespace();
+			if (c == '}') {
+				return peeked = Token.END_OBJECT;
+			}
+			if (stack[stackSize - 1] == NONEMPTY_OBJECT) {
+				if (c != ',') {
+					throw syntaxError("Expected ',' or '}'");
+				}
+				c = nextNonWhitespace();
+			}
+			if (c != '"') {
+				throw syntaxError("Expected a name");
+			}
+			stack[stackSize - 1] = DANGLING_NAME;
+			return peeked = Token.NAME;
+		case DANGLING_NAME:
+			if (nextNonWhitespace() != ':') {
+				throw syntaxError("Expected ':'");
+			}
+			stack[stackSize - 1] = NONEMPTY_OBJECT;
+			return peeked = peekValue();
+		default:
+			throw new IllegalStateException("Reader is in an unknown state");
+		}
+	}
+
+	/**
+	 * @return true if the current object or array has another element
+	 * @throws IOException if the underlying stream fails or the JSON is malformed
+	 */
+	public boolean hasNext() throws IOException {
+		Token token = peek();
+		return token != Token.END_OBJECT && token != Token.END_ARRAY && token != Token.END_DOCUMENT;
+	}
+
+	/**
+	 * Consumes the start of an object
+	 *
+	 * @throws IOException if the next token is not the start of an object
+	 */
+	public void beginObject() throws IOException {
+		expect(Token.BEGIN_OBJECT);
+		push(EMPTY_OBJECT);
+	}
+
+	/**
+	 * Consumes the end of the current object
+	 *
+	 * @throws IOException if the next token is not the end of an object
+	 */
+	public void endObject() throws IOException {
+		expect(Token.END_OBJECT);
+		stackSize--;
+	}
+
+	/**
+	 * Consumes the start of an array
+	 *
+	 * @throws IOException if the next token is not the start of an array
+	 */
+	public void beginArray() throws IOException {
+		expect(Token.BEGIN_ARRAY);
+		push(EMPTY_ARRAY);
+	}
+
+	/**
+	 * Consumes the end of the current array
+	 *
+	 * @throws IOException if the next token is not the end of an array
+	 */
+	public void endArray() throws IOException {
+		expect(Token.END_ARRAY);
+		stackSize--;
+	}
+
+	/**
+	 * Consumes the next property name
+	 *
+	 * @return the property name
+	 * @throws IOException if the next token is not a property name
+	 */
+	public String nextName() throws IOException {
+		return nextNameChars().toString();
+	}
+
+	/**
+	 * Consumes the next property name without allocating a String for it.
+	 *
+	 * @return the property name, as a view which is only valid until the next call to this reader
+	 * @throws IOException if the next token is not a property name
+	 */
+	public CharSequence nextNameChars() throws IOException {
+		expect(Token.NAME);
+		text.setLength(0);
+		readString(text);
+		return text;
+	}
+
+	/**
+	 * Consumes the next value as a string.  Numbers and other literals are returned
+	 * as their JSON text, since the FSA API is not always consistent about quoting.
+	 *
+	 * @return the string value, or null if the value was a JSON null
+	 * @throws IOException if the next token is not a scalar value
+	 */
+	public String nextString() throws IOException {
+		CharSequence value = nextStringChars();
+		return value == null ? null : value.toString();
+	}
+
+	/**
+	 * Consumes the next value as a string without allocating a String for it.  Numbers
+	 * and other literals are returned as their JSON text.
+	 *
+	 * @return the string value, as a view which is only valid until the next call to this
+	 * reader, or null if the value was a JSON null
+	 * @throws IOException if the next token is not a scalar value
+	 */
+	public CharSequence nextStringChars() throws IOException {
+		Token token = peek();
+		if (token == Token.STRING) {
+			peeked = null;
+			text.setLength(0);
+			readString(text);
+			return text;
+		} else if (token == Token.NULL) {
+			peeked = null;
+			return null;
+		} else if (token == Token.NUMBER || token == Token.BOOLEAN) {
+			peeked = null;
+			return literal;
+		}
+		throw syntaxError("Expected a string but was " + token);
+	}
+
+	/**
+	 * Consumes the next value as a long.  Quoted numbers are accepted.
+	 *
+	 * @return the numeric value
+	 * @throws IOException if the next token cannot be read as a long
+	 */
+	public long nextLong() throws IOException {
+		String value = nextString();
+		try {
+			return Long.parseLong(value);
+		} catch (NumberFormatException e) {
+			throw syntaxError("Expected a long but was " + value);
+		}
+	}
+
+	/**
+	 * Skips the next value, including any nested objects or arrays, without
+	 * retaining any of its content.  If the next token is a property name, the
+	 * name and its value are both skipped.
+	 *
+	 * @throws IOException if the underlying stream fails or the JSON is malformed
+	 */
+	public void skipValue() throws IOException {
+		int depth = 0;
+		do {
+			Token token = peek();
+			peeked = null;
+			switch (token) {
+			case BEGIN_OBJECT:
+				push(EMPTY_OBJECT);
+				depth++;
+				break;
+			case BEGIN_ARRAY:
+				push(EMPTY_ARRAY);
+				depth++;
+				break;
+			case END_OBJECT:
+			case END_ARRAY:
+				stackSize--;
+				depth--;
+				break;
+			case NAME:
+				readString(null);
+				// the value belonging to the name must be skipped too
+				skipValue();
+				break;
+			case STRING:
+				readString(null);
+				break;
+			case END_DOCUMENT:
+				throw syntaxError("Unexpected end of document");
+			default:
+				// literal already consumed by peek
+				break;
+			}
+		} while (depth > 0);
+	}
+
+	/**
+	 * {@inheritDoc}
+	 */
+	@Override
+	public void close() throws IOException {
+		in.close();
+	}
+
+	private void expect(Token expected) throws IOException {
+		Token token = peek();
+		if (token != expected) {
+			throw syntaxError("Expected " + expected + " but was " + token);
+		}
+		peeked = null;
+	}
+
+	private void push(int scope) {
+		if (stackSize == stack.length) {
+			int[] newStack = new int[stackSize * 2];
+			System.arraycopy(stack, 0, newStack, 0, stackSize);
+			stack = newStack;
+		}
+		stack[stackSize++] = scope;
+	}
+
+	/**
+	 * Works out the type of the value starting at the next non-whitespace character.
+	 * Strings are left in the stream to be read or skipped later; literals are read
+	 * into the literal buffer straight away since their extent is only known once read.
+	 */
+	private Token peekValue() throws IOException {
+		int c = nextNonWhitespace();
+		switch (c) {
+		case '{':
+			return Token.BEGIN_OBJECT;
+		case '[':
+			return Token.BEGIN_ARRAY;
+		case '"':
+			return Token.STRING;
+		case -1:
+			throw syntaxError("Unexpected end of document");
+		default:
+			pos--;
+			readLiteral();
+			if (literal.length() == 0) {
+				throw syntaxError("Unexpected character '" + (char) c + "'");
+			}
+			if ("null".contentEquals(literal)) {
+				return Token.NULL;
+			} else if ("true".contentEquals(literal) || "false".contentEquals(literal)) {
+				return Token.BOOLEAN;
+			}
+			return Token.NUMBER;
+		}
+	}
+
+	private void readLiteral() throws IOException {
+		literal.setLength(0);
+		while (pos < limit || fill()) {
+			char c = buffer[pos];
+			if (c == ',' || c == '}' || c == ']' || c == ':' || c == ' ' || c == '\t' || c == '\n' || c == '\r') {
+				return;
+			}
+			literal.append(c);
+			pos++;
+		}
+	}
+
+	/**
+	 * Reads the remainder of a string whose opening quote has already been consumed.
+	 *
+	 * @param out where to append the unescaped characters, or null to discard them
+	 */
+	private void readString(StringBuilder out) throws IOException {
+		while (true) {
+			if (pos == limit && !fill()) {
+				throw syntaxError("Unterminated string");
+			}
+			int start = pos;
+			while (pos < limit) {
+				char c = buffer[pos++];
+				if (c == '"') {
+					if (out != null) {
+						out.append(buffer, start, pos - start - 1);
+					}
+					return;
+				} else if (c == '\\') {
+					if (out != null) {
+						out.append(buffer, start, pos - start - 1);
+					}
+					char escaped = readEscape();
+					if (out != null) {
+						out.append(escaped);
+					}
+					start = pos;
+				}
+			}
+			if (out != null) {
+				out.append(buffer, start, pos - start);
+			}
+		}
+	}
+
+	private char readEscape() throws IOException {
+		int c = read();
+		switch (c) {
+		case 'b':
+			return '\b';
+		case 'f':
+			return '\f';
+		case 'n':
+			return '\n';
+		case 'r':
+			return '\r';
+		case 't':
+			return '\t';
+		case 'u':
+			int value = 0;
+			for (int i = 0; i < 4; i++) {
+				int digit = Character.digit(read(), 16);
+				if (digit < 0) {
+					throw syntaxError("Invalid unicode escape");
+				}
+				value = (value << 4) | digit;
+			}
+			return (char) value;
+		case '"':
+		case '\\':
+		case '/':
+			return (char) c;
+		default:
+			throw syntaxError("Invalid escape sequence");
+		}
+	}
+
+	private int read() throws IOException {
+		if (pos == limit && !fill()) {
+			throw syntaxError("Unexpected end of document");
+		}
+		return buffer[pos++];
+	}
+
+	private int nextNonWhitespace() throws IOException {
+		while (pos < limit || fill()) {
+			char c = buffer[pos++];
+			if (c != ' ' && c != '\t' && c != '\n' && c != '\r') {
+				return c;
+			}
+		}
+		return -1;
+	}
+
+	private boolean fill() throws IOException {
+		pos = 0;
+		limit = 0;
+		int read = in.read(buffer, 0, buffer.length);
+		if (read <= 0) {
+			return false;
+		}
+		limit = read;
+		return true;
+	}
+
+	private IOException syntaxError(String message) {
+		return new IOException("Malformed JSON: " + message);
+	}
+}
@@ -0,0 +1,110 @@
+package jl.fsaratings.json;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.fail;
+
+import java.io.IOException;
+import java.io.StringReader;
+
+import org.junit.Test;
+
+import jl.fsaratings.json.JsonStreamReader.Token;
+
+/**
+ * Test class for JsonStreamReader
+ *
+ * @author jonny.lyon
+ *
+ */
+public class JsonStreamReaderTest {
+
+	@Test
+	public void testReadsScalarValuesOfEachType() throws IOException {
+		JsonStreamReader reader = readerFor("{\"a\":\"text\",\"b\":42,\"c\":true,\"d\":null,\"e\":-1.5e3}");
+
+		reader.beginObject();
+		assertEquals("a", reader.nextName());
+		assertEquals("text", reader.nextString());
+		assertEquals("b", reader.nextName());
+		assertEquals(42L, reader.nextLong());
+		assertEquals("c", reader.nextName());
+		assertEquals(Token.BOOLEAN, reader.peek());
+		assertEquals("true", reader.nextString());
+		assertEquals("d", reader.nextName());
+		assertNull(reader.nextString());
+		assertEquals("e", reader.nextName());
+		assertEquals("-1.5e3", reader.nextString());
+		assertFalse(reader.hasNext());
+		reader.endObject();
+		assertEquals(Token.END_DOCUMENT, reader.peek());
+	}
+
+	@Test
+	public void testSkipsNestedValues() throws IOException {
+		JsonStreamReader reader = readerFor(" {\n \"skip\" : {\"x\":[1,[2,{}],{\"y\":\"]}\"}]} ,\r\n \"keep\" : [ ] }");
+
+		reader.beginObject();
+		assertEquals("skip", reader.nextName());
+		reader.skipValue();
+		assertEquals("keep", reader.nextName());
+		reader.beginArray();
+		assertFalse(reader.hasNext());
+		reader.endArray();
+		reader.endObject();
+	}
+
+	@Test
+	public void testUnescapesStrings() throws IOException {
+		JsonStreamReader reader = readerFor("[\"a\\\"b\\\\c\\/d\\n\\u00e9\"]");
+
+		reader.beginArray();
+		assertEquals("a\"b\\c/d\n\u00e9", reader.nextString());
+		reader.endArray();
+	}
+
+	@Test
+	public void testReadsStringsSpanningBufferBoundaries() throws IOException {
+		StringBuilder longValue = new StringBuilder();
+		for (int i = 0; i < 20000; i++) {
+			longValue.append((char) ('a' + i % 26));
+		}
+		JsonStreamReader reader = readerFor("[\"" + longValue + "\",\"" + longValue + "\"]");
+
+		reader.beginArray();
+		reader.skipValue();
+		assertEquals(longValue.toString(), reader.nextString());
+		reader.endArray();
+	}
+
+	@Test
+	public void testThrowsIOExceptionForUnexpectedToken() throws IOException {
+		JsonStreamReader reader = readerFor("{\"a\":1}");
+
+		try {
+			reader.beginArray();
+			fail("IOException expected");
+		} catch (IOException e) {
+			// do nothing;
+		}
+	}
+
+	@Test
+	public void testThrowsIOExceptionForTruncatedDocument() throws IOException {
+		JsonStreamReader reader = readerFor("{\"a\":[1,2");
+
+		reader.beginObject();
+		reader.nextName();
+		try {
+			reader.skipValue();
+			fail("IOException expected");
+		} catch (IOException e) {
+			// do nothing;
+		}
+	}
+
+	private JsonStreamReader readerFor(String json) {
+		return new JsonStreamReader(new StringReader(json));
+	}
+}
@@ -0,0 +1,158 @@
+package jl.fsaratings.metrics;
+
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * A lock-free histogram of latencies in nanoseconds, in the style of HdrHistogram.
+ *
+ * Values are counted in log-linear buckets: each power of two is split into 32 equal
+ * sub-buckets, so any value is recorded to within about 3% of its true value, whatever
+ * its magnitude, using a fixed 15KB of counts.  Recording is a couple of shifts and an
+ * atomic increment, and never allocates, so it is cheap enough for every request.
+ *
+ * Reads are not atomic with respect to concurrent recording, so a percentile taken while
+ * values are being recorded may not include the latest of them.
+ *
+ * @author jonny.lyon
+ *
+ */
+public class LatencyHistogram {
+
+	/**
+	 * Each power of two is split into 2^SUB_BUCKET_BITS sub-buckets
+	 */
+	private static final int SUB_BUCKET_BITS = 5;
+
+	private static final int SUB_BUCKETS = 1 << SUB_BUCKET_BITS;
+
+	/**
+	 * Values below SUB_BUCKETS get a bucket each; above that, one group of sub-buckets per power of two
+	 */
+	private static final int BUCKETS = (Long.SIZE - SUB_BUCKET_BITS) * SUB_BUCKETS;
+
+	private final AtomicLongArray counts = new AtomicLongArray(BUCKETS);
+
+	private final LongAdder sum = new LongAdder();
+
+	private final AtomicLong max = new AtomicLong();
+
+	/**
+	 * Records one value.  Negative values are recorded as zero.
+	 *
+	 * @param nanos the latency to record
+	 */
+	public void record(long nanos) {
+		long value = Math.max(nanos, 0);
+		counts.incrementAndGet(indexOf(value));
+		sum.add(value);
+
+		long current;
+		while (value > (current = max.get()) && !max.compareAndSet(current, value)) {
+			// retry
+		}
+	}
+
+	/**
+	 * @return the number of values recorded
+	 */
+	public long getCount() {
+		long count = 0;
+		for (int i = 0; i < BUCKETS; i++) {
+			count += counts.get(i);
+		}
+		return count;
+	}
+
+	/**
+	 * @return the largest value recorded, exactly, or 0 if none have been
+	 */
+	public long getMax() {
+		return max.get();
+	}
+
+	/**
+	 * @return the mean of the values recorded, or 0 if none have been
+	 */
+	public double getMean() {
+		long count = getCount();
+		return count == 0 ? 0 : sum.doubleValue() / count;
+	}
+
+	/**
+	 * Returns the value at the percentile given: the smallest value that at least that
+	 * percentage of recorded values are no greater than.  The value returned is the top
+	 * of its bucket, so overstates the true value by at most the bucket's width, and is
+	 * never more than the maximum.
+	 *
+	 * @param percentile between 0 and 100
+	 * @return the value at the percentile, or 0 if nothing has been recorded
+	 */
+	public long getValueAtPercentile(double percentile) {
+		if (percentile < 0 || percentile > 100) {
+			throw new IllegalArgumentException("percentile must be between 0 and 100");
+		}
+
+		long[] snapshot = new long[BUCKETS];
+		long count = 0;
+		for (int i = 0; i < BUCKETS; i++) {
+			snapshot[i] = counts.get(i);
+			count += snapshot[i];
+		}
+		if (count == 0) {
+			return 0;
+		}
+
+		long target = Math.max(1, (long) Math.ceil(percentile / 100 * count));
+		long seen = 0;
+		for (int i = 0; i < BUCKETS; i++) {
+			seen += snapshot[i];
+			if (seen >= target) {
+				return Math.min(highestValueIn(i), max.get());
+			}
+		}
+		return max.get();
+	}
+
+	/**
+	 * @return the count, median, 99th percentile, maximum and mean, in milliseconds
+	 */
+	public LatencySummary summarize() {
+		return new LatencySummary(getCount(), toMillis(getValueAtPercentile(50)), toMillis(getValueAtPercentile(99)),
+				toMillis(getMax()), getMean() / 1_000_000);
+	}
+
+	/**
+	 * Discards all recorded values.  Values recorded concurrently may or may not survive.
+	 */
+	public void reset() {
+		for (int i = 0; i < BUCKETS; i++) {
+			counts.set(i, 0);
+		}
+		sum.reset();
+		max.set(0);
+	}
+
+	private static double toMillis(long nanos) {
+		return nanos / 1_000_000.0;
+	}
+
+	static int indexOf(long value) {
+		if (value < SUB_BUCKETS) {
+			return (int) value;
+		}
+		int exponent = 63 - Long.numberOfLeadingZeros(value);
+		int shift = exponent - SUB_BUCKET_BITS;
+		return (shift + 1) * SUB_BUCKETS + (int) (value >>> shift) - SUB_BUCKETS;
+	}
+
+	static long highestValueIn(int index) {
+		if (index < SUB_BUCKETS) {
+			return index;
+		}
+		int shift = index / SUB_BUCKETS - 1;
+		long lowest = (long) (index % SUB_BUCKETS + SUB_BUCKETS) << shift;
+		return lowest + (1L << shift) - 1;
+	}
+}
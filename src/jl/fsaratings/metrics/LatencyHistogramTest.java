@@ -0,0 +1,96 @@
+package jl.fsaratings.metrics;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+import org.junit.Test;
+
+/**
+ * Test class for LatencyHistogram
+ *
+ * @author jonny.lyon
+ *
+ */
+public class LatencyHistogramTest {
+
+	@Test
+	public void testPercentilesAreWithinBucketPrecision() {
+		LatencyHistogram instance = new LatencyHistogram();
+		for (long micros = 1; micros <= 1000; micros++) {
+			instance.record(micros * 1000);
+		}
+
+		assertEquals(1000, instance.getCount());
+		assertEquals(500_000, instance.getValueAtPercentile(50), 500_000 * 0.035);
+		assertEquals(990_000, instance.getValueAtPercentile(99), 990_000 * 0.035);
+		assertEquals(1_000_000, instance.getMax());
+		assertEquals(1_000_000, instance.getValueAtPercentile(100));
+		assertEquals(500_500, instance.getMean(), 0.001);
+	}
+
+	@Test
+	public void testEveryValueFallsInABucketThatContainsIt() {
+		for (long value : new long[] { 0, 1, 31, 32, 33, 63, 64, 1000, 123_456_789, Long.MAX_VALUE }) {
+			int index = LatencyHistogram.indexOf(value);
+			assertTrue(value + " above its bucket", value <= LatencyHistogram.highestValueIn(index));
+			assertTrue(value + " below its bucket", index == 0 || value > LatencyHistogram.highestValueIn(index - 1));
+		}
+	}
+
+	@Test
+	public void testEmptyAndResetHistogramsReportZero() {
+		LatencyHistogram instance = new LatencyHistogram();
+		assertEquals(0, instance.getValueAtPercentile(99));
+
+		instance.record(5_000_000);
+		instance.reset();
+
+		assertEquals(0, instance.getCount());
+		assertEquals(0, instance.getMax());
+		assertEquals(0, instance.getMean(), 0);
+	}
+
+	@Test
+	public void testSummaryIsInMillis() {
+		LatencyHistogram instance = new LatencyHistogram();
+		instance.record(2_000_000);
+		instance.record(-1);
+
+		LatencySummary summary = instance.summarize();
+
+		assertEquals(2, summary.getCount());
+		assertEquals(2, summary.getMaxMillis(), 0);
+		assertEquals(2, summary.getP99Millis(), 0);
+		assertEquals(1, summary.getMeanMillis(), 0);
+	}
+
+	@Test
+	public void testConcurrentRecordingLosesNothing() throws Exception {
+		LatencyHistogram instance = new LatencyHistogram();
+		ExecutorService threads = Executors.newFixedThreadPool(4);
+		try {
+			List<Future<?>> done = new ArrayList<>();
+			for (int t = 0; t < 4; t++) {
+				done.add(threads.submit(() -> {
+					for (int i = 1; i <= 10_000; i++) {
+						instance.record(i);
+					}
+				}));
+			}
+			for (Future<?> future : done) {
+				future.get();
+			}
+		} finally {
+			threads.shutdown();
+		}
+
+		assertEquals(40_000, instance.getCount());
+		assertEquals(10_000, instance.getMax());
+	}
+}
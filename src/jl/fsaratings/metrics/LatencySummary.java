@@ -0,0 +1,57 @@
+package jl.fsaratings.metrics;
+
+import java.beans.ConstructorProperties;
+
+/**
+ * A point-in-time summary of a LatencyHistogram, in milliseconds.  Exposed over JMX as
+ * composite data, so JMX consoles show each of its properties.
+ *
+ * @author jonny.lyon
+ *
+ */
+public class LatencySummary {
+
+	private final long count;
+	private final double p50Millis;
+	private final double p99Millis;
+	private final double maxMillis;
+	private final double meanMillis;
+
+	/**
+	 * Constructor for LatencySummary
+	 *
+	 * @param count the number of values recorded
+	 * @param p50Millis the median
+	 * @param p99Millis the 99th percentile
+	 * @param maxMillis the largest value recorded
+	 * @param meanMillis the mean
+	 */
+	@ConstructorProperties({ "count", "p50Millis", "p99Millis", "maxMillis", "meanMillis" })
+	public LatencySummary(long count, double p50Millis, double p99Millis, double maxMillis, double meanMillis) {
+		this.count = count;
+		this.p50Millis = p50Millis;
+		this.p99Millis = p99Millis;
+		this.maxMillis = maxMillis;
+		this.meanMillis = meanMillis;
+	}
+
+	public long getCount() {
+		return count;
+	}
+
+	public double getP50Millis() {
+		return p50Millis;
+	}
+
+	public double getP99Millis() {
+		return p99Millis;
+	}
+
+	public double getMaxMillis() {
+		return maxMillis;
+	}
+
+	public double getMeanMillis() {
+		return meanMillis;
+	}
+}
@@ -0,0 +1,354 @@
+package jl.fsaratings.metrics;
+
+import java.io.FilterInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.lang.management.ManagementFactory;
+import java.util.Locale;
+import java.util.concurrent.atomic.LongAdder;
+
+import javax.management.InstanceAlreadyExistsException;
+import javax.management.JMException;
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+
+/**
+ * Process-wide instrumentation of the stages of fetching a distribution, for finding out
+ * where the time goes.  Records a latency histogram for each Stage and a running total
+ * for each Counter, which can be read over JMX once {@link #registerMBean()} has been
+ * called, or as plain text from {@link #dump()}.
+ *
+ * Instrumentation is off unless the fsaratings.metrics system property is true at
+ * startup.  The flag is a static final, so when it is off the JIT removes the recording
+ * code entirely and the instrumented paths cost nothing; in particular
+ * {@link #start()} does not read the clock, and {@link #countBytes(InputStream)} does
+ * not wrap the stream.  Instrumentation points therefore look like:
+ *
+ * <pre>
+ * long start = Metrics.start();
+ * ...
+ * Metrics.Stage.PARSE.stop(start);
+ * </pre>
+ *
+ * @author jonny.lyon
+ *
+ */
+public final class Metrics {
+
+	/**
+	 * Whether anything is recorded.  Read once, from the fsaratings.metrics system property.
+	 */
+	public static final boolean ENABLED = Boolean.getBoolean("fsaratings.metrics");
+
+	private static final String OBJECT_NAME = "jl.fsaratings:type=Metrics";
+
+	/**
+	 * The timed stages of fetching data from the API
+	 */
+	public enum Stage {
+		/**
+		 * An HTTP round trip, from opening the connection until the response headers arrive
+		 */
+		FETCH("fetch"),
+		/**
+		 * Reading a whole response body and building it into a JSONObject
+		 */
+		PARSE("parse"),
+		/**
+		 * Reading an establishments response as a stream and counting its ratings.  The
+		 * body is read and tokenised as it is counted, so this includes the transfer time
+		 * of the body, but not the round trip before it.
+		 */
+		AGGREGATE("aggregate"),
+		/**
+		 * Fetching the whole distribution of one authority, all pages included
+		 */
+		AUTHORITY("authority");
+
+		private final String label;
+
+		private final LatencyHistogram histogram = new LatencyHistogram();
+
+		Stage(String label) {
+			this.label = label;
+		}
+
+		/**
+		 * Records the time since the start given, if instrumentation is enabled
+		 *
+		 * @param start the value returned by {@link Metrics#start()} at the start of the stage
+		 */
+		public void stop(long start) {
+			if (ENABLED) {
+				histogram.record(System.nanoTime() - start);
+			}
+		}
+
+		/**
+		 * @return the latencies recorded for this stage
+		 */
+		public LatencyHistogram getHistogram() {
+			return histogram;
+		}
+	}
+
+	/**
+	 * The running totals kept
+	 */
+	public enum Counter {
+		/**
+		 * Response body bytes read off the network, before any decompression
+		 */
+		BYTES_READ("bytesRead"),
+		ESTABLISHMENTS("establishmentsProcessed"),
+		CACHE_HITS("cacheHits"),
+		CACHE_STALE_HITS("cacheStaleHits"),
+		CACHE_MISSES("cacheMisses"),
+		/**
+		 * Responses which had not changed since they were last fetched, so were not sent
+		 */
+		NOT_MODIFIED("notModified");
+
+		private final String label;
+
+		private final LongAdder total = new LongAdder();
+
+		Counter(String label) {
+			this.label = label;
+		}
+
+		/**
+		 * Adds one to the total, if instrumentation is enabled
+		 */
+		public void increment() {
+			if (ENABLED) {
+				total.increment();
+			}
+		}
+
+		/**
+		 * Adds to the total, if instrumentation is enabled
+		 *
+		 * @param amount the amount to add
+		 */
+		public void add(long amount) {
+			if (ENABLED) {
+				total.add(amount);
+			}
+		}
+
+		/**
+		 * @return the total so far
+		 */
+		public long get() {
+			return total.sum();
+		}
+	}
+
+	private Metrics() {
+	}
+
+	/**
+	 * @return the start time of a stage, to pass to {@link Stage#stop(long)}, or 0 if
+	 * instrumentation is disabled
+	 */
+	public static long start() {
+		return ENABLED ? System.nanoTime() : 0L;
+	}
+
+	/**
+	 * Wraps a response body stream so that the bytes read from it are added to
+	 * {@link Counter#BYTES_READ}.  If instrumentation is disabled, the stream is returned
+	 * as it is.
+	 *
+	 * @param in the stream to count
+	 * @return the counting stream
+	 */
+	public static InputStream countBytes(InputStream in) {
+		return ENABLED ? new CountingInputStream(in) : in;
+	}
+
+	/**
+	 * @return the fraction of cache lookups answered from the cache, fresh or stale, or 0 if there have been none
+	 */
+	public static double cacheHitRate() {
+		long hits = Counter.CACHE_HITS.get() + Counter.CACHE_STALE_HITS.get();
+		long lookups = hits + Counter.CACHE_MISSES.get();
+		return lookups == 0 ? 0 : (double) hits / lookups;
+	}
+
+	/**
+	 * Returns everything recorded as plain text, one stage or counter per line, e.g.
+	 *
+	 * <pre>
+	 * stage            count     p50 ms     p99 ms     max ms    mean ms
+	 * fetch               42     18.350     95.420    101.203     24.871
+	 * ...
+	 * bytesRead        1234567
+	 * ...
+	 * cacheHitRate     0.750
+	 * </pre>
+	 *
+	 * @return the report
+	 */
+	public static String dump() {
+		StringBuilder text = new StringBuilder(1024);
+		if (!ENABLED) {
+			text.append("# metrics are disabled; start with -Dfsaratings.metrics=true to record them\n");
+		}
+		text.append(String.format(Locale.ROOT, "%-12s %9s %10s %10s %10s %10s%n",
+				"stage", "count", "p50 ms", "p99 ms", "max ms", "mean ms"));
+		for (Stage stage : Stage.values()) {
+			LatencySummary summary = stage.histogram.summarize();
+			text.append(String.format(Locale.ROOT, "%-12s %9d %10.3f %10.3f %10.3f %10.3f%n", stage.label,
+					summary.getCount(), summary.getP50Millis(), summary.getP99Millis(), summary.getMaxMillis(),
+					summary.getMeanMillis()));
+		}
+		text.append('\n');
+		for (Counter counter : Counter.values()) {
+			text.append(String.format(Locale.ROOT, "%-24s %d%n", counter.label, counter.get()));
+		}
+		text.append(String.format(Locale.ROOT, "%-24s %.3f%n", "cacheHitRate", cacheHitRate()));
+		return text.toString();
+	}
+
+	/**
+	 * Discards everything recorded so far
+	 */
+	public static void reset() {
+		for (Stage stage : Stage.values()) {
+			stage.histogram.reset();
+		}
+		for (Counter counter : Counter.values()) {
+			counter.total.reset();
+		}
+	}
+
+	/**
+	 * Registers the metrics with the platform MBean server as jl.fsaratings:type=Metrics,
+	 * for viewing in JConsole or similar.  Does nothing if they are already registered.
+	 *
+	 * @throws IllegalStateException if the MBean cannot be registered
+	 */
+	public static void registerMBean() {
+		MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+		try {
+			server.registerMBean(new MetricsView(), new ObjectName(OBJECT_NAME));
+		} catch (InstanceAlreadyExistsException e) {
+			// already registered
+		} catch (JMException e) {
+			throw new IllegalStateException("Unable to register metrics MBean", e);
+		}
+	}
+
+	/**
+	 * The JMX view of the metrics
+	 */
+	private static class MetricsView implements MetricsMXBean {
+
+		@Override
+		public boolean isEnabled() {
+			return ENABLED;
+		}
+
+		@Override
+		public LatencySummary getFetchLatency() {
+			return Stage.FETCH.histogram.summarize();
+		}
+
+		@Override
+		public LatencySummary getParseLatency() {
+			return Stage.PARSE.histogram.summarize();
+		}
+
+		@Override
+		public LatencySummary getAggregateLatency() {
+			return Stage.AGGREGATE.histogram.summarize();
+		}
+
+		@Override
+		public LatencySummary getAuthorityLatency() {
+			return Stage.AUTHORITY.histogram.summarize();
+		}
+
+		@Override
+		public long getBytesRead() {
+			return Counter.BYTES_READ.get();
+		}
+
+		@Override
+		public long getEstablishmentsProcessed() {
+			return Counter.ESTABLISHMENTS.get();
+		}
+
+		@Override
+		public long getCacheHits() {
+			return Counter.CACHE_HITS.get();
+		}
+
+		@Override
+		public long getCacheStaleHits() {
+			return Counter.CACHE_STALE_HITS.get();
+		}
+
+		@Override
+		public long getCacheMisses() {
+			return Counter.CACHE_MISSES.get();
+		}
+
+		@Override
+		public long getNotModified() {
+			return Counter.NOT_MODIFIED.get();
+		}
+
+		@Override
+		public double getCacheHitRate() {
+			return cacheHitRate();
+		}
+
+		@Override
+		public String getTextDump() {
+			return dump();
+		}
+
+		@Override
+		public void reset() {
+			Metrics.reset();
+		}
+	}
+
+	/**
+	 * Adds the bytes read through it to BYTES_READ
+	 */
+	private static class CountingInputStream extends FilterInputStream {
+
+		private CountingInputStream(InputStream in) {
+			super(in);
+		}
+
+		@Override
+		public int read() throws IOException {
+			int b = super.read();
+			if (b != -1) {
+				Counter.BYTES_READ.total.increment();
+			}
+			return b;
+		}
+
+		@Override
+		public int read(byte[] b, int off, int len) throws IOException {
+			int read = super.read(b, off, len);
+			if (read > 0) {
+				Counter.BYTES_READ.total.add(read);
+			}
+			return read;
+		}
+
+		@Override
+		public long skip(long n) throws IOException {
+			long skipped = super.skip(n);
+			Counter.BYTES_READ.total.add(skipped);
+			return skipped;
+		}
+	}
+}
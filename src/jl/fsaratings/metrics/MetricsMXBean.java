@@ -0,0 +1,50 @@
+package jl.fsaratings.metrics;
+
+/**
+ * JMX view of the app's metrics, registered as jl.fsaratings:type=Metrics.  See Metrics.
+ *
+ * @author jonny.lyon
+ *
+ */
+public interface MetricsMXBean {
+
+	boolean isEnabled();
+
+	LatencySummary getFetchLatency();
+
+	LatencySummary getParseLatency();
+
+	LatencySummary getAggregateLatency();
+
+	LatencySummary getAuthorityLatency();
+
+	long getBytesRead();
+
+	long getEstablishmentsProcessed();
+
+	long getCacheHits();
+
+	long getCacheStaleHits();
+
+	long getCacheMisses();
+
+	/**
+	 * @return the conditional requests answered 304 Not Modified
+	 */
+	long getNotModified();
+
+	/**
+	 * @return the fraction of cache lookups answered from the cache, fresh or stale, or 0 if there have been none
+	 */
+	double getCacheHitRate();
+
+	/**
+	 * @return the same plain-text report as Metrics.dump()
+	 */
+	String getTextDump();
+
+	/**
+	 * Discards everything recorded so far
+	 */
+	void reset();
+}
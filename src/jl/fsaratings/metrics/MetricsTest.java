@@ -0,0 +1,72 @@
+package jl.fsaratings.metrics;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.lang.management.ManagementFactory;
+
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+import javax.management.openmbean.CompositeData;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+/**
+ * Test class for Metrics.  Tests run with instrumentation disabled, so values are recorded
+ * into the stage histograms directly.
+ *
+ * @author jonny.lyon
+ *
+ */
+public class MetricsTest {
+
+	@Before
+	public void setUp() {
+		Metrics.reset();
+	}
+
+	@After
+	public void tearDown() {
+		Metrics.reset();
+	}
+
+	@Test
+	public void testDisabledInstrumentationRecordsNothing() {
+		long start = Metrics.start();
+		Metrics.Stage.FETCH.stop(start);
+		Metrics.Counter.CACHE_HITS.increment();
+
+		assertEquals(0, start);
+		assertEquals(0, Metrics.Stage.FETCH.getHistogram().getCount());
+		assertEquals(0, Metrics.Counter.CACHE_HITS.get());
+	}
+
+	@Test
+	public void testDumpListsEveryStageAndCounter() {
+		Metrics.Stage.PARSE.getHistogram().record(12_000_000);
+
+		String dump = Metrics.dump();
+
+		assertTrue(dump, dump.contains("parse                1     12.000     12.000     12.000     12.000"));
+		assertTrue(dump, dump.contains("fetch                0"));
+		assertTrue(dump, dump.contains("establishmentsProcessed  0"));
+		assertTrue(dump, dump.contains("cacheHitRate             0.000"));
+	}
+
+	@Test
+	public void testLatenciesArePublishedOverJmx() throws Exception {
+		Metrics.registerMBean();
+		Metrics.registerMBean();
+		Metrics.Stage.AGGREGATE.getHistogram().record(3_000_000);
+
+		MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+		CompositeData latency = (CompositeData) server.getAttribute(new ObjectName("jl.fsaratings:type=Metrics"),
+				"AggregateLatency");
+
+		assertEquals(1L, latency.get("count"));
+		assertEquals(3d, (Double) latency.get("maxMillis"), 0);
+		assertEquals(0L, server.getAttribute(new ObjectName("jl.fsaratings:type=Metrics"), "CacheMisses"));
+	}
+}
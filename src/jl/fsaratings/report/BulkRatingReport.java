@@ -0,0 +1,355 @@
+package jl.fsaratings.report;
+
+import java.io.IOException;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Paths;
+import java.util.Map;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Supplier;
+
+import jl.fsaratings.dao.FsaDao;
+import jl.fsaratings.dao.FsaDaoImpl;
+import jl.fsaratings.metrics.Metrics;
+import jl.fsaratings.rest.PooledRestHandler;
+import jl.fsaratings.rest.RestHandler;
+import jl.fsaratings.rest.ThrottlingRestHandler;
+
+/**
+ * Produces the rating distribution for every authority in a single run.
+ *
+ * Authorities are fetched in parallel through the synchronous FsaDao API, and each
+ * distribution is passed to a ReportWriter as soon as it is available, so memory use does
+ * not grow with the number of authorities.  Each fetch has its own timeout, which starts
+ * when the fetch does; an authority which takes too long is reported as failed and the
+ * worker fetching it is interrupted, so that one slow authority cannot hold up the whole
+ * report.
+ *
+ * The number of authorities fetched at once is limited by a semaphore, not by the number
+ * of worker threads.  In the default PLATFORM mode the two are the same, since there is
+ * one pooled thread per permit.  In VIRTUAL mode every authority is given a virtual thread
+ * of its own straight away, and those without a permit wait for one, so the concurrency
+ * can be set in the thousands without a thousand platform threads.  The limit then
+ * protects the API, not the client.
+ *
+ * @author jonny.lyon
+ *
+ */
+public class BulkRatingReport {
+
+	private static final int DEFAULT_CONCURRENCY = 8;
+
+	private static final long DEFAULT_TIMEOUT_SECONDS = 120;
+
+	private final FsaDao fsaDao;
+
+	private final int concurrency;
+
+	private final long timeoutNanos;
+
+	/**
+	 * Creates the executor the fetches run on for each report
+	 */
+	private final Supplier<ExecutorService> workers;
+
+	/**
+	 * Constructor for BulkRatingReport which fetches on a pool of platform threads
+	 *
+	 * @param fsaDao the DAO to fetch the authorities and their distributions from
+	 * @param concurrency the maximum number of authorities fetched at once
+	 * @param timeout the maximum time allowed for fetching any one authority
+	 * @param unit the unit of timeout
+	 */
+	public BulkRatingReport(FsaDao fsaDao, int concurrency, long timeout, TimeUnit unit) {
+		this(fsaDao, concurrency, timeout, unit, ExecutionMode.PLATFORM);
+	}
+
+	/**
+	 * Constructor for BulkRatingReport
+	 *
+	 * @param fsaDao the DAO to fetch the authorities and their distributions from
+	 * @param concurrency the maximum number of authorities fetched at once
+	 * @param timeout the maximum time allowed for fetching any one authority
+	 * @param unit the unit of timeout
+	 * @param mode the kind of thread to fetch on
+	 * @throws UnsupportedOperationException if the mode is VIRTUAL and virtual threads are not available
+	 */
+	public BulkRatingReport(FsaDao fsaDao, int concurrency, long timeout, TimeUnit unit, ExecutionMode mode) {
+		this(fsaDao, concurrency, timeout, unit, () -> mode.newExecutor(concurrency, "fsa-report"));
+		if (mode == ExecutionMode.VIRTUAL && !ExecutionMode.isVirtualAvailable()) {
+			throw new UnsupportedOperationException("Virtual threads need Java 21 and a build with the java21 profile");
+		}
+	}
+
+	/**
+	 * Constructor for BulkRatingReport, allowing the executor to be provided for test purposes
+	 */
+	BulkRatingReport(FsaDao fsaDao, int concurrency, long timeout, TimeUnit unit, Supplier<ExecutorService> workers) {
+		if (concurrency < 1) {
+			throw new IllegalArgumentException("concurrency must be at least 1");
+		}
+		this.fsaDao = fsaDao;
+		this.concurrency = concurrency;
+		this.timeoutNanos = unit.toNanos(timeout);
+		this.workers = workers;
+	}
+
+	/**
+	 * Command line entry point for the report.
+	 *
+	 * Usage: report csv|json &lt;output file&gt; [concurrency] [timeout seconds] [platform|virtual]
+	 *
+	 * With -Dfsaratings.metrics=true, the stage timings are printed to stderr at the end.
+	 *
+	 * @param args the command line arguments, excluding the leading "report"
+	 */
+	public static void main(String[] args) throws IOException, InterruptedException {
+		if (args.length < 2 || !(args[0].equals("csv") || args[0].equals("json"))) {
+			System.err.println("Usage: report csv|json <output file> [concurrency] [timeout seconds] [platform|virtual]");
+			System.exit(1);
+		}
+		int concurrency = args.length > 2 ? Integer.parseInt(args[2]) : DEFAULT_CONCURRENCY;
+		long timeoutSeconds = args.length > 3 ? Long.parseLong(args[3]) : DEFAULT_TIMEOUT_SECONDS;
+		ExecutionMode mode = args.length > 4 ? ExecutionMode.valueOf(args[4].toUpperCase()) : ExecutionMode.PLATFORM;
+
+		// one pooled connection per concurrent fetch, with the read timeout matching the per-authority timeout;
+		// the shared throttle keeps the requests within what the API will sustain, whatever the concurrency
+		RestHandler restHandler = new ThrottlingRestHandler(new PooledRestHandler(concurrency,
+				(int) TimeUnit.SECONDS.toMillis(10), (int) TimeUnit.SECONDS.toMillis(timeoutSeconds)));
+		BulkRatingReport report = new BulkRatingReport(new FsaDaoImpl(restHandler), concurrency,
+				timeoutSeconds, TimeUnit.SECONDS, mode);
+		try (Writer out = Files.newBufferedWriter(Paths.get(args[1]), StandardCharsets.UTF_8)) {
+			ReportWriter writer = args[0].equals("csv") ? new CsvReportWriter(out) : new JsonReportWriter(out);
+			Summary summary = report.run(writer);
+			System.out.println(summary);
+		}
+		if (Metrics.ENABLED) {
+			System.err.print(Metrics.dump());
+		}
+	}
+
+	/**
+	 * Fetches the distribution for every authority, writing each to the report as it completes.
+	 * Authorities which fail or time out are written as failures and do not stop the report.
+	 * Rows are written in order of completion.
+	 *
+	 * @param writer the report to write to.  It is begun and ended, but not closed.
+	 * @return a summary of the outcome
+	 * @throws IOException if the authorities list cannot be fetched or the report cannot be written
+	 * @throws InterruptedException if interrupted while waiting for authorities to complete
+	 */
+	public Summary run(ReportWriter writer) throws IOException, InterruptedException {
+		Map<String, Long> authorities = fsaDao.fetchAuthorityNamesWithIds();
+
+		ExecutorService workers = this.workers.get();
+		ScheduledExecutorService timer = Executors.newSingleThreadScheduledExecutor(daemonThreads("fsa-report-timeout"));
+		Semaphore permits = new Semaphore(concurrency);
+		Recorder recorder = new Recorder(writer, authorities.size());
+		try {
+			writer.begin();
+			for (Map.Entry<String, Long> authority : authorities.entrySet()) {
+				workers.execute(() -> {
+					try {
+						permits.acquire();
+					} catch (InterruptedException e) {
+						// the report is being abandoned
+						return;
+					}
+					try {
+						fetch(authority.getKey(), authority.getValue(), recorder, timer);
+					} finally {
+						permits.release();
+					}
+				});
+			}
+			recorder.awaitCompletion();
+			recorder.rethrowWriteFailure();
+			writer.end();
+		} finally {
+			workers.shutdownNow();
+			timer.shutdownNow();
+		}
+
+		return recorder.summary();
+	}
+
+	/**
+	 * Fetches and records one authority on the current worker thread.  Whichever of the fetch
+	 * and its timeout finishes first records the outcome.
+	 */
+	private void fetch(String name, Long authorityId, Recorder recorder, ScheduledExecutorService timer) {
+		Thread worker = Thread.currentThread();
+		Outcome outcome = new Outcome();
+		ScheduledFuture<?> timeout = timer.schedule(() -> {
+			synchronized (outcome) {
+				if (!outcome.recorded) {
+					outcome.recorded = true;
+					recorder.timedOut(name, authorityId);
+					worker.interrupt();
+				}
+			}
+		}, timeoutNanos, TimeUnit.NANOSECONDS);
+
+		try {
+			Map<String, Double> distribution = fsaDao.fetchRatingPercentagesForAuthority(authorityId);
+			synchronized (outcome) {
+				if (!outcome.recorded) {
+					outcome.recorded = true;
+					recorder.succeeded(name, authorityId, distribution);
+				}
+			}
+		} catch (Exception e) {
+			synchronized (outcome) {
+				if (!outcome.recorded) {
+					outcome.recorded = true;
+					recorder.failed(name, authorityId, e);
+				}
+			}
+		} finally {
+			timeout.cancel(false);
+			synchronized (outcome) {
+				// clear any interrupt from the timeout so it cannot affect the next authority
+				Thread.interrupted();
+			}
+		}
+	}
+
+	private static ThreadFactory daemonThreads(String prefix) {
+		AtomicInteger threadCount = new AtomicInteger();
+		return r -> {
+			Thread thread = new Thread(r, prefix + "-" + threadCount.incrementAndGet());
+			thread.setDaemon(true);
+			return thread;
+		};
+	}
+
+	/**
+	 * Whether the outcome of one fetch has been recorded yet
+	 */
+	private static class Outcome {
+		private boolean recorded;
+	}
+
+	/**
+	 * Serialises writes to the report and keeps count of the outcomes
+	 */
+	private static class Recorder {
+		private final ReportWriter writer;
+		private final CountDownLatch remaining;
+		private int succeeded;
+		private int failed;
+		private int timedOut;
+		private IOException writeFailure;
+
+		private Recorder(ReportWriter writer, int authorityCount) {
+			this.writer = writer;
+			this.remaining = new CountDownLatch(authorityCount);
+		}
+
+		private synchronized void succeeded(String name, Long authorityId, Map<String, Double> distribution) {
+			succeeded++;
+			try {
+				writer.writeDistribution(name, authorityId, distribution);
+			} catch (IOException e) {
+				writeFailed(e);
+			}
+			remaining.countDown();
+		}
+
+		private synchronized void failed(String name, Long authorityId, Exception error) {
+			failed++;
+			write(name, authorityId, error.getClass().getSimpleName() + ": " + error.getMessage());
+		}
+
+		private synchronized void timedOut(String name, Long authorityId) {
+			timedOut++;
+			write(name, authorityId, "timed out");
+		}
+
+		private void write(String name, Long authorityId, String reason) {
+			try {
+				writer.writeFailure(name, authorityId, reason);
+			} catch (IOException e) {
+				writeFailed(e);
+			}
+			remaining.countDown();
+		}
+
+		/**
+		 * Records the first write failure and stops waiting for the remaining authorities,
+		 * since there is nowhere to write them
+		 */
+		private void writeFailed(IOException e) {
+			if (writeFailure == null) {
+				writeFailure = e;
+			}
+			while (remaining.getCount() > 0) {
+				remaining.countDown();
+			}
+		}
+
+		private void awaitCompletion() throws InterruptedException {
+			remaining.await();
+		}
+
+		private synchronized void rethrowWriteFailure() throws IOException {
+			if (writeFailure != null) {
+				throw writeFailure;
+			}
+		}
+
+		private synchronized Summary summary() {
+			return new Summary(succeeded, failed, timedOut);
+		}
+	}
+
+	/**
+	 * The number of authorities with each outcome in a completed report
+	 */
+	public static class Summary {
+		private final int succeeded;
+		private final int failed;
+		private final int timedOut;
+
+		private Summary(int succeeded, int failed, int timedOut) {
+			this.succeeded = succeeded;
+			this.failed = failed;
+			this.timedOut = timedOut;
+		}
+
+		/**
+		 * @return the number of authorities whose distribution was written
+		 */
+		public int getSucceeded() {
+			return succeeded;
+		}
+
+		/**
+		 * @return the number of authorities whose fetch failed
+		 */
+		public int getFailed() {
+			return failed;
+		}
+
+		/**
+		 * @return the number of authorities whose fetch did not complete within the timeout
+		 */
+		public int getTimedOut() {
+			return timedOut;
+		}
+
+		@Override
+		public String toString() {
+			return succeeded + " authorities reported, " + failed + " failed, " + timedOut + " timed out";
+		}
+	}
+}
@@ -0,0 +1,173 @@
+package jl.fsaratings.report;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.io.IOException;
+import java.io.StringWriter;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.json.JSONArray;
+import org.json.JSONObject;
+import org.junit.Test;
+
+import jl.fsaratings.dao.FsaDao;
+import jl.fsaratings.dao.RatingHistogram;
+
+/**
+ * Test class for BulkRatingReport and its writers, using a stub DAO in which York fails
+ * and Sheffield never completes within the timeout.
+ *
+ * @author jonny.lyon
+ *
+ */
+public class BulkRatingReportTest {
+
+	@Test
+	public void testCsvReportHasRowForEveryAuthorityWhateverItsOutcome() throws Exception {
+		StringWriter out = new StringWriter();
+		BulkRatingReport instance = new BulkRatingReport(new StubFsaDao(), 2, 200, TimeUnit.MILLISECONDS);
+
+		BulkRatingReport.Summary summary = instance.run(new CsvReportWriter(out));
+
+		String[] lines = out.toString().split("\n");
+		assertEquals("AuthorityId,AuthorityName,Status,5,4,3,2,1,0,Pass,Improvement Required,Exempt", lines[0]);
+		Set<String> rows = new HashSet<>(Arrays.asList(lines).subList(1, lines.length));
+		Set<String> expected = new HashSet<>(Arrays.asList(
+				"1,Leeds,ok,62.50,,,,,,,,37.50",
+				"2,York,error: IOException: mocked exception,,,,,,,,,",
+				"3,Sheffield,error: timed out,,,,,,,,,",
+				"4,\"Edinburgh, City of\",ok,,,,,,,100.00,0.00,0.00",
+				"5,Orkney,no results,,,,,,,,,"));
+		assertEquals(expected, rows);
+		assertEquals(3, summary.getSucceeded());
+		assertEquals(1, summary.getFailed());
+		assertEquals(1, summary.getTimedOut());
+	}
+
+	@Test
+	public void testJsonReportIsValidJsonWithDistributionsInRatingOrder() throws Exception {
+		StringWriter out = new StringWriter();
+		BulkRatingReport instance = new BulkRatingReport(new StubFsaDao(), 5, 200, TimeUnit.MILLISECONDS);
+
+		instance.run(new JsonReportWriter(out));
+
+		JSONArray report = new JSONArray(out.toString());
+		assertEquals(5, report.length());
+		Map<Long, JSONObject> byId = new TreeMap<>();
+		for (int i = 0; i < report.length(); i++) {
+			byId.put(report.getJSONObject(i).getLong("authorityId"), report.getJSONObject(i));
+		}
+		assertEquals(62.5d, byId.get(1L).getJSONObject("distribution").getDouble("5"), 0d);
+		assertEquals("IOException: mocked exception", byId.get(2L).getString("error"));
+		assertEquals("timed out", byId.get(3L).getString("error"));
+		assertTrue(out.toString().contains("\"distribution\":{\"Pass\":100,\"Improvement Required\":0,\"Exempt\":0}"));
+	}
+
+	@Test
+	public void testSemaphoreLimitsFetchesWhenEveryAuthorityHasItsOwnThread() throws Exception {
+		ConcurrencyTrackingFsaDao dao = new ConcurrencyTrackingFsaDao();
+		ExecutorService threadPerTask = Executors.newCachedThreadPool();
+		try {
+			BulkRatingReport instance = new BulkRatingReport(dao, 3, 5, TimeUnit.SECONDS, () -> threadPerTask);
+
+			BulkRatingReport.Summary summary = instance.run(new CsvReportWriter(new StringWriter()));
+
+			assertEquals(20, summary.getSucceeded());
+			assertTrue("max concurrent fetches " + dao.maxActive, dao.maxActive.get() <= 3);
+		} finally {
+			threadPerTask.shutdownNow();
+		}
+	}
+
+	/**
+	 * Stub DAO which records the most fetches it has seen running at once
+	 */
+	private static class ConcurrencyTrackingFsaDao extends StubFsaDao {
+
+		private final AtomicInteger active = new AtomicInteger();
+
+		private final AtomicInteger maxActive = new AtomicInteger();
+
+		@Override
+		public Map<String, Long> fetchAuthorityNamesWithIds() throws IOException {
+			Map<String, Long> authorities = new TreeMap<>();
+			for (long id = 1; id <= 20; id++) {
+				authorities.put("Authority " + id, id);
+			}
+			return authorities;
+		}
+
+		@Override
+		public Map<String, Double> fetchRatingPercentagesForAuthority(Long authorityId) throws IOException {
+			maxActive.accumulateAndGet(active.incrementAndGet(), Math::max);
+			try {
+				Thread.sleep(20);
+			} catch (InterruptedException e) {
+				throw new IOException("interrupted");
+			} finally {
+				active.decrementAndGet();
+			}
+			return super.fetchRatingPercentagesForAuthority(1L);
+		}
+	}
+
+	/**
+	 * Stub DAO with one authority of each outcome
+	 */
+	private static class StubFsaDao implements FsaDao {
+
+		@Override
+		public Map<String, Long> fetchAuthorityNamesWithIds() throws IOException {
+			Map<String, Long> authorities = new TreeMap<>();
+			authorities.put("Leeds", 1L);
+			authorities.put("York", 2L);
+			authorities.put("Sheffield", 3L);
+			authorities.put("Edinburgh, City of", 4L);
+			authorities.put("Orkney", 5L);
+			return authorities;
+		}
+
+		@Override
+		public Map<String, Double> fetchRatingPercentagesForAuthority(Long authorityId) throws IOException {
+			Map<String, Double> percentages = new LinkedHashMap<>();
+			switch (authorityId.intValue()) {
+			case 1:
+				percentages.put("5", 62.5d);
+				percentages.put("Exempt", 37.5d);
+				break;
+			case 2:
+				throw new IOException("mocked exception");
+			case 3:
+				try {
+					Thread.sleep(10000);
+				} catch (InterruptedException e) {
+					throw new IOException("interrupted");
+				}
+				break;
+			case 4:
+				percentages.put("Pass", 100d);
+				percentages.put("Improvement Required", 0d);
+				percentages.put("Exempt", 0d);
+				break;
+			default:
+				break;
+			}
+			return percentages;
+		}
+
+		@Override
+		public RatingHistogram fetchRatingCountsForAuthority(Long authorityId) throws IOException {
+			throw new UnsupportedOperationException();
+		}
+	}
+}
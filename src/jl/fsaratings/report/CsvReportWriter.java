@@ -0,0 +1,109 @@
+package jl.fsaratings.report;
+
+import java.io.IOException;
+import java.io.Writer;
+import java.util.Locale;
+import java.util.Map;
+
+/**
+ * Writes a bulk rating report as CSV, one row per authority.  There is a column for every
+ * rating type in either scheme; those not applicable to an authority's scheme are left blank.
+ *
+ * @author jonny.lyon
+ *
+ */
+public class CsvReportWriter implements ReportWriter {
+
+	/**
+	 * All of the 'wanted' rating types across both the FHRS and FHIS schemes
+	 */
+	private static final String[] RATING_COLUMNS = { "5", "4", "3", "2", "1", "0", "Pass", "Improvement Required", "Exempt" };
+
+	private final Writer out;
+
+	/**
+	 * Constructor for CsvReportWriter
+	 *
+	 * @param out where to write the report
+	 */
+	public CsvReportWriter(Writer out) {
+		this.out = out;
+	}
+
+	/**
+	 * {@inheritDoc}
+	 */
+	@Override
+	public void begin() throws IOException {
+		out.write("AuthorityId,AuthorityName,Status");
+		for (String rating : RATING_COLUMNS) {
+			out.write(',');
+			out.write(escape(rating));
+		}
+		out.write('\n');
+	}
+
+	/**
+	 * {@inheritDoc}
+	 */
+	@Override
+	public void writeDistribution(String authorityName, Long authorityId, Map<String, Double> distribution) throws IOException {
+		writeRowStart(authorityName, authorityId, distribution.isEmpty() ? "no results" : "ok");
+		for (String rating : RATING_COLUMNS) {
+			out.write(',');
+			Double percentage = distribution.get(rating);
+			if (percentage != null) {
+				out.write(String.format(Locale.ROOT, "%.2f", percentage));
+			}
+		}
+		out.write('\n');
+		out.flush();
+	}
+
+	/**
+	 * {@inheritDoc}
+	 */
+	@Override
+	public void writeFailure(String authorityName, Long authorityId, String reason) throws IOException {
+		writeRowStart(authorityName, authorityId, "error: " + reason);
+		for (int i = 0; i < RATING_COLUMNS.length; i++) {
+			out.write(',');
+		}
+		out.write('\n');
+		out.flush();
+	}
+
+	/**
+	 * {@inheritDoc}
+	 */
+	@Override
+	public void end() throws IOException {
+		out.flush();
+	}
+
+	/**
+	 * {@inheritDoc}
+	 */
+	@Override
+	public void close() throws IOException {
+		out.close();
+	}
+
+	private void writeRowStart(String authorityName, Long authorityId, String status) throws IOException {
+		out.write(authorityId.toString());
+		out.write(',');
+		out.write(escape(authorityName));
+		out.write(',');
+		out.write(escape(status));
+	}
+
+	/**
+	 * Quotes a CSV field if it contains any characters with special meaning
+	 */
+	private String escape(String field) {
+		if (field.indexOf(',') < 0 && field.indexOf('"') < 0 && field.indexOf('\n') < 0 && field.indexOf('\r') < 0) {
+			return field;
+		}
+		return '"' + field.replace("\"", "\"\"") + '"';
+	}
+}
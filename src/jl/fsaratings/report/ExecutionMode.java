@@ -0,0 +1,87 @@
+package jl.fsaratings.report;
+
+import java.lang.reflect.InvocationTargetException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * The kind of thread a BulkRatingReport fetches each authority on.
+ *
+ * Virtual threads need Java 21, while the app itself targets Java 8, so the code which
+ * creates them lives in the src-java21 source directory, which is only compiled by the
+ * java21 Maven profile (mvn -Pjava21 package).  It is looked up by name, so a Java 8 build
+ * still runs; it just reports virtual threads as unavailable.
+ *
+ * @author jonny.lyon
+ *
+ */
+public enum ExecutionMode {
+
+	/**
+	 * A fixed pool of platform threads, one for each authority that may be fetched at once
+	 */
+	PLATFORM,
+
+	/**
+	 * A new virtual thread for every authority, with the number fetched at once limited
+	 * only by the report's semaphore.  Blocked fetches cost a few hundred bytes of heap
+	 * rather than a platform thread each, so thousands can be in flight.
+	 *
+	 * On Java 21 a virtual thread blocking inside a synchronized block pins its carrier
+	 * thread.  The incremental sync in FsaDaoImpl holds a lock on each authority while it
+	 * fetches, so with that DAO a blocked fetch does tie up a carrier, and the fetches run
+	 * at once are limited to the number of carriers (one per core by default, set with
+	 * -Djdk.virtualThreadScheduler.parallelism).
+	 */
+	VIRTUAL;
+
+	/**
+	 * The class in src-java21 which creates virtual thread executors
+	 */
+	private static final String VIRTUAL_THREAD_EXECUTORS = "jl.fsaratings.report.VirtualThreadExecutors";
+
+	/**
+	 * @return true if virtual threads can be used: the runtime is Java 21 or later and the
+	 * java21 profile was built
+	 */
+	public static boolean isVirtualAvailable() {
+		try {
+			newVirtualExecutor("fsa-probe").shutdown();
+			return true;
+		} catch (UnsupportedOperationException e) {
+			return false;
+		}
+	}
+
+	/**
+	 * Creates the executor to run fetches on.  Its threads are daemon threads named with
+	 * the prefix given.
+	 *
+	 * @param concurrency the number of fetches which may run at once
+	 * @param prefix the thread name prefix
+	 * @return the executor
+	 * @throws UnsupportedOperationException if virtual threads are not available
+	 */
+	ExecutorService newExecutor(int concurrency, String prefix) {
+		if (this == VIRTUAL) {
+			return newVirtualExecutor(prefix);
+		}
+		AtomicInteger threadCount = new AtomicInteger();
+		return Executors.newFixedThreadPool(concurrency, r -> {
+			Thread thread = new Thread(r, prefix + "-" + threadCount.incrementAndGet());
+			thread.setDaemon(true);
+			return thread;
+		});
+	}
+
+	private static ExecutorService newVirtualExecutor(String prefix) {
+		try {
+			return (ExecutorService) Class.forName(VIRTUAL_THREAD_EXECUTORS)
+					.getMethod("newThreadPerTaskExecutor", String.class).invoke(null, prefix);
+		} catch (ClassNotFoundException | NoSuchMethodException | IllegalAccessException
+				| InvocationTargetException | LinkageError e) {
+			throw new UnsupportedOperationException("Virtual threads need Java 21 and a build with the java21 profile", e);
+		}
+	}
+}
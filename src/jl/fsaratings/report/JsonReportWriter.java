@@ -0,0 +1,99 @@
+package jl.fsaratings.report;
+
+import java.io.IOException;
+import java.io.Writer;
+import java.util.Map;
+
+import org.json.JSONObject;
+
+/**
+ * Writes a bulk rating report as a JSON array, one element per authority.  Each element is
+ * written as soon as it is available, so the report is valid JSON only once it has ended.
+ *
+ * @author jonny.lyon
+ *
+ */
+public class JsonReportWriter implements ReportWriter {
+
+	private final Writer out;
+
+	private boolean first = true;
+
+	/**
+	 * Constructor for JsonReportWriter
+	 *
+	 * @param out where to write the report
+	 */
+	public JsonReportWriter(Writer out) {
+		this.out = out;
+	}
+
+	/**
+	 * {@inheritDoc}
+	 */
+	@Override
+	public void begin() throws IOException {
+		out.write('[');
+	}
+
+	/**
+	 * {@inheritDoc}
+	 *
+	 * The distribution is written as an object with its properties in rating order.
+	 */
+	@Override
+	public void writeDistribution(String authorityName, Long authorityId, Map<String, Double> distribution) throws IOException {
+		writeElementStart(authorityName, authorityId);
+		out.write(",\"distribution\":{");
+		boolean firstRating = true;
+		for (Map.Entry<String, Double> rating : distribution.entrySet()) {
+			if (!firstRating) {
+				out.write(',');
+			}
+			firstRating = false;
+			out.write(JSONObject.quote(rating.getKey()));
+			out.write(':');
+			out.write(JSONObject.numberToString(rating.getValue()));
+		}
+		out.write("}}");
+		out.flush();
+	}
+
+	/**
+	 * {@inheritDoc}
+	 */
+	@Override
+	public void writeFailure(String authorityName, Long authorityId, String reason) throws IOException {
+		writeElementStart(authorityName, authorityId);
+		out.write(",\"error\":");
+		out.write(JSONObject.quote(reason));
+		out.write('}');
+		out.flush();
+	}
+
+	/**
+	 * {@inheritDoc}
+	 */
+	@Override
+	public void end() throws IOException {
+		out.write("]\n");
+		out.flush();
+	}
+
+	/**
+	 * {@inheritDoc}
+	 */
+	@Override
+	public void close() throws IOException {
+		out.close();
+	}
+
+	private void writeElementStart(String authorityName, Long authorityId) throws IOException {
+		out.write(first ? "\n" : ",\n");
+		first = false;
+		out.write("{\"authorityId\":");
+		out.write(authorityId.toString());
+		out.write(",\"name\":");
+		out.write(JSONObject.quote(authorityName));
+	}
+}
@@ -0,0 +1,51 @@
+package jl.fsaratings.report;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.util.Map;
+
+/**
+ * Writes the rows of a bulk rating report as each authority completes, so that the
+ * report never has to be held in memory in full.
+ *
+ * Calls are made one at a time, but not necessarily from the same thread.
+ *
+ * @author jonny.lyon
+ *
+ */
+public interface ReportWriter extends Closeable {
+
+	/**
+	 * Writes anything required before the first row
+	 *
+	 * @throws IOException if the report cannot be written
+	 */
+	void begin() throws IOException;
+
+	/**
+	 * Writes the rating distribution for one authority
+	 *
+	 * @param authorityName the name of the authority
+	 * @param authorityId the ID of the authority
+	 * @param distribution a map from rating type to percentage, empty if there were no 'wanted' ratings
+	 * @throws IOException if the report cannot be written
+	 */
+	void writeDistribution(String authorityName, Long authorityId, Map<String, Double> distribution) throws IOException;
+
+	/**
+	 * Writes a row recording that the distribution for one authority could not be retrieved
+	 *
+	 * @param authorityName the name of the authority
+	 * @param authorityId the ID of the authority
+	 * @param reason a short description of the failure
+	 * @throws IOException if the report cannot be written
+	 */
+	void writeFailure(String authorityName, Long authorityId, String reason) throws IOException;
+
+	/**
+	 * Writes anything required after the last row.  Does not close the underlying output.
+	 *
+	 * @throws IOException if the report cannot be written
+	 */
+	void end() throws IOException;
+}
@@ -0,0 +1,24 @@
+package jl.fsaratings.rest;
+
+import java.io.IOException;
+
+/**
+ * Thrown by ResilientRestHandler, without calling the API, while its circuit breaker is
+ * open because the API has been failing.
+ *
+ * @author jonny.lyon
+ *
+ */
+public class CircuitOpenException extends IOException {
+
+	private static final long serialVersionUID = 1L;
+
+	/**
+	 * Constructor for CircuitOpenException
+	 *
+	 * @param retryInMillis how long until the breaker lets a trial request through
+	 */
+	public CircuitOpenException(long retryInMillis) {
+		super("API circuit breaker is open; next attempt in " + retryInMillis + "ms");
+	}
+}
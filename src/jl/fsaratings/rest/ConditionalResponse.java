@@ -0,0 +1,77 @@
+package jl.fsaratings.rest;
+
+import java.io.Reader;
+
+/**
+ * The outcome of a conditional GET: either the resource has not changed since the
+ * response its validators were taken from, or a body to read along with the validators
+ * of this response, for making the next request conditional.
+ *
+ * @author jonny.lyon
+ *
+ */
+public final class ConditionalResponse {
+
+	private static final ConditionalResponse NOT_MODIFIED = new ConditionalResponse(null, null, null);
+
+	private final Reader body;
+
+	private final String etag;
+
+	private final String lastModified;
+
+	/**
+	 * Constructor for ConditionalResponse with a body
+	 *
+	 * @param body the response body, which the caller must close
+	 * @param etag the ETag header of the response, or null if none
+	 * @param lastModified the Last-Modified header of the response, or null if none
+	 */
+	public ConditionalResponse(Reader body, String etag, String lastModified) {
+		this.body = body;
+		this.etag = etag;
+		this.lastModified = lastModified;
+	}
+
+	/**
+	 * @return the response to a request whose validators still match (304 Not Modified)
+	 */
+	public static ConditionalResponse notModified() {
+		return NOT_MODIFIED;
+	}
+
+	/**
+	 * @return true if the resource has not changed, so there is no body
+	 */
+	public boolean isNotModified() {
+		return body == null;
+	}
+
+	/**
+	 * @return the response body, or null if not modified
+	 */
+	public Reader getBody() {
+		return body;
+	}
+
+	/**
+	 * @return the ETag header of the response, or null if none
+	 */
+	public String getEtag() {
+		return etag;
+	}
+
+	/**
+	 * @return the Last-Modified header of the response, or null if none
+	 */
+	public String getLastModified() {
+		return lastModified;
+	}
+
+	/**
+	 * @return true if the response has a validator, so that a later request can be made conditional on it
+	 */
+	public boolean hasValidators() {
+		return etag != null || lastModified != null;
+	}
+}
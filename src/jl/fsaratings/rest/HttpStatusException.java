@@ -0,0 +1,88 @@
+package jl.fsaratings.rest;
+
+import java.io.IOException;
+import java.net.HttpURLConnection;
+
+/**
+ * Thrown when the API answers with anything other than 200 OK.  Carries the status code,
+ * so that callers can tell a throttled or failing upstream (429 or 5xx), which may be worth
+ * retrying, from a bad request, which is not, and any delay the server asked for in a
+ * Retry-After header.
+ *
+ * @author jonny.lyon
+ *
+ */
+public class HttpStatusException extends IOException {
+
+	private static final long serialVersionUID = 1L;
+
+	private final int statusCode;
+
+	private final long retryAfterMillis;
+
+	/**
+	 * Constructor for HttpStatusException
+	 *
+	 * @param statusCode the HTTP status code of the response
+	 * @param retryAfterMillis the delay asked for by a Retry-After header, or -1 if none
+	 */
+	public HttpStatusException(int statusCode, long retryAfterMillis) {
+		super("Endpoint returned HTTP error code " + statusCode);
+		this.statusCode = statusCode;
+		this.retryAfterMillis = retryAfterMillis;
+	}
+
+	/**
+	 * Creates the exception for an unsuccessful response, reading its Retry-After header
+	 *
+	 * @param conn the connection, with the response headers received
+	 * @param statusCode the HTTP status code of the response
+	 * @return the exception
+	 */
+	static HttpStatusException forResponse(HttpURLConnection conn, int statusCode) {
+		return new HttpStatusException(statusCode,
+				parseRetryAfter(conn.getHeaderField("Retry-After"), conn.getHeaderFieldDate("Retry-After", -1),
+						System.currentTimeMillis()));
+	}
+
+	/**
+	 * Parses a Retry-After header, which may either be a number of seconds or an HTTP date
+	 *
+	 * @param header the header value, or null if there was none
+	 * @param date the header value parsed as a date, or -1 if it is not one
+	 * @param now the current time, in milliseconds since the epoch
+	 * @return the delay asked for in milliseconds, or -1 if none
+	 */
+	static long parseRetryAfter(String header, long date, long now) {
+		if (header == null) {
+			return -1;
+		}
+		try {
+			return Math.max(0, Long.parseLong(header.trim()) * 1000);
+		} catch (NumberFormatException e) {
+			return date == -1 ? -1 : Math.max(0, date - now);
+		}
+	}
+
+	/**
+	 * @return the HTTP status code of the response
+	 */
+	public int getStatusCode() {
+		return statusCode;
+	}
+
+	/**
+	 * @return the delay asked for by a Retry-After header in milliseconds, or -1 if none
+	 */
+	public long getRetryAfterMillis() {
+		return retryAfterMillis;
+	}
+
+	/**
+	 * @return true if the status means the upstream is overloaded or failing, rather than
+	 * that the request was wrong, so that it may succeed if tried again later
+	 */
+	public boolean isRetryable() {
+		return statusCode == 429 || statusCode >= 500;
+	}
+}
@@ -0,0 +1,256 @@
+package jl.fsaratings.rest;
+
+import java.io.FilterReader;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.io.Reader;
+import java.net.HttpURLConnection;
+import java.net.URL;
+import java.nio.charset.StandardCharsets;
+import java.util.zip.GZIPInputStream;
+import java.util.zip.Inflater;
+import java.util.zip.InflaterInputStream;
+
+import org.json.JSONObject;
+import org.json.JSONTokener;
+
+import jl.fsaratings.metrics.Metrics;
+
+/**
+ * RestHandler which reuses connections between calls, and asks for responses to be compressed.
+ *
+ * Unlike RestHandlerImpl, connections are never disconnected.  Instead each response body is
+ * read to the end and closed, which returns the connection to the JDK's keep-alive pool so
+ * that later calls to the same host skip the TCP (and TLS) handshake.  Error responses are
+ * drained too, so that they do not cost a connection either.  Draining stops after 64KB,
+ * as the JDK's own does, or at once if the calling thread has been interrupted; the
+ * connection is then disconnected rather than downloading the rest of a large body nobody
+ * will read.
+ *
+ * The pool is the JDK's own, which is shared by the whole process and sized by the
+ * http.maxConnections system property.  Since the JDK reads that property only once, this
+ * class sets it on construction if it has not already been set, so the handler should be
+ * created before any other HTTP connections are made.
+ *
+ * The JDK's HttpURLConnection only speaks HTTP/1.1, so requests are not multiplexed; with
+ * keep-alive, concurrent callers each hold one pooled connection instead.
+ *
+ * As with RestHandlerImpl, no automated testing is provided for this class.
+ *
+ * @author jonny.lyon
+ *
+ */
+public class PooledRestHandler implements RestHandler {
+
+	private static final int DEFAULT_POOL_SIZE = 8;
+
+	private static final int DEFAULT_CONNECT_TIMEOUT_MILLIS = 10000;
+
+	private static final int DEFAULT_READ_TIMEOUT_MILLIS = 60000;
+
+	/**
+	 * The most of an unread body discarded to keep its connection
+	 */
+	private static final int MAX_DRAIN_BYTES = 64 * 1024;
+
+	private final int connectTimeoutMillis;
+
+	private final int readTimeoutMillis;
+
+	/**
+	 * Response bodies are read into a buffer which is reused for each call made on
+	 * the same thread, so that repeated calls do not reallocate it.
+	 */
+	private final ThreadLocal<ResponseBody> responseBody = ThreadLocal.withInitial(ResponseBody::new);
+
+	/**
+	 * Constructor for PooledRestHandler with a pool of 8 connections per host, a 10 second
+	 * connect timeout and a 60 second read timeout.
+	 */
+	public PooledRestHandler() {
+		this(DEFAULT_POOL_SIZE, DEFAULT_CONNECT_TIMEOUT_MILLIS, DEFAULT_READ_TIMEOUT_MILLIS);
+	}
+
+	/**
+	 * Constructor for PooledRestHandler
+	 *
+	 * @param poolSize the number of idle connections kept open per host.  Ignored if
+	 * http.maxConnections has already been set.
+	 * @param connectTimeoutMillis the time allowed to establish a connection, 0 for no limit
+	 * @param readTimeoutMillis the time allowed between reads of the response, 0 for no limit
+	 */
+	public PooledRestHandler(int poolSize, int connectTimeoutMillis, int readTimeoutMillis) {
+		this.connectTimeoutMillis = connectTimeoutMillis;
+		this.readTimeoutMillis = readTimeoutMillis;
+
+		System.setProperty("http.keepAlive", "true");
+		if (System.getProperty("http.maxConnections") == null) {
+			System.setProperty("http.maxConnections", Integer.toString(poolSize));
+		}
+	}
+
+	/**
+	 * {@inheritDoc}
+	 */
+	@Override
+	public JSONObject getEndpointResponse(String endpointUrl) throws IOException {
+		HttpURLConnection conn = openConnection(endpointUrl);
+
+		ResponseBody body = responseBody.get();
+		long start = Metrics.start();
+		try (InputStream in = decodedBody(conn)) {
+			// the content length is of the compressed body, so is only a useful hint if uncompressed
+			long lengthHint = conn.getContentEncoding() == null ? conn.getContentLengthLong() : -1;
+			body.readFrom(in, StandardCharsets.UTF_8, lengthHint);
+			JSONObject json = new JSONObject(new JSONTokener(body.reader()));
+			Metrics.Stage.PARSE.stop(start);
+			return json;
+		} finally {
+			body.clear();
+		}
+	}
+
+	/**
+	 * {@inheritDoc}
+	 *
+	 * Closing the reader returns the connection to the pool, provided the body has been read
+	 * to the end.  If not, the rest of the body is discarded first, or if there is too much of
+	 * it the connection is disconnected.
+	 */
+	@Override
+	public Reader getEndpointReader(String endpointUrl) throws IOException {
+		return bodyReader(openConnection(endpointUrl, null, null));
+	}
+
+	/**
+	 * {@inheritDoc}
+	 *
+	 * As with getEndpointReader, closing the reader returns the connection to the pool.  A
+	 * not modified response has no body, so its connection is returned at once.
+	 */
+	@Override
+	public ConditionalResponse getConditionalReader(String endpointUrl, String etag, String lastModified)
+			throws IOException {
+		HttpURLConnection conn = openConnection(endpointUrl, etag, lastModified);
+		if (conn.getResponseCode() == HttpURLConnection.HTTP_NOT_MODIFIED) {
+			conn.getInputStream().close();
+			return ConditionalResponse.notModified();
+		}
+		return new ConditionalResponse(bodyReader(conn), conn.getHeaderField("ETag"),
+				conn.getHeaderField("Last-Modified"));
+	}
+
+	/**
+	 * @return a reader over the decoded response body, which drains the body when closed
+	 */
+	private Reader bodyReader(HttpURLConnection conn) throws IOException {
+		InputStream in = decodedBody(conn);
+
+		return new FilterReader(new InputStreamReader(in, StandardCharsets.UTF_8)) {
+			@Override
+			public void close() throws IOException {
+				boolean drained = false;
+				try {
+					drained = drain(conn, conn.getInputStream());
+				} finally {
+					try {
+						super.close();
+					} catch (IOException e) {
+						if (drained) {
+							throw e;
+						}
+						// the connection was dropped anyway
+					}
+				}
+			}
+		};
+	}
+
+	/**
+	 * Opens a GET connection to the URL specified with the headers required for the
+	 * FSA API, and checks that the response was successful.
+	 *
+	 * @param endpointUrl The FSA API endpoint URL
+	 * @return the open connection, ready for the response body to be read
+	 * @throws IOException if the connection cannot be made
+	 * @throws HttpStatusException if the response was not successful
+	 */
+	private HttpURLConnection openConnection(String endpointUrl) throws IOException {
+		return openConnection(endpointUrl, null, null);
+	}
+
+	/**
+	 * As {@link #openConnection(String)}, but conditional on the validators given, if any,
+	 * in which case a not modified response also counts as successful
+	 */
+	private HttpURLConnection openConnection(String endpointUrl, String etag, String lastModified) throws IOException {
+		long start = Metrics.start();
+		URL url = new URL(endpointUrl);
+		HttpURLConnection conn = (HttpURLConnection) url.openConnection();
+		conn.setRequestMethod("GET");
+		conn.setRequestProperty("x-api-version", "2");
+		conn.setRequestProperty("Accept-Encoding", "gzip, deflate");
+		conn.setConnectTimeout(connectTimeoutMillis);
+		conn.setReadTimeout(readTimeoutMillis);
+		if (etag != null) {
+			conn.setRequestProperty("If-None-Match", etag);
+		}
+		if (lastModified != null) {
+			conn.setRequestProperty("If-Modified-Since", lastModified);
+		}
+
+		int responseCode = conn.getResponseCode();
+		Metrics.Stage.FETCH.stop(start);
+		boolean conditional = etag != null || lastModified != null;
+		if (responseCode != 200 && !(conditional && responseCode == HttpURLConnection.HTTP_NOT_MODIFIED)) {
+			HttpStatusException statusException = HttpStatusException.forResponse(conn, responseCode);
+			InputStream error = conn.getErrorStream();
+			if (error != null) {
+				if (drain(conn, error)) {
+					error.close();
+				}
+			}
+			throw statusException;
+		}
+
+		return conn;
+	}
+
+	/**
+	 * @return the response body, decompressed according to its Content-Encoding
+	 */
+	private InputStream decodedBody(HttpURLConnection conn) throws IOException {
+		InputStream in = Metrics.countBytes(conn.getInputStream());
+		String encoding = conn.getContentEncoding();
+		if ("gzip".equalsIgnoreCase(encoding)) {
+			return new GZIPInputStream(in, 8192);
+		} else if ("deflate".equalsIgnoreCase(encoding)) {
+			// servers disagree on whether deflate means zlib-wrapped or raw; zlib is the standard
+			return new InflaterInputStream(in, new Inflater(), 8192);
+		}
+		return in;
+	}
+
+	/**
+	 * Reads and discards the rest of a stream, which the JDK requires before it will reuse the
+	 * connection.  If more than MAX_DRAIN_BYTES are left, or the calling thread has been
+	 * interrupted, e.g. because its request was cancelled, the connection is disconnected
+	 * instead, since an interrupt would not stop the reads.
+	 *
+	 * @return true if the stream was read to the end, false if the connection was disconnected
+	 */
+	private static boolean drain(HttpURLConnection conn, InputStream in) throws IOException {
+		byte[] discard = new byte[8192];
+		long drained = 0;
+		while (drained <= MAX_DRAIN_BYTES && !Thread.currentThread().isInterrupted()) {
+			int read = in.read(discard);
+			if (read == -1) {
+				return true;
+			}
+			drained += read;
+		}
+		conn.disconnect();
+		return false;
+	}
+}
@@ -0,0 +1,204 @@
+package jl.fsaratings.rest;
+
+import java.io.InterruptedIOException;
+import java.util.concurrent.TimeUnit;
+import java.util.function.LongSupplier;
+
+/**
+ * Limits the requests made to the API, both in rate and in number at once, so that bulk
+ * jobs run as fast as the API will sustain without being throttled by it.
+ *
+ * The rate is limited by a token bucket, which lets a burst of requests through at once
+ * and then one every 1/rate seconds.  Callers who find the bucket empty are each given a
+ * later slot and wait for it, so requests are spread evenly rather than retried together.
+ *
+ * The number of requests at once is limited by AIMD (additive increase, multiplicative
+ * decrease), as TCP limits the data in flight.  Each request which succeeds quickly while
+ * the limit is in use raises the limit by 1/limit, so by about one per round of requests.
+ * A sign of congestion, which is a 429 or 503 response, a timeout, or a response slower
+ * than slowThreshold, cuts the limit by a quarter.  Only one cut is made per round: signals
+ * from requests which started before the last cut are ignored, since they were made under
+ * the old limit.  The limit stays between 1 and maxConcurrency.
+ *
+ * A throttle only works if it sees every request, so one is shared by the whole process:
+ * see {@link #shared()}.
+ *
+ * @author jonny.lyon
+ *
+ */
+public class RequestThrottle {
+
+	private static final double DECREASE_RATIO = 0.75;
+
+	/**
+	 * The process-wide throttle, configured from system properties when first used
+	 */
+	private static final class Shared {
+		private static final RequestThrottle INSTANCE = new RequestThrottle(
+				Double.parseDouble(System.getProperty("fsaratings.api.ratePerSecond", "10")),
+				Integer.getInteger("fsaratings.api.burst", 10),
+				Integer.getInteger("fsaratings.api.initialConcurrency", 4),
+				Integer.getInteger("fsaratings.api.maxConcurrency", 32),
+				Long.getLong("fsaratings.api.slowMillis", 2000), TimeUnit.MILLISECONDS);
+	}
+
+	private final double permitsPerNano;
+
+	private final double burst;
+
+	private final int maxConcurrency;
+
+	private final long slowThresholdNanos;
+
+	private final LongSupplier nanoClock;
+
+	/**
+	 * The state of the token bucket and the concurrency limit, all guarded by this
+	 */
+	private double tokens;
+	private long refilledAt;
+	private double limit;
+	private int inFlight;
+	private long lastDecreaseAt;
+
+	/**
+	 * Constructor for RequestThrottle
+	 *
+	 * @param ratePerSecond the requests allowed per second, on average
+	 * @param burst the requests allowed at once after a quiet spell
+	 * @param initialConcurrency the concurrency limit to start from
+	 * @param maxConcurrency the highest the concurrency limit may go
+	 * @param slowThreshold the response time above which a response is taken as a sign of congestion
+	 * @param unit the unit of slowThreshold
+	 */
+	public RequestThrottle(double ratePerSecond, int burst, int initialConcurrency, int maxConcurrency,
+			long slowThreshold, TimeUnit unit) {
+		this(ratePerSecond, burst, initialConcurrency, maxConcurrency, slowThreshold, unit, System::nanoTime);
+	}
+
+	/**
+	 * Constructor for RequestThrottle, allowing the clock to be provided for test purposes
+	 */
+	RequestThrottle(double ratePerSecond, int burst, int initialConcurrency, int maxConcurrency,
+			long slowThreshold, TimeUnit unit, LongSupplier nanoClock) {
+		if (ratePerSecond <= 0) {
+			throw new IllegalArgumentException("ratePerSecond must be positive");
+		}
+		if (burst < 1 || initialConcurrency < 1 || maxConcurrency < initialConcurrency) {
+			throw new IllegalArgumentException("burst and concurrency must be at least 1, and max at least initial");
+		}
+		this.permitsPerNano = ratePerSecond / TimeUnit.SECONDS.toNanos(1);
+		this.burst = burst;
+		this.maxConcurrency = maxConcurrency;
+		this.slowThresholdNanos = unit.toNanos(slowThreshold);
+		this.nanoClock = nanoClock;
+		this.tokens = burst;
+		this.refilledAt = nanoClock.getAsLong();
+		this.limit = initialConcurrency;
+		// before any request can start, so that the first sign of congestion always counts
+		this.lastDecreaseAt = refilledAt - 1;
+	}
+
+	/**
+	 * @return the throttle shared by the whole process.  Its settings are read from system
+	 * properties the first time it is used: fsaratings.api.ratePerSecond (default 10),
+	 * fsaratings.api.burst (10), fsaratings.api.initialConcurrency (4),
+	 * fsaratings.api.maxConcurrency (32) and fsaratings.api.slowMillis (2000).
+	 */
+	public static RequestThrottle shared() {
+		return Shared.INSTANCE;
+	}
+
+	/**
+	 * Waits until a request may be made: first for a slot under the rate limit, then for
+	 * one under the concurrency limit.  Every successful call must be followed by one call
+	 * to {@link #onResponse(long, boolean)} once the response, or the failure, is known,
+	 * and by one call to {@link #release()} once the request is finished with.
+	 *
+	 * @return the time the request started, to pass to onResponse
+	 * @throws InterruptedIOException if interrupted while waiting, in which case the slot
+	 * taken under the rate limit is given back
+	 */
+	public long acquire() throws InterruptedIOException {
+		try {
+			long wait = reserveToken();
+			if (wait > 0) {
+				TimeUnit.NANOSECONDS.sleep(wait);
+			}
+			synchronized (this) {
+				while (inFlight >= (int) limit) {
+					wait();
+				}
+				inFlight++;
+			}
+		} catch (InterruptedException e) {
+			// no request was made, so later callers should not wait for it
+			refundToken();
+			Thread.currentThread().interrupt();
+			throw new InterruptedIOException("Interrupted while waiting to call the API");
+		}
+		return nanoClock.getAsLong();
+	}
+
+	/**
+	 * Adjusts the concurrency limit according to the outcome of a request
+	 *
+	 * @param startedAt the time returned by acquire
+	 * @param congested true if the response showed the API to be overloaded, e.g. a 429
+	 */
+	public synchronized void onResponse(long startedAt, boolean congested) {
+		long now = nanoClock.getAsLong();
+		if (congested || now - startedAt > slowThresholdNanos) {
+			if (startedAt - lastDecreaseAt > 0) {
+				limit = Math.max(1, limit * DECREASE_RATIO);
+				lastDecreaseAt = now;
+			}
+		} else if (inFlight >= limit / 2) {
+			// only grow a limit which is being used, so that it means something when load arrives
+			limit = Math.min(maxConcurrency, limit + 1 / limit);
+		}
+	}
+
+	/**
+	 * Ends a request, letting another through
+	 */
+	public synchronized void release() {
+		inFlight--;
+		notifyAll();
+	}
+
+	/**
+	 * @return the current concurrency limit, rounded down
+	 */
+	public synchronized int getConcurrencyLimit() {
+		return (int) limit;
+	}
+
+	/**
+	 * @return the number of requests in flight
+	 */
+	public synchronized int getInFlight() {
+		return inFlight;
+	}
+
+	/**
+	 * Takes a token from the bucket, going into debt if it is empty, so that each waiting
+	 * caller is given the next free slot
+	 *
+	 * @return how long to wait for the slot in nanoseconds, 0 if a token was available
+	 */
+	synchronized long reserveToken() {
+		long now = nanoClock.getAsLong();
+		tokens = Math.min(burst, tokens + (now - refilledAt) * permitsPerNano);
+		refilledAt = now;
+		tokens -= 1;
+		return tokens >= 0 ? 0 : (long) Math.ceil(-tokens / permitsPerNano);
+	}
+
+	/**
+	 * Gives back a token taken by {@link #reserveToken()} for a request that was not made
+	 */
+	private synchronized void refundToken() {
+		tokens = Math.min(burst, tokens + 1);
+	}
+}
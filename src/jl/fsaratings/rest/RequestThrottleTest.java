@@ -0,0 +1,181 @@
+package jl.fsaratings.rest;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.fail;
+
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.io.Reader;
+import java.io.StringReader;
+import java.util.ArrayDeque;
+import java.util.Deque;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.json.JSONObject;
+import org.junit.Before;
+import org.junit.Test;
+
+/**
+ * Test class for RequestThrottle and ThrottlingRestHandler, using a fake clock
+ *
+ * @author jonny.lyon
+ *
+ */
+public class RequestThrottleTest {
+
+	private AtomicLong now;
+
+	/**
+	 * Instance under test: 10 requests a second in bursts of up to 5, concurrency from 4 to
+	 * 8, with responses slower than a second taken as congestion
+	 */
+	private RequestThrottle instance;
+
+	@Before
+	public void setUp() {
+		now = new AtomicLong();
+		instance = new RequestThrottle(10, 5, 4, 8, 1, TimeUnit.SECONDS, now::get);
+	}
+
+	@Test
+	public void testBurstIsAllowedThenCallersAreGivenEvenlySpacedSlots() {
+		for (int i = 0; i < 5; i++) {
+			assertEquals(0, instance.reserveToken());
+		}
+		assertEquals(TimeUnit.MILLISECONDS.toNanos(100), instance.reserveToken());
+		assertEquals(TimeUnit.MILLISECONDS.toNanos(200), instance.reserveToken());
+
+		// after a quiet spell the bucket refills, but only up to the burst
+		now.addAndGet(TimeUnit.SECONDS.toNanos(10));
+		for (int i = 0; i < 5; i++) {
+			assertEquals(0, instance.reserveToken());
+		}
+		assertEquals(TimeUnit.MILLISECONDS.toNanos(100), instance.reserveToken());
+	}
+
+	@Test
+	public void testCallerInterruptedWhileWaitingForASlotGivesItBack() {
+		for (int i = 0; i < 5; i++) {
+			instance.reserveToken();
+		}
+		Thread.currentThread().interrupt();
+		try {
+			instance.acquire();
+			fail("InterruptedIOException expected");
+		} catch (InterruptedIOException e) {
+			// expected
+		} finally {
+			Thread.interrupted();
+		}
+
+		// the next caller gets the slot the interrupted one was given
+		assertEquals(TimeUnit.MILLISECONDS.toNanos(100), instance.reserveToken());
+	}
+
+	@Test
+	public void testLimitGrowsAdditivelyWhileInUse() throws IOException {
+		Deque<Long> started = new ArrayDeque<>();
+		for (int i = 0; i < 4; i++) {
+			started.add(acquireUnlimited());
+		}
+		// keep four requests in flight, replacing each as it completes
+		for (int i = 0; i < 20; i++) {
+			instance.onResponse(started.remove(), false);
+			instance.release();
+			started.add(acquireUnlimited());
+		}
+
+		// 4 + 1/limit for each of the 20 quick responses comes to about 7.5
+		assertEquals(7, instance.getConcurrencyLimit());
+		assertEquals(4, instance.getInFlight());
+	}
+
+	@Test
+	public void testLimitDoesNotGrowWhileUnused() throws IOException {
+		for (int i = 0; i < 20; i++) {
+			long started = acquireUnlimited();
+			instance.onResponse(started, false);
+			instance.release();
+		}
+		assertEquals(4, instance.getConcurrencyLimit());
+	}
+
+	@Test
+	public void testCongestionCutsLimitOncePerRound() throws IOException {
+		long first = acquireUnlimited();
+		long second = acquireUnlimited();
+		instance.onResponse(first, true);
+		instance.onResponse(second, true);
+		assertEquals(3, instance.getConcurrencyLimit());
+
+		// a request started since the cut was made under the new limit, so counts again
+		long third = acquireUnlimited();
+		now.addAndGet(TimeUnit.SECONDS.toNanos(2));
+		instance.onResponse(third, false);
+		assertEquals(2, instance.getConcurrencyLimit());
+	}
+
+	@Test
+	public void testLimitNeverFallsBelowOne() throws IOException {
+		for (int i = 0; i < 20; i++) {
+			long started = acquireUnlimited();
+			instance.onResponse(started, true);
+			instance.release();
+			now.incrementAndGet();
+		}
+		assertEquals(1, instance.getConcurrencyLimit());
+	}
+
+	@Test
+	public void testHandlerHoldsPlaceUntilReaderIsClosed() throws IOException {
+		ThrottlingRestHandler handler = new ThrottlingRestHandler(new StubRestHandler(), instance);
+
+		Reader reader = handler.getEndpointReader("ok");
+		assertEquals(1, instance.getInFlight());
+		reader.close();
+		reader.close();
+		assertEquals(0, instance.getInFlight());
+	}
+
+	@Test
+	public void testHandlerTreatsThrottlingResponseAsCongestion() throws IOException {
+		ThrottlingRestHandler handler = new ThrottlingRestHandler(new StubRestHandler(), instance);
+
+		try {
+			handler.getEndpointResponse("throttled");
+			fail("HttpStatusException expected");
+		} catch (HttpStatusException e) {
+			assertEquals(429, e.getStatusCode());
+		}
+		assertEquals(3, instance.getConcurrencyLimit());
+		assertEquals(0, instance.getInFlight());
+	}
+
+	/**
+	 * Acquires a place, with the clock moved on so that the rate limit never applies
+	 */
+	private long acquireUnlimited() throws IOException {
+		now.addAndGet(TimeUnit.SECONDS.toNanos(1) / 10);
+		return instance.acquire();
+	}
+
+	/**
+	 * Stub RestHandler which answers 429 for the "throttled" URL
+	 */
+	private static class StubRestHandler implements RestHandler {
+
+		@Override
+		public JSONObject getEndpointResponse(String endpointUrl) throws IOException {
+			if (endpointUrl.equals("throttled")) {
+				throw new HttpStatusException(429, -1);
+			}
+			return new JSONObject();
+		}
+
+		@Override
+		public Reader getEndpointReader(String endpointUrl) throws IOException {
+			return new StringReader("{}");
+		}
+	}
+}
@@ -0,0 +1,350 @@
+package jl.fsaratings.rest;
+
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.io.Reader;
+import java.net.SocketTimeoutException;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.function.DoubleSupplier;
+import java.util.function.LongSupplier;
+
+import org.json.JSONObject;
+
+/**
+ * Decorates any RestHandler so that a slow, throttling or failing API costs callers a
+ * bounded amount of time rather than stalling them or failing them at the first error.
+ *
+ * Requests which fail with 429 or a 5xx status, or with a network error such as a
+ * timeout, are retried with exponential backoff and full jitter: the n-th retry waits a
+ * random time up to initialBackoff * 2^(n-1), capped at maxBackoff, so that callers who
+ * failed together do not retry together.  A Retry-After header sets the least wait for
+ * the next retry.  Other failures, e.g. 404, are not retried.  However many attempts are
+ * allowed, a call gives up as soon as its next wait would take it beyond its budget, so
+ * the wrapped handler should have connect and read timeouts set, which between them bound
+ * the time of each attempt.
+ *
+ * A circuit breaker stops callers hammering an API which is down.  After failureThreshold
+ * consecutive failed attempts it opens, and for openDuration every call fails at once with
+ * a CircuitOpenException.  Then a single trial request is let through: if it succeeds the
+ * breaker closes, and if not it opens again.
+ *
+ * While a call cannot be answered, because the breaker is open or its retries ran out,
+ * getEndpointResponse returns the last successful response for the same URL, if there is
+ * one.  Only the most recent responses are kept, up to maxCachedResponses.  Streamed
+ * responses are never kept, so getEndpointReader always fails; the DAO's own caches serve
+ * their last known values instead (see CachingFsaDao).
+ *
+ * Only opening a stream is retried.  Once getEndpointReader has returned, errors reading
+ * the body are the caller's to handle.
+ *
+ * @author jonny.lyon
+ *
+ */
+public class ResilientRestHandler implements RestHandler {
+
+	private static final int DEFAULT_MAX_ATTEMPTS = 4;
+	private static final long DEFAULT_INITIAL_BACKOFF_MILLIS = 200;
+	private static final long DEFAULT_MAX_BACKOFF_MILLIS = 5000;
+	private static final long DEFAULT_BUDGET_MILLIS = 20000;
+	private static final int DEFAULT_FAILURE_THRESHOLD = 5;
+	private static final long DEFAULT_OPEN_MILLIS = 30000;
+	private static final int DEFAULT_MAX_CACHED_RESPONSES = 100;
+
+	private final RestHandler delegate;
+
+	private final int maxAttempts;
+
+	private final long initialBackoffNanos;
+
+	private final long maxBackoffNanos;
+
+	private final long budgetNanos;
+
+	private final int failureThreshold;
+
+	private final long openNanos;
+
+	private final LongSupplier nanoClock;
+
+	private final Sleeper sleeper;
+
+	private final DoubleSupplier random;
+
+	/**
+	 * The last successful response for each URL, least recently used first.  All access is
+	 * synchronized on the map.
+	 */
+	private final Map<String, JSONObject> lastResponses;
+
+	/**
+	 * The state of the circuit breaker, all guarded by this
+	 */
+	private int consecutiveFailures;
+	private long openUntil;
+	private boolean open;
+	private boolean trialInProgress;
+
+	/**
+	 * Constructor for ResilientRestHandler with default settings: up to 4 attempts, with
+	 * backoff starting at 200ms and capped at 5 seconds, all within 20 seconds; the breaker
+	 * opens for 30 seconds after 5 consecutive failures, and the last 100 responses are kept.
+	 *
+	 * @param delegate the handler which makes the requests, which should have timeouts set
+	 */
+	public ResilientRestHandler(RestHandler delegate) {
+		this(delegate, DEFAULT_MAX_ATTEMPTS, DEFAULT_INITIAL_BACKOFF_MILLIS, DEFAULT_MAX_BACKOFF_MILLIS,
+				DEFAULT_BUDGET_MILLIS, DEFAULT_FAILURE_THRESHOLD, DEFAULT_OPEN_MILLIS, TimeUnit.MILLISECONDS,
+				DEFAULT_MAX_CACHED_RESPONSES);
+	}
+
+	/**
+	 * Constructor for ResilientRestHandler
+	 *
+	 * @param delegate the handler which makes the requests, which should have timeouts set
+	 * @param maxAttempts the most times a call is attempted, including the first
+	 * @param initialBackoff the most the first retry waits
+	 * @param maxBackoff the most any retry waits, Retry-After included
+	 * @param budget the most time a call may take, attempts and waits together, before it gives up
+	 * @param failureThreshold the consecutive failed attempts which open the breaker
+	 * @param openDuration how long the breaker stays open before letting a trial request through
+	 * @param unit the unit of initialBackoff, maxBackoff, budget and openDuration
+	 * @param maxCachedResponses the most responses kept for serving while the API is unavailable
+	 */
+	public ResilientRestHandler(RestHandler delegate, int maxAttempts, long initialBackoff, long maxBackoff,
+			long budget, int failureThreshold, long openDuration, TimeUnit unit, int maxCachedResponses) {
+		this(delegate, maxAttempts, initialBackoff, maxBackoff, budget, failureThreshold, openDuration, unit,
+				maxCachedResponses, System::nanoTime, TimeUnit.NANOSECONDS::sleep,
+				() -> ThreadLocalRandom.current().nextDouble());
+	}
+
+	/**
+	 * Constructor for ResilientRestHandler, allowing the clock, sleeps and jitter to be
+	 * provided for test purposes.
+	 */
+	ResilientRestHandler(RestHandler delegate, int maxAttempts, long initialBackoff, long maxBackoff, long budget,
+			int failureThreshold, long openDuration, TimeUnit unit, final int maxCachedResponses,
+			LongSupplier nanoClock, Sleeper sleeper, DoubleSupplier random) {
+		if (maxAttempts < 1) {
+			throw new IllegalArgumentException("maxAttempts must be at least 1");
+		}
+		if (failureThreshold < 1) {
+			throw new IllegalArgumentException("failureThreshold must be at least 1");
+		}
+		this.delegate = delegate;
+		this.maxAttempts = maxAttempts;
+		this.initialBackoffNanos = unit.toNanos(initialBackoff);
+		this.maxBackoffNanos = unit.toNanos(maxBackoff);
+		this.budgetNanos = unit.toNanos(budget);
+		this.failureThreshold = failureThreshold;
+		this.openNanos = unit.toNanos(openDuration);
+		this.nanoClock = nanoClock;
+		this.sleeper = sleeper;
+		this.random = random;
+		this.lastResponses = new LinkedHashMap<String, JSONObject>(16, 0.75f, true) {
+			@Override
+			protected boolean removeEldestEntry(Map.Entry<String, JSONObject> eldest) {
+				return size() > maxCachedResponses;
+			}
+		};
+	}
+
+	/**
+	 * {@inheritDoc}
+	 *
+	 * If the API cannot answer, returns a copy of the last successful response for the URL
+	 * instead, if there is one.
+	 */
+	@Override
+	public JSONObject getEndpointResponse(String endpointUrl) throws IOException {
+		try {
+			JSONObject response = call(() -> delegate.getEndpointResponse(endpointUrl));
+			synchronized (lastResponses) {
+				lastResponses.put(endpointUrl, response);
+			}
+			return response;
+		} catch (IOException e) {
+			if (isInterruption(e) || e instanceof HttpStatusException && !((HttpStatusException) e).isRetryable()) {
+				throw e;
+			}
+			JSONObject last;
+			synchronized (lastResponses) {
+				last = lastResponses.get(endpointUrl);
+			}
+			if (last == null) {
+				throw e;
+			}
+			// a copy, so that callers cannot change what later callers are served
+			return new JSONObject(last.toString());
+		}
+	}
+
+	/**
+	 * {@inheritDoc}
+	 */
+	@Override
+	public Reader getEndpointReader(String endpointUrl) throws IOException {
+		return call(() -> delegate.getEndpointReader(endpointUrl));
+	}
+
+	/**
+	 * {@inheritDoc}
+	 */
+	@Override
+	public ConditionalResponse getConditionalReader(String endpointUrl, String etag, String lastModified)
+			throws IOException {
+		return call(() -> delegate.getConditionalReader(endpointUrl, etag, lastModified));
+	}
+
+	/**
+	 * @return true if the breaker is open, and calls are failing without reaching the API
+	 */
+	public synchronized boolean isCircuitOpen() {
+		return open;
+	}
+
+	/**
+	 * Makes a request, retrying it as needed within the call's budget
+	 */
+	private <T> T call(Request<T> request) throws IOException {
+		long deadline = nanoClock.getAsLong() + budgetNanos;
+		for (int attempt = 1;; attempt++) {
+			boolean trial = acquire();
+			IOException failure;
+			try {
+				T result = request.execute();
+				succeeded(trial);
+				return result;
+			} catch (HttpStatusException e) {
+				if (!e.isRetryable()) {
+					// the API is healthy enough to say the request is wrong
+					succeeded(trial);
+					throw e;
+				}
+				failed(trial);
+				failure = e;
+			} catch (IOException e) {
+				if (isInterruption(e)) {
+					// the caller gave up, e.g. a cancelled fetch; says nothing about the API
+					abandoned(trial);
+					throw e;
+				}
+				failed(trial);
+				failure = e;
+			} catch (RuntimeException | Error e) {
+				// e.g. an unparseable body; not a sign of an unhealthy API, but the trial is over
+				succeeded(trial);
+				throw e;
+			}
+
+			if (attempt >= maxAttempts) {
+				throw failure;
+			}
+			long wait = backoff(attempt, failure);
+			if (wait < 0 || wait > deadline - nanoClock.getAsLong()) {
+				throw failure;
+			}
+			try {
+				sleeper.sleep(wait);
+			} catch (InterruptedException e) {
+				Thread.currentThread().interrupt();
+				InterruptedIOException interrupted = new InterruptedIOException("Interrupted while waiting to retry");
+				interrupted.addSuppressed(failure);
+				throw interrupted;
+			}
+		}
+	}
+
+	/**
+	 * @return the time to wait before the next attempt in nanoseconds, or -1 if the server
+	 * asked for a longer wait than any retry is allowed
+	 */
+	private long backoff(int attempt, IOException failure) {
+		long ceiling = initialBackoffNanos << Math.min(attempt - 1, 30);
+		if (ceiling <= 0 || ceiling > maxBackoffNanos) {
+			ceiling = maxBackoffNanos;
+		}
+		long wait = (long) (random.getAsDouble() * ceiling);
+		if (failure instanceof HttpStatusException) {
+			long retryAfter = ((HttpStatusException) failure).getRetryAfterMillis();
+			if (retryAfter >= 0) {
+				long retryAfterNanos = TimeUnit.MILLISECONDS.toNanos(retryAfter);
+				// rather give up than retry sooner than asked
+				wait = retryAfterNanos > maxBackoffNanos ? -1 : Math.max(wait, retryAfterNanos);
+			}
+		}
+		return wait;
+	}
+
+	/**
+	 * Checks that the breaker allows a request
+	 *
+	 * @return true if the request is the trial after the breaker has been open
+	 * @throws CircuitOpenException if the breaker is open, or another trial is in progress
+	 */
+	private synchronized boolean acquire() throws CircuitOpenException {
+		if (!open) {
+			return false;
+		}
+		long remaining = openUntil - nanoClock.getAsLong();
+		if (remaining > 0 || trialInProgress) {
+			throw new CircuitOpenException(Math.max(0, TimeUnit.NANOSECONDS.toMillis(remaining)));
+		}
+		trialInProgress = true;
+		return true;
+	}
+
+	private synchronized void succeeded(boolean trial) {
+		consecutiveFailures = 0;
+		open = false;
+		if (trial) {
+			trialInProgress = false;
+		}
+	}
+
+	/**
+	 * Ends a request the caller abandoned, neither counting it as a failure nor as a
+	 * success, and letting another trial through if it was the trial
+	 */
+	private synchronized void abandoned(boolean trial) {
+		if (trial) {
+			trialInProgress = false;
+		}
+	}
+
+	/**
+	 * @return true if the failure was the calling thread being interrupted, rather than
+	 * the API timing out or failing
+	 */
+	private static boolean isInterruption(IOException e) {
+		return Thread.currentThread().isInterrupted()
+				|| e instanceof InterruptedIOException && !(e instanceof SocketTimeoutException);
+	}
+
+	private synchronized void failed(boolean trial) {
+		consecutiveFailures++;
+		if (trial || consecutiveFailures >= failureThreshold) {
+			open = true;
+			openUntil = nanoClock.getAsLong() + openNanos;
+		}
+		if (trial) {
+			trialInProgress = false;
+		}
+	}
+
+	/**
+	 * A request to the wrapped handler
+	 */
+	private interface Request<T> {
+		T execute() throws IOException;
+	}
+
+	/**
+	 * Waits between attempts
+	 */
+	interface Sleeper {
+		void sleep(long nanos) throws InterruptedException;
+	}
+}
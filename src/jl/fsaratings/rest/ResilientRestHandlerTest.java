@@ -0,0 +1,247 @@
+package jl.fsaratings.rest;
+
+import static org.easymock.EasyMock.createStrictMock;
+import static org.easymock.EasyMock.expect;
+import static org.easymock.EasyMock.replay;
+import static org.easymock.EasyMock.verify;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.io.Reader;
+import java.net.SocketTimeoutException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.json.JSONObject;
+import org.junit.Before;
+import org.junit.Test;
+
+/**
+ * Test class for ResilientRestHandler, mocking out the wrapped RestHandler.  Sleeps advance
+ * a fake clock instead of waiting, and the jitter is fixed at half the backoff ceiling.
+ *
+ * @author jonny.lyon
+ *
+ */
+public class ResilientRestHandlerTest {
+
+	private static final String URL = "http://localhost/Authorities/basic";
+
+	/**
+	 * Mock RestHandler
+	 */
+	private RestHandler delegate;
+
+	private AtomicLong now;
+
+	/**
+	 * The waits between attempts, in milliseconds
+	 */
+	private List<Long> sleeps;
+
+	/**
+	 * Instance under test: 4 attempts, backoff from 100ms to 1s within a 3 second budget,
+	 * breaker opening for 10 seconds after 3 failures
+	 */
+	private ResilientRestHandler instance;
+
+	@Before
+	public void setUp() {
+		delegate = createStrictMock(RestHandler.class);
+		now = new AtomicLong();
+		sleeps = new ArrayList<>();
+		instance = new ResilientRestHandler(delegate, 4, 100, 1000, 3000, 3, 10000, TimeUnit.MILLISECONDS, 10,
+				now::get, nanos -> {
+					sleeps.add(TimeUnit.NANOSECONDS.toMillis(nanos));
+					now.addAndGet(nanos);
+				}, () -> 0.5d);
+	}
+
+	@Test
+	public void testServerErrorsAreRetriedWithExponentialBackoff() throws IOException {
+		expect(delegate.getEndpointResponse(URL)).andThrow(new HttpStatusException(503, -1)).once();
+		expect(delegate.getEndpointResponse(URL)).andThrow(new SocketTimeoutException("mocked timeout")).once();
+		expect(delegate.getEndpointResponse(URL)).andReturn(new JSONObject("{\"ok\":true}")).once();
+		replay(delegate);
+
+		JSONObject response = instance.getEndpointResponse(URL);
+
+		verify(delegate);
+		assertTrue(response.getBoolean("ok"));
+		assertEquals(Arrays.asList(50L, 100L), sleeps);
+	}
+
+	@Test
+	public void testRetryAfterSetsTheLeastWait() throws IOException {
+		expect(delegate.getEndpointResponse(URL)).andThrow(new HttpStatusException(429, 800)).once();
+		expect(delegate.getEndpointResponse(URL)).andReturn(new JSONObject("{}")).once();
+		replay(delegate);
+
+		instance.getEndpointResponse(URL);
+
+		verify(delegate);
+		assertEquals(Arrays.asList(800L), sleeps);
+	}
+
+	@Test
+	public void testRetryAfterBeyondMaxBackoffFailsAtOnce() throws IOException {
+		expect(delegate.getEndpointResponse(URL)).andThrow(new HttpStatusException(503, 60000)).once();
+		replay(delegate);
+
+		try {
+			instance.getEndpointResponse(URL);
+			fail("HttpStatusException expected");
+		} catch (HttpStatusException e) {
+			assertEquals(503, e.getStatusCode());
+		}
+		verify(delegate);
+		assertTrue(sleeps.isEmpty());
+	}
+
+	@Test
+	public void testClientErrorsAreNotRetried() throws IOException {
+		expect(delegate.getEndpointResponse(URL)).andThrow(new HttpStatusException(404, -1)).once();
+		replay(delegate);
+
+		try {
+			instance.getEndpointResponse(URL);
+			fail("HttpStatusException expected");
+		} catch (HttpStatusException e) {
+			assertEquals(404, e.getStatusCode());
+		}
+		verify(delegate);
+		assertFalse(instance.isCircuitOpen());
+	}
+
+	@Test
+	public void testCallGivesUpWhenNextWaitWouldExceedBudget() throws IOException {
+		// each attempt takes a second, and the backoff ceilings are 100ms, 200ms then 400ms,
+		// so the third attempt ends at 3.3s and waiting again would pass the 3 second budget
+		delegate = new SlowFailingRestHandler();
+		instance = new ResilientRestHandler(delegate, 10, 100, 1000, 3000, 100, 10000, TimeUnit.MILLISECONDS, 10,
+				now::get, now::addAndGet, () -> 1d);
+
+		try {
+			instance.getEndpointReader(URL);
+			fail("SocketTimeoutException expected");
+		} catch (SocketTimeoutException e) {
+			// do nothing;
+		}
+		assertEquals(3, ((SlowFailingRestHandler) delegate).attempts);
+		assertEquals(TimeUnit.MILLISECONDS.toNanos(3300), now.get());
+	}
+
+	@Test
+	public void testOpenCircuitFailsFastThenLetsOneTrialThrough() throws IOException {
+		expect(delegate.getEndpointReader(URL)).andThrow(new HttpStatusException(500, -1)).times(3);
+		expect(delegate.getEndpointReader(URL)).andReturn(null).once();
+		replay(delegate);
+
+		try {
+			instance.getEndpointReader(URL);
+			fail("CircuitOpenException expected");
+		} catch (CircuitOpenException e) {
+			// the third failure opened the breaker before the fourth attempt
+		}
+		assertTrue(instance.isCircuitOpen());
+		try {
+			instance.getEndpointReader(URL);
+			fail("CircuitOpenException expected");
+		} catch (CircuitOpenException e) {
+			// do nothing;
+		}
+		now.addAndGet(TimeUnit.SECONDS.toNanos(10));
+		instance.getEndpointReader(URL);
+
+		verify(delegate);
+		assertFalse(instance.isCircuitOpen());
+	}
+
+	@Test
+	public void testCallersInterruptedWhileThrottledDoNotOpenTheCircuit() throws Exception {
+		expect(delegate.getEndpointResponse(URL)).andReturn(new JSONObject()).once();
+		replay(delegate);
+		// one request allowed at once, and then one every thousand seconds
+		RequestThrottle throttle = new RequestThrottle(0.001, 1, 1, 1, 2000, TimeUnit.MILLISECONDS);
+		instance = new ResilientRestHandler(new ThrottlingRestHandler(delegate, throttle), 4, 100, 1000, 3000, 3,
+				10000, TimeUnit.MILLISECONDS, 10, now::get, nanos -> now.addAndGet(nanos), () -> 0.5d);
+		instance.getEndpointResponse(URL);
+
+		AtomicInteger interrupted = new AtomicInteger();
+		for (int i = 0; i < 5; i++) {
+			Thread caller = new Thread(() -> {
+				try {
+					instance.getEndpointResponse(URL);
+				} catch (InterruptedIOException e) {
+					interrupted.incrementAndGet();
+				} catch (IOException e) {
+					// counted as not interrupted
+				}
+			});
+			caller.start();
+			// waiting on the throttle, unless failed fast by an open breaker
+			while (caller.getState() != Thread.State.TIMED_WAITING && caller.isAlive()) {
+				Thread.sleep(1);
+			}
+			caller.interrupt();
+			caller.join();
+		}
+
+		assertEquals(5, interrupted.get());
+		assertFalse(instance.isCircuitOpen());
+		verify(delegate);
+	}
+
+	@Test
+	public void testLastGoodResponseIsServedWhileUnavailable() throws IOException {
+		expect(delegate.getEndpointResponse(URL)).andReturn(new JSONObject("{\"version\":1}")).once();
+		expect(delegate.getEndpointResponse(URL)).andThrow(new HttpStatusException(502, -1)).times(3);
+		replay(delegate);
+
+		instance.getEndpointResponse(URL);
+		JSONObject degraded = instance.getEndpointResponse(URL);
+		JSONObject whileOpen = instance.getEndpointResponse(URL);
+
+		verify(delegate);
+		assertEquals(1, degraded.getInt("version"));
+		assertEquals(1, whileOpen.getInt("version"));
+		assertTrue(instance.isCircuitOpen());
+	}
+
+	@Test
+	public void testRetryAfterHeaderIsParsedAsSecondsOrDate() {
+		assertEquals(120000, HttpStatusException.parseRetryAfter("120", -1, 0));
+		assertEquals(5000, HttpStatusException.parseRetryAfter("Wed, 21 Oct 2015 07:28:05 GMT", 1445412485000L,
+				1445412480000L));
+		assertEquals(-1, HttpStatusException.parseRetryAfter(null, -1, 0));
+		assertEquals(-1, HttpStatusException.parseRetryAfter("soon", -1, 0));
+	}
+
+	/**
+	 * Stub RestHandler which times out after a second on every attempt
+	 */
+	private class SlowFailingRestHandler implements RestHandler {
+
+		private int attempts;
+
+		@Override
+		public JSONObject getEndpointResponse(String endpointUrl) throws IOException {
+			throw new UnsupportedOperationException();
+		}
+
+		@Override
+		public Reader getEndpointReader(String endpointUrl) throws IOException {
+			attempts++;
+			now.addAndGet(TimeUnit.SECONDS.toNanos(1));
+			throw new SocketTimeoutException("mocked timeout");
+		}
+	}
+}
@@ -0,0 +1,105 @@
+package jl.fsaratings.rest;
+
+import java.io.CharArrayReader;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.io.Reader;
+import java.nio.CharBuffer;
+import java.nio.charset.Charset;
+
+/**
+ * A growable character buffer which a response body is read into straight from the
+ * connection stream.  The buffer is kept between reads, so a handler which reuses one
+ * instance per thread only allocates when a response is bigger than any seen before.
+ *
+ * The parser is handed a view of the buffer via {@link #reader()} or {@link #chars()},
+ * so the body is never copied into an intermediate String.  Views are only valid until
+ * the next call to {@link #readFrom}.
+ *
+ * Instances are not thread safe.
+ *
+ * @author jonny.lyon
+ *
+ */
+public class ResponseBody {
+
+	private static final int INITIAL_CAPACITY = 16 * 1024;
+
+	/**
+	 * Buffers larger than this are dropped after use rather than being held on to
+	 * indefinitely by an idle thread.
+	 */
+	private static final int MAX_RETAINED_CAPACITY = 4 * 1024 * 1024;
+
+	private char[] buffer = new char[INITIAL_CAPACITY];
+	private int length = 0;
+
+	/**
+	 * Replaces the contents of this buffer with the whole of the stream given, decoding
+	 * it using the specified charset.  The stream is not closed.
+	 *
+	 * @param in the stream to read the body from
+	 * @param charset the character encoding of the body
+	 * @param lengthHint the expected body length in bytes, or -1 if unknown.  Used to
+	 * size the buffer up front and avoid repeated growth.
+	 * @throws IOException if the stream cannot be read
+	 */
+	public void readFrom(InputStream in, Charset charset, long lengthHint) throws IOException {
+		length = 0;
+		// one spare character so that a body of exactly the hinted length does not trigger growth
+		if (lengthHint >= buffer.length && lengthHint < Integer.MAX_VALUE - 1) {
+			buffer = new char[(int) lengthHint + 1];
+		}
+
+		Reader reader = new InputStreamReader(in, charset);
+		int read;
+		while ((read = reader.read(buffer, length, buffer.length - length)) != -1) {
+			length += read;
+			if (length == buffer.length) {
+				grow();
+			}
+		}
+	}
+
+	/**
+	 * @return the number of characters currently held
+	 */
+	public int length() {
+		return length;
+	}
+
+	/**
+	 * @return a Reader over the current contents, sharing this buffer rather than copying it
+	 */
+	public Reader reader() {
+		return new CharArrayReader(buffer, 0, length);
+	}
+
+	/**
+	 * @return a read-only CharSequence view over the current contents
+	 */
+	public CharSequence chars() {
+		return CharBuffer.wrap(buffer, 0, length).asReadOnlyBuffer();
+	}
+
+	/**
+	 * Empties the buffer, releasing it if it has grown unusually large
+	 */
+	public void clear() {
+		length = 0;
+		if (buffer.length > MAX_RETAINED_CAPACITY) {
+			buffer = new char[INITIAL_CAPACITY];
+		}
+	}
+
+	private void grow() {
+		int newCapacity = buffer.length * 2;
+		if (newCapacity < 0) {
+			throw new OutOfMemoryError("Response body too large");
+		}
+		char[] newBuffer = new char[newCapacity];
+		System.arraycopy(buffer, 0, newBuffer, 0, length);
+		buffer = newBuffer;
+	}
+}
@@ -0,0 +1,82 @@
+package jl.fsaratings.rest;
+
+import static org.junit.Assert.assertEquals;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+
+import org.json.JSONObject;
+import org.json.JSONTokener;
+import org.junit.Before;
+import org.junit.Test;
+
+/**
+ * Test class for ResponseBody
+ *
+ * @author jonny.lyon
+ *
+ */
+public class ResponseBodyTest {
+
+	/**
+	 * Instance under test
+	 */
+	private ResponseBody instance;
+
+	@Before
+	public void setUp() {
+		instance = new ResponseBody();
+	}
+
+	@Test
+	public void testReadsBodyLargerThanInitialBufferWithoutLengthHint() throws IOException {
+		String content = buildContent(100000);
+
+		instance.readFrom(streamOf(content), StandardCharsets.UTF_8, -1);
+
+		assertEquals(content.length(), instance.length());
+		assertEquals(content, instance.chars().toString());
+	}
+
+	@Test
+	public void testReadsBodyOfExactlyHintedLength() throws IOException {
+		String content = buildContent(50000);
+
+		instance.readFrom(streamOf(content), StandardCharsets.UTF_8, content.length());
+
+		assertEquals(content, instance.chars().toString());
+	}
+
+	@Test
+	public void testReusedBufferOnlyExposesLatestBody() throws IOException {
+		instance.readFrom(streamOf(buildContent(5000)), StandardCharsets.UTF_8, -1);
+		instance.clear();
+		instance.readFrom(streamOf("{\"authorities\":[]}"), StandardCharsets.UTF_8, -1);
+
+		JSONObject json = new JSONObject(new JSONTokener(instance.reader()));
+
+		assertEquals(0, json.getJSONArray("authorities").length());
+	}
+
+	@Test
+	public void testDecodesMultiByteCharacters() throws IOException {
+		String content = "{\"Name\":\"Caf\u00e9 \u00fcber\"}";
+
+		instance.readFrom(streamOf(content), StandardCharsets.UTF_8, -1);
+
+		assertEquals(content, instance.chars().toString());
+	}
+
+	private ByteArrayInputStream streamOf(String content) {
+		return new ByteArrayInputStream(content.getBytes(StandardCharsets.UTF_8));
+	}
+
+	private String buildContent(int length) {
+		StringBuilder content = new StringBuilder(length);
+		for (int i = 0; i < length; i++) {
+			content.append(i % 50 == 49 ? '\n' : (char) ('a' + i % 26));
+		}
+		return content.toString();
+	}
+}
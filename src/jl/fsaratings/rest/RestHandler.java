@@ -1,6 +1,7 @@
 package jl.fsaratings.rest;
 
 import java.io.IOException;
+import java.io.Reader;
 
 import org.json.JSONObject;
 
@@ -20,4 +21,40 @@ public interface RestHandler {
 	 * @throws IOException if an error occurs retrieving data from the external API
 	 */
 	JSONObject getEndpointResponse(String endpointUrl) throws IOException;
+
+	/**
+	 * Performs a GET HTTP request on the URL specified, with the headers required
+	 * for the FSA API.  Rather than parsing the response, returns a Reader over the
+	 * response body so that large responses can be processed as a stream without
+	 * ever being held in memory in full.
+	 *
+	 * The caller is responsible for closing the Reader, which also releases the
+	 * underlying connection.
+	 *
+	 * @param endpointUrl The FSA API endpoint URL
+	 * @return A Reader over the response body
+	 * @throws IOException if an error occurs retrieving data from the external API
+	 */
+	Reader getEndpointReader(String endpointUrl) throws IOException;
+
+	/**
+	 * Performs a GET HTTP request on the URL specified as getEndpointReader does, but
+	 * conditional on the validators given, which are taken from an earlier response.  If
+	 * the resource has not changed since (304 Not Modified), no body is sent, and the
+	 * caller can use whatever it made of the earlier response.
+	 *
+	 * This default makes an unconditional request, for handlers which cannot make
+	 * conditional ones.  Its response has no validators, so callers never come to rely on
+	 * them.
+	 *
+	 * @param endpointUrl The FSA API endpoint URL
+	 * @param etag the ETag of the earlier response, or null if none
+	 * @param lastModified the Last-Modified header of the earlier response, or null if none
+	 * @return the response, with a Reader over the body which the caller must close unless not modified
+	 * @throws IOException if an error occurs retrieving data from the external API
+	 */
+	default ConditionalResponse getConditionalReader(String endpointUrl, String etag, String lastModified)
+			throws IOException {
+		return new ConditionalResponse(getEndpointReader(endpointUrl), null, null);
+	}
 }
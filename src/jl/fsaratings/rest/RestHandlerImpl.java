@@ -1,12 +1,18 @@
 package jl.fsaratings.rest;
 
-import java.io.BufferedReader;
+import java.io.FilterReader;
 import java.io.IOException;
+import java.io.InputStream;
 import java.io.InputStreamReader;
+import java.io.Reader;
 import java.net.HttpURLConnection;
 import java.net.URL;
+import java.nio.charset.StandardCharsets;
 
 import org.json.JSONObject;
+import org.json.JSONTokener;
+
+import jl.fsaratings.metrics.Metrics;
 
 /**
  * This class handles the REST calls and interacts directly with the external
@@ -18,31 +24,132 @@ import org.json.JSONObject;
  */
 public class RestHandlerImpl implements RestHandler {
 
+	private static final int DEFAULT_CONNECT_TIMEOUT_MILLIS = 10000;
+
+	private static final int DEFAULT_READ_TIMEOUT_MILLIS = 60000;
+
+	private final int connectTimeoutMillis;
+
+	private final int readTimeoutMillis;
+
+	/**
+	 * Response bodies are read into a buffer which is reused for each call made on
+	 * the same thread, so that repeated calls do not reallocate it.
+	 */
+	private final ThreadLocal<ResponseBody> responseBody = ThreadLocal.withInitial(ResponseBody::new);
+
+	/**
+	 * Constructor for RestHandlerImpl with a 10 second connect timeout and a 60 second read timeout
+	 */
+	public RestHandlerImpl() {
+		this(DEFAULT_CONNECT_TIMEOUT_MILLIS, DEFAULT_READ_TIMEOUT_MILLIS);
+	}
+
+	/**
+	 * Constructor for RestHandlerImpl
+	 *
+	 * @param connectTimeoutMillis the time allowed to establish a connection, 0 for no limit
+	 * @param readTimeoutMillis the time allowed between reads of the response, 0 for no limit
+	 */
+	public RestHandlerImpl(int connectTimeoutMillis, int readTimeoutMillis) {
+		this.connectTimeoutMillis = connectTimeoutMillis;
+		this.readTimeoutMillis = readTimeoutMillis;
+	}
+
 	/**
 	 * {@inheritDoc}
 	 */
 	@Override
 	public JSONObject getEndpointResponse(String endpointUrl) throws IOException {
-		String fullOutput = "";
+		HttpURLConnection conn = openConnection(endpointUrl, null, null);
 
+		ResponseBody body = responseBody.get();
+		long start = Metrics.start();
+		try (InputStream in = Metrics.countBytes(conn.getInputStream())) {
+			body.readFrom(in, StandardCharsets.UTF_8, conn.getContentLengthLong());
+			JSONObject json = new JSONObject(new JSONTokener(body.reader()));
+			Metrics.Stage.PARSE.stop(start);
+			return json;
+		} finally {
+			body.clear();
+			conn.disconnect();
+		}
+	}
+
+	/**
+	 * {@inheritDoc}
+	 */
+	@Override
+	public Reader getEndpointReader(String endpointUrl) throws IOException {
+		return bodyReader(openConnection(endpointUrl, null, null));
+	}
+
+	/**
+	 * {@inheritDoc}
+	 */
+	@Override
+	public ConditionalResponse getConditionalReader(String endpointUrl, String etag, String lastModified)
+			throws IOException {
+		HttpURLConnection conn = openConnection(endpointUrl, etag, lastModified);
+		if (conn.getResponseCode() == HttpURLConnection.HTTP_NOT_MODIFIED) {
+			conn.disconnect();
+			return ConditionalResponse.notModified();
+		}
+		return new ConditionalResponse(bodyReader(conn), conn.getHeaderField("ETag"),
+				conn.getHeaderField("Last-Modified"));
+	}
+
+	/**
+	 * @return a reader over the response body, which disconnects when closed
+	 */
+	private Reader bodyReader(HttpURLConnection conn) throws IOException {
+		return new FilterReader(new InputStreamReader(Metrics.countBytes(conn.getInputStream()), StandardCharsets.UTF_8)) {
+			@Override
+			public void close() throws IOException {
+				try {
+					super.close();
+				} finally {
+					conn.disconnect();
+				}
+			}
+		};
+	}
+
+	/**
+	 * Opens a GET connection to the URL specified with the headers required for the
+	 * FSA API, and checks that the response was successful.  If validators are given, the
+	 * request is conditional on them, and a not modified response also counts as successful.
+	 *
+	 * @param endpointUrl The FSA API endpoint URL
+	 * @param etag the ETag to make the request conditional on, or null
+	 * @param lastModified the Last-Modified time to make the request conditional on, or null
+	 * @return the open connection, ready for the response body to be read
+	 * @throws IOException if the connection cannot be made
+	 * @throws HttpStatusException if the response was not successful
+	 */
+	private HttpURLConnection openConnection(String endpointUrl, String etag, String lastModified) throws IOException {
+		long start = Metrics.start();
 		URL url = new URL(endpointUrl);
 		HttpURLConnection conn = (HttpURLConnection) url.openConnection();
 		conn.setRequestMethod("GET");
 		conn.setRequestProperty("x-api-version", "2");
-
-		if (conn.getResponseCode() != 200) {
-			throw new RuntimeException("Endpoint returned HTTP error code " + conn.getResponseCode());
+		conn.setConnectTimeout(connectTimeoutMillis);
+		conn.setReadTimeout(readTimeoutMillis);
+		if (etag != null) {
+			conn.setRequestProperty("If-None-Match", etag);
+		}
+		if (lastModified != null) {
+			conn.setRequestProperty("If-Modified-Since", lastModified);
 		}
 
-		BufferedReader br = new BufferedReader(new InputStreamReader(conn.getInputStream()));
-
-		String output;
-		while ((output = br.readLine()) != null) {
-			fullOutput += "\n" + output;
+		int responseCode = conn.getResponseCode();
+		Metrics.Stage.FETCH.stop(start);
+		boolean conditional = etag != null || lastModified != null;
+		if (responseCode != 200 && !(conditional && responseCode == HttpURLConnection.HTTP_NOT_MODIFIED)) {
+			throw HttpStatusException.forResponse(conn, responseCode);
 		}
-		conn.disconnect();
 
-		return new JSONObject(fullOutput);
+		return conn;
 	}
 
 }
@@ -0,0 +1,151 @@
+package jl.fsaratings.rest;
+
+import java.io.FilterReader;
+import java.io.IOException;
+import java.io.Reader;
+import java.net.SocketTimeoutException;
+
+import org.json.JSONObject;
+
+/**
+ * Decorates any RestHandler so that its requests pass through a RequestThrottle, by
+ * default the one shared by the whole process, so that however many threads and DAOs are
+ * calling the API, together they stay within what it will sustain.
+ *
+ * A request holds its place under the concurrency limit until its response has been
+ * read: for getEndpointReader, until the reader is closed.  Its response time, which
+ * drives the limit, is the time to the response headers for getEndpointReader, and the
+ * time to read and parse the whole response for getEndpointResponse.
+ *
+ * Throttling should come before any retries, e.g. inside a ResilientRestHandler, so that
+ * every attempt is throttled.
+ *
+ * @author jonny.lyon
+ *
+ */
+public class ThrottlingRestHandler implements RestHandler {
+
+	private final RestHandler delegate;
+
+	private final RequestThrottle throttle;
+
+	/**
+	 * Constructor for ThrottlingRestHandler using the process-wide throttle
+	 *
+	 * @param delegate the handler which makes the requests
+	 */
+	public ThrottlingRestHandler(RestHandler delegate) {
+		this(delegate, RequestThrottle.shared());
+	}
+
+	/**
+	 * Constructor for ThrottlingRestHandler
+	 *
+	 * @param delegate the handler which makes the requests
+	 * @param throttle the throttle to pass them through
+	 */
+	public ThrottlingRestHandler(RestHandler delegate, RequestThrottle throttle) {
+		this.delegate = delegate;
+		this.throttle = throttle;
+	}
+
+	/**
+	 * {@inheritDoc}
+	 */
+	@Override
+	public JSONObject getEndpointResponse(String endpointUrl) throws IOException {
+		long startedAt = throttle.acquire();
+		try {
+			JSONObject response = delegate.getEndpointResponse(endpointUrl);
+			throttle.onResponse(startedAt, false);
+			return response;
+		} catch (IOException e) {
+			throttle.onResponse(startedAt, isCongestion(e));
+			throw e;
+		} finally {
+			throttle.release();
+		}
+	}
+
+	/**
+	 * {@inheritDoc}
+	 */
+	@Override
+	public Reader getEndpointReader(String endpointUrl) throws IOException {
+		long startedAt = throttle.acquire();
+		Reader reader;
+		try {
+			reader = delegate.getEndpointReader(endpointUrl);
+			throttle.onResponse(startedAt, false);
+		} catch (IOException e) {
+			throttle.onResponse(startedAt, isCongestion(e));
+			throttle.release();
+			throw e;
+		} catch (RuntimeException | Error e) {
+			throttle.release();
+			throw e;
+		}
+		return releasingOnClose(reader);
+	}
+
+	/**
+	 * {@inheritDoc}
+	 *
+	 * A not modified response has no body to read, so its place is given up at once.
+	 */
+	@Override
+	public ConditionalResponse getConditionalReader(String endpointUrl, String etag, String lastModified)
+			throws IOException {
+		long startedAt = throttle.acquire();
+		ConditionalResponse response;
+		try {
+			response = delegate.getConditionalReader(endpointUrl, etag, lastModified);
+			throttle.onResponse(startedAt, false);
+		} catch (IOException e) {
+			throttle.onResponse(startedAt, isCongestion(e));
+			throttle.release();
+			throw e;
+		} catch (RuntimeException | Error e) {
+			throttle.release();
+			throw e;
+		}
+		if (response.isNotModified()) {
+			throttle.release();
+			return response;
+		}
+		return new ConditionalResponse(releasingOnClose(response.getBody()), response.getEtag(),
+				response.getLastModified());
+	}
+
+	/**
+	 * @return the reader, wrapped so that closing it gives up the request's place, once
+	 */
+	private Reader releasingOnClose(Reader reader) {
+		return new FilterReader(reader) {
+			private boolean released;
+
+			@Override
+			public void close() throws IOException {
+				try {
+					super.close();
+				} finally {
+					if (!released) {
+						released = true;
+						throttle.release();
+					}
+				}
+			}
+		};
+	}
+
+	/**
+	 * @return true if the failure shows the API to be overloaded
+	 */
+	private static boolean isCongestion(IOException e) {
+		if (e instanceof HttpStatusException) {
+			int status = ((HttpStatusException) e).getStatusCode();
+			return status == 429 || status == 503;
+		}
+		return e instanceof SocketTimeoutException;
+	}
+}
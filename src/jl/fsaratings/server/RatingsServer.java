@@ -0,0 +1,288 @@
+package jl.fsaratings.server;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.nio.charset.StandardCharsets;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Function;
+
+import org.json.JSONObject;
+
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpServer;
+
+import jl.fsaratings.dao.AsyncFsaDao;
+import jl.fsaratings.dao.AsyncFsaDaoImpl;
+import jl.fsaratings.dao.CachingFsaDao;
+import jl.fsaratings.dao.CoalescingFsaDao;
+import jl.fsaratings.dao.FsaDaoImpl;
+import jl.fsaratings.metrics.Metrics;
+import jl.fsaratings.rest.PooledRestHandler;
+import jl.fsaratings.rest.ResilientRestHandler;
+import jl.fsaratings.rest.ThrottlingRestHandler;
+
+/**
+ * Headless HTTP server exposing the same data as the UI as JSON, for dashboards and other
+ * services.  Built on the JDK's embedded HTTP server, with two resources:
+ *
+ * <pre>
+ * GET /authorities                     {"authorities":[{"authorityId":1,"name":"..."},...]}
+ * GET /authorities/{id}/distribution   {"authorityId":1,"distribution":{"5":62.5,...}}
+ * </pre>
+ *
+ * GET /metrics returns the plain-text dump of the app's stage timings and counters; see Metrics.
+ *
+ * Errors are returned as {"error":"..."} with a 400, 404, 405 or, if the API could not
+ * be reached, 502 status.
+ *
+ * Handlers never block: each request is handed to the AsyncFsaDao and the response is
+ * written by whichever thread completes it, so a couple of server threads are enough.
+ * Each response body is encoded once per distinct value returned by the DAO, so when the
+ * DAO is caching, repeat requests cost no more than a cache lookup and a write.
+ *
+ * The JDK server writes response headers and body separately, so with Nagle's algorithm
+ * on, each response on a keep-alive connection waits for the client's delayed ACK, which
+ * limits a connection to a few dozen requests a second.  The server therefore sets the
+ * sun.net.httpserver.nodelay system property on construction if it has not already been
+ * set; as with http.maxConnections in PooledRestHandler, the JDK reads it only once.
+ *
+ * @author jonny.lyon
+ *
+ */
+public class RatingsServer {
+
+	private static final int DEFAULT_PORT = 8080;
+
+	private static final int SERVER_THREADS = 2;
+
+	/**
+	 * Upper bound on the encoded responses kept, in case of requests for many unknown ids
+	 */
+	private static final int MAX_ENCODED = 1000;
+
+	private static final String AUTHORITIES_PATH = "/authorities";
+
+	private static final String DISTRIBUTION_SUFFIX = "/distribution";
+
+	private static final String METRICS_PATH = "/metrics";
+
+	private static final Object AUTHORITIES_KEY = new Object();
+
+	private final AsyncFsaDao fsaDao;
+
+	private final HttpServer server;
+
+	private final ExecutorService serverExecutor;
+
+	/**
+	 * The last encoded response body for each resource, along with the value it was encoded from
+	 */
+	private final ConcurrentMap<Object, Encoded> encoded = new ConcurrentHashMap<>();
+
+	/**
+	 * Constructor for RatingsServer.  The server is bound but not started.
+	 *
+	 * @param fsaDao the DAO to serve data from, normally wrapping a caching DAO
+	 * @param address the address to listen on; port 0 picks a free port
+	 * @throws IOException if the address cannot be bound
+	 */
+	public RatingsServer(AsyncFsaDao fsaDao, InetSocketAddress address) throws IOException {
+		if (System.getProperty("sun.net.httpserver.nodelay") == null) {
+			System.setProperty("sun.net.httpserver.nodelay", "true");
+		}
+		this.fsaDao = fsaDao;
+		this.server = HttpServer.create(address, 0);
+		AtomicInteger threadCount = new AtomicInteger();
+		this.serverExecutor = Executors.newFixedThreadPool(SERVER_THREADS, r -> {
+			Thread thread = new Thread(r, "fsa-server-" + threadCount.incrementAndGet());
+			thread.setDaemon(true);
+			return thread;
+		});
+		server.setExecutor(serverExecutor);
+		server.createContext(AUTHORITIES_PATH, this::handle);
+		server.createContext(METRICS_PATH, RatingsServer::handleMetrics);
+	}
+
+	/**
+	 * Starts serving requests
+	 */
+	public void start() {
+		server.start();
+	}
+
+	/**
+	 * Stops serving requests, waiting briefly for those in progress
+	 */
+	public void stop() {
+		server.stop(1);
+		serverExecutor.shutdown();
+	}
+
+	/**
+	 * @return the port the server is listening on
+	 */
+	public int getPort() {
+		return server.getAddress().getPort();
+	}
+
+	/**
+	 * Starts the server with a caching DAO over the live API.
+	 *
+	 * Usage: serve [port, default 8080]
+	 *
+	 * @param args optionally the port to listen on
+	 */
+	public static void main(String[] args) throws IOException {
+		int port = args.length > 0 ? Integer.parseInt(args[0]) : DEFAULT_PORT;
+		AsyncFsaDao dao = new AsyncFsaDaoImpl(new CachingFsaDao(new CoalescingFsaDao(new FsaDaoImpl(new ResilientRestHandler(new ThrottlingRestHandler(new PooledRestHandler()))))));
+		RatingsServer server = new RatingsServer(dao, new InetSocketAddress(port));
+		server.start();
+		System.out.println("Serving rating distributions on port " + server.getPort());
+	}
+
+	private void handle(HttpExchange exchange) throws IOException {
+		if (!exchange.getRequestMethod().equals("GET")) {
+			exchange.getResponseHeaders().set("Allow", "GET");
+			sendError(exchange, 405, "Method not allowed");
+			return;
+		}
+
+		String path = exchange.getRequestURI().getPath();
+		if (path.equals(AUTHORITIES_PATH) || path.equals(AUTHORITIES_PATH + "/")) {
+			respond(exchange, AUTHORITIES_KEY, fsaDao.fetchAuthorityNamesWithIds(), RatingsServer::encodeAuthorities);
+		} else if (path.startsWith(AUTHORITIES_PATH + "/") && path.endsWith(DISTRIBUTION_SUFFIX)
+				&& path.length() > AUTHORITIES_PATH.length() + DISTRIBUTION_SUFFIX.length()) {
+			Long authorityId = parseId(path.substring(AUTHORITIES_PATH.length() + 1, path.length() - DISTRIBUTION_SUFFIX.length()));
+			if (authorityId == null) {
+				sendError(exchange, 400, "Authority id must be a number");
+			} else {
+				respond(exchange, authorityId, fsaDao.fetchRatingPercentagesForAuthority(authorityId),
+						distribution -> encodeDistribution(authorityId, distribution));
+			}
+		} else {
+			sendError(exchange, 404, "Not found");
+		}
+	}
+
+	private static void handleMetrics(HttpExchange exchange) throws IOException {
+		if (!exchange.getRequestMethod().equals("GET")) {
+			exchange.getResponseHeaders().set("Allow", "GET");
+			sendError(exchange, 405, "Method not allowed");
+			return;
+		}
+		byte[] body = Metrics.dump().getBytes(StandardCharsets.UTF_8);
+		exchange.getResponseHeaders().set("Content-Type", "text/plain; charset=utf-8");
+		exchange.sendResponseHeaders(200, body.length);
+		try (OutputStream out = exchange.getResponseBody()) {
+			out.write(body);
+		}
+	}
+
+	/**
+	 * Writes the response once the DAO call completes, reusing the encoded body if the DAO
+	 * returned the same value as last time
+	 */
+	private <V> void respond(HttpExchange exchange, Object key, CompletableFuture<V> request, Function<V, String> encoder) {
+		request.whenComplete((value, error) -> {
+			try {
+				if (error != null) {
+					Throwable cause = error.getCause() != null ? error.getCause() : error;
+					sendError(exchange, 502, "Error retrieving data from the FSA API: " + cause.getMessage());
+					return;
+				}
+				Encoded body = encoded.get(key);
+				if (body == null || body.source != value) {
+					body = new Encoded(value, encoder.apply(value).getBytes(StandardCharsets.UTF_8));
+					if (encoded.size() >= MAX_ENCODED) {
+						encoded.clear();
+					}
+					encoded.put(key, body);
+				}
+				send(exchange, 200, body.body);
+			} catch (IOException | RuntimeException e) {
+				// the client has gone away; nothing more can be done
+				exchange.close();
+			}
+		});
+	}
+
+	/**
+	 * @return the encoded body last sent for the resource, or null, for test purposes
+	 */
+	byte[] getEncodedBody(Object key) {
+		Encoded body = encoded.get(key);
+		return body == null ? null : body.body;
+	}
+
+	private static Long parseId(String id) {
+		try {
+			return Long.valueOf(id);
+		} catch (NumberFormatException e) {
+			return null;
+		}
+	}
+
+	private static String encodeAuthorities(Map<String, Long> authorities) {
+		StringBuilder json = new StringBuilder(authorities.size() * 48 + 32);
+		json.append("{\"authorities\":[");
+		boolean first = true;
+		for (Map.Entry<String, Long> authority : authorities.entrySet()) {
+			if (!first) {
+				json.append(',');
+			}
+			first = false;
+			json.append("{\"authorityId\":").append(authority.getValue())
+				.append(",\"name\":").append(JSONObject.quote(authority.getKey())).append('}');
+		}
+		return json.append("]}").toString();
+	}
+
+	/**
+	 * The distribution is written as an object with its properties in rating order
+	 */
+	private static String encodeDistribution(Long authorityId, Map<String, Double> distribution) {
+		StringBuilder json = new StringBuilder(256);
+		json.append("{\"authorityId\":").append(authorityId).append(",\"distribution\":{");
+		boolean first = true;
+		for (Map.Entry<String, Double> rating : distribution.entrySet()) {
+			if (!first) {
+				json.append(',');
+			}
+			first = false;
+			json.append(JSONObject.quote(rating.getKey())).append(':').append(JSONObject.numberToString(rating.getValue()));
+		}
+		return json.append("}}").toString();
+	}
+
+	private static void sendError(HttpExchange exchange, int status, String message) throws IOException {
+		send(exchange, status, ("{\"error\":" + JSONObject.quote(message) + "}").getBytes(StandardCharsets.UTF_8));
+	}
+
+	private static void send(HttpExchange exchange, int status, byte[] body) throws IOException {
+		exchange.getResponseHeaders().set("Content-Type", "application/json; charset=utf-8");
+		exchange.sendResponseHeaders(status, body.length);
+		try (OutputStream out = exchange.getResponseBody()) {
+			out.write(body);
+		}
+	}
+
+	/**
+	 * An encoded response body, and the DAO value it was encoded from
+	 */
+	private static class Encoded {
+		private final Object source;
+		private final byte[] body;
+
+		private Encoded(Object source, byte[] body) {
+			this.source = source;
+			this.body = body;
+		}
+	}
+}
@@ -0,0 +1,136 @@
+package jl.fsaratings.server;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertSame;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.Reader;
+import java.io.StringReader;
+import java.net.HttpURLConnection;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.URL;
+import java.util.Scanner;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.json.JSONArray;
+import org.json.JSONObject;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import jl.fsaratings.dao.AsyncFsaDaoImpl;
+import jl.fsaratings.dao.CachingFsaDao;
+import jl.fsaratings.dao.FsaDaoImpl;
+import jl.fsaratings.rest.RestHandler;
+
+/**
+ * Test class for RatingsServer, serving from a real caching DAO stack over a stub
+ * RestHandler, and making real HTTP requests to it over loopback.
+ *
+ * @author jonny.lyon
+ *
+ */
+public class RatingsServerTest {
+
+	private StubRestHandler rest;
+
+	private RatingsServer instance;
+
+	@Before
+	public void setUp() throws IOException {
+		rest = new StubRestHandler();
+		CachingFsaDao dao = new CachingFsaDao(new FsaDaoImpl(rest), 10, 10, TimeUnit.MINUTES, 10);
+		instance = new RatingsServer(new AsyncFsaDaoImpl(dao), new InetSocketAddress(InetAddress.getLoopbackAddress(), 0));
+		instance.start();
+	}
+
+	@After
+	public void tearDown() {
+		instance.stop();
+	}
+
+	@Test
+	public void testAuthoritiesAreServedAsJson() throws IOException {
+		HttpURLConnection conn = get("/authorities");
+
+		assertEquals(200, conn.getResponseCode());
+		assertEquals("application/json; charset=utf-8", conn.getContentType());
+		JSONArray authorities = new JSONObject(read(conn.getInputStream())).getJSONArray("authorities");
+		assertEquals(2, authorities.length());
+		assertEquals("Edinburgh, City of", authorities.getJSONObject(0).getString("name"));
+		assertEquals(4L, authorities.getJSONObject(0).getLong("authorityId"));
+	}
+
+	@Test
+	public void testDistributionIsServedInRatingOrderAndCached() throws IOException {
+		String first = read(get("/authorities/2/distribution").getInputStream());
+		byte[] encoded = instance.getEncodedBody(2L);
+		String second = read(get("/authorities/2/distribution").getInputStream());
+
+		// the cached distribution is the same object, so its encoded body is reused
+		assertSame(encoded, instance.getEncodedBody(2L));
+
+		assertEquals("{\"authorityId\":2,\"distribution\":{\"5\":75,\"4\":0,\"3\":0,\"2\":0,\"1\":0,\"0\":0,\"Exempt\":25}}", first);
+		assertEquals(first, second);
+		assertEquals(1, rest.establishmentCalls.get());
+	}
+
+	@Test
+	public void testInvalidRequestsAreRejectedWithJsonErrors() throws IOException {
+		assertEquals(400, get("/authorities/york/distribution").getResponseCode());
+		assertEquals(404, get("/authorities/2/other").getResponseCode());
+		assertEquals(404, get("/authorities/distribution").getResponseCode());
+
+		HttpURLConnection post = get("/authorities");
+		post.setRequestMethod("POST");
+		assertEquals(405, post.getResponseCode());
+		assertEquals("Method not allowed", new JSONObject(read(post.getErrorStream())).getString("error"));
+	}
+
+	@Test
+	public void testApiFailureIsReportedAsBadGateway() throws IOException {
+		HttpURLConnection conn = get("/authorities/99/distribution");
+
+		assertEquals(502, conn.getResponseCode());
+		assertEquals("Error retrieving data from the FSA API: mocked exception",
+				new JSONObject(read(conn.getErrorStream())).getString("error"));
+	}
+
+	private HttpURLConnection get(String path) throws IOException {
+		return (HttpURLConnection) new URL("http://127.0.0.1:" + instance.getPort() + path).openConnection();
+	}
+
+	private static String read(InputStream in) {
+		try (Scanner scanner = new Scanner(in, "UTF-8")) {
+			return scanner.useDelimiter("\\A").next();
+		}
+	}
+
+	/**
+	 * Stub RestHandler serving two authorities, and establishments for authority 2 only
+	 */
+	private static class StubRestHandler implements RestHandler {
+
+		private final AtomicInteger establishmentCalls = new AtomicInteger();
+
+		@Override
+		public JSONObject getEndpointResponse(String endpointUrl) throws IOException {
+			return new JSONObject("{\"authorities\":[{\"Name\":\"York\",\"LocalAuthorityId\":2},"
+					+ "{\"Name\":\"Edinburgh, City of\",\"LocalAuthorityId\":4}]}");
+		}
+
+		@Override
+		public Reader getEndpointReader(String endpointUrl) throws IOException {
+			if (!endpointUrl.endsWith("localAuthorityId=2")) {
+				throw new IOException("mocked exception");
+			}
+			establishmentCalls.incrementAndGet();
+			return new StringReader("{\"establishments\":["
+					+ "{\"RatingValue\":\"5\",\"SchemeType\":\"FHRS\"},{\"RatingValue\":\"5\",\"SchemeType\":\"FHRS\"},"
+					+ "{\"RatingValue\":\"5\",\"SchemeType\":\"FHRS\"},{\"RatingValue\":\"Exempt\",\"SchemeType\":\"FHRS\"}]}");
+		}
+	}
+}
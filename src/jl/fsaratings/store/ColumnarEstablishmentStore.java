@@ -0,0 +1,468 @@
+package jl.fsaratings.store;
+
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import jl.fsaratings.dao.EstablishmentRatings;
+import jl.fsaratings.dao.FsaDaoImpl;
+import jl.fsaratings.dao.RatingHistogram;
+import jl.fsaratings.dao.RatingRollup;
+import jl.fsaratings.rest.PooledRestHandler;
+import jl.fsaratings.rest.ThrottlingRestHandler;
+
+/**
+ * A read-only, memory-mapped store of every establishment's rating, laid out in columns,
+ * for answering questions about many authorities at once without fetching or parsing
+ * anything.
+ *
+ * The file holds one row per establishment, in four columns: the FHRSID, and the
+ * authority, scheme and rating, each dictionary-encoded into a small code.  The
+ * dictionaries are written in the header, so the file describes itself.  Rows are
+ * clustered by authority, and the header records the range of rows of each one, so
+ * counting an authority's ratings is one sequential scan over its part of the one-byte
+ * rating column, read eight codes at a time.
+ *
+ * The columns are never copied onto the heap: queries read the mapped file directly, so
+ * they create almost no garbage, and processes with the same file open share the same
+ * pages of the OS page cache.  Since a mapping cannot exceed 2GB, a store is limited to
+ * some 170 million establishments, far more than the FSA has.
+ *
+ * Stores are written in full by {@link #write(Path, Map)}, via a temporary file which is
+ * moved into place, so a store that is open is never changed underneath its readers; a
+ * rewritten store is seen by opening it again.  Instances are thread safe.
+ *
+ * @author jonny.lyon
+ *
+ */
+public class ColumnarEstablishmentStore {
+
+	/**
+	 * Identifies a columnar store, "FSAC"
+	 */
+	private static final int MAGIC = 0x46534143;
+
+	private static final int VERSION = 1;
+
+	/**
+	 * Rating codes; code 0 is an unwanted rating, and code n is rating ordinal n - 1
+	 */
+	private static final int RATING_CODES = RatingHistogram.RATING_COUNT + 1;
+
+	/**
+	 * Scheme codes; code 0 is an unrecognised scheme, and code n is Scheme ordinal n - 1
+	 */
+	private static final RatingHistogram.Scheme[] SCHEMES = RatingHistogram.Scheme.values();
+
+	private static final int DEFAULT_CONCURRENCY = 4;
+
+	/**
+	 * Indents each level of a roll-up when printed, by RatingRollup.Level ordinal
+	 */
+	private static final String[] INDENTS = { "", "  ", "    ", "      " };
+
+	private final ByteBuffer data;
+
+	private final int rowCount;
+
+	/**
+	 * The authority dictionary, in ascending order of authority id, and the rows of each
+	 */
+	private final long[] authorityIds;
+	private final int[] firstRows;
+	private final int[] authorityRows;
+
+	/**
+	 * Maps each rating code in the file to a rating ordinal, or -1
+	 */
+	private final int[] ordinalOfCode;
+
+	/**
+	 * Maps each scheme code in the file to a scheme, or null
+	 */
+	private final RatingHistogram.Scheme[] schemeOfCode;
+
+	private final int idsOffset;
+	private final int authorityOffset;
+	private final int schemeOffset;
+	private final int ratingOffset;
+
+	private ColumnarEstablishmentStore(ByteBuffer data) throws IOException {
+		this.data = data;
+		if (data.getInt() != MAGIC || data.getInt() != VERSION) {
+			throw new IOException("Not a columnar establishment store");
+		}
+
+		ordinalOfCode = new int[data.getInt()];
+		for (int code = 0; code < ordinalOfCode.length; code++) {
+			ordinalOfCode[code] = RatingHistogram.ordinalOf(readString(data));
+		}
+		schemeOfCode = new RatingHistogram.Scheme[data.getInt()];
+		for (int code = 0; code < schemeOfCode.length; code++) {
+			schemeOfCode[code] = RatingHistogram.Scheme.of(readString(data));
+		}
+
+		rowCount = data.getInt();
+		int authorityCount = data.getInt();
+		authorityIds = new long[authorityCount];
+		firstRows = new int[authorityCount];
+		authorityRows = new int[authorityCount];
+		for (int i = 0; i < authorityCount; i++) {
+			authorityIds[i] = data.getLong();
+			firstRows[i] = data.getInt();
+			authorityRows[i] = data.getInt();
+		}
+
+		idsOffset = data.getInt();
+		authorityOffset = data.getInt();
+		schemeOffset = data.getInt();
+		ratingOffset = data.getInt();
+		if (ratingOffset + rowCount > data.capacity()) {
+			throw new IOException("Columnar establishment store is truncated");
+		}
+	}
+
+	/**
+	 * Opens a store, mapping it into memory.  The mapping lasts until the store is garbage
+	 * collected, and does not hold the file open.
+	 *
+	 * @param file the store file
+	 * @return the store
+	 * @throws IOException if the file cannot be read or is not a store
+	 */
+	public static ColumnarEstablishmentStore open(Path file) throws IOException {
+		try (FileChannel channel = FileChannel.open(file, StandardOpenOption.READ)) {
+			if (channel.size() > Integer.MAX_VALUE) {
+				throw new IOException("Columnar establishment store is too large to map");
+			}
+			MappedByteBuffer mapped = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+			return new ColumnarEstablishmentStore(mapped);
+		}
+	}
+
+	/**
+	 * Writes a store of the establishments given, replacing any existing file
+	 *
+	 * @param file the store file
+	 * @param authorities the establishment ratings of each authority
+	 * @throws IOException if the file cannot be written
+	 */
+	public static void write(Path file, Map<Long, EstablishmentRatings> authorities) throws IOException {
+		if (authorities.size() > Short.MAX_VALUE) {
+			throw new IllegalArgumentException("At most " + Short.MAX_VALUE + " authorities can be stored");
+		}
+		Map<Long, EstablishmentRatings> sorted = new TreeMap<>(authorities);
+		long rows = 0;
+		for (EstablishmentRatings ratings : sorted.values()) {
+			rows += ratings.size();
+		}
+
+		ByteArrayOutputStream headerBytes = new ByteArrayOutputStream();
+		DataOutputStream header = new DataOutputStream(headerBytes);
+		header.writeInt(MAGIC);
+		header.writeInt(VERSION);
+		header.writeInt(RATING_CODES);
+		header.writeUTF("");
+		for (int ordinal = 0; ordinal < RatingHistogram.RATING_COUNT; ordinal++) {
+			header.writeUTF(RatingHistogram.nameOf(ordinal));
+		}
+		header.writeInt(SCHEMES.length + 1);
+		header.writeUTF("");
+		for (RatingHistogram.Scheme scheme : SCHEMES) {
+			header.writeUTF(scheme.name());
+		}
+		header.writeInt((int) rows);
+		header.writeInt(sorted.size());
+		int firstRow = 0;
+		for (Map.Entry<Long, EstablishmentRatings> authority : sorted.entrySet()) {
+			header.writeLong(authority.getKey());
+			header.writeInt(firstRow);
+			header.writeInt(authority.getValue().size());
+			firstRow += authority.getValue().size();
+		}
+
+		// the id column comes first, aligned to 8 bytes, followed by the narrower columns
+		long idsOffset = align(headerBytes.size() + 4 * 4, 8);
+		long authorityOffset = idsOffset + rows * 8;
+		long schemeOffset = authorityOffset + rows * 2;
+		long ratingOffset = schemeOffset + rows;
+		long size = ratingOffset + rows;
+		if (size > Integer.MAX_VALUE) {
+			throw new IllegalArgumentException("Too many establishments for one store: " + rows);
+		}
+		header.writeInt((int) idsOffset);
+		header.writeInt((int) authorityOffset);
+		header.writeInt((int) schemeOffset);
+		header.writeInt((int) ratingOffset);
+
+		Path parent = file.toAbsolutePath().getParent();
+		Files.createDirectories(parent);
+		Path temp = Files.createTempFile(parent, file.getFileName().toString(), ".tmp");
+		try {
+			try (FileChannel channel = FileChannel.open(temp, StandardOpenOption.READ, StandardOpenOption.WRITE)) {
+				MappedByteBuffer out = channel.map(FileChannel.MapMode.READ_WRITE, 0, size);
+				out.put(headerBytes.toByteArray());
+
+				int[] row = { 0 };
+				short authorityCode = 0;
+				for (EstablishmentRatings ratings : sorted.values()) {
+					final short code = authorityCode++;
+					final byte schemeCode = schemeCodeOf(ratings.getSchemeBits());
+					ratings.forEach((establishmentId, ordinal) -> {
+						int r = row[0]++;
+						out.putLong((int) idsOffset + r * 8, establishmentId);
+						out.putShort((int) authorityOffset + r * 2, code);
+						out.put((int) schemeOffset + r, schemeCode);
+						out.put((int) ratingOffset + r, (byte) (ordinal + 1));
+					});
+				}
+				out.force();
+			}
+			Files.move(temp, file, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+		} finally {
+			Files.deleteIfExists(temp);
+		}
+	}
+
+	/**
+	 * Builds or queries a store.
+	 *
+	 * Usage: store build &lt;file&gt; [concurrency], to fetch every authority into a new store,
+	 * or store query &lt;file&gt; [authority id...], to print the combined distribution of the
+	 * authorities given, or of all of them, or store rollup &lt;file&gt;, to print the
+	 * distribution of the nation, of each country and of each region, with the regions
+	 * fetched from the API.
+	 *
+	 * @param args the command line arguments, excluding the leading "store"
+	 */
+	public static void main(String[] args) throws Exception {
+		if (args.length < 2 || !(args[0].equals("build") || args[0].equals("query") || args[0].equals("rollup"))) {
+			System.err.println("Usage: store build <file> [concurrency] | store query <file> [authority id...]"
+					+ " | store rollup <file>");
+			System.exit(1);
+		}
+		Path file = Paths.get(args[1]);
+
+		if (args[0].equals("build")) {
+			int concurrency = args.length > 2 ? Integer.parseInt(args[2]) : DEFAULT_CONCURRENCY;
+			Map<Long, EstablishmentRatings> authorities = fetchAll(concurrency);
+			write(file, authorities);
+			System.out.println("Stored " + authorities.size() + " authorities in " + file);
+		} else if (args[0].equals("rollup")) {
+			FsaDaoImpl dao = new FsaDaoImpl(new ThrottlingRestHandler(new PooledRestHandler()));
+			RatingRollup rollup = open(file).toRollup(dao.fetchAuthorityRegions());
+			for (RatingRollup.Aggregate aggregate : rollup.getAggregates()) {
+				System.out.println(INDENTS[aggregate.getLevel().ordinal()] + aggregate.getName() + ": "
+						+ aggregate.getCounts().toPercentages());
+			}
+		} else {
+			ColumnarEstablishmentStore store = open(file);
+			List<Long> authorityIds = new ArrayList<>();
+			for (int i = 2; i < args.length; i++) {
+				authorityIds.add(Long.valueOf(args[i]));
+			}
+			RatingHistogram counts = authorityIds.isEmpty() ? store.getCounts(store.getAuthorityIds())
+					: store.getCounts(authorityIds);
+			System.out.println(counts.toPercentages());
+		}
+	}
+
+	/**
+	 * Adds the counts of every authority in the store to a new RatingRollup
+	 *
+	 * @param regions the name of the region of each authority, by authority id
+	 * @return the roll-up
+	 */
+	public RatingRollup toRollup(Map<Long, String> regions) {
+		RatingRollup rollup = new RatingRollup(regions);
+		for (long authorityId : authorityIds) {
+			rollup.update(authorityId, getCounts(authorityId));
+		}
+		return rollup;
+	}
+
+	/**
+	 * @return the number of establishments in the store
+	 */
+	public int getRowCount() {
+		return rowCount;
+	}
+
+	/**
+	 * @return the ids of the authorities in the store, in ascending order
+	 */
+	public List<Long> getAuthorityIds() {
+		List<Long> ids = new ArrayList<>(authorityIds.length);
+		for (long id : authorityIds) {
+			ids.add(id);
+		}
+		return ids;
+	}
+
+	/**
+	 * Counts the ratings of one authority.  As in FsaDaoImpl, the counts take the scheme
+	 * of the authority's first establishment.
+	 *
+	 * @param authorityId the authority
+	 * @return the counts, or null if the authority is not in the store
+	 */
+	public RatingHistogram getCounts(Long authorityId) {
+		int authority = Arrays.binarySearch(authorityIds, authorityId);
+		return authority < 0 ? null : countAuthority(authority);
+	}
+
+	/**
+	 * Counts the ratings of several authorities together, each counted with its own scheme
+	 * as in {@link #getCounts(Long)} and then merged.  Authorities not in the store are
+	 * ignored.
+	 *
+	 * @param authorityIds the authorities
+	 * @return the combined counts
+	 */
+	public RatingHistogram getCounts(Collection<Long> authorityIds) {
+		RatingHistogram total = new RatingHistogram();
+		for (Long authorityId : authorityIds) {
+			RatingHistogram counts = getCounts(authorityId);
+			if (counts != null) {
+				total.merge(counts);
+			}
+		}
+		return total;
+	}
+
+	/**
+	 * Passes every establishment in the store to the visitor, in row order, i.e. grouped
+	 * by authority
+	 *
+	 * @param visitor the visitor
+	 */
+	public void forEach(Visitor visitor) {
+		for (int row = 0; row < rowCount; row++) {
+			int authority = data.getShort(authorityOffset + row * 2);
+			visitor.visit(authorityIds[authority], data.getLong(idsOffset + row * 8),
+					schemeOfCode[data.get(schemeOffset + row)], ordinalOfCode[data.get(ratingOffset + row)]);
+		}
+	}
+
+	/**
+	 * Counts one authority's range of the rating column.  Codes are read eight at a time,
+	 * which saves a bounds check per code over reading them one by one, then tallied by
+	 * code and only mapped to ratings once at the end.
+	 */
+	private RatingHistogram countAuthority(int authority) {
+		int from = ratingOffset + firstRows[authority];
+		int to = from + authorityRows[authority];
+		long[] byCode = new long[ordinalOfCode.length];
+
+		int position = from;
+		for (; position + 8 <= to; position += 8) {
+			long codes = data.getLong(position);
+			byCode[(int) (codes >>> 56)]++;
+			byCode[(int) (codes >>> 48) & 0xFF]++;
+			byCode[(int) (codes >>> 40) & 0xFF]++;
+			byCode[(int) (codes >>> 32) & 0xFF]++;
+			byCode[(int) (codes >>> 24) & 0xFF]++;
+			byCode[(int) (codes >>> 16) & 0xFF]++;
+			byCode[(int) (codes >>> 8) & 0xFF]++;
+			byCode[(int) codes & 0xFF]++;
+		}
+		for (; position < to; position++) {
+			byCode[data.get(position)]++;
+		}
+
+		RatingHistogram counts = new RatingHistogram();
+		if (authorityRows[authority] > 0) {
+			counts.addScheme(schemeOfCode[data.get(schemeOffset + firstRows[authority])]);
+		}
+		for (int code = 0; code < byCode.length; code++) {
+			counts.add(ordinalOfCode[code], byCode[code]);
+		}
+		return counts;
+	}
+
+	/**
+	 * Fetches the establishments of every authority from the API, skipping any that fail
+	 */
+	private static Map<Long, EstablishmentRatings> fetchAll(int concurrency) throws Exception {
+		FsaDaoImpl dao = new FsaDaoImpl(new ThrottlingRestHandler(new PooledRestHandler()));
+		AtomicInteger threadCount = new AtomicInteger();
+		ExecutorService executor = Executors.newFixedThreadPool(concurrency, r -> {
+			Thread thread = new Thread(r, "fsa-store-" + threadCount.incrementAndGet());
+			thread.setDaemon(true);
+			return thread;
+		});
+		try {
+			Map<Long, Future<EstablishmentRatings>> fetches = new TreeMap<>();
+			for (Long authorityId : dao.fetchAuthorityNamesWithIds().values()) {
+				fetches.put(authorityId, executor.submit(() -> dao.fetchEstablishmentRatings(authorityId)));
+			}
+			Map<Long, EstablishmentRatings> authorities = new TreeMap<>();
+			for (Map.Entry<Long, Future<EstablishmentRatings>> fetch : fetches.entrySet()) {
+				try {
+					authorities.put(fetch.getKey(), fetch.getValue().get());
+				} catch (ExecutionException e) {
+					System.err.println("Skipping authority " + fetch.getKey() + ": " + e.getCause());
+				}
+			}
+			return authorities;
+		} finally {
+			executor.shutdownNow();
+		}
+	}
+
+	private static byte schemeCodeOf(int schemeBits) {
+		for (RatingHistogram.Scheme scheme : SCHEMES) {
+			if ((schemeBits & (1 << scheme.ordinal())) != 0) {
+				return (byte) (scheme.ordinal() + 1);
+			}
+		}
+		return 0;
+	}
+
+	/**
+	 * Reads a string written by DataOutput.writeUTF; the dictionaries are all ASCII, for
+	 * which that is the same as UTF-8
+	 */
+	private static String readString(ByteBuffer buffer) {
+		byte[] bytes = new byte[buffer.getShort() & 0xFFFF];
+		buffer.get(bytes);
+		return new String(bytes, StandardCharsets.UTF_8);
+	}
+
+	private static long align(long offset, int alignment) {
+		return (offset + alignment - 1) / alignment * alignment;
+	}
+
+	/**
+	 * Receives each establishment in the store, from {@link ColumnarEstablishmentStore#forEach(Visitor)}
+	 */
+	public interface Visitor {
+		/**
+		 * @param authorityId the establishment's authority
+		 * @param establishmentId the establishment's FHRSID
+		 * @param scheme the establishment's scheme, or null if not recognised
+		 * @param ordinal the rating ordinal, or -1 for an unwanted rating
+		 */
+		void visit(long authorityId, long establishmentId, RatingHistogram.Scheme scheme, int ordinal);
+	}
+}
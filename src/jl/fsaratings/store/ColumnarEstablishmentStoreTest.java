@@ -0,0 +1,113 @@
+package jl.fsaratings.store;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.fail;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import jl.fsaratings.dao.EstablishmentRatings;
+import jl.fsaratings.dao.RatingHistogram;
+
+/**
+ * Test class for ColumnarEstablishmentStore, writing stores to a temporary folder and
+ * reading them back
+ *
+ * @author jonny.lyon
+ *
+ */
+public class ColumnarEstablishmentStoreTest {
+
+	@Rule
+	public TemporaryFolder folder = new TemporaryFolder();
+
+	private Map<Long, EstablishmentRatings> authorities;
+
+	private Path file;
+
+	@Before
+	public void setUp() {
+		authorities = new HashMap<>();
+		// sizes which are not multiples of eight, so that both scanning loops are used
+		authorities.put(7L, buildRatings(RatingHistogram.Scheme.FHRS, 700, 19, "5", "4", "Exempt", "Awaiting Inspection"));
+		authorities.put(3L, buildRatings(RatingHistogram.Scheme.FHIS, 300, 5, "Pass", "Improvement Required", "5"));
+		authorities.put(5L, new EstablishmentRatings());
+		file = folder.getRoot().toPath().resolve("establishments.col");
+	}
+
+	@Test
+	public void testCountsOfEachAuthorityMatchThoseStored() throws IOException {
+		ColumnarEstablishmentStore.write(file, authorities);
+		ColumnarEstablishmentStore instance = ColumnarEstablishmentStore.open(file);
+
+		assertEquals(24, instance.getRowCount());
+		assertEquals(Arrays.asList(3L, 5L, 7L), instance.getAuthorityIds());
+		for (Map.Entry<Long, EstablishmentRatings> authority : authorities.entrySet()) {
+			assertEquals(authority.getValue().getCounts(), instance.getCounts(authority.getKey()));
+		}
+		assertNull(instance.getCounts(4L));
+	}
+
+	@Test
+	public void testCountsOfSeveralAuthoritiesAreMergedWithTheirOwnSchemes() throws IOException {
+		ColumnarEstablishmentStore.write(file, authorities);
+		ColumnarEstablishmentStore instance = ColumnarEstablishmentStore.open(file);
+
+		RatingHistogram actual = instance.getCounts(Arrays.asList(3L, 7L, 99L));
+
+		RatingHistogram expected = authorities.get(3L).getCounts().merge(authorities.get(7L).getCounts());
+		assertEquals(expected, actual);
+		// the FHIS authority's "5" is not counted, as it is not an FHIS rating
+		assertEquals(5, actual.getCount(RatingHistogram.ordinalOf("5")));
+	}
+
+	@Test
+	public void testRowsAreVisitedGroupedByAuthority() throws IOException {
+		ColumnarEstablishmentStore.write(file, authorities);
+		List<String> rows = new ArrayList<>();
+
+		ColumnarEstablishmentStore.open(file).forEach((authorityId, establishmentId, scheme, ordinal) -> {
+			if (establishmentId == 300 || establishmentId == 703) {
+				rows.add(authorityId + "/" + establishmentId + "/" + scheme + "/" + ordinal);
+			}
+		});
+
+		assertEquals(Arrays.asList("3/300/FHIS/6", "7/703/FHRS/-1"), rows);
+	}
+
+	@Test
+	public void testFileWhichIsNotAStoreIsRejected() throws IOException {
+		Files.write(file, new byte[] { 1, 2, 3, 4, 5, 6, 7, 8 });
+
+		try {
+			ColumnarEstablishmentStore.open(file);
+			fail("IOException expected");
+		} catch (IOException e) {
+			assertEquals("Not a columnar establishment store", e.getMessage());
+		}
+	}
+
+	/**
+	 * Builds ratings for establishments with consecutive ids, cycling through the ratings given
+	 */
+	private static EstablishmentRatings buildRatings(RatingHistogram.Scheme scheme, long firstId, int count,
+			String... ratingValues) {
+		EstablishmentRatings ratings = new EstablishmentRatings();
+		for (int i = 0; i < count; i++) {
+			ratings.put(firstId + i, scheme, RatingHistogram.ordinalOf(ratingValues[i % ratingValues.length]));
+		}
+		return ratings;
+	}
+}
@@ -0,0 +1,91 @@
+package jl.fsaratings.store;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+
+import jl.fsaratings.dao.EstablishmentRatings;
+
+/**
+ * Keeps the last known rating of each establishment, one file per authority, so that
+ * incremental refreshes can carry on from where they left off after a restart.
+ *
+ * As with SnapshotStore, each file is rewritten in full via a temporary file, so a crash
+ * part way through a write never leaves a corrupt file behind, and a missing or
+ * unreadable file is treated as no ratings at all, since the ratings can always be
+ * fetched again in full.
+ *
+ * @author jonny.lyon
+ *
+ */
+public class EstablishmentRatingsStore {
+
+	/**
+	 * Identifies an establishment ratings file, "FSAE"
+	 */
+	private static final int MAGIC = 0x46534145;
+
+	private static final int VERSION = 1;
+
+	private final Path directory;
+
+	/**
+	 * Constructor for EstablishmentRatingsStore
+	 *
+	 * @param directory the directory to keep the files in, which need not exist yet
+	 */
+	public EstablishmentRatingsStore(Path directory) {
+		this.directory = directory;
+	}
+
+	/**
+	 * @param authorityId the authority to load
+	 * @return the ratings saved for the authority, or null if there are none or they cannot be read
+	 */
+	public EstablishmentRatings load(Long authorityId) {
+		try (DataInputStream in = new DataInputStream(new BufferedInputStream(Files.newInputStream(fileOf(authorityId))))) {
+			if (in.readInt() != MAGIC || in.readInt() != VERSION) {
+				return null;
+			}
+			return EstablishmentRatings.readFrom(in);
+		} catch (NoSuchFileException e) {
+			return null;
+		} catch (IOException e) {
+			// treat a truncated or unreadable file as missing; it will be rewritten
+			return null;
+		}
+	}
+
+	/**
+	 * Replaces the ratings saved for an authority
+	 *
+	 * @param authorityId the authority the ratings belong to
+	 * @param ratings the current ratings
+	 * @throws IOException if the file cannot be written
+	 */
+	public void save(Long authorityId, EstablishmentRatings ratings) throws IOException {
+		Files.createDirectories(directory);
+		Path file = fileOf(authorityId);
+		Path temp = Files.createTempFile(directory, file.getFileName().toString(), ".tmp");
+		try {
+			try (DataOutputStream out = new DataOutputStream(new BufferedOutputStream(Files.newOutputStream(temp)))) {
+				out.writeInt(MAGIC);
+				out.writeInt(VERSION);
+				ratings.writeTo(out);
+			}
+			Files.move(temp, file, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+		} finally {
+			Files.deleteIfExists(temp);
+		}
+	}
+
+	private Path fileOf(Long authorityId) {
+		return directory.resolve(authorityId + ".bin");
+	}
+}
@@ -0,0 +1,229 @@
+package jl.fsaratings.store;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInput;
+import java.io.DataInputStream;
+import java.io.DataOutput;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.UUID;
+
+/**
+ * Keeps what was made of each API response along with the response's validators (its
+ * ETag and Last-Modified headers), so that the next request for the same URL can be made
+ * conditional on them, and if the API answers 304 Not Modified, the value made last time
+ * can be used again without the body being sent or parsed.
+ *
+ * The values kept are whatever the caller makes of a response, e.g. rating counts rather
+ * than the establishments they were counted from, so they are far smaller than the
+ * responses.  Each is encoded for disk by a Codec supplied by the caller, and the codec's
+ * name forms part of the key, so that different things made of the same URL are kept
+ * apart.
+ *
+ * The most recently used entries are held in memory as well, already decoded.  Each entry
+ * is written to its own file via a temporary file, as in the other stores, and a missing
+ * or unreadable file is treated as no entry, since the response can always be fetched in
+ * full again.
+ *
+ * @author jonny.lyon
+ *
+ */
+public class HttpResponseCache {
+
+	/**
+	 * Identifies a response cache file, "FSAR"
+	 */
+	private static final int MAGIC = 0x46534152;
+
+	private static final int VERSION = 1;
+
+	private static final int DEFAULT_MAX_ENTRIES_IN_MEMORY = 256;
+
+	private final Path directory;
+
+	/**
+	 * Entries by key, least recently used first.  All access is synchronized on the map.
+	 */
+	private final Map<String, Entry<?>> entries;
+
+	/**
+	 * Constructor for HttpResponseCache, holding up to 256 entries in memory
+	 *
+	 * @param directory the directory to keep the files in, which need not exist yet
+	 */
+	public HttpResponseCache(Path directory) {
+		this(directory, DEFAULT_MAX_ENTRIES_IN_MEMORY);
+	}
+
+	/**
+	 * Constructor for HttpResponseCache
+	 *
+	 * @param directory the directory to keep the files in, which need not exist yet
+	 * @param maxEntriesInMemory the most entries held in memory; the rest are read from disk when needed
+	 */
+	public HttpResponseCache(Path directory, final int maxEntriesInMemory) {
+		this.directory = directory;
+		this.entries = new LinkedHashMap<String, Entry<?>>(16, 0.75f, true) {
+			@Override
+			protected boolean removeEldestEntry(Map.Entry<String, HttpResponseCache.Entry<?>> eldest) {
+				return size() > maxEntriesInMemory;
+			}
+		};
+	}
+
+	/**
+	 * @param url the URL the response was fetched from
+	 * @param codec what was made of the response
+	 * @return the entry for the URL, or null if there is none or it cannot be read
+	 */
+	@SuppressWarnings("unchecked")
+	public <T> Entry<T> get(String url, Codec<T> codec) {
+		String key = keyOf(url, codec);
+		synchronized (entries) {
+			Entry<?> entry = entries.get(key);
+			if (entry != null) {
+				return (Entry<T>) entry;
+			}
+		}
+
+		Entry<T> entry = read(key, codec);
+		if (entry != null) {
+			synchronized (entries) {
+				entries.putIfAbsent(key, entry);
+			}
+		}
+		return entry;
+	}
+
+	/**
+	 * Replaces the entry for a URL
+	 *
+	 * @param url the URL the response was fetched from
+	 * @param etag the ETag header of the response, or null if none
+	 * @param lastModified the Last-Modified header of the response, or null if none
+	 * @param value what was made of the response, which must not be changed afterwards
+	 * @param codec encodes the value for disk
+	 * @throws IOException if the entry cannot be written to disk; it is still held in memory
+	 */
+	public <T> void put(String url, String etag, String lastModified, T value, Codec<T> codec) throws IOException {
+		String key = keyOf(url, codec);
+		Entry<T> entry = new Entry<>(etag, lastModified, value);
+		synchronized (entries) {
+			entries.put(key, entry);
+		}
+
+		Files.createDirectories(directory);
+		Path file = fileOf(key);
+		Path temp = Files.createTempFile(directory, file.getFileName().toString(), ".tmp");
+		try {
+			try (DataOutputStream out = new DataOutputStream(new BufferedOutputStream(Files.newOutputStream(temp)))) {
+				out.writeInt(MAGIC);
+				out.writeInt(VERSION);
+				out.writeUTF(key);
+				writeNullable(out, etag);
+				writeNullable(out, lastModified);
+				codec.write(value, out);
+			}
+			Files.move(temp, file, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+		} finally {
+			Files.deleteIfExists(temp);
+		}
+	}
+
+	private <T> Entry<T> read(String key, Codec<T> codec) {
+		try (DataInputStream in = new DataInputStream(new BufferedInputStream(Files.newInputStream(fileOf(key))))) {
+			if (in.readInt() != MAGIC || in.readInt() != VERSION || !in.readUTF().equals(key)) {
+				return null;
+			}
+			String etag = readNullable(in);
+			String lastModified = readNullable(in);
+			return new Entry<>(etag, lastModified, codec.read(in));
+		} catch (NoSuchFileException e) {
+			return null;
+		} catch (IOException | RuntimeException e) {
+			// treat a truncated or unreadable file as missing; it will be rewritten
+			return null;
+		}
+	}
+
+	private static void writeNullable(DataOutput out, String value) throws IOException {
+		out.writeBoolean(value != null);
+		if (value != null) {
+			out.writeUTF(value);
+		}
+	}
+
+	private static String readNullable(DataInput in) throws IOException {
+		return in.readBoolean() ? in.readUTF() : null;
+	}
+
+	private static String keyOf(String url, Codec<?> codec) {
+		return codec.getName() + ' ' + url;
+	}
+
+	/**
+	 * URLs do not make good file names, so each file is named after a hash of its key, and
+	 * holds the key itself in case of a collision
+	 */
+	private Path fileOf(String key) {
+		return directory.resolve(UUID.nameUUIDFromBytes(key.getBytes(StandardCharsets.UTF_8)) + ".bin");
+	}
+
+	/**
+	 * Encodes what is made of a response, for keeping on disk
+	 */
+	public interface Codec<T> {
+		/**
+		 * @return a name for what is made of the response, unique among the codecs used with one cache
+		 */
+		String getName();
+
+		void write(T value, DataOutput out) throws IOException;
+
+		T read(DataInput in) throws IOException;
+	}
+
+	/**
+	 * What was made of a response, along with its validators
+	 */
+	public static final class Entry<T> {
+		private final String etag;
+		private final String lastModified;
+		private final T value;
+
+		private Entry(String etag, String lastModified, T value) {
+			this.etag = etag;
+			this.lastModified = lastModified;
+			this.value = value;
+		}
+
+		/**
+		 * @return the ETag header of the response, or null if none
+		 */
+		public String getEtag() {
+			return etag;
+		}
+
+		/**
+		 * @return the Last-Modified header of the response, or null if none
+		 */
+		public String getLastModified() {
+			return lastModified;
+		}
+
+		/**
+		 * @return what was made of the response, which must not be changed
+		 */
+		public T getValue() {
+			return value;
+		}
+	}
+}
@@ -0,0 +1,684 @@
+package jl.fsaratings.store;
+
+import java.io.ByteArrayOutputStream;
+import java.io.Closeable;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.OverlappingFileLockException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+import java.time.Instant;
+import java.time.LocalDate;
+import java.time.ZoneId;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeMap;
+import java.util.TreeSet;
+import java.util.concurrent.TimeUnit;
+import java.util.zip.CRC32;
+import java.util.zip.DataFormatException;
+import java.util.zip.Deflater;
+import java.util.zip.Inflater;
+
+import jl.fsaratings.dao.RatingHistogram;
+
+/**
+ * An append-only history of the rating counts of every authority, recorded each time they
+ * are fetched, for reporting on trends over months.
+ *
+ * Records are gathered in memory and appended to the file a block at a time.  Within a
+ * block the records are in time order, and every field is stored as a varint of its
+ * difference from the one before: the time from the previous record's, the authority id
+ * from the previous record's, and each count from the same authority's previous counts in
+ * the block.  Since counts change little between refreshes, most of these are zero, and
+ * the block is then compressed with Deflate, so a record typically takes a few bytes.
+ * Each block starts with the counts in full, so it can be read on its own.
+ *
+ * Ahead of each block's compressed records is a small header giving its time range and
+ * the ids of the authorities in it.  The headers are read when the store is opened, and
+ * kept in memory as a time index, so a query only reads and decompresses the blocks it
+ * needs: the history of one authority over a period reads the blocks of the period which
+ * hold the authority, and the counts of every authority at a date read the blocks before
+ * the date, newest first, until every authority has been found, which for regular
+ * refreshes is the last few.
+ *
+ * Blocks are never rewritten.  A block only partly written when the process died is
+ * found when the store is next opened, and cut off.  Records not yet written are lost if
+ * the process dies, so {@link #flush()} should be called before exit; the records are also
+ * written once a block fills up, and by the first append after {@link #MAX_PENDING_MILLIS}.
+ *
+ * A store open for writing is locked, so only one process can record to it at a time.  It
+ * can still be opened read only, for example to query it while the application is running;
+ * this takes no lock and changes nothing, and sees the blocks written before it was opened.
+ * Instances are thread safe.
+ *
+ * @author jonny.lyon
+ *
+ */
+public class RatingHistoryStore implements Closeable {
+
+	/**
+	 * Identifies a history store, "FSAH"
+	 */
+	private static final int MAGIC = 0x46534148;
+
+	private static final int VERSION = 1;
+
+	private static final int FILE_HEADER_BYTES = 8;
+
+	/**
+	 * The fixed part of a block header: the first and last times, the number of records,
+	 * the lengths of the authority ids, of the compressed records and of the records
+	 * uncompressed, and the CRC of the ids and compressed records
+	 */
+	private static final int BLOCK_HEADER_BYTES = 8 + 8 + 4 + 4 + 4 + 4 + 4;
+
+	private static final int DEFAULT_BLOCK_RECORDS = 1024;
+
+	/**
+	 * The longest records are held in memory before being written, in milliseconds
+	 */
+	public static final long MAX_PENDING_MILLIS = TimeUnit.HOURS.toMillis(1);
+
+	private final FileChannel channel;
+
+	private final int blockRecords;
+
+	private final boolean readOnly;
+
+	/**
+	 * All of the following are guarded by this
+	 */
+	private final List<Block> blocks = new ArrayList<>();
+	private final List<Record> pending = new ArrayList<>();
+	private long size;
+	private boolean closed;
+
+	private RatingHistoryStore(FileChannel channel, int blockRecords, boolean readOnly) {
+		this.channel = channel;
+		this.blockRecords = blockRecords;
+		this.readOnly = readOnly;
+	}
+
+	/**
+	 * Opens a store for writing, creating it if it does not exist, and reads its time index.
+	 * The store is locked until it is closed.
+	 *
+	 * @param file the store file
+	 * @return the store
+	 * @throws IOException if the file cannot be read or written, is not a store, or is
+	 * already open for writing
+	 */
+	public static RatingHistoryStore open(Path file) throws IOException {
+		return open(file, DEFAULT_BLOCK_RECORDS);
+	}
+
+	/**
+	 * As {@link #open(Path)}, writing blocks of the number of records given, for test purposes
+	 */
+	static RatingHistoryStore open(Path file, int blockRecords) throws IOException {
+		Path parent = file.toAbsolutePath().getParent();
+		Files.createDirectories(parent);
+		FileChannel channel = FileChannel.open(file, StandardOpenOption.CREATE, StandardOpenOption.READ,
+				StandardOpenOption.WRITE);
+		try {
+			if (channel.tryLock() == null) {
+				throw new IOException("Rating history store " + file + " is in use by another process");
+			}
+		} catch (OverlappingFileLockException e) {
+			channel.close();
+			throw new IOException("Rating history store " + file + " is already open", e);
+		} catch (IOException | RuntimeException e) {
+			channel.close();
+			throw e;
+		}
+		return readIndex(new RatingHistoryStore(channel, blockRecords, false));
+	}
+
+	/**
+	 * Opens an existing store read only, and reads its time index.  The file is not locked
+	 * or changed, so this may be done while another process has it open for writing; a
+	 * block it is part way through writing is skipped.
+	 *
+	 * @param file the store file
+	 * @return the store, which cannot be appended to
+	 * @throws IOException if the file does not exist, cannot be read, or is not a store
+	 */
+	public static RatingHistoryStore openReadOnly(Path file) throws IOException {
+		FileChannel channel = FileChannel.open(file, StandardOpenOption.READ);
+		return readIndex(new RatingHistoryStore(channel, DEFAULT_BLOCK_RECORDS, true));
+	}
+
+	private static RatingHistoryStore readIndex(RatingHistoryStore store) throws IOException {
+		try {
+			store.readIndex();
+		} catch (IOException | RuntimeException e) {
+			store.channel.close();
+			throw e;
+		}
+		return store;
+	}
+
+	/**
+	 * Records the counts of an authority.  Records are expected in roughly time order; a
+	 * record older than the last one written is kept, but stored at the time of that one.
+	 *
+	 * @param time when the counts were fetched, in milliseconds since the epoch
+	 * @param authorityId the authority
+	 * @param counts its counts
+	 * @throws IOException if a block is due to be written and cannot be, or the store is read only
+	 */
+	public synchronized void append(long time, Long authorityId, RatingHistogram counts) throws IOException {
+		ensureOpen();
+		if (readOnly) {
+			throw new IOException("Rating history store is open read only");
+		}
+		if (!blocks.isEmpty()) {
+			time = Math.max(time, blocks.get(blocks.size() - 1).maxTime);
+		}
+		pending.add(new Record(time, authorityId, counts.copy()));
+		if (pending.size() >= blockRecords || time - pending.get(0).time >= MAX_PENDING_MILLIS) {
+			flush();
+		}
+	}
+
+	/**
+	 * Writes the records held in memory to the file as a new block, if there are any
+	 *
+	 * @throws IOException if the block cannot be written
+	 */
+	public synchronized void flush() throws IOException {
+		ensureOpen();
+		if (pending.isEmpty()) {
+			return;
+		}
+		pending.sort(Comparator.comparingLong((Record r) -> r.time).thenComparing(r -> r.authorityId));
+		Block block = writeBlock(pending);
+		blocks.add(block);
+		pending.clear();
+	}
+
+	/**
+	 * Flushes the records held in memory and closes the file
+	 *
+	 * @throws IOException if the records cannot be written
+	 */
+	@Override
+	public synchronized void close() throws IOException {
+		if (closed) {
+			return;
+		}
+		try {
+			flush();
+		} finally {
+			closed = true;
+			channel.close();
+		}
+	}
+
+	/**
+	 * Gets the counts recorded for one authority over a period
+	 *
+	 * @param authorityId the authority
+	 * @param from the start of the period, inclusive, in milliseconds since the epoch
+	 * @param to the end of the period, inclusive
+	 * @return the counts recorded in the period, oldest first
+	 * @throws IOException if a block cannot be read
+	 */
+	public synchronized List<Sample> getHistory(Long authorityId, long from, long to) throws IOException {
+		ensureOpen();
+		List<Sample> samples = new ArrayList<>();
+		for (Block block : blocks) {
+			if (block.maxTime >= from && block.minTime <= to && block.contains(authorityId)) {
+				for (Record record : readBlock(block)) {
+					if (record.authorityId.equals(authorityId) && record.time >= from && record.time <= to) {
+						samples.add(new Sample(record.time, record.counts));
+					}
+				}
+			}
+		}
+		for (Record record : sortedPending()) {
+			if (record.authorityId.equals(authorityId) && record.time >= from && record.time <= to) {
+				samples.add(new Sample(record.time, record.counts.copy()));
+			}
+		}
+		return samples;
+	}
+
+	/**
+	 * Gets the counts of every authority as they were last recorded at a given time
+	 *
+	 * @param time the time, in milliseconds since the epoch
+	 * @return the latest counts of each authority recorded at or before the time, by
+	 * authority id, in ascending order
+	 * @throws IOException if a block cannot be read
+	 */
+	public synchronized Map<Long, RatingHistogram> getCountsAt(long time) throws IOException {
+		ensureOpen();
+		Map<Long, RatingHistogram> result = new TreeMap<>();
+		List<Record> newestFirst = sortedPending();
+		newestFirst.sort(Comparator.comparingLong((Record r) -> r.time).reversed());
+		takeLatest(newestFirst, time, result);
+
+		// every authority in a block wholly before the time must be found
+		Set<Long> expected = new HashSet<>();
+		for (Block block : blocks) {
+			if (block.maxTime <= time) {
+				for (long authorityId : block.authorityIds) {
+					expected.add(authorityId);
+				}
+			}
+		}
+		// blocks do not overlap in time, so are read newest first
+		for (int i = blocks.size() - 1; i >= 0; i--) {
+			Block block = blocks.get(i);
+			if (block.minTime > time) {
+				continue;
+			}
+			if (block.maxTime <= time && result.keySet().containsAll(expected)) {
+				break;
+			}
+			takeLatest(reversed(readBlock(block)), time, result);
+		}
+		return result;
+	}
+
+	/**
+	 * @return the number of blocks written, for test purposes
+	 */
+	synchronized int getBlockCount() {
+		return blocks.size();
+	}
+
+	private static void takeLatest(List<Record> newestFirst, long time, Map<Long, RatingHistogram> result) {
+		for (Record record : newestFirst) {
+			if (record.time <= time && !result.containsKey(record.authorityId)) {
+				result.put(record.authorityId, record.counts.copy());
+			}
+		}
+	}
+
+	private static List<Record> reversed(List<Record> records) {
+		List<Record> result = new ArrayList<>(records.size());
+		for (int i = records.size() - 1; i >= 0; i--) {
+			result.add(records.get(i));
+		}
+		return result;
+	}
+
+	private List<Record> sortedPending() {
+		List<Record> sorted = new ArrayList<>(pending);
+		sorted.sort(Comparator.comparingLong((Record r) -> r.time));
+		return sorted;
+	}
+
+	private void ensureOpen() throws IOException {
+		if (closed) {
+			throw new IOException("Rating history store is closed");
+		}
+	}
+
+	/**
+	 * Reads the header of the file and of every block in it, cutting off a block at the end
+	 * which was only partly written, or if read only just leaving it out of the index
+	 */
+	private void readIndex() throws IOException {
+		long fileSize = channel.size();
+		if (fileSize < FILE_HEADER_BYTES && readOnly) {
+			// the header is still being written
+			size = fileSize;
+			return;
+		} else if (fileSize < FILE_HEADER_BYTES) {
+			// new, or the header itself was only partly written
+			ByteBuffer header = ByteBuffer.allocate(FILE_HEADER_BYTES);
+			header.putInt(MAGIC).putInt(VERSION).flip();
+			channel.truncate(0);
+			writeFully(header, 0);
+			channel.force(false);
+			size = FILE_HEADER_BYTES;
+			return;
+		}
+		ByteBuffer header = readFully(0, FILE_HEADER_BYTES);
+		if (header.getInt() != MAGIC || header.getInt() != VERSION) {
+			throw new IOException("Not a rating history store");
+		}
+
+		long position = FILE_HEADER_BYTES;
+		while (position + BLOCK_HEADER_BYTES <= fileSize) {
+			ByteBuffer blockHeader = readFully(position, BLOCK_HEADER_BYTES);
+			long minTime = blockHeader.getLong();
+			long maxTime = blockHeader.getLong();
+			int recordCount = blockHeader.getInt();
+			int idsLength = blockHeader.getInt();
+			int payloadLength = blockHeader.getInt();
+			int rawLength = blockHeader.getInt();
+			int crc = blockHeader.getInt();
+			long end = position + BLOCK_HEADER_BYTES + (long) idsLength + payloadLength;
+			if (idsLength < 0 || payloadLength < 0 || end > fileSize) {
+				break;
+			}
+			byte[] ids = new byte[idsLength];
+			readFully(position + BLOCK_HEADER_BYTES, idsLength).get(ids);
+			long[] authorityIds = readIds(ids);
+			blocks.add(new Block(minTime, maxTime, recordCount, authorityIds, ids, position + BLOCK_HEADER_BYTES + idsLength,
+					payloadLength, rawLength, crc));
+			position = end;
+		}
+		if (position < fileSize && !readOnly) {
+			channel.truncate(position);
+		}
+		size = position;
+	}
+
+	private Block writeBlock(List<Record> records) throws IOException {
+		TreeSet<Long> authoritySet = new TreeSet<>();
+		records.forEach(record -> authoritySet.add(record.authorityId));
+		long[] authorityIds = new long[authoritySet.size()];
+		ByteArrayOutputStream ids = new ByteArrayOutputStream();
+		int i = 0;
+		long previousId = 0;
+		for (Long authorityId : authoritySet) {
+			authorityIds[i++] = authorityId;
+			writeVarLong(ids, zigzag(authorityId - previousId));
+			previousId = authorityId;
+		}
+
+		long minTime = records.get(0).time;
+		long maxTime = records.get(records.size() - 1).time;
+		ByteArrayOutputStream raw = new ByteArrayOutputStream(records.size() * 16);
+		Map<Long, long[]> previousCounts = new HashMap<>();
+		long previousTime = minTime;
+		previousId = 0;
+		for (Record record : records) {
+			writeVarLong(raw, record.time - previousTime);
+			writeVarLong(raw, zigzag(record.authorityId - previousId));
+			writeVarLong(raw, record.counts.getSchemeBits());
+			long[] previous = previousCounts.computeIfAbsent(record.authorityId, id -> new long[RatingHistogram.RATING_COUNT]);
+			for (int ordinal = 0; ordinal < RatingHistogram.RATING_COUNT; ordinal++) {
+				long count = record.counts.getCount(ordinal);
+				writeVarLong(raw, zigzag(count - previous[ordinal]));
+				previous[ordinal] = count;
+			}
+			previousTime = record.time;
+			previousId = record.authorityId;
+		}
+
+		byte[] rawBytes = raw.toByteArray();
+		byte[] payload = deflate(rawBytes);
+		byte[] idBytes = ids.toByteArray();
+		CRC32 crc = new CRC32();
+		crc.update(idBytes);
+		crc.update(payload);
+
+		ByteBuffer block = ByteBuffer.allocate(BLOCK_HEADER_BYTES + idBytes.length + payload.length);
+		block.putLong(minTime).putLong(maxTime).putInt(records.size()).putInt(idBytes.length).putInt(payload.length)
+				.putInt(rawBytes.length).putInt((int) crc.getValue()).put(idBytes).put(payload).flip();
+		long position = size;
+		writeFully(block, position);
+		channel.force(false);
+		size = position + block.capacity();
+		return new Block(minTime, maxTime, records.size(), authorityIds, idBytes,
+				position + BLOCK_HEADER_BYTES + idBytes.length, payload.length, rawBytes.length, (int) crc.getValue());
+	}
+
+	private List<Record> readBlock(Block block) throws IOException {
+		byte[] payload = new byte[block.payloadLength];
+		readFully(block.payloadOffset, block.payloadLength).get(payload);
+		CRC32 crc = new CRC32();
+		crc.update(block.ids);
+		crc.update(payload);
+		if ((int) crc.getValue() != block.crc) {
+			throw new IOException("Rating history block at " + block.payloadOffset + " is corrupt");
+		}
+		ByteBuffer raw = ByteBuffer.wrap(inflate(payload, block.rawLength));
+
+		List<Record> records = new ArrayList<>(block.recordCount);
+		Map<Long, long[]> previousCounts = new HashMap<>();
+		long time = block.minTime;
+		long authorityId = 0;
+		for (int i = 0; i < block.recordCount; i++) {
+			time += readVarLong(raw);
+			authorityId += unzigzag(readVarLong(raw));
+			RatingHistogram counts = new RatingHistogram();
+			counts.addSchemeBits((int) readVarLong(raw));
+			long[] previous = previousCounts.computeIfAbsent(authorityId, id -> new long[RatingHistogram.RATING_COUNT]);
+			for (int ordinal = 0; ordinal < RatingHistogram.RATING_COUNT; ordinal++) {
+				previous[ordinal] += unzigzag(readVarLong(raw));
+				counts.add(ordinal, previous[ordinal]);
+			}
+			records.add(new Record(time, authorityId, counts));
+		}
+		return records;
+	}
+
+	private static long[] readIds(byte[] ids) throws IOException {
+		List<Long> result = new ArrayList<>();
+		long id = 0;
+		ByteBuffer in = ByteBuffer.wrap(ids);
+		while (in.hasRemaining()) {
+			id += unzigzag(readVarLong(in));
+			result.add(id);
+		}
+		long[] array = new long[result.size()];
+		for (int i = 0; i < array.length; i++) {
+			array[i] = result.get(i);
+		}
+		return array;
+	}
+
+	private static byte[] deflate(byte[] raw) {
+		Deflater deflater = new Deflater(Deflater.BEST_COMPRESSION);
+		try {
+			deflater.setInput(raw);
+			deflater.finish();
+			ByteArrayOutputStream out = new ByteArrayOutputStream(raw.length / 4 + 16);
+			byte[] buffer = new byte[8192];
+			while (!deflater.finished()) {
+				out.write(buffer, 0, deflater.deflate(buffer));
+			}
+			return out.toByteArray();
+		} finally {
+			deflater.end();
+		}
+	}
+
+	private static byte[] inflate(byte[] compressed, int rawLength) throws IOException {
+		Inflater inflater = new Inflater();
+		try {
+			inflater.setInput(compressed);
+			byte[] raw = new byte[rawLength];
+			int length = 0;
+			while (length < rawLength && !inflater.finished()) {
+				int inflated = inflater.inflate(raw, length, rawLength - length);
+				if (inflated == 0 && (inflater.needsInput() || inflater.needsDictionary())) {
+					break;
+				}
+				length += inflated;
+			}
+			if (length != rawLength) {
+				throw new IOException("Rating history block is truncated");
+			}
+			return raw;
+		} catch (DataFormatException e) {
+			throw new IOException("Rating history block is corrupt", e);
+		} finally {
+			inflater.end();
+		}
+	}
+
+	private ByteBuffer readFully(long position, int length) throws IOException {
+		ByteBuffer buffer = ByteBuffer.allocate(length);
+		while (buffer.hasRemaining()) {
+			if (channel.read(buffer, position + buffer.position()) < 0) {
+				throw new IOException("Rating history store is truncated");
+			}
+		}
+		buffer.flip();
+		return buffer;
+	}
+
+	private void writeFully(ByteBuffer buffer, long position) throws IOException {
+		while (buffer.hasRemaining()) {
+			channel.write(buffer, position + buffer.position());
+		}
+	}
+
+	/**
+	 * Writes an unsigned varint: seven bits a byte, least significant first, with the top
+	 * bit set on every byte but the last
+	 */
+	static void writeVarLong(ByteArrayOutputStream out, long value) {
+		while ((value & ~0x7FL) != 0) {
+			out.write((int) (value & 0x7F) | 0x80);
+			value >>>= 7;
+		}
+		out.write((int) value);
+	}
+
+	static long readVarLong(ByteBuffer in) throws IOException {
+		long value = 0;
+		for (int shift = 0; shift < 64; shift += 7) {
+			if (!in.hasRemaining()) {
+				throw new IOException("Rating history varint is truncated");
+			}
+			byte b = in.get();
+			value |= (long) (b & 0x7F) << shift;
+			if (b >= 0) {
+				return value;
+			}
+		}
+		throw new IOException("Rating history varint is too long");
+	}
+
+	/**
+	 * Maps signed values to unsigned ones so that small differences either way stay small
+	 */
+	static long zigzag(long value) {
+		return (value << 1) ^ (value >> 63);
+	}
+
+	static long unzigzag(long value) {
+		return (value >>> 1) ^ -(value & 1);
+	}
+
+	/**
+	 * Queries a store.
+	 *
+	 * Usage: history authority &lt;file&gt; &lt;authority id&gt; [days], to print the
+	 * distributions recorded for an authority over the last year or the number of days
+	 * given, or history at &lt;file&gt; &lt;yyyy-mm-dd&gt;, to print the distribution of
+	 * every authority at the end of the date given.
+	 *
+	 * @param args the command line arguments, excluding the leading "history"
+	 */
+	public static void main(String[] args) throws Exception {
+		if (args.length < 3 || !(args[0].equals("authority") || args[0].equals("at"))) {
+			System.err.println("Usage: history authority <file> <authority id> [days] | history at <file> <yyyy-mm-dd>");
+			System.exit(1);
+		}
+		try (RatingHistoryStore store = openReadOnly(Paths.get(args[1]))) {
+			if (args[0].equals("authority")) {
+				long days = args.length > 3 ? Long.parseLong(args[3]) : 365;
+				long to = System.currentTimeMillis();
+				long from = to - TimeUnit.DAYS.toMillis(days);
+				for (Sample sample : store.getHistory(Long.valueOf(args[2]), from, to)) {
+					System.out.println(Instant.ofEpochMilli(sample.getTime()) + ": " + sample.getCounts().toPercentages());
+				}
+			} else {
+				long time = LocalDate.parse(args[2]).plusDays(1).atStartOfDay(ZoneId.systemDefault()).toInstant()
+						.toEpochMilli() - 1;
+				for (Map.Entry<Long, RatingHistogram> entry : store.getCountsAt(time).entrySet()) {
+					System.out.println(entry.getKey() + ": " + entry.getValue().toPercentages());
+				}
+			}
+		}
+	}
+
+	/**
+	 * One recorded set of counts
+	 */
+	private static final class Record {
+		private final long time;
+		private final Long authorityId;
+		private final RatingHistogram counts;
+
+		private Record(long time, Long authorityId, RatingHistogram counts) {
+			this.time = time;
+			this.authorityId = authorityId;
+			this.counts = counts;
+		}
+	}
+
+	/**
+	 * The time index entry of one block written to the file
+	 */
+	private static final class Block {
+		private final long minTime;
+		private final long maxTime;
+		private final int recordCount;
+		private final long[] authorityIds;
+		private final byte[] ids;
+		private final long payloadOffset;
+		private final int payloadLength;
+		private final int rawLength;
+		private final int crc;
+
+		private Block(long minTime, long maxTime, int recordCount, long[] authorityIds, byte[] ids,
+				long payloadOffset, int payloadLength, int rawLength, int crc) {
+			this.minTime = minTime;
+			this.maxTime = maxTime;
+			this.recordCount = recordCount;
+			this.authorityIds = authorityIds;
+			this.ids = ids;
+			this.payloadOffset = payloadOffset;
+			this.payloadLength = payloadLength;
+			this.rawLength = rawLength;
+			this.crc = crc;
+		}
+
+		private boolean contains(Long authorityId) {
+			return Arrays.binarySearch(authorityIds, authorityId) >= 0;
+		}
+	}
+
+	/**
+	 * The counts of an authority recorded at one time
+	 */
+	public static final class Sample {
+		private final long time;
+		private final RatingHistogram counts;
+
+		private Sample(long time, RatingHistogram counts) {
+			this.time = time;
+			this.counts = counts;
+		}
+
+		/**
+		 * @return when the counts were recorded, in milliseconds since the epoch
+		 */
+		public long getTime() {
+			return time;
+		}
+
+		/**
+		 * @return the counts
+		 */
+		public RatingHistogram getCounts() {
+			return counts;
+		}
+
+		@Override
+		public String toString() {
+			return time + " " + counts;
+		}
+	}
+}
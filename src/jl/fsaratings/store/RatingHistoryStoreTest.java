@@ -0,0 +1,212 @@
+package jl.fsaratings.store;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
+import java.util.stream.Collectors;
+
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import jl.fsaratings.dao.RatingHistogram;
+
+/**
+ * Test class for RatingHistoryStore, recording to a temporary folder and reading back
+ *
+ * @author jonny.lyon
+ *
+ */
+public class RatingHistoryStoreTest {
+
+	private static final long MINUTE = 60L * 1000;
+
+	private static final long DAY = 24 * 60 * MINUTE;
+
+	@Rule
+	public TemporaryFolder folder = new TemporaryFolder();
+
+	private Path file;
+
+	@Before
+	public void setUp() {
+		file = folder.getRoot().toPath().resolve("history.bin");
+	}
+
+	@Test
+	public void testHistoryOfOneAuthorityIsReadBackOverAPeriod() throws IOException {
+		try (RatingHistoryStore instance = RatingHistoryStore.open(file, 4)) {
+			for (int minute = 0; minute < 10; minute++) {
+				instance.append(minute * MINUTE, 1L, fhrs(100 + minute, 5));
+				instance.append(minute * MINUTE, 2L, fhrs(50, minute));
+			}
+			// ten minutes of two authorities, in blocks of four
+			assertEquals(5, instance.getBlockCount());
+
+			List<RatingHistoryStore.Sample> history = instance.getHistory(2L, 3 * MINUTE, 9 * MINUTE);
+			assertEquals(Arrays.asList(3 * MINUTE, 4 * MINUTE, 5 * MINUTE, 6 * MINUTE, 7 * MINUTE, 8 * MINUTE, 9 * MINUTE),
+					history.stream().map(RatingHistoryStore.Sample::getTime).collect(Collectors.toList()));
+			assertEquals(fhrs(50, 9), history.get(6).getCounts());
+		}
+
+		try (RatingHistoryStore reopened = RatingHistoryStore.open(file, 4)) {
+			assertEquals(fhrs(109, 5), reopened.getHistory(1L, 9 * MINUTE, 9 * MINUTE).get(0).getCounts());
+			assertEquals(10, reopened.getHistory(1L, 0, Long.MAX_VALUE).size());
+		}
+	}
+
+	@Test
+	public void testCountsOfEveryAuthorityAtATimeAreTheLatestBeforeIt() throws IOException {
+		try (RatingHistoryStore instance = RatingHistoryStore.open(file, 2)) {
+			instance.append(0, 1L, fhrs(1, 0));
+			instance.append(0, 2L, fhis(7));
+			instance.append(DAY, 1L, fhrs(2, 0));
+			instance.append(2 * DAY, 3L, fhrs(3, 3));
+			instance.append(3 * DAY, 1L, fhrs(4, 0));
+			instance.append(4 * DAY, 2L, fhis(8));
+
+			Map<Long, RatingHistogram> counts = instance.getCountsAt(2 * DAY + 1);
+			assertEquals(Arrays.asList(1L, 2L, 3L), Arrays.asList(counts.keySet().toArray()));
+			assertEquals(fhrs(2, 0), counts.get(1L));
+			assertEquals(fhis(7), counts.get(2L));
+			assertEquals(fhrs(3, 3), counts.get(3L));
+
+			assertEquals(fhis(8), instance.getCountsAt(Long.MAX_VALUE).get(2L));
+			assertTrue(instance.getCountsAt(-1).isEmpty());
+		}
+	}
+
+	@Test
+	public void testRepeatedCountsCompressToAFewBytesEach() throws IOException {
+		try (RatingHistoryStore instance = RatingHistoryStore.open(file)) {
+			for (int day = 0; day < 365; day++) {
+				for (long authorityId = 1; authorityId <= 400; authorityId++) {
+					instance.append(day * DAY + authorityId, authorityId, fhrs(1000 + authorityId + day / 30, 40));
+				}
+			}
+		}
+		// nine counts and a time in full would take over 80 bytes a record
+		long bytesPerRecord = Files.size(file) / (365 * 400);
+		assertTrue("bytes per record " + bytesPerRecord, bytesPerRecord < 4);
+	}
+
+	@Test
+	public void testBlockOnlyPartlyWrittenIsCutOff() throws IOException {
+		try (RatingHistoryStore instance = RatingHistoryStore.open(file, 1)) {
+			instance.append(0, 1L, fhrs(1, 0));
+			instance.append(DAY, 1L, fhrs(2, 0));
+		}
+		long size = Files.size(file);
+		try (FileChannel channel = FileChannel.open(file, StandardOpenOption.WRITE)) {
+			channel.truncate(size - 3);
+		}
+
+		try (RatingHistoryStore instance = RatingHistoryStore.open(file, 1)) {
+			assertEquals(1, instance.getBlockCount());
+			instance.append(2 * DAY, 1L, fhrs(3, 0));
+		}
+		try (RatingHistoryStore instance = RatingHistoryStore.open(file, 1)) {
+			assertEquals(Arrays.asList(fhrs(1, 0), fhrs(3, 0)), instance.getHistory(1L, 0, Long.MAX_VALUE).stream()
+					.map(RatingHistoryStore.Sample::getCounts).collect(Collectors.toList()));
+		}
+	}
+
+	@Test
+	public void testStoreOpenForWritingCannotBeOpenedForWritingAgain() throws IOException {
+		try (RatingHistoryStore instance = RatingHistoryStore.open(file)) {
+			try {
+				RatingHistoryStore.open(file);
+				fail("Expected IOException");
+			} catch (IOException e) {
+				// expected
+			}
+			instance.append(0, 1L, fhrs(1, 0));
+		}
+		try (RatingHistoryStore instance = RatingHistoryStore.open(file)) {
+			assertEquals(1, instance.getHistory(1L, 0, Long.MAX_VALUE).size());
+		}
+	}
+
+	@Test
+	public void testReadOnlyStoreSkipsPartBlockWithoutChangingTheFile() throws IOException {
+		try (RatingHistoryStore instance = RatingHistoryStore.open(file, 1)) {
+			instance.append(0, 1L, fhrs(1, 0));
+			instance.append(DAY, 1L, fhrs(2, 0));
+		}
+		long size = Files.size(file);
+		try (FileChannel channel = FileChannel.open(file, StandardOpenOption.WRITE)) {
+			channel.truncate(size - 3);
+		}
+
+		try (RatingHistoryStore reader = RatingHistoryStore.openReadOnly(file)) {
+			assertEquals(Arrays.asList(fhrs(1, 0)), reader.getHistory(1L, 0, Long.MAX_VALUE).stream()
+					.map(RatingHistoryStore.Sample::getCounts).collect(Collectors.toList()));
+			try {
+				reader.append(2 * DAY, 1L, fhrs(3, 0));
+				fail("Expected IOException");
+			} catch (IOException e) {
+				// expected
+			}
+		}
+		assertEquals(size - 3, Files.size(file));
+
+		// and alongside a store open for writing
+		try (RatingHistoryStore writer = RatingHistoryStore.open(file, 1);
+				RatingHistoryStore reader = RatingHistoryStore.openReadOnly(file)) {
+			assertEquals(writer.getBlockCount(), reader.getBlockCount());
+			assertEquals(1, reader.getBlockCount());
+		}
+	}
+
+	@Test
+	public void testFileWhichIsNotAStoreIsRejected() throws IOException {
+		Files.write(file, "not a history store".getBytes("UTF-8"));
+		try {
+			RatingHistoryStore.open(file);
+			fail("Expected IOException");
+		} catch (IOException e) {
+			// expected
+		}
+	}
+
+	@Test
+	public void testVarintsAndZigzagRoundTrip() throws IOException {
+		long[] values = { 0, 1, -1, 63, -64, 64, 300, -300, Long.MAX_VALUE, Long.MIN_VALUE };
+		ByteArrayOutputStream out = new ByteArrayOutputStream();
+		for (long value : values) {
+			RatingHistoryStore.writeVarLong(out, RatingHistoryStore.zigzag(value));
+		}
+		ByteBuffer in = ByteBuffer.wrap(out.toByteArray());
+		for (long value : values) {
+			assertEquals(value, RatingHistoryStore.unzigzag(RatingHistoryStore.readVarLong(in)));
+		}
+		// small differences either way stay small
+		assertEquals(1, RatingHistoryStore.zigzag(-1));
+		assertEquals(2, RatingHistoryStore.zigzag(1));
+	}
+
+	private static RatingHistogram fhrs(long fiveStar, long zeroStar) {
+		RatingHistogram histogram = new RatingHistogram(RatingHistogram.Scheme.FHRS);
+		histogram.add(RatingHistogram.ordinalOf("5"), fiveStar);
+		histogram.add(RatingHistogram.ordinalOf("0"), zeroStar);
+		return histogram;
+	}
+
+	private static RatingHistogram fhis(long pass) {
+		RatingHistogram histogram = new RatingHistogram(RatingHistogram.Scheme.FHIS);
+		histogram.add(RatingHistogram.ordinalOf("Pass"), pass);
+		return histogram;
+	}
+}
@@ -0,0 +1,170 @@
+package jl.fsaratings.store;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.TreeMap;
+
+import jl.fsaratings.dao.RatingHistogram;
+
+/**
+ * Keeps the last known authorities map and rating counts in a compact binary file,
+ * so that the app can start without waiting for the API and can keep working while the
+ * API is unreachable.
+ *
+ * The whole snapshot is small (a few hundred authorities) so it is held in memory once
+ * loaded, and the file is rewritten in full on each change.  Writes go to a temporary file
+ * which is then moved over the old one, so a crash part way through a write never leaves
+ * a corrupt snapshot behind.
+ *
+ * @author jonny.lyon
+ *
+ */
+public class SnapshotStore {
+
+	/**
+	 * Identifies a snapshot file, "FSAS"
+	 */
+	private static final int MAGIC = 0x46534153;
+
+	private static final int VERSION = 2;
+
+	private final Path file;
+
+	private Map<String, Long> authorities;
+
+	private Map<Long, RatingHistogram> counts;
+
+	/**
+	 * Constructor for SnapshotStore.  The file is not read until the snapshot is first used.
+	 *
+	 * @param file the snapshot file, which need not exist yet
+	 */
+	public SnapshotStore(Path file) {
+		this.file = file;
+	}
+
+	/**
+	 * @return the authorities map from the snapshot, empty if none has been saved
+	 */
+	public synchronized Map<String, Long> getAuthorities() {
+		ensureLoaded();
+		return Collections.unmodifiableMap(authorities);
+	}
+
+	/**
+	 * @param authorityId the authority to look up
+	 * @return a copy of the rating counts saved for the authority, or null if there are none
+	 */
+	public synchronized RatingHistogram getCounts(Long authorityId) {
+		ensureLoaded();
+		RatingHistogram histogram = counts.get(authorityId);
+		return histogram == null ? null : histogram.copy();
+	}
+
+	/**
+	 * Replaces the authorities map in the snapshot and writes it to disk
+	 *
+	 * @param authorities the current authorities map
+	 * @throws IOException if the snapshot file cannot be written
+	 */
+	public synchronized void saveAuthorities(Map<String, Long> authorities) throws IOException {
+		ensureLoaded();
+		this.authorities = new TreeMap<>(authorities);
+		write();
+	}
+
+	/**
+	 * Replaces the rating counts for one authority in the snapshot and writes it to disk
+	 *
+	 * @param authorityId the authority the counts belong to
+	 * @param histogram the current counts
+	 * @throws IOException if the snapshot file cannot be written
+	 */
+	public synchronized void saveCounts(Long authorityId, RatingHistogram histogram) throws IOException {
+		ensureLoaded();
+		counts.put(authorityId, histogram.copy());
+		write();
+	}
+
+	/**
+	 * Reads the snapshot file if that has not been done yet.  A missing, unreadable or
+	 * unrecognised file is treated as an empty snapshot, since the snapshot is only ever
+	 * an optimisation.
+	 */
+	private void ensureLoaded() {
+		if (authorities != null) {
+			return;
+		}
+		authorities = new TreeMap<>();
+		counts = new HashMap<>();
+		try (DataInputStream in = new DataInputStream(new BufferedInputStream(Files.newInputStream(file)))) {
+			if (in.readInt() != MAGIC || in.readInt() != VERSION) {
+				return;
+			}
+			Map<String, Long> loadedAuthorities = new TreeMap<>();
+			int authorityCount = in.readInt();
+			for (int i = 0; i < authorityCount; i++) {
+				String name = in.readUTF();
+				loadedAuthorities.put(name, in.readLong());
+			}
+
+			Map<Long, RatingHistogram> loadedCounts = new HashMap<>();
+			int histogramCount = in.readInt();
+			for (int i = 0; i < histogramCount; i++) {
+				Long authorityId = in.readLong();
+				RatingHistogram histogram = new RatingHistogram();
+				histogram.addSchemeBits(in.readByte());
+				for (int ordinal = 0; ordinal < RatingHistogram.RATING_COUNT; ordinal++) {
+					histogram.add(ordinal, in.readLong());
+				}
+				loadedCounts.put(authorityId, histogram);
+			}
+
+			authorities = loadedAuthorities;
+			counts = loadedCounts;
+		} catch (NoSuchFileException e) {
+			// no snapshot yet
+		} catch (IOException e) {
+			// treat a truncated or unreadable snapshot as empty; it will be rewritten
+		}
+	}
+
+	private void write() throws IOException {
+		Path parent = file.toAbsolutePath().getParent();
+		Files.createDirectories(parent);
+		Path temp = Files.createTempFile(parent, file.getFileName().toString(), ".tmp");
+		try {
+			try (DataOutputStream out = new DataOutputStream(new BufferedOutputStream(Files.newOutputStream(temp)))) {
+				out.writeInt(MAGIC);
+				out.writeInt(VERSION);
+				out.writeInt(authorities.size());
+				for (Map.Entry<String, Long> authority : authorities.entrySet()) {
+					out.writeUTF(authority.getKey());
+					out.writeLong(authority.getValue());
+				}
+				out.writeInt(counts.size());
+				for (Map.Entry<Long, RatingHistogram> entry : counts.entrySet()) {
+					RatingHistogram histogram = entry.getValue();
+					out.writeLong(entry.getKey());
+					out.writeByte(histogram.getSchemeBits());
+					for (int ordinal = 0; ordinal < RatingHistogram.RATING_COUNT; ordinal++) {
+						out.writeLong(histogram.getCount(ordinal));
+					}
+				}
+			}
+			Files.move(temp, file, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+		} finally {
+			Files.deleteIfExists(temp);
+		}
+	}
+}
@@ -0,0 +1,33 @@
+package jl.fsaratings.stubapi;
+
+import java.io.IOException;
+
+/**
+ * Supplies the response bodies served by StubFsaApiServer, in the same JSON shape as
+ * the FSA API.
+ *
+ * @author jonny.lyon
+ *
+ */
+public interface PayloadSource {
+
+	/**
+	 * @return the body of the Authorities response, served for both the basic and the full
+	 * listing, so it should include each authority's RegionName
+	 * @throws IOException if the payload cannot be read
+	 */
+	byte[] authorities() throws IOException;
+
+	/**
+	 * Returns the body of an Establishments response for one authority, either in full or
+	 * one page of it.  A paged response carries a meta object with the page details, as
+	 * the API's does.
+	 *
+	 * @param authorityId the authority whose establishments are wanted
+	 * @param pageNumber the page wanted, from 1; ignored if pageSize is 0
+	 * @param pageSize the number of establishments per page, or 0 for all of them
+	 * @return the response body, or null if the authority is not known
+	 * @throws IOException if the payload cannot be read
+	 */
+	byte[] establishments(long authorityId, int pageNumber, int pageSize) throws IOException;
+}
@@ -0,0 +1,98 @@
+package jl.fsaratings.stubapi;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+import org.json.JSONArray;
+import org.json.JSONObject;
+
+/**
+ * Serves responses previously saved from the FSA API, laid out in a directory as:
+ *
+ * <pre>
+ * authorities.json               the Authorities/basic response
+ * establishments/{id}.json       the full Establishments response for each authority
+ * </pre>
+ *
+ * Files are read once and then held in memory, so that disk reads do not distort timings.
+ * Pages are cut from the full establishments response when requested.
+ *
+ * @author jonny.lyon
+ *
+ */
+public class RecordedPayloads implements PayloadSource {
+
+	private final Path directory;
+
+	private final ConcurrentMap<String, byte[]> files = new ConcurrentHashMap<>();
+
+	/**
+	 * Constructor for RecordedPayloads
+	 *
+	 * @param directory the directory holding the recordings
+	 */
+	public RecordedPayloads(Path directory) {
+		this.directory = directory;
+	}
+
+	/**
+	 * {@inheritDoc}
+	 */
+	@Override
+	public byte[] authorities() throws IOException {
+		byte[] authorities = read("authorities.json");
+		if (authorities == null) {
+			throw new NoSuchFileException(directory.resolve("authorities.json").toString());
+		}
+		return authorities;
+	}
+
+	/**
+	 * {@inheritDoc}
+	 */
+	@Override
+	public byte[] establishments(long authorityId, int pageNumber, int pageSize) throws IOException {
+		byte[] all = read("establishments/" + authorityId + ".json");
+		if (all == null || pageSize == 0) {
+			return all;
+		}
+
+		JSONArray establishments = new JSONObject(new String(all, StandardCharsets.UTF_8)).getJSONArray("establishments");
+		JSONArray page = new JSONArray();
+		int from = (pageNumber - 1) * pageSize;
+		for (int i = from; i < establishments.length() && i < from + pageSize; i++) {
+			page.put(establishments.get(i));
+		}
+		JSONObject meta = new JSONObject();
+		meta.put("itemCount", page.length());
+		meta.put("totalCount", establishments.length());
+		meta.put("totalPages", (establishments.length() + pageSize - 1) / pageSize);
+		meta.put("pageSize", pageSize);
+		meta.put("pageNumber", pageNumber);
+		JSONObject response = new JSONObject();
+		response.put("establishments", page);
+		response.put("meta", meta);
+		return response.toString().getBytes(StandardCharsets.UTF_8);
+	}
+
+	/**
+	 * @return the file's contents, or null if it does not exist
+	 */
+	private byte[] read(String name) throws IOException {
+		byte[] contents = files.get(name);
+		if (contents == null) {
+			try {
+				contents = Files.readAllBytes(directory.resolve(name));
+			} catch (NoSuchFileException e) {
+				return null;
+			}
+			files.putIfAbsent(name, contents);
+		}
+		return contents;
+	}
+}
@@ -0,0 +1,433 @@
+package jl.fsaratings.stubapi;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.net.URI;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Paths;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Random;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.zip.CRC32;
+import java.util.zip.GZIPOutputStream;
+
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpServer;
+
+/**
+ * Local stand-in for the FSA API, so that the fetch path can be load tested and profiled
+ * reproducibly without a network.  Serves Authorities, basic and full, and Establishments,
+ * including pages of establishments, from a PayloadSource of recorded or synthetic
+ * responses, and can inject faults:
+ *
+ * <ul>
+ * <li>latency: a delay before each response, chosen uniformly from a range</li>
+ * <li>bandwidth: a limit on the rate at which each response body is written</li>
+ * <li>errors: a proportion of requests answered with an error status instead</li>
+ * </ul>
+ *
+ * Fault injection draws from a seeded random number generator, so a run with the same
+ * settings and the same sequence of requests sees the same faults.  Responses are gzipped
+ * for clients that accept it, as the real API's are; each distinct response is encoded
+ * once and then held in memory, so that the stub's own work does not distort timings.
+ *
+ * The payloads never change, so a request for the establishments modified since a time,
+ * as made by incremental refresh, is answered with none.  For the same reason each
+ * response's ETag is a checksum of its body, and a request whose If-None-Match header
+ * matches it is answered 304 Not Modified, without a body.
+ *
+ * To point the app at the stub, set the endpoint URLs as system properties, which take
+ * precedence over those in messages.properties; {@link #main} prints the settings needed.
+ *
+ * @author jonny.lyon
+ *
+ */
+public class StubFsaApiServer {
+
+	private static final int DEFAULT_PORT = 8090;
+
+	/**
+	 * Bandwidth-limited bodies are written in chunks of this many milliseconds' worth
+	 */
+	private static final int THROTTLE_INTERVAL_MILLIS = 50;
+
+	private final PayloadSource payloads;
+
+	private final HttpServer server;
+
+	private final ExecutorService serverExecutor;
+
+	private final Random random;
+
+	private final ConcurrentMap<String, Response> responses = new ConcurrentHashMap<>();
+
+	private final AtomicLong requestCount = new AtomicLong();
+
+	private final AtomicLong errorCount = new AtomicLong();
+
+	private final AtomicLong notModifiedCount = new AtomicLong();
+
+	private volatile long minLatencyMillis;
+
+	private volatile long maxLatencyMillis;
+
+	private volatile long bytesPerSecond;
+
+	private volatile double errorRate;
+
+	private volatile int errorStatus = 503;
+
+	/**
+	 * Constructor for StubFsaApiServer.  The server is bound but not started, and injects
+	 * no faults until configured to.
+	 *
+	 * @param payloads the responses to serve
+	 * @param address the address to listen on; port 0 picks a free port
+	 * @param seed seeds the random choice of latencies and errors
+	 * @throws IOException if the address cannot be bound
+	 */
+	public StubFsaApiServer(PayloadSource payloads, InetSocketAddress address, long seed) throws IOException {
+		// without TCP_NODELAY, keep-alive clients would see the delayed ACK stall described in RatingsServer
+		if (System.getProperty("sun.net.httpserver.nodelay") == null) {
+			System.setProperty("sun.net.httpserver.nodelay", "true");
+		}
+		this.payloads = payloads;
+		this.random = new Random(seed);
+		this.server = HttpServer.create(address, 0);
+		// latency and bandwidth limits are applied by sleeping, so each request needs its own thread
+		AtomicInteger threadCount = new AtomicInteger();
+		this.serverExecutor = Executors.newCachedThreadPool(r -> {
+			Thread thread = new Thread(r, "fsa-stub-api-" + threadCount.incrementAndGet());
+			thread.setDaemon(true);
+			return thread;
+		});
+		server.setExecutor(serverExecutor);
+		server.createContext("/Authorities/basic", exchange -> handle(exchange, false));
+		// the full listing is a superset of the basic one, so the same payload serves both
+		server.createContext("/Authorities", exchange -> handle(exchange, false));
+		server.createContext("/Establishments", exchange -> handle(exchange, true));
+	}
+
+	/**
+	 * Sets the delay before each response.  Each delay is chosen uniformly between the bounds.
+	 *
+	 * @param min the shortest delay
+	 * @param max the longest delay
+	 * @param unit the unit of min and max
+	 */
+	public void setLatency(long min, long max, TimeUnit unit) {
+		if (min < 0 || max < min) {
+			throw new IllegalArgumentException("Latency must satisfy 0 <= min <= max");
+		}
+		this.minLatencyMillis = unit.toMillis(min);
+		this.maxLatencyMillis = unit.toMillis(max);
+	}
+
+	/**
+	 * Limits the rate at which each response body is written
+	 *
+	 * @param bytesPerSecond the limit for each response, or 0 for none
+	 */
+	public void setBandwidth(long bytesPerSecond) {
+		if (bytesPerSecond < 0) {
+			throw new IllegalArgumentException("bytesPerSecond must not be negative");
+		}
+		this.bytesPerSecond = bytesPerSecond;
+	}
+
+	/**
+	 * Makes a proportion of requests fail.  429 and 503 responses carry a Retry-After header
+	 * of one second, as the real API's rate limiting does.
+	 *
+	 * @param errorRate the proportion of requests to fail, from 0 to 1
+	 * @param errorStatus the HTTP status to fail them with
+	 */
+	public void setErrorRate(double errorRate, int errorStatus) {
+		if (errorRate < 0 || errorRate > 1) {
+			throw new IllegalArgumentException("errorRate must be between 0 and 1");
+		}
+		this.errorRate = errorRate;
+		this.errorStatus = errorStatus;
+	}
+
+	/**
+	 * Starts serving requests
+	 */
+	public void start() {
+		server.start();
+	}
+
+	/**
+	 * Stops serving requests, abandoning any in progress
+	 */
+	public void stop() {
+		server.stop(0);
+		serverExecutor.shutdownNow();
+	}
+
+	/**
+	 * @return the port the server is listening on
+	 */
+	public int getPort() {
+		return server.getAddress().getPort();
+	}
+
+	/**
+	 * @return the base URL of the stub, in place of http://api.ratings.food.gov.uk
+	 */
+	public String getBaseUrl() {
+		return "http://127.0.0.1:" + getPort();
+	}
+
+	/**
+	 * @return the number of requests received
+	 */
+	public long getRequestCount() {
+		return requestCount.get();
+	}
+
+	/**
+	 * @return the number of requests answered with an injected error
+	 */
+	public long getErrorCount() {
+		return errorCount.get();
+	}
+
+	/**
+	 * @return the number of requests answered 304 Not Modified
+	 */
+	public long getNotModifiedCount() {
+		return notModifiedCount.get();
+	}
+
+	/**
+	 * Starts the stub.
+	 *
+	 * Usage: stub-api [port] [authorities] [establishments per authority] [latency ms, or min-max]
+	 * [bandwidth KB/s, 0 for unlimited] [error rate, 0 to 1] [recordings directory]
+	 *
+	 * If a recordings directory is given, its responses are served instead of synthetic ones.
+	 *
+	 * @param args the settings above, each optional
+	 */
+	public static void main(String[] args) throws IOException {
+		int port = args.length > 0 ? Integer.parseInt(args[0]) : DEFAULT_PORT;
+		int authorities = args.length > 1 ? Integer.parseInt(args[1]) : 400;
+		int establishments = args.length > 2 ? Integer.parseInt(args[2]) : 2000;
+		PayloadSource payloads = args.length > 6 ? new RecordedPayloads(Paths.get(args[6]))
+				: new SyntheticPayloads(authorities, establishments);
+
+		StubFsaApiServer stub = new StubFsaApiServer(payloads, new InetSocketAddress(port), 42);
+		if (args.length > 3) {
+			String[] latency = args[3].split("-");
+			stub.setLatency(Long.parseLong(latency[0]), Long.parseLong(latency[latency.length - 1]), TimeUnit.MILLISECONDS);
+		}
+		if (args.length > 4) {
+			stub.setBandwidth(Long.parseLong(args[4]) * 1024);
+		}
+		if (args.length > 5) {
+			stub.setErrorRate(Double.parseDouble(args[5]), 503);
+		}
+		stub.start();
+
+		String base = "http://localhost:" + stub.getPort();
+		System.out.println("Stub FSA API listening on port " + stub.getPort() + "; run the app with:");
+		System.out.println("  -DFsaDao.fsa.api.authorities=" + base + "/Authorities/basic");
+		System.out.println("  -DFsaDao.fsa.api.authorities.full=" + base + "/Authorities");
+		System.out.println("  -DFsaDao.fsa.api.establishments=" + base + "/Establishments?localAuthorityId={authorityId}");
+		System.out.println("  -DFsaDao.fsa.api.establishments.page=" + base
+				+ "/Establishments?localAuthorityId={authorityId}&pageNumber={pageNumber}&pageSize={pageSize}");
+		System.out.println("  -DFsaDao.fsa.api.establishments.changes=" + base
+				+ "/Establishments?localAuthorityId={authorityId}&modifiedSince={since}");
+	}
+
+	private void handle(HttpExchange exchange, boolean establishments) throws IOException {
+		requestCount.incrementAndGet();
+		try {
+			if (!exchange.getRequestMethod().equals("GET")) {
+				sendText(exchange, 405, "Method not allowed");
+				return;
+			}
+			if (!"2".equals(exchange.getRequestHeaders().getFirst("x-api-version"))) {
+				sendText(exchange, 400, "The x-api-version header must be 2");
+				return;
+			}
+
+			sleep(nextLatency());
+			if (nextIsError()) {
+				errorCount.incrementAndGet();
+				if (errorStatus == 429 || errorStatus == 503) {
+					exchange.getResponseHeaders().set("Retry-After", "1");
+				}
+				sendText(exchange, errorStatus, "Injected error");
+				return;
+			}
+
+			Response response = establishments ? establishmentsResponse(exchange.getRequestURI()) : authoritiesResponse();
+			if (response == null) {
+				sendText(exchange, 404, "No such authority");
+				return;
+			}
+			send(exchange, response);
+		} catch (InterruptedIOException e) {
+			// the stub is stopping
+		} catch (RuntimeException e) {
+			sendText(exchange, 400, "Bad request: " + e.getMessage());
+		} finally {
+			exchange.close();
+		}
+	}
+
+	private Response authoritiesResponse() throws IOException {
+		Response response = responses.get("authorities");
+		if (response == null) {
+			response = new Response(payloads.authorities());
+			responses.putIfAbsent("authorities", response);
+		}
+		return response;
+	}
+
+	private Response establishmentsResponse(URI uri) throws IOException {
+		Map<String, String> query = parseQuery(uri.getRawQuery());
+		long authorityId = Long.parseLong(query.get("localAuthorityId"));
+		int pageNumber = query.containsKey("pageNumber") ? Integer.parseInt(query.get("pageNumber")) : 1;
+		int pageSize = query.containsKey("pageSize") ? Integer.parseInt(query.get("pageSize")) : 0;
+		if (pageNumber < 1 || pageSize < 0) {
+			throw new IllegalArgumentException("pageNumber must be at least 1 and pageSize not negative");
+		}
+
+		boolean changesOnly = query.containsKey("modifiedSince");
+		String key = authorityId + "/" + pageNumber + "/" + pageSize + (changesOnly ? "/changes" : "");
+		Response response = responses.get(key);
+		if (response == null) {
+			byte[] body = payloads.establishments(authorityId, pageNumber, pageSize);
+			if (body == null) {
+				return null;
+			} else if (changesOnly) {
+				body = "{\"establishments\":[],\"links\":[]}".getBytes(StandardCharsets.UTF_8);
+			}
+			response = new Response(body);
+			responses.putIfAbsent(key, response);
+		}
+		return response;
+	}
+
+	private void send(HttpExchange exchange, Response response) throws IOException {
+		exchange.getResponseHeaders().set("ETag", response.etag);
+		if (response.etag.equals(exchange.getRequestHeaders().getFirst("If-None-Match"))) {
+			notModifiedCount.incrementAndGet();
+			exchange.sendResponseHeaders(304, -1);
+			return;
+		}
+
+		String acceptEncoding = exchange.getRequestHeaders().getFirst("Accept-Encoding");
+		byte[] body = response.plain;
+		if (acceptEncoding != null && acceptEncoding.contains("gzip")) {
+			body = response.gzipped();
+			exchange.getResponseHeaders().set("Content-Encoding", "gzip");
+		}
+		exchange.getResponseHeaders().set("Content-Type", "application/json; charset=utf-8");
+		exchange.sendResponseHeaders(200, body.length);
+		OutputStream out = exchange.getResponseBody();
+		long limit = bytesPerSecond;
+		if (limit == 0) {
+			out.write(body);
+		} else {
+			int chunk = (int) Math.max(1, limit * THROTTLE_INTERVAL_MILLIS / 1000);
+			for (int offset = 0; offset < body.length; offset += chunk) {
+				out.write(body, offset, Math.min(chunk, body.length - offset));
+				out.flush();
+				sleep(THROTTLE_INTERVAL_MILLIS);
+			}
+		}
+		out.close();
+	}
+
+	private static void sendText(HttpExchange exchange, int status, String message) throws IOException {
+		byte[] body = message.getBytes(StandardCharsets.UTF_8);
+		exchange.getResponseHeaders().set("Content-Type", "text/plain; charset=utf-8");
+		exchange.sendResponseHeaders(status, body.length);
+		try (OutputStream out = exchange.getResponseBody()) {
+			out.write(body);
+		}
+	}
+
+	private long nextLatency() {
+		long min = minLatencyMillis;
+		long max = maxLatencyMillis;
+		synchronized (random) {
+			return max == min ? min : min + (long) (random.nextDouble() * (max - min + 1));
+		}
+	}
+
+	private boolean nextIsError() {
+		double rate = errorRate;
+		synchronized (random) {
+			return rate > 0 && random.nextDouble() < rate;
+		}
+	}
+
+	private static void sleep(long millis) throws InterruptedIOException {
+		if (millis <= 0) {
+			return;
+		}
+		try {
+			Thread.sleep(millis);
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			throw new InterruptedIOException();
+		}
+	}
+
+	private static Map<String, String> parseQuery(String query) {
+		Map<String, String> parameters = new HashMap<>();
+		if (query != null) {
+			for (String parameter : query.split("&")) {
+				int equals = parameter.indexOf('=');
+				if (equals > 0) {
+					parameters.put(parameter.substring(0, equals), parameter.substring(equals + 1));
+				}
+			}
+		}
+		return parameters;
+	}
+
+	/**
+	 * A response body, along with its gzipped form once that has been needed
+	 */
+	private static class Response {
+		private final byte[] plain;
+		private final String etag;
+		private volatile byte[] gzipped;
+
+		private Response(byte[] plain) {
+			this.plain = plain;
+			CRC32 checksum = new CRC32();
+			checksum.update(plain, 0, plain.length);
+			this.etag = "\"" + Long.toHexString(checksum.getValue()) + "\"";
+		}
+
+		private byte[] gzipped() throws IOException {
+			byte[] result = gzipped;
+			if (result == null) {
+				ByteArrayOutputStream bytes = new ByteArrayOutputStream(plain.length / 8 + 64);
+				try (GZIPOutputStream gzip = new GZIPOutputStream(bytes)) {
+					gzip.write(plain);
+				}
+				result = bytes.toByteArray();
+				gzipped = result;
+			}
+			return result;
+		}
+	}
+}
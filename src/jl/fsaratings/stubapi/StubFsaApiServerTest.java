@@ -0,0 +1,181 @@
+package jl.fsaratings.stubapi;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.io.IOException;
+import java.io.Reader;
+import java.net.HttpURLConnection;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.URL;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.concurrent.TimeUnit;
+
+import org.json.JSONObject;
+import org.json.JSONTokener;
+import org.junit.After;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import jl.fsaratings.rest.ConditionalResponse;
+import jl.fsaratings.rest.HttpStatusException;
+import jl.fsaratings.rest.PooledRestHandler;
+import jl.fsaratings.rest.RestHandler;
+import jl.fsaratings.rest.RestHandlerImpl;
+
+/**
+ * Test class for StubFsaApiServer, making real requests to it over loopback with the
+ * app's own REST handlers.
+ *
+ * @author jonny.lyon
+ *
+ */
+public class StubFsaApiServerTest {
+
+	@Rule
+	public TemporaryFolder folder = new TemporaryFolder();
+
+	private StubFsaApiServer instance;
+
+	@After
+	public void tearDown() {
+		if (instance != null) {
+			instance.stop();
+		}
+	}
+
+	@Test
+	public void testSyntheticAuthoritiesAndEstablishmentsAreServed() throws IOException {
+		start(new SyntheticPayloads(10, 25));
+		RestHandler rest = new RestHandlerImpl();
+
+		JSONObject authorities = rest.getEndpointResponse(instance.getBaseUrl() + "/Authorities/basic");
+		JSONObject fhis = rest.getEndpointResponse(instance.getBaseUrl() + "/Establishments?localAuthorityId=5");
+
+		assertEquals(10, authorities.getJSONArray("authorities").length());
+		assertEquals(25, fhis.getJSONArray("establishments").length());
+		assertEquals("FHIS", fhis.getJSONArray("establishments").getJSONObject(0).getString("SchemeType"));
+		assertEquals(0, rest.getEndpointResponse(instance.getBaseUrl()
+				+ "/Establishments?localAuthorityId=5&modifiedSince=2016-03-01T00:00:00Z").getJSONArray("establishments").length());
+	}
+
+	@Test
+	public void testPagesCarryPagingMetaAndAreGzippedForClientsAcceptingIt() throws IOException {
+		start(new SyntheticPayloads(10, 25));
+		RestHandler rest = new PooledRestHandler();
+
+		JSONObject lastPage;
+		try (Reader reader = rest.getEndpointReader(instance.getBaseUrl() + "/Establishments?localAuthorityId=2&pageNumber=3&pageSize=10")) {
+			lastPage = new JSONObject(new JSONTokener(reader));
+		}
+
+		assertEquals(5, lastPage.getJSONArray("establishments").length());
+		assertEquals(3, lastPage.getJSONObject("meta").getInt("totalPages"));
+		assertEquals(25, lastPage.getJSONObject("meta").getInt("totalCount"));
+
+		HttpURLConnection conn = open("/Establishments?localAuthorityId=2");
+		conn.setRequestProperty("Accept-Encoding", "gzip");
+		assertEquals("gzip", conn.getHeaderField("Content-Encoding"));
+	}
+
+	@Test
+	public void testRecordedPayloadsAreServedAndPaged() throws IOException {
+		Path recordings = folder.getRoot().toPath();
+		Files.createDirectories(recordings.resolve("establishments"));
+		Files.write(recordings.resolve("authorities.json"),
+				"{\"authorities\":[{\"Name\":\"York\",\"LocalAuthorityId\":2}]}".getBytes(StandardCharsets.UTF_8));
+		Files.write(recordings.resolve("establishments/2.json"), ("{\"establishments\":["
+				+ "{\"RatingValue\":\"5\",\"SchemeType\":\"FHRS\"},{\"RatingValue\":\"4\",\"SchemeType\":\"FHRS\"},"
+				+ "{\"RatingValue\":\"3\",\"SchemeType\":\"FHRS\"}]}").getBytes(StandardCharsets.UTF_8));
+		start(new RecordedPayloads(recordings));
+		RestHandler rest = new RestHandlerImpl();
+
+		JSONObject page = rest.getEndpointResponse(instance.getBaseUrl() + "/Establishments?localAuthorityId=2&pageNumber=2&pageSize=2");
+
+		assertEquals("York", rest.getEndpointResponse(instance.getBaseUrl() + "/Authorities/basic")
+				.getJSONArray("authorities").getJSONObject(0).getString("Name"));
+		assertEquals("3", page.getJSONArray("establishments").getJSONObject(0).getString("RatingValue"));
+		assertEquals(2, page.getJSONObject("meta").getInt("totalPages"));
+		assertEquals(404, open("/Establishments?localAuthorityId=3").getResponseCode());
+	}
+
+	@Test
+	public void testInjectedErrorsAreReturnedWithRetryAfter() throws IOException {
+		start(new SyntheticPayloads(10, 25));
+		instance.setErrorRate(1, 503);
+
+		HttpURLConnection conn = open("/Authorities/basic");
+
+		assertEquals(503, conn.getResponseCode());
+		assertEquals("1", conn.getHeaderField("Retry-After"));
+		try {
+			new RestHandlerImpl().getEndpointResponse(instance.getBaseUrl() + "/Authorities/basic");
+			fail("HttpStatusException expected");
+		} catch (HttpStatusException e) {
+			assertEquals(503, e.getStatusCode());
+			assertEquals(1000, e.getRetryAfterMillis());
+		}
+		assertEquals(2, instance.getErrorCount());
+		assertEquals(2, instance.getRequestCount());
+	}
+
+	@Test
+	public void testLatencyAndBandwidthAreInjected() throws IOException {
+		start(new SyntheticPayloads(10, 100));
+		int size = new SyntheticPayloads(10, 100).establishments(2, 1, 0).length;
+		instance.setLatency(100, 100, TimeUnit.MILLISECONDS);
+		instance.setBandwidth(size * 4);
+
+		long start = System.nanoTime();
+		new RestHandlerImpl().getEndpointResponse(instance.getBaseUrl() + "/Establishments?localAuthorityId=2");
+		long elapsedMillis = TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start);
+
+		// 100ms of latency, then a quarter of a second to send the body
+		assertTrue("took " + elapsedMillis + "ms", elapsedMillis >= 300);
+	}
+
+	@Test
+	public void testConditionalRequestWithMatchingEtagIsNotModified() throws IOException {
+		start(new SyntheticPayloads(10, 25));
+		String url = instance.getBaseUrl() + "/Establishments?localAuthorityId=2";
+
+		for (RestHandler rest : new RestHandler[] { new RestHandlerImpl(), new PooledRestHandler() }) {
+			ConditionalResponse first = rest.getConditionalReader(url, null, null);
+			first.getBody().close();
+			ConditionalResponse second = rest.getConditionalReader(url, first.getEtag(), null);
+			ConditionalResponse stale = rest.getConditionalReader(url, "\"0\"", null);
+			stale.getBody().close();
+
+			assertTrue(first.hasValidators());
+			assertTrue(second.isNotModified());
+			assertFalse(stale.isNotModified());
+		}
+		assertEquals(2, instance.getNotModifiedCount());
+	}
+
+	@Test
+	public void testRequestsWithoutApiVersionHeaderAreRejected() throws IOException {
+		start(new SyntheticPayloads(10, 25));
+
+		HttpURLConnection conn = (HttpURLConnection) new URL(instance.getBaseUrl() + "/Authorities/basic").openConnection();
+
+		assertEquals(400, conn.getResponseCode());
+	}
+
+	private void start(PayloadSource payloads) throws IOException {
+		instance = new StubFsaApiServer(payloads, new InetSocketAddress(InetAddress.getLoopbackAddress(), 0), 42);
+		instance.start();
+	}
+
+	private HttpURLConnection open(String path) throws IOException {
+		HttpURLConnection conn = (HttpURLConnection) new URL(instance.getBaseUrl() + path).openConnection();
+		conn.setRequestProperty("x-api-version", "2");
+		return conn;
+	}
+}
@@ -0,0 +1,130 @@
+package jl.fsaratings.stubapi;
+
+import java.nio.charset.StandardCharsets;
+
+/**
+ * Generates authorities and establishments of a configurable size.  Every fifth authority
+ * is treated as Scottish and uses the FHIS scheme; the rest use FHRS, and are spread in
+ * turn over a few English and Welsh regions.  Ratings, including
+ * unwanted ones such as "Awaiting Inspection", are spread pseudo-randomly but
+ * deterministically, so the same settings always give the same payloads and distributions.
+ *
+ * Establishments carry the kind of unrelated and nested properties the real API returns,
+ * so that clients parse realistic content.
+ *
+ * @author jonny.lyon
+ *
+ */
+public class SyntheticPayloads implements PayloadSource {
+
+	private static final String[] FHRS_REGIONS = { "London", "North West", "South East", "Wales" };
+
+	private static final String[] FHRS_RATINGS = { "5", "4", "3", "2", "1", "0", "Exempt", "Awaiting Inspection" };
+
+	private static final String[] FHIS_RATINGS = { "Pass", "Improvement Required", "Exempt", "Awaiting Inspection" };
+
+	private final int authorityCount;
+
+	private final int establishmentsPerAuthority;
+
+	/**
+	 * Constructor for SyntheticPayloads.  Authorities have ids 1 to authorityCount.
+	 *
+	 * @param authorityCount the number of authorities
+	 * @param establishmentsPerAuthority the number of establishments in each authority
+	 */
+	public SyntheticPayloads(int authorityCount, int establishmentsPerAuthority) {
+		this.authorityCount = authorityCount;
+		this.establishmentsPerAuthority = establishmentsPerAuthority;
+	}
+
+	/**
+	 * {@inheritDoc}
+	 */
+	@Override
+	public byte[] authorities() {
+		StringBuilder json = new StringBuilder(authorityCount * 64 + 64);
+		json.append("{\"authorities\":[");
+		for (long id = 1; id <= authorityCount; id++) {
+			if (id > 1) {
+				json.append(',');
+			}
+			json.append("{\"LocalAuthorityId\":").append(id)
+				.append(",\"LocalAuthorityIdCode\":\"").append(100 + id).append('"')
+				.append(",\"Name\":\"Authority ").append(id).append(isScottish(id) ? " (Scotland)" : "").append('"')
+				.append(",\"EstablishmentCount\":").append(establishmentsPerAuthority)
+				.append(",\"RegionName\":\"").append(regionOf(id)).append('"')
+				.append(",\"SchemeType\":").append(isScottish(id) ? 2 : 1)
+				.append(",\"links\":[]}");
+		}
+		json.append("],\"meta\":{\"totalCount\":").append(authorityCount).append("},\"links\":[]}");
+		return json.toString().getBytes(StandardCharsets.UTF_8);
+	}
+
+	/**
+	 * {@inheritDoc}
+	 */
+	@Override
+	public byte[] establishments(long authorityId, int pageNumber, int pageSize) {
+		if (authorityId < 1 || authorityId > authorityCount) {
+			return null;
+		}
+
+		int from = 0;
+		int to = establishmentsPerAuthority;
+		if (pageSize > 0) {
+			from = Math.min((pageNumber - 1) * pageSize, establishmentsPerAuthority);
+			to = Math.min(from + pageSize, establishmentsPerAuthority);
+		}
+
+		String schemeType = isScottish(authorityId) ? "FHIS" : "FHRS";
+		String[] ratings = isScottish(authorityId) ? FHIS_RATINGS : FHRS_RATINGS;
+		StringBuilder json = new StringBuilder((to - from) * 640 + 256);
+		json.append("{\"establishments\":[");
+		for (int i = from; i < to; i++) {
+			if (i > from) {
+				json.append(',');
+			}
+			long fhrsId = authorityId * 1000000 + i;
+			json.append("{\"FHRSID\":").append(fhrsId)
+				.append(",\"LocalAuthorityBusinessID\":\"PI/").append(i).append('"')
+				.append(",\"BusinessName\":\"Establishment ").append(i).append('"')
+				.append(",\"BusinessType\":\"Restaurant/Cafe/Canteen\",\"BusinessTypeID\":1")
+				.append(",\"AddressLine1\":\"").append(i).append(" High Street\",\"PostCode\":\"AB1 2CD\"")
+				.append(",\"RatingValue\":\"").append(ratings[ratingIndex(fhrsId, ratings.length)]).append('"')
+				.append(",\"RatingDate\":\"2016-03-01T00:00:00\",\"LocalAuthorityCode\":\"").append(100 + authorityId).append('"')
+				.append(",\"scores\":{\"Hygiene\":5,\"Structural\":null,\"ConfidenceInManagement\":5}")
+				.append(",\"SchemeType\":\"").append(schemeType).append('"')
+				.append(",\"geocode\":{\"longitude\":\"-1.0815\",\"latitude\":\"53.9590\"}")
+				.append(",\"RightToReply\":\"\",\"Distance\":null,\"NewRatingPending\":false,\"links\":[]}");
+		}
+		json.append(']');
+		if (pageSize > 0) {
+			int totalPages = (establishmentsPerAuthority + pageSize - 1) / pageSize;
+			json.append(",\"meta\":{\"dataSource\":\"Lucene\",\"itemCount\":").append(to - from)
+				.append(",\"returncode\":\"OK\",\"totalCount\":").append(establishmentsPerAuthority)
+				.append(",\"totalPages\":").append(totalPages)
+				.append(",\"pageSize\":").append(pageSize)
+				.append(",\"pageNumber\":").append(pageNumber).append('}');
+		}
+		json.append(",\"links\":[]}");
+		return json.toString().getBytes(StandardCharsets.UTF_8);
+	}
+
+	private static boolean isScottish(long authorityId) {
+		return authorityId % 5 == 0;
+	}
+
+	private static String regionOf(long authorityId) {
+		return isScottish(authorityId) ? "Scotland" : FHRS_REGIONS[(int) (authorityId % FHRS_REGIONS.length)];
+	}
+
+	/**
+	 * Spreads ratings the same way every time by hashing the establishment id, with about
+	 * half of establishments given the top rating, as in most real authorities
+	 */
+	private static int ratingIndex(long fhrsId, int ratingCount) {
+		int slot = (int) (((fhrsId * 0x9E3779B97F4A7C15L) >>> 40) % (ratingCount * 2));
+		return slot < ratingCount ? slot : 0;
+	}
+}
@@ -0,0 +1,97 @@
+package jl.fsaratings.ui;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import javax.swing.table.AbstractTableModel;
+
+/**
+ * Table model comparing the distributions of several authorities side by side: a row for
+ * each rating, and a column for each authority followed by one for all of them together.
+ * A rating one authority has and another lacks, e.g. across the FHRS and FHIS schemes,
+ * is shown as blank for the latter.  Only Swing's own thread may use it.
+ *
+ * @author jonny.lyon
+ *
+ */
+public class ComparisonTableModel extends AbstractTableModel {
+
+	private static final long serialVersionUID = 1L;
+
+	static final String COMBINED_COLUMN = "Combined";
+
+	private List<String> columns = Collections.singletonList("Rating");
+
+	private List<String[]> rows = Collections.emptyList();
+
+	/**
+	 * Replaces the comparison shown
+	 *
+	 * @param distributions the distribution of each authority, by name, in column order
+	 * @param combined the distribution of the authorities together
+	 */
+	public void setComparison(Map<String, Map<String, Double>> distributions, Map<String, Double> combined) {
+		List<String> columns = new ArrayList<>();
+		columns.add("Rating");
+		columns.addAll(distributions.keySet());
+		columns.add(COMBINED_COLUMN);
+
+		Set<String> ratings = new LinkedHashSet<>();
+		distributions.values().forEach(distribution -> ratings.addAll(distribution.keySet()));
+		List<String[]> rows = new ArrayList<>(ratings.size());
+		for (String rating : ratings) {
+			String[] row = new String[columns.size()];
+			int column = 0;
+			row[column++] = ResultsRenderer.formatRatingName(rating);
+			for (Map<String, Double> distribution : distributions.values()) {
+				row[column++] = format(distribution.get(rating));
+			}
+			row[column] = format(combined.get(rating));
+			rows.add(row);
+		}
+
+		this.columns = columns;
+		this.rows = rows;
+		fireTableStructureChanged();
+	}
+
+	private static String format(Double percentage) {
+		return percentage == null ? "" : String.format("%.2f%%", percentage);
+	}
+
+	/**
+	 * {@inheritDoc}
+	 */
+	@Override
+	public int getRowCount() {
+		return rows.size();
+	}
+
+	/**
+	 * {@inheritDoc}
+	 */
+	@Override
+	public int getColumnCount() {
+		return columns.size();
+	}
+
+	/**
+	 * {@inheritDoc}
+	 */
+	@Override
+	public String getColumnName(int column) {
+		return columns.get(column);
+	}
+
+	/**
+	 * {@inheritDoc}
+	 */
+	@Override
+	public Object getValueAt(int row, int column) {
+		return rows.get(row)[column];
+	}
+}
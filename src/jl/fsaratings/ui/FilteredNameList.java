@@ -0,0 +1,439 @@
+package jl.fsaratings.ui;
+
+import java.awt.BorderLayout;
+import java.awt.ItemSelectable;
+import java.awt.event.ItemEvent;
+import java.awt.event.ItemListener;
+import java.awt.event.KeyAdapter;
+import java.awt.event.KeyEvent;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Iterator;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Set;
+
+import javax.swing.AbstractListModel;
+import javax.swing.DefaultListSelectionModel;
+import javax.swing.JList;
+import javax.swing.JPanel;
+import javax.swing.JScrollPane;
+import javax.swing.JTextField;
+import javax.swing.ListSelectionModel;
+import javax.swing.event.DocumentEvent;
+import javax.swing.event.DocumentListener;
+
+/**
+ * A list of names with a text field above it, which filters the list as the user types,
+ * using a NameSearchIndex.  Selecting a name in the list, by clicking it, by moving to it
+ * with the arrow keys, or by pressing Enter for the first match, fires an ItemEvent, as
+ * a java.awt.Choice would.
+ *
+ * The list is virtualised: its model holds only the ids of the matching names, and the
+ * cells have a fixed size, so the JList neither copies nor measures the names, and only
+ * paints the rows in view.  A keystroke therefore costs one index lookup and a repaint,
+ * however many names there are.
+ *
+ * The selected name stays selected while the filter changes, even if it is filtered out
+ * of view.  Only Swing's own thread may use this component.
+ *
+ * In multiple selection mode, clicking a name, or pressing Enter for the first match,
+ * toggles it in or out of the selection instead, firing a SELECTED or DESELECTED event,
+ * so that names can be gathered from several filters in turn.
+ *
+ * @author jonny.lyon
+ *
+ */
+public class FilteredNameList extends JPanel implements ItemSelectable {
+
+	private static final long serialVersionUID = 1L;
+
+	private final JTextField filterField;
+
+	private final JList<String> list;
+
+	private final NameListModel model;
+
+	private final boolean multipleSelection;
+
+	/**
+	 * The name last selected, or null if none
+	 */
+	private String selectedName;
+
+	/**
+	 * In multiple selection mode, the names selected, in the order they were selected
+	 */
+	private final Set<String> selectedNames = new LinkedHashSet<>();
+
+	/**
+	 * True while the list's selection is being changed to follow the filter, rather than by the user
+	 */
+	private boolean restoringSelection;
+
+	/**
+	 * Constructor for FilteredNameList, initially empty
+	 *
+	 * @param width the width of the list in pixels
+	 * @param visibleRows the number of rows in view at once
+	 */
+	public FilteredNameList(int width, int visibleRows) {
+		this(width, visibleRows, false);
+	}
+
+	/**
+	 * Constructor for FilteredNameList, initially empty
+	 *
+	 * @param width the width of the list in pixels
+	 * @param visibleRows the number of rows in view at once
+	 * @param multipleSelection true if any number of names may be selected
+	 */
+	public FilteredNameList(int width, int visibleRows, boolean multipleSelection) {
+		super(new BorderLayout());
+		this.multipleSelection = multipleSelection;
+		model = new NameListModel();
+		filterField = new JTextField();
+		filterField.setToolTipText("Type to filter the list");
+		list = new JList<>(model);
+		if (multipleSelection) {
+			list.setSelectionModel(new ToggleSelectionModel());
+		} else {
+			list.setSelectionMode(ListSelectionModel.SINGLE_SELECTION);
+		}
+		// fixed cell sizes, so that the list does not measure every name to lay itself out
+		list.setPrototypeCellValue("Xg");
+		list.setFixedCellWidth(width);
+		list.setVisibleRowCount(visibleRows);
+
+		filterField.getDocument().addDocumentListener(new DocumentListener() {
+			@Override
+			public void insertUpdate(DocumentEvent e) {
+				applyFilter();
+			}
+
+			@Override
+			public void removeUpdate(DocumentEvent e) {
+				applyFilter();
+			}
+
+			@Override
+			public void changedUpdate(DocumentEvent e) {
+				// attribute changes only
+			}
+		});
+		filterField.addKeyListener(new KeyAdapter() {
+			@Override
+			public void keyPressed(KeyEvent e) {
+				moveSelection(e);
+			}
+		});
+		list.addListSelectionListener(e -> {
+			if (!e.getValueIsAdjusting() && !restoringSelection && multipleSelection) {
+				toggleRows(e.getFirstIndex(), e.getLastIndex());
+			} else if (!e.getValueIsAdjusting() && !restoringSelection) {
+				String name = list.getSelectedValue();
+				if (name != null && !name.equals(selectedName)) {
+					select(name);
+				}
+			}
+		});
+
+		add(filterField, BorderLayout.NORTH);
+		add(new JScrollPane(list), BorderLayout.CENTER);
+	}
+
+	/**
+	 * Replaces the names in the list, keeping the filter.  If the selected name is no
+	 * longer among them, the selection is cleared, firing a DESELECTED event.  In multiple
+	 * selection mode, each selected name no longer among them is deselected in the same way.
+	 *
+	 * @param names the names
+	 */
+	public void setNames(Collection<String> names) {
+		NameSearchIndex index = new NameSearchIndex(names);
+		updateModel(() -> model.setIndex(index, filterField.getText()));
+		for (Iterator<String> i = selectedNames.iterator(); i.hasNext();) {
+			String name = i.next();
+			if (index.getId(name) < 0) {
+				i.remove();
+				if (name.equals(selectedName)) {
+					selectedName = null;
+				}
+				fireItemStateChanged(name, ItemEvent.DESELECTED);
+			}
+		}
+		if (selectedName != null && index.getId(selectedName) < 0) {
+			String deselected = selectedName;
+			selectedName = null;
+			fireItemStateChanged(deselected, ItemEvent.DESELECTED);
+		}
+	}
+
+	/**
+	 * @return the name last selected, or null if none
+	 */
+	public String getSelectedName() {
+		return selectedName;
+	}
+
+	/**
+	 * @return in multiple selection mode, the names selected, in the order they were
+	 * selected; otherwise the name selected, if any
+	 */
+	public List<String> getSelectedNames() {
+		if (multipleSelection) {
+			return new ArrayList<>(selectedNames);
+		}
+		return selectedName == null ? Collections.<String>emptyList() : Collections.singletonList(selectedName);
+	}
+
+	/**
+	 * @return the filter field, for test purposes
+	 */
+	JTextField getFilterField() {
+		return filterField;
+	}
+
+	/**
+	 * @return the list, for test purposes
+	 */
+	JList<String> getList() {
+		return list;
+	}
+
+	/**
+	 * {@inheritDoc}
+	 */
+	@Override
+	public Object[] getSelectedObjects() {
+		List<String> names = getSelectedNames();
+		return names.isEmpty() ? null : names.toArray();
+	}
+
+	/**
+	 * {@inheritDoc}
+	 */
+	@Override
+	public void addItemListener(ItemListener listener) {
+		listenerList.add(ItemListener.class, listener);
+	}
+
+	/**
+	 * {@inheritDoc}
+	 */
+	@Override
+	public void removeItemListener(ItemListener listener) {
+		listenerList.remove(ItemListener.class, listener);
+	}
+
+	private void applyFilter() {
+		updateModel(() -> model.setQuery(filterField.getText()));
+	}
+
+	/**
+	 * Handles the keys which act on the list while typing in the filter field: the up and
+	 * down arrows move through the matches, and Enter selects the first of them if none is
+	 * selected.  In multiple selection mode, only Enter acts, toggling the first match.
+	 */
+	private void moveSelection(KeyEvent e) {
+		int size = model.getSize();
+		if (size == 0) {
+			return;
+		}
+		if (multipleSelection) {
+			if (e.getKeyCode() == KeyEvent.VK_ENTER) {
+				e.consume();
+				list.setSelectionInterval(0, 0);
+			}
+			return;
+		}
+		int row = list.getSelectedIndex();
+		if (e.getKeyCode() == KeyEvent.VK_DOWN) {
+			row = Math.min(size - 1, row + 1);
+		} else if (e.getKeyCode() == KeyEvent.VK_UP) {
+			row = Math.max(0, row - 1);
+		} else if (e.getKeyCode() == KeyEvent.VK_ENTER && row < 0) {
+			row = 0;
+		} else {
+			return;
+		}
+		e.consume();
+		list.setSelectedIndex(row);
+		list.ensureIndexIsVisible(row);
+	}
+
+	/**
+	 * Changes the names in view, then shows the selected name as selected in the list if it
+	 * is still in view, and nothing as selected if not.  Meanwhile the list's selection
+	 * follows the rows as they change, which is not the user selecting anything, so is
+	 * ignored.  In multiple selection mode, every selected name in view is shown as selected.
+	 */
+	private void updateModel(Runnable change) {
+		restoringSelection = true;
+		try {
+			list.clearSelection();
+			change.run();
+			if (multipleSelection) {
+				if (!selectedNames.isEmpty()) {
+					for (int row = 0; row < model.getSize(); row++) {
+						if (selectedNames.contains(model.getElementAt(row))) {
+							list.addSelectionInterval(row, row);
+						}
+					}
+				}
+				return;
+			}
+			int row = selectedName == null ? -1 : model.indexOf(selectedName);
+			if (row >= 0) {
+				list.setSelectedIndex(row);
+				list.ensureIndexIsVisible(row);
+			} else if (model.getSize() > 0) {
+				list.ensureIndexIsVisible(0);
+			}
+		} finally {
+			restoringSelection = false;
+		}
+	}
+
+	/**
+	 * Selects a name, firing only a SELECTED event, as a Choice does
+	 */
+	private void select(String name) {
+		selectedName = name;
+		fireItemStateChanged(name, ItemEvent.SELECTED);
+	}
+
+	/**
+	 * In multiple selection mode, brings the selected names into line with the rows the
+	 * user has just toggled
+	 */
+	private void toggleRows(int firstRow, int lastRow) {
+		for (int row = firstRow; row <= lastRow && row < model.getSize(); row++) {
+			String name = model.getElementAt(row);
+			if (list.isSelectedIndex(row)) {
+				if (selectedNames.add(name)) {
+					selectedName = name;
+					fireItemStateChanged(name, ItemEvent.SELECTED);
+				}
+			} else if (selectedNames.remove(name)) {
+				if (name.equals(selectedName)) {
+					selectedName = null;
+				}
+				fireItemStateChanged(name, ItemEvent.DESELECTED);
+			}
+		}
+	}
+
+	private void fireItemStateChanged(String name, int stateChange) {
+		ItemEvent event = new ItemEvent(this, ItemEvent.ITEM_STATE_CHANGED, name, stateChange);
+		for (ItemListener listener : listenerList.getListeners(ItemListener.class)) {
+			listener.itemStateChanged(event);
+		}
+	}
+
+	/**
+	 * A selection model in which selecting a row toggles it, leaving the others as they
+	 * are, so that names can be picked with plain clicks.  Dragging toggles only the row
+	 * first pressed.
+	 */
+	private static final class ToggleSelectionModel extends DefaultListSelectionModel {
+
+		private static final long serialVersionUID = 1L;
+
+		private boolean gestureStarted;
+
+		/**
+		 * {@inheritDoc}
+		 */
+		@Override
+		public void setSelectionInterval(int index0, int index1) {
+			if (!gestureStarted) {
+				if (index0 == index1 && isSelectedIndex(index0)) {
+					removeSelectionInterval(index0, index1);
+				} else {
+					addSelectionInterval(index0, index1);
+				}
+			}
+			gestureStarted = getValueIsAdjusting();
+		}
+
+		/**
+		 * {@inheritDoc}
+		 */
+		@Override
+		public void setValueIsAdjusting(boolean isAdjusting) {
+			if (!isAdjusting) {
+				gestureStarted = false;
+			}
+			super.setValueIsAdjusting(isAdjusting);
+		}
+	}
+
+	/**
+	 * The names matching the filter, held as ids in a NameSearchIndex
+	 */
+	static final class NameListModel extends AbstractListModel<String> {
+
+		private static final long serialVersionUID = 1L;
+
+		private NameSearchIndex index = new NameSearchIndex(Collections.<String>emptyList());
+
+		private int[] ids = new int[0];
+
+		/**
+		 * Replaces the index, and filters it with the query
+		 */
+		void setIndex(NameSearchIndex index, String query) {
+			this.index = index;
+			setQuery(query);
+		}
+
+		/**
+		 * Filters the names with a new query
+		 */
+		void setQuery(String query) {
+			int oldSize = ids.length;
+			ids = index.search(query);
+			if (oldSize > ids.length) {
+				fireIntervalRemoved(this, ids.length, oldSize - 1);
+			} else if (ids.length > oldSize) {
+				fireIntervalAdded(this, oldSize, ids.length - 1);
+			}
+			if (Math.min(oldSize, ids.length) > 0) {
+				fireContentsChanged(this, 0, Math.min(oldSize, ids.length) - 1);
+			}
+		}
+
+		/**
+		 * @return the row showing the name, or -1 if it is filtered out
+		 */
+		int indexOf(String name) {
+			int id = index.getId(name);
+			if (id >= 0) {
+				for (int row = 0; row < ids.length; row++) {
+					if (ids[row] == id) {
+						return row;
+					}
+				}
+			}
+			return -1;
+		}
+
+		/**
+		 * {@inheritDoc}
+		 */
+		@Override
+		public int getSize() {
+			return ids.length;
+		}
+
+		/**
+		 * {@inheritDoc}
+		 */
+		@Override
+		public String getElementAt(int row) {
+			return index.getName(ids[row]);
+		}
+	}
+}
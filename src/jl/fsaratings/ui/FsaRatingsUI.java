@@ -1,6 +1,8 @@
 package jl.fsaratings.ui;
 
+import java.awt.event.ActionListener;
 import java.awt.event.ItemListener;
+import java.util.List;
 import java.util.Map;
 import java.util.Set;
 
@@ -12,23 +14,25 @@ import java.util.Set;
 public interface FsaRatingsUI {
 
 	/**
-	 * Populates the dropdown list with the authority options
+	 * Populates the list with the authority options, replacing any already there.  If the
+	 * selected authority is no longer among them, the selection is cleared and the item
+	 * listeners are told.
 	 *
 	 * @param authorities A set of authority names
 	 */
 	void populateAuthoritiesList(Set<String> authorities);
 
 	/**
-	 * Adds an item listener to listen for changes to the dropdown
+	 * Adds an item listener to listen for changes to the selected authority
 	 *
 	 * @param listener A suitable listener, implementing the ItemListener interface
 	 */
 	void addItemListener(ItemListener listener);
 
 	/**
-	 * Gets the name of the selected authority from the dropdown
+	 * Gets the name of the selected authority from the list
 	 *
-	 * @return the name of the selected authority
+	 * @return the name of the selected authority, or null if none is selected
 	 */
 	String getSelectedAuthorityName();
 
@@ -36,9 +40,10 @@ public interface FsaRatingsUI {
 	 * Takes the results, formats them and displays them in the results
 	 * section of the UI
 	 *
+	 * @param authority the authority the results are for
 	 * @param results A map from rating type to percentage
 	 */
-	void displayResults(Map<String, Double> results);
+	void displayResults(String authority, Map<String, Double> results);
 
 	/**
 	 * Replaces the current contents of the results section with a messsage
@@ -62,6 +67,32 @@ public interface FsaRatingsUI {
 	 */
 	void clearResultMessage();
 
+	/**
+	 * Adds an action listener to be told when the user asks to compare the authorities
+	 * chosen for comparison
+	 *
+	 * @param listener A suitable listener, implementing the ActionListener interface
+	 */
+	void addCompareListener(ActionListener listener);
+
+	/**
+	 * Gets the names of the authorities chosen for comparison
+	 *
+	 * @return the names, in the order chosen, empty if none are
+	 */
+	List<String> getComparedAuthorityNames();
+
+	/**
+	 * Takes the distributions of several authorities, formats them and displays them side
+	 * by side in the comparison section of the UI, replacing any comparison already there
+	 *
+	 * @param distributions A map from authority name to its map from rating type to percentage
+	 * @param combined A map from rating type to percentage for the authorities together
+	 * @param failed the names of the authorities whose results could not be retrieved
+	 */
+	void displayComparison(Map<String, Map<String, Double>> distributions, Map<String, Double> combined,
+			Set<String> failed);
+
 	/**
 	 * Displays a dialog informing the user of an error loading the list of available
 	 * authorities
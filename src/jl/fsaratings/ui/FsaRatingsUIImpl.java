@@ -1,32 +1,81 @@
 package jl.fsaratings.ui;
 
-import java.awt.Choice;
+import java.awt.BorderLayout;
+import java.awt.CardLayout;
 import java.awt.Dimension;
+import java.awt.event.ActionListener;
 import java.awt.event.ItemListener;
+import java.util.LinkedHashMap;
+import java.util.List;
 import java.util.Map;
 import java.util.Set;
+import java.util.concurrent.Executor;
+import java.util.concurrent.Executors;
 
 import javax.swing.BoxLayout;
+import javax.swing.ImageIcon;
+import javax.swing.JButton;
 import javax.swing.JFrame;
 import javax.swing.JLabel;
 import javax.swing.JOptionPane;
 import javax.swing.JPanel;
 import javax.swing.JScrollPane;
+import javax.swing.JTabbedPane;
+import javax.swing.JTable;
 import javax.swing.SwingConstants;
+import javax.swing.SwingUtilities;
 
 /**
  * This class extends JFrame and provides the front end for the project
  * No automated testing is provided for this class, but functionality
  * is kept very specific to the front end.
+ *
+ * Results are shown as a table and a bar chart, both rendered on a background thread by
+ * a ResultsRenderer, so that the event dispatch thread only swaps in the finished rows
+ * and image.  Renderings are cached per authority, so going back to an authority already
+ * viewed shows its results at once.
+ *
+ * A second tab compares several authorities side by side: they are picked from a list
+ * allowing multiple selection, and compared as a table when the Compare button is pressed.
+ *
  * @author jonny.lyon
  *
  */
 public class FsaRatingsUIImpl extends JFrame implements FsaRatingsUI {
 
-	private Choice authoritiesChoice;
+	private static final String MESSAGE_CARD = "message";
+	private static final String RESULTS_CARD = "results";
+
+	/**
+	 * The number of authorities whose rendered results are kept
+	 */
+	private static final int CACHED_AUTHORITIES = 50;
+
+	private FilteredNameList authoritiesList;
 	private JLabel resultsLabel;
+	private ResultsTableModel resultsTableModel;
+	private JLabel chartLabel;
+	private CardLayout resultsCards;
+	private JPanel resultsPanel;
 	private JPanel panel;
-	private JScrollPane scrollPane;
+	private FilteredNameList compareList;
+	private JButton compareButton;
+	private ComparisonTableModel comparisonTableModel;
+	private JLabel comparisonLabel;
+
+	private final ResultsRenderer renderer = new ResultsRenderer(400, CACHED_AUTHORITIES);
+
+	private final Executor renderExecutor = Executors.newSingleThreadExecutor(r -> {
+		Thread thread = new Thread(r, "fsa-render");
+		thread.setDaemon(true);
+		return thread;
+	});
+
+	/**
+	 * Counts the changes to the results section, so that a rendering finished after a newer
+	 * change is not shown.  Only accessed on the UI thread.
+	 */
+	private long resultsVersion;
 
 	/**
 	 * Constructor for UI.  Sets up all of the UI components and their initial states.
@@ -35,16 +84,51 @@ public class FsaRatingsUIImpl extends JFrame implements FsaRatingsUI {
 		panel = new JPanel();
 
 		resultsLabel = new JLabel("");
-		resultsLabel.setPreferredSize(new Dimension(0,400));
 		resultsLabel.setVerticalAlignment(SwingConstants.TOP);
 
+		resultsTableModel = new ResultsTableModel();
+		JTable resultsTable = new JTable(resultsTableModel);
+		resultsTable.setFillsViewportHeight(true);
+		JScrollPane tableScrollPane = new JScrollPane(resultsTable);
+		tableScrollPane.setPreferredSize(new Dimension(400, 180));
+		chartLabel = new JLabel();
+		chartLabel.setVerticalAlignment(SwingConstants.TOP);
+		JPanel resultsView = new JPanel(new BorderLayout());
+		resultsView.add(tableScrollPane, BorderLayout.NORTH);
+		resultsView.add(new JScrollPane(chartLabel), BorderLayout.CENTER);
+
+		resultsCards = new CardLayout();
+		resultsPanel = new JPanel(resultsCards);
+		resultsPanel.setPreferredSize(new Dimension(400, 400));
+		resultsPanel.add(new JScrollPane(resultsLabel), MESSAGE_CARD);
+		resultsPanel.add(resultsView, RESULTS_CARD);
+
 		panel.setLayout(new BoxLayout(panel, BoxLayout.PAGE_AXIS));
-		authoritiesChoice = new Choice();
-		authoritiesChoice.setPreferredSize(new Dimension(400, 0));
-		panel.add(authoritiesChoice);
-		scrollPane = new JScrollPane(resultsLabel);
-		panel.add(scrollPane);
-		this.add(panel);
+		authoritiesList = new FilteredNameList(400, 8);
+		panel.add(authoritiesList);
+		panel.add(resultsPanel);
+
+		JPanel comparePanel = new JPanel();
+		comparePanel.setLayout(new BoxLayout(comparePanel, BoxLayout.PAGE_AXIS));
+		compareList = new FilteredNameList(400, 8, true);
+		compareButton = new JButton("Compare");
+		compareButton.setAlignmentX(CENTER_ALIGNMENT);
+		comparisonTableModel = new ComparisonTableModel();
+		JTable comparisonTable = new JTable(comparisonTableModel);
+		comparisonTable.setFillsViewportHeight(true);
+		JScrollPane comparisonScrollPane = new JScrollPane(comparisonTable);
+		comparisonScrollPane.setPreferredSize(new Dimension(400, 360));
+		comparisonLabel = new JLabel("Pick authorities to compare, then press Compare");
+		comparisonLabel.setAlignmentX(CENTER_ALIGNMENT);
+		comparePanel.add(compareList);
+		comparePanel.add(compareButton);
+		comparePanel.add(comparisonLabel);
+		comparePanel.add(comparisonScrollPane);
+
+		JTabbedPane tabs = new JTabbedPane();
+		tabs.addTab("Authority", panel);
+		tabs.addTab("Compare", comparePanel);
+		this.add(tabs);
 		this.pack();
 		this.setVisible(true);
 	}
@@ -54,9 +138,8 @@ public class FsaRatingsUIImpl extends JFrame implements FsaRatingsUI {
 	 */
 	@Override
 	public void populateAuthoritiesList(Set<String> authorities) {
-		authoritiesChoice.removeAll();
-		authoritiesChoice.add("Please select an authority");
-		authorities.forEach(a -> authoritiesChoice.add(a));
+		authoritiesList.setNames(authorities);
+		compareList.setNames(authorities);
 	}
 
 	/**
@@ -64,7 +147,7 @@ public class FsaRatingsUIImpl extends JFrame implements FsaRatingsUI {
 	 */
 	@Override
 	public void addItemListener(ItemListener listener) {
-		authoritiesChoice.addItemListener(listener);
+		authoritiesList.addItemListener(listener);
 	}
 
 	/**
@@ -72,23 +155,33 @@ public class FsaRatingsUIImpl extends JFrame implements FsaRatingsUI {
 	 */
 	@Override
 	public String getSelectedAuthorityName() {
-		return authoritiesChoice.getSelectedItem();
+		return authoritiesList.getSelectedName();
 	}
 
 	/**
 	 * {@inheritDoc}
+	 *
+	 * Results already rendered for the authority are shown at once.  Others are rendered
+	 * on a background thread, and shown when ready unless the results section has changed
+	 * again meanwhile; until then the previous contents stay in view.
 	 */
 	@Override
-	public void displayResults(Map<String, Double> results) {
-		String resultsHtml = "<html><table><tr><th>Rating</th><th>Percentage</th></tr>";
-
-		for (String key : results.keySet()) {
-			resultsHtml += "<tr><td>"+formatRatingName(key)+"</td><td>"+String.format("%.2f%%", results.get(key))+"</td></tr>";
+	public void displayResults(String authority, Map<String, Double> results) {
+		long version = ++resultsVersion;
+		ResultsRenderer.Rendered cached = renderer.getCached(authority, results);
+		if (cached != null) {
+			showRendered(cached);
+			return;
 		}
-
-		resultsHtml += "</table></html>";
-
-		resultsLabel.setText(resultsHtml);
+		Map<String, Double> copy = new LinkedHashMap<>(results);
+		renderExecutor.execute(() -> {
+			ResultsRenderer.Rendered rendered = renderer.render(authority, copy);
+			SwingUtilities.invokeLater(() -> {
+				if (resultsVersion == version) {
+					showRendered(rendered);
+				}
+			});
+		});
 	}
 
 	/**
@@ -96,7 +189,7 @@ public class FsaRatingsUIImpl extends JFrame implements FsaRatingsUI {
 	 */
 	@Override
 	public void displayResultError(String authority) {
-		resultsLabel.setText("<html>An error occurred while loading results for "+authority+"</html>");
+		showMessage("<html>An error occurred while loading results for "+authority+"</html>");
 	}
 
 	/**
@@ -104,7 +197,7 @@ public class FsaRatingsUIImpl extends JFrame implements FsaRatingsUI {
 	 */
 	@Override
 	public void displayNoResultsMessage(String authority) {
-		resultsLabel.setText("<html>No results were found for "+authority+"</html>");
+		showMessage("<html>No results were found for "+authority+"</html>");
 	}
 
 	/**
@@ -112,30 +205,52 @@ public class FsaRatingsUIImpl extends JFrame implements FsaRatingsUI {
 	 */
 	@Override
 	public void clearResultMessage() {
-		resultsLabel.setText("");
+		showMessage("");
 	}
 
 	/**
 	 * {@inheritDoc}
 	 */
 	@Override
-	public void notifyErrorLoadingAuthorities() {
-		JOptionPane.showMessageDialog(this, "An error occurred while fetching the list of authorities");
+	public void addCompareListener(ActionListener listener) {
+		compareButton.addActionListener(listener);
 	}
 
 	/**
-	 * Formats the rating names as appropriate.  This only consists of transforming
-	 * ratings such as '4' and '5' into '4-star' and '5-star'.  It assumes that any
-	 * rating string consisting of a single character qualifies for the '-star' suffix,
-	 * which is true for current API data...
-	 *
-	 * @param original the original name of the rating
-	 * @return the new name, with '-star' appended if appropriate
+	 * {@inheritDoc}
 	 */
-	private String formatRatingName(String original) {
-		if (original.length() == 1) {
-			return original + "-star";
-		}
-		return original;
+	@Override
+	public List<String> getComparedAuthorityNames() {
+		return compareList.getSelectedNames();
+	}
+
+	/**
+	 * {@inheritDoc}
+	 */
+	@Override
+	public void displayComparison(Map<String, Map<String, Double>> distributions, Map<String, Double> combined,
+			Set<String> failed) {
+		comparisonTableModel.setComparison(distributions, combined);
+		comparisonLabel.setText(failed.isEmpty() ? " " : "Results could not be loaded for " + String.join(", ", failed));
+	}
+
+	/**
+	 * {@inheritDoc}
+	 */
+	@Override
+	public void notifyErrorLoadingAuthorities() {
+		JOptionPane.showMessageDialog(this, "An error occurred while fetching the list of authorities");
+	}
+
+	private void showRendered(ResultsRenderer.Rendered rendered) {
+		resultsTableModel.setRows(rendered.getRows());
+		chartLabel.setIcon(new ImageIcon(rendered.getChart()));
+		resultsCards.show(resultsPanel, RESULTS_CARD);
+	}
+
+	private void showMessage(String message) {
+		resultsVersion++;
+		resultsLabel.setText(message);
+		resultsCards.show(resultsPanel, MESSAGE_CARD);
 	}
 }
@@ -0,0 +1,276 @@
+package jl.fsaratings.ui;
+
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.Collection;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.Locale;
+import java.util.Map;
+
+/**
+ * An immutable search index over a set of names, e.g. the authority names, for filtering
+ * a list as the user types.  Matching is case-insensitive, and a name matches if it
+ * contains the query anywhere.  Names which start with the query come first, then the
+ * rest, each in alphabetical order.
+ *
+ * Each keystroke is answered without scanning the names:
+ * <ul>
+ * <li>names starting with the query lie in one range of the sorted names, found by binary
+ * search</li>
+ * <li>the other matches are found from posting lists: the sorted ids of the names
+ * containing each sequence of one, two or three characters.  A query of up to three
+ * characters is one of these sequences, so its list is the answer.  For longer queries
+ * the lists for the query's trigrams are intersected, shortest first, and only the few
+ * names left are checked for the query itself</li>
+ * </ul>
+ * so the cost of a lookup depends on the number of matches rather than the number of
+ * names, and stays well under a millisecond for tens of thousands of names.
+ *
+ * Results are returned as ids, which are positions in the sorted names, so that a list
+ * can show them without copying any strings; see {@link #getName(int)}.
+ *
+ * @author jonny.lyon
+ *
+ */
+public final class NameSearchIndex {
+
+	private static final int[] NO_IDS = new int[0];
+
+	/**
+	 * Orders names by their lower case forms, so that the names and their keys are in the
+	 * same order, and the prefix ranges found in the keys are ranges of ids
+	 */
+	private static final Comparator<String> ORDER = Comparator.comparing(NameSearchIndex::normalise)
+			.thenComparing(Comparator.naturalOrder());
+
+	/**
+	 * The names, sorted by their lower case forms, and those forms; a name's id is its position
+	 */
+	private final String[] names;
+	private final String[] keys;
+
+	/**
+	 * The ids of the names containing each sequence of up to three characters, in ascending
+	 * order; see {@link #gram(String, int, int)}
+	 */
+	private final Map<Long, int[]> postings;
+
+	/**
+	 * Constructor for NameSearchIndex
+	 *
+	 * @param names the names to index; duplicates are kept once
+	 */
+	public NameSearchIndex(Collection<String> names) {
+		this.names = names.stream().distinct().sorted(ORDER).toArray(String[]::new);
+		this.keys = new String[this.names.length];
+		for (int id = 0; id < keys.length; id++) {
+			keys[id] = normalise(this.names[id]);
+		}
+
+		Map<Long, IdList> lists = new HashMap<>();
+		for (int id = 0; id < keys.length; id++) {
+			String key = keys[id];
+			for (int length = 1; length <= 3; length++) {
+				for (int i = 0; i + length <= key.length(); i++) {
+					lists.computeIfAbsent(gram(key, i, length), g -> new IdList()).add(id);
+				}
+			}
+		}
+
+		this.postings = new HashMap<>(lists.size() * 4 / 3 + 1);
+		lists.forEach((gram, ids) -> postings.put(gram, ids.toArray()));
+	}
+
+	/**
+	 * @return the number of names in the index
+	 */
+	public int size() {
+		return names.length;
+	}
+
+	/**
+	 * @param id an id returned by search, from 0 to size() - 1
+	 * @return the name with that id
+	 */
+	public String getName(int id) {
+		return names[id];
+	}
+
+	/**
+	 * @param name a name
+	 * @return its id, or -1 if it is not in the index
+	 */
+	public int getId(String name) {
+		int id = Arrays.binarySearch(names, name, ORDER);
+		return id >= 0 ? id : -1;
+	}
+
+	/**
+	 * Finds the names containing the query, ignoring case.  An empty query matches every name.
+	 *
+	 * @param query the text typed so far; leading and trailing spaces are ignored
+	 * @return the ids of the matching names, those starting with the query first
+	 */
+	public int[] search(String query) {
+		String q = normalise(query.trim());
+		int prefixFrom = lowerBound(keys, q);
+		int prefixTo = prefixEnd(keys, q, prefixFrom);
+		if (q.isEmpty() || prefixTo - prefixFrom == names.length) {
+			return range(prefixFrom, prefixTo);
+		}
+
+		BitSet others = substringMatches(q);
+		others.clear(prefixFrom, prefixTo);
+
+		int[] ids = new int[prefixTo - prefixFrom + others.cardinality()];
+		int n = 0;
+		for (int id = prefixFrom; id < prefixTo; id++) {
+			ids[n++] = id;
+		}
+		for (int id = others.nextSetBit(0); id >= 0; id = others.nextSetBit(id + 1)) {
+			ids[n++] = id;
+		}
+		return ids;
+	}
+
+	/**
+	 * @return the names containing the query, which is not empty
+	 */
+	private BitSet substringMatches(String q) {
+		int length = Math.min(q.length(), 3);
+		int count = q.length() - length + 1;
+		int[][] lists = new int[count][];
+		for (int i = 0; i < count; i++) {
+			lists[i] = postings.get(gram(q, i, length));
+			if (lists[i] == null) {
+				return new BitSet();
+			}
+		}
+		Arrays.sort(lists, (a, b) -> Integer.compare(a.length, b.length));
+
+		int[] candidates = lists[0];
+		for (int i = 1; i < lists.length && candidates.length > 0; i++) {
+			if (lists[i] != lists[i - 1]) {
+				candidates = intersect(candidates, lists[i]);
+			}
+		}
+
+		BitSet ids = new BitSet(names.length);
+		for (int id : candidates) {
+			// the trigrams may all be present without being next to each other
+			if (count == 1 || keys[id].contains(q)) {
+				ids.set(id);
+			}
+		}
+		return ids;
+	}
+
+	/**
+	 * @return the ids in both sorted lists; a is expected to be the shorter
+	 */
+	private static int[] intersect(int[] a, int[] b) {
+		int[] both = new int[a.length];
+		int n = 0;
+		int from = 0;
+		for (int id : a) {
+			// b is usually far longer than a, so search it rather than walk it
+			int i = Arrays.binarySearch(b, from, b.length, id);
+			if (i >= 0) {
+				both[n++] = id;
+				from = i + 1;
+			} else {
+				from = -i - 1;
+				if (from == b.length) {
+					break;
+				}
+			}
+		}
+		return n == both.length ? both : Arrays.copyOf(both, n);
+	}
+
+	private static int[] range(int from, int to) {
+		if (from == to) {
+			return NO_IDS;
+		}
+		int[] ids = new int[to - from];
+		for (int i = 0; i < ids.length; i++) {
+			ids[i] = from + i;
+		}
+		return ids;
+	}
+
+	/**
+	 * @return the position of the first of the sorted strings not less than s
+	 */
+	private static int lowerBound(String[] sorted, String s) {
+		int low = 0;
+		int high = sorted.length;
+		while (low < high) {
+			int mid = (low + high) >>> 1;
+			if (sorted[mid].compareTo(s) < 0) {
+				low = mid + 1;
+			} else {
+				high = mid;
+			}
+		}
+		return low;
+	}
+
+	/**
+	 * @return the position after the last of the sorted strings, from the given position,
+	 * which start with the prefix
+	 */
+	private static int prefixEnd(String[] sorted, String prefix, int from) {
+		int low = from;
+		int high = sorted.length;
+		while (low < high) {
+			int mid = (low + high) >>> 1;
+			if (sorted[mid].startsWith(prefix)) {
+				low = mid + 1;
+			} else {
+				high = mid;
+			}
+		}
+		return low;
+	}
+
+	private static String normalise(String s) {
+		return s.toLowerCase(Locale.ROOT);
+	}
+
+	/**
+	 * @return the sequence of up to three characters at position i of s, packed sixteen bits
+	 * a character under its length, so that sequences of different lengths never collide
+	 */
+	private static long gram(String s, int i, int length) {
+		long gram = length;
+		for (int j = i; j < i + length; j++) {
+			gram = gram << 16 | s.charAt(j);
+		}
+		return gram;
+	}
+
+	/**
+	 * A growable list of ids, added in ascending order, without boxing them
+	 */
+	private static final class IdList {
+		private int[] ids = new int[4];
+		private int size;
+
+		private void add(int id) {
+			if (size > 0 && ids[size - 1] == id) {
+				// the sequence occurs twice in the same name
+				return;
+			}
+			if (size == ids.length) {
+				ids = Arrays.copyOf(ids, size * 2);
+			}
+			ids[size++] = id;
+		}
+
+		private int[] toArray() {
+			return Arrays.copyOf(ids, size);
+		}
+	}
+}
@@ -0,0 +1,147 @@
+package jl.fsaratings.ui;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+
+import java.awt.event.ItemEvent;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Locale;
+import java.util.Random;
+
+import org.junit.Test;
+
+/**
+ * Test class for NameSearchIndex, and for the FilteredNameList built on it
+ *
+ * @author jonny.lyon
+ *
+ */
+public class NameSearchIndexTest {
+
+	private static final List<String> AUTHORITIES = Arrays.asList("York", "Leeds", "Bradford", "City of London",
+			"City of York", "Newcastle-under-Lyme", "Newcastle upon Tyne", "Aberdeen City", "Westminster");
+
+	@Test
+	public void testEmptyQueryMatchesEveryNameInOrder() {
+		NameSearchIndex index = new NameSearchIndex(AUTHORITIES);
+
+		assertEquals(Arrays.asList("Aberdeen City", "Bradford", "City of London", "City of York", "Leeds",
+				"Newcastle upon Tyne", "Newcastle-under-Lyme", "Westminster", "York"), names(index, "  "));
+	}
+
+	@Test
+	public void testNamesStartingWithQueryComeFirst() {
+		NameSearchIndex index = new NameSearchIndex(AUTHORITIES);
+
+		assertEquals(Arrays.asList("York", "City of York"), names(index, "york"));
+		assertEquals(Arrays.asList("City of London", "City of York", "Aberdeen City"), names(index, "CITY"));
+	}
+
+	@Test
+	public void testShortQueriesMatchAnywhere() {
+		NameSearchIndex index = new NameSearchIndex(AUTHORITIES);
+
+		assertEquals(Arrays.asList("York", "Aberdeen City", "City of London", "City of York", "Newcastle upon Tyne",
+				"Newcastle-under-Lyme"), names(index, "y"));
+		assertEquals(Arrays.asList("Bradford", "City of York", "York"), names(index, "or"));
+		assertEquals(Arrays.asList("City of London", "City of York"), names(index, "of"));
+		assertEquals(Arrays.asList(), names(index, "zz"));
+	}
+
+	@Test
+	public void testLongerQueriesMatchAnywhere() {
+		NameSearchIndex index = new NameSearchIndex(AUTHORITIES);
+
+		assertEquals(Arrays.asList("Westminster"), names(index, "minst"));
+		assertEquals(Arrays.asList("Newcastle upon Tyne", "Newcastle-under-Lyme"), names(index, "castle"));
+		// both trigrams "rdf" and "for" occur in Bradford, but not as "rdfor"
+		assertEquals(Arrays.asList(), names(index, "rdfor"));
+		assertEquals(Arrays.asList(), names(index, "xyz"));
+	}
+
+	@Test
+	public void testSearchAgreesWithScanningEveryName() {
+		Random random = new Random(42);
+		String[] words = { "Bar", "Cafe", "Kitchen", "Fish", "Chips", "Royal", "Oak", "Red", "Lion", "Spice", "House" };
+		List<String> names = new ArrayList<>();
+		for (int i = 0; i < 20000; i++) {
+			names.add(words[random.nextInt(words.length)] + " " + words[random.nextInt(words.length)] + " " + i);
+		}
+		NameSearchIndex index = new NameSearchIndex(names);
+
+		for (String query : new String[] { "r", "ch", "e c", "oak", "lion 1", "use 19", "ps r", "999", "hen k" }) {
+			long expected = names.stream()
+					.map(n -> n.toLowerCase(Locale.ROOT))
+					.filter(n -> n.contains(query))
+					.count();
+			assertEquals(query, expected, index.search(query).length);
+		}
+	}
+
+	@Test
+	public void testFilteredListKeepsSelectionWhileFiltering() {
+		FilteredNameList list = new FilteredNameList(400, 8);
+		List<ItemEvent> events = new ArrayList<>();
+		list.addItemListener(events::add);
+		list.setNames(AUTHORITIES);
+
+		list.getFilterField().setText("york");
+		assertEquals(2, list.getList().getModel().getSize());
+		list.getList().setSelectedIndex(1);
+		assertEquals("City of York", list.getSelectedName());
+
+		list.getFilterField().setText("leeds");
+		assertEquals("Leeds", list.getList().getModel().getElementAt(0));
+		assertEquals(-1, list.getList().getSelectedIndex());
+		assertEquals("City of York", list.getSelectedName());
+
+		list.getFilterField().setText("");
+		assertEquals("City of York", list.getList().getSelectedValue());
+		assertEquals(1, events.size());
+		assertEquals(ItemEvent.SELECTED, events.get(0).getStateChange());
+
+		list.setNames(Arrays.asList("York", "Leeds"));
+		assertNull(list.getSelectedName());
+		assertEquals(ItemEvent.DESELECTED, events.get(1).getStateChange());
+		assertArrayEquals(new Object[] { "Leeds", "York" },
+				new Object[] { list.getList().getModel().getElementAt(0), list.getList().getModel().getElementAt(1) });
+	}
+
+	@Test
+	public void testMultipleSelectionListTogglesNamesAcrossFilters() {
+		FilteredNameList list = new FilteredNameList(400, 8, true);
+		List<ItemEvent> events = new ArrayList<>();
+		list.addItemListener(events::add);
+		list.setNames(AUTHORITIES);
+
+		list.getFilterField().setText("york");
+		list.getList().setSelectionInterval(1, 1);
+		list.getFilterField().setText("leeds");
+		assertEquals(-1, list.getList().getSelectedIndex());
+		list.getList().setSelectionInterval(0, 0);
+		assertEquals(Arrays.asList("City of York", "Leeds"), list.getSelectedNames());
+
+		list.getFilterField().setText("");
+		assertArrayEquals(new int[] { 3, 4 }, list.getList().getSelectedIndices());
+		// selecting a selected name again takes it out
+		list.getList().setSelectionInterval(3, 3);
+		assertEquals(Arrays.asList("Leeds"), list.getSelectedNames());
+
+		list.setNames(Arrays.asList("York", "City of York"));
+		assertEquals(Arrays.asList(), list.getSelectedNames());
+		assertEquals(4, events.size());
+		assertEquals(ItemEvent.DESELECTED, events.get(3).getStateChange());
+		assertEquals("Leeds", events.get(3).getItem());
+	}
+
+	private static List<String> names(NameSearchIndex index, String query) {
+		List<String> names = new ArrayList<>();
+		for (int id : index.search(query)) {
+			names.add(index.getName(id));
+		}
+		return names;
+	}
+}
@@ -0,0 +1,180 @@
+package jl.fsaratings.ui;
+
+import java.awt.Color;
+import java.awt.Font;
+import java.awt.FontMetrics;
+import java.awt.Graphics2D;
+import java.awt.RenderingHints;
+import java.awt.image.BufferedImage;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Turns a distribution of ratings into what the UI shows of it: the rows of the results
+ * table, already formatted, and a bar chart drawn into an image.  Both are made on the
+ * calling thread, which is meant to be a background thread, so that the event dispatch
+ * thread only has to put them on screen.
+ *
+ * The latest rendering for each authority is cached, so that going back to an authority
+ * already viewed shows its results without rendering them again.  A cached rendering is
+ * only used if it was made from equal results, so one made from a partial distribution,
+ * or before the data changed, is never shown in place of the current one.  Only the most
+ * recently viewed authorities are kept, up to maxCachedAuthorities.
+ *
+ * @author jonny.lyon
+ *
+ */
+public class ResultsRenderer {
+
+	private static final int ROW_HEIGHT = 24;
+	private static final int LABEL_WIDTH = 140;
+	private static final int VALUE_WIDTH = 70;
+	private static final int PADDING = 8;
+	private static final Color BAR_COLOUR = new Color(0x2e7d32);
+
+	private final int chartWidth;
+
+	/**
+	 * The latest rendering for each authority, least recently used first.  All access is
+	 * synchronized on the map.
+	 */
+	private final Map<String, Rendered> cache;
+
+	/**
+	 * Constructor for ResultsRenderer
+	 *
+	 * @param chartWidth the width of the chart images in pixels
+	 * @param maxCachedAuthorities the most authorities whose renderings are kept
+	 */
+	public ResultsRenderer(int chartWidth, final int maxCachedAuthorities) {
+		this.chartWidth = chartWidth;
+		this.cache = new LinkedHashMap<String, Rendered>(16, 0.75f, true) {
+			private static final long serialVersionUID = 1L;
+
+			@Override
+			protected boolean removeEldestEntry(Map.Entry<String, Rendered> eldest) {
+				return size() > maxCachedAuthorities;
+			}
+		};
+	}
+
+	/**
+	 * @param authority the authority the results are for
+	 * @param results a map from rating type to percentage
+	 * @return the cached rendering of the results, or null if they have not been rendered
+	 */
+	public Rendered getCached(String authority, Map<String, Double> results) {
+		synchronized (cache) {
+			Rendered rendered = cache.get(authority);
+			return rendered != null && rendered.results.equals(results) ? rendered : null;
+		}
+	}
+
+	/**
+	 * Renders the results, or returns the cached rendering of them
+	 *
+	 * @param authority the authority the results are for
+	 * @param results a map from rating type to percentage, in the order to show them
+	 * @return the rendering
+	 */
+	public Rendered render(String authority, Map<String, Double> results) {
+		Rendered rendered = getCached(authority, results);
+		if (rendered == null) {
+			Map<String, Double> copy = Collections.unmodifiableMap(new LinkedHashMap<>(results));
+			rendered = new Rendered(copy, formatRows(copy), drawChart(copy));
+			synchronized (cache) {
+				cache.put(authority, rendered);
+			}
+		}
+		return rendered;
+	}
+
+	private static List<String[]> formatRows(Map<String, Double> results) {
+		List<String[]> rows = new ArrayList<>(results.size());
+		results.forEach((rating, percentage) -> rows.add(new String[] { formatRatingName(rating),
+				String.format("%.2f%%", percentage) }));
+		return Collections.unmodifiableList(rows);
+	}
+
+	private BufferedImage drawChart(Map<String, Double> results) {
+		int height = Math.max(1, results.size()) * ROW_HEIGHT + 2 * PADDING;
+		BufferedImage image = new BufferedImage(chartWidth, height, BufferedImage.TYPE_INT_ARGB);
+		Graphics2D g = image.createGraphics();
+		try {
+			g.setRenderingHint(RenderingHints.KEY_ANTIALIASING, RenderingHints.VALUE_ANTIALIAS_ON);
+			g.setRenderingHint(RenderingHints.KEY_TEXT_ANTIALIASING, RenderingHints.VALUE_TEXT_ANTIALIAS_ON);
+			g.setFont(new Font(Font.SANS_SERIF, Font.PLAIN, 12));
+			FontMetrics metrics = g.getFontMetrics();
+			int barSpace = Math.max(0, chartWidth - LABEL_WIDTH - VALUE_WIDTH - 2 * PADDING);
+
+			int y = PADDING;
+			for (Map.Entry<String, Double> result : results.entrySet()) {
+				int baseline = y + (ROW_HEIGHT + metrics.getAscent() - metrics.getDescent()) / 2;
+				g.setColor(Color.DARK_GRAY);
+				g.drawString(formatRatingName(result.getKey()), PADDING, baseline);
+
+				double fraction = Math.max(0, Math.min(100, result.getValue())) / 100;
+				int barWidth = (int) Math.round(barSpace * fraction);
+				g.setColor(BAR_COLOUR);
+				g.fillRect(PADDING + LABEL_WIDTH, y + 4, barWidth, ROW_HEIGHT - 8);
+
+				g.setColor(Color.DARK_GRAY);
+				g.drawString(String.format("%.1f%%", result.getValue()), PADDING + LABEL_WIDTH + barWidth + 4, baseline);
+				y += ROW_HEIGHT;
+			}
+		} finally {
+			g.dispose();
+		}
+		return image;
+	}
+
+	/**
+	 * Formats the rating names as appropriate.  This only consists of transforming
+	 * ratings such as '4' and '5' into '4-star' and '5-star'.  It assumes that any
+	 * rating string consisting of a single character qualifies for the '-star' suffix,
+	 * which is true for current API data...
+	 *
+	 * @param original the original name of the rating
+	 * @return the new name, with '-star' appended if appropriate
+	 */
+	static String formatRatingName(String original) {
+		if (original.length() == 1) {
+			return original + "-star";
+		}
+		return original;
+	}
+
+	/**
+	 * The rendering of one set of results, which is immutable once made and may be handed
+	 * between threads
+	 */
+	public static final class Rendered {
+		private final Map<String, Double> results;
+		private final List<String[]> rows;
+		private final BufferedImage chart;
+
+		private Rendered(Map<String, Double> results, List<String[]> rows, BufferedImage chart) {
+			this.results = results;
+			this.rows = rows;
+			this.chart = chart;
+		}
+
+		/**
+		 * @return the rows of the results table, each the formatted rating and percentage,
+		 * which must not be changed
+		 */
+		public List<String[]> getRows() {
+			return rows;
+		}
+
+		/**
+		 * @return the bar chart, which must not be drawn on
+		 */
+		public BufferedImage getChart() {
+			return chart;
+		}
+	}
+}
@@ -0,0 +1,68 @@
+package jl.fsaratings.ui;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotSame;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+import org.junit.Test;
+
+/**
+ * Test class for ResultsRenderer
+ *
+ * @author jonny.lyon
+ *
+ */
+public class ResultsRendererTest {
+
+	@Test
+	public void testRowsAreFormattedInOrder() {
+		ResultsRenderer renderer = new ResultsRenderer(400, 10);
+
+		ResultsRenderer.Rendered rendered = renderer.render("York", percentages(62.5, 37.5));
+
+		assertEquals(2, rendered.getRows().size());
+		assertArrayEquals(new String[] { "5-star", "62.50%" }, rendered.getRows().get(0));
+		assertArrayEquals(new String[] { "Exempt", "37.50%" }, rendered.getRows().get(1));
+		assertEquals(400, rendered.getChart().getWidth());
+	}
+
+	@Test
+	public void testRenderingIsCachedPerAuthorityWhileResultsAreUnchanged() {
+		ResultsRenderer renderer = new ResultsRenderer(400, 10);
+		assertNull(renderer.getCached("York", percentages(62.5, 37.5)));
+
+		ResultsRenderer.Rendered york = renderer.render("York", percentages(62.5, 37.5));
+		renderer.render("Leeds", percentages(10, 90));
+
+		assertSame(york, renderer.getCached("York", percentages(62.5, 37.5)));
+		assertSame(york, renderer.render("York", percentages(62.5, 37.5)));
+		// e.g. a partial distribution, or the data has changed since
+		assertNull(renderer.getCached("York", percentages(50, 50)));
+		assertNotSame(york, renderer.render("York", percentages(50, 50)));
+	}
+
+	@Test
+	public void testOnlyTheMostRecentlyViewedAuthoritiesAreKept() {
+		ResultsRenderer renderer = new ResultsRenderer(400, 2);
+
+		renderer.render("York", percentages(62.5, 37.5));
+		renderer.render("Leeds", percentages(10, 90));
+		renderer.getCached("York", percentages(62.5, 37.5));
+		renderer.render("Sheffield", percentages(20, 80));
+
+		assertNull(renderer.getCached("Leeds", percentages(10, 90)));
+		assertEquals(2, renderer.getCached("York", percentages(62.5, 37.5)).getRows().size());
+	}
+
+	private static Map<String, Double> percentages(double fiveStar, double exempt) {
+		Map<String, Double> percentages = new LinkedHashMap<>();
+		percentages.put("5", fiveStar);
+		percentages.put("Exempt", exempt);
+		return percentages;
+	}
+}
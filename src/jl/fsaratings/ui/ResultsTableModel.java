@@ -0,0 +1,65 @@
+package jl.fsaratings.ui;
+
+import java.util.Collections;
+import java.util.List;
+
+import javax.swing.table.AbstractTableModel;
+
+/**
+ * Table model for the results, holding the rows as rendered by ResultsRenderer, so that
+ * the table only has to show strings that are already formatted.  Only Swing's own thread
+ * may use it.
+ *
+ * @author jonny.lyon
+ *
+ */
+public class ResultsTableModel extends AbstractTableModel {
+
+	private static final long serialVersionUID = 1L;
+
+	private static final String[] COLUMNS = { "Rating", "Percentage" };
+
+	private List<String[]> rows = Collections.emptyList();
+
+	/**
+	 * Replaces the rows shown
+	 *
+	 * @param rows the rows, each the formatted rating and percentage
+	 */
+	public void setRows(List<String[]> rows) {
+		this.rows = rows;
+		fireTableDataChanged();
+	}
+
+	/**
+	 * {@inheritDoc}
+	 */
+	@Override
+	public int getRowCount() {
+		return rows.size();
+	}
+
+	/**
+	 * {@inheritDoc}
+	 */
+	@Override
+	public int getColumnCount() {
+		return COLUMNS.length;
+	}
+
+	/**
+	 * {@inheritDoc}
+	 */
+	@Override
+	public String getColumnName(int column) {
+		return COLUMNS[column];
+	}
+
+	/**
+	 * {@inheritDoc}
+	 */
+	@Override
+	public Object getValueAt(int row, int column) {
+		return rows.get(row)[column];
+	}
+}